@@ -0,0 +1,37 @@
+package org.freework.zk.web.ui;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口, 接受 JMH 的命令行参数.
+ * <p>
+ * 未指定结果格式时以 JSON 格式写入 jmh-result.json, 以便比较不同版本的结果, eg:
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar Listing -p shape=wide -rff before.json
+ * </pre>
+ * </p>
+ *
+ * @author changhe.yang
+ */
+public class Benchmarks {
+
+    public static void main(final String[] args) throws Exception {
+        final CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp() || cli.shouldList() || cli.shouldListProfilers() || cli.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        final ChainedOptionsBuilder options = new OptionsBuilder().parent(cli);
+        if (!cli.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cli.getResult().hasValue()) {
+            options.result("jmh-result.json");
+        }
+        new Runner(options.build()).run();
+    }
+}
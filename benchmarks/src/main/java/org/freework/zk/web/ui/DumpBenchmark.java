@@ -0,0 +1,64 @@
+package org.freework.zk.web.ui;
+
+import org.freework.zk.web.ui.util.PropertiesWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 子树导出.
+ *
+ * @author changhe.yang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class DumpBenchmark {
+    @Param({"1", "64"})
+    public int concurrency;
+
+    private SubtreeDumper dumper;
+
+    @Setup
+    public void setUp() {
+        dumper = new SubtreeDumper(concurrency, Math.max(concurrency, 4096), 30000);
+    }
+
+    @Benchmark
+    public long dump(final ZkTree tree) throws Exception {
+        final PropertiesWriter out = new PropertiesWriter(new NullWriter());
+        out.writeHeader(tree.connectString());
+        return dumper.dump(SubtreeDumper.direct(tree.client), ZkTree.ROOT, out);
+    }
+
+    /**
+     * 丢弃所有输出.
+     */
+    static final class NullWriter extends Writer {
+        @Override
+        public void write(final char[] buffer, final int offset, final int length) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.freework.zk.web.ui;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 子节点列举和单节点读取.
+ *
+ * @author changhe.yang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListingBenchmark {
+    private AsyncLister lister;
+    private String child;
+
+    @Setup
+    public void setUp(final ZkTree tree) throws Exception {
+        lister = new AsyncLister(256);
+        child = ZookeeperWebUiServlet.resolve(ZkTree.ROOT, tree.client.getChildren().forPath(ZkTree.ROOT).get(0));
+    }
+
+    @Benchmark
+    public ZookeeperWebUiServlet.View[] ls(final ZkTree tree) throws Exception {
+        return lister.lsAsync(tree.client, ZkTree.ROOT, ZookeeperWebUiServlet.FULL_DATA, null, null).get();
+    }
+
+    @Benchmark
+    public ZookeeperWebUiServlet.View[] lsStatOnly(final ZkTree tree) throws Exception {
+        return lister.lsAsync(tree.client, ZkTree.ROOT, 0, null, null).get();
+    }
+
+    @Benchmark
+    public ZookeeperWebUiServlet.Page firstPage(final ZkTree tree) throws Exception {
+        return lister.pageAsync(tree.client, ZkTree.ROOT, null, 0, 100, 1024, null, null).get();
+    }
+
+    @Benchmark
+    public ZookeeperWebUiServlet.View stat(final ZkTree tree) throws Exception {
+        return ZookeeperWebUiServlet.stat(tree.client, child);
+    }
+}
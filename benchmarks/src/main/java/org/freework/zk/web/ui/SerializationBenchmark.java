@@ -0,0 +1,84 @@
+package org.freework.zk.web.ui;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.freework.zk.web.ui.util.Jacksons;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 子节点列表的 JSON 序列化.
+ * <p>
+ * string: 先序列化为字符串再通过 Writer 写出(之前的方式);
+ * stream: 使用缓存的 ObjectWriter 直接写入输出流, 节点数据使用给定的编码.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"hex", "base64", "utf8"})
+    public String encoding;
+
+    private ZookeeperWebUiServlet.View[] views;
+    private ObjectWriter writer;
+    private CountingOutputStream out;
+
+    @Setup
+    public void setUp(final ZkTree tree) throws Exception {
+        views = new AsyncLister(256).lsAsync(tree.client, ZkTree.ROOT, ZookeeperWebUiServlet.FULL_DATA, null, null).get();
+        writer = Jacksons.writerFor(ZookeeperWebUiServlet.View[].class)
+                .withAttribute(PayloadEncoder.ATTRIBUTE, PayloadEncoder.forName(encoding));
+        out = new CountingOutputStream();
+    }
+
+    @Benchmark
+    public void string(final Blackhole blackhole) throws Exception {
+        final Writer w = new OutputStreamWriter(out, "UTF-8");
+        w.write(Jacksons.serialize(views));
+        w.flush();
+        blackhole.consume(out.count);
+    }
+
+    @Benchmark
+    public void stream(final Blackhole blackhole) {
+        Jacksons.serialize(out, writer, views);
+        blackhole.consume(out.count);
+    }
+
+    /**
+     * 只统计字节数的输出流.
+     */
+    static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(final int b) {
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.freework.zk.web.ui;
+
+import org.freework.zk.web.ui.util.CuratorHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 完整的 servlet GET 处理(参数解析, 连接池, 列举, 序列化, 压缩).
+ * <p>
+ * 请求支持异步处理, 与容器中一样经过异步列举, 等待异步请求完成后读取响应.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServletBenchmark {
+    /**
+     * full: 完整列表; page: UI 使用的分页和预览; stat: 只有 Stat.
+     */
+    @Param({"full", "page", "stat"})
+    public String mode;
+
+    @Param({"identity", "gzip"})
+    public String acceptEncoding;
+
+    private ZookeeperWebUiServlet servlet;
+    private MockServletContext context;
+    private MockHttpSession session;
+
+    @Setup
+    public void setUp() throws Exception {
+        context = new MockServletContext();
+        session = new MockHttpSession(context);
+        servlet = new ZookeeperWebUiServlet();
+        servlet.init(new MockServletConfig(context));
+    }
+
+    @TearDown
+    public void tearDown() {
+        servlet.destroy();
+        CuratorHolder.destroyIfNecessary(session);
+    }
+
+    @Benchmark
+    public int get(final ZkTree tree) throws Exception {
+        final CountDownLatch completed = new CountDownLatch(1);
+        final MockHttpServletRequest request = new MockHttpServletRequest(context, "GET", ZkTree.ROOT) {
+            @Override
+            public AsyncContext startAsync(final ServletRequest req, final ServletResponse resp) {
+                final AsyncContext async = super.startAsync(req, resp);
+                async.addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(final AsyncEvent event) {
+                        completed.countDown();
+                    }
+
+                    @Override
+                    public void onTimeout(final AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(final AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(final AsyncEvent event) {
+                    }
+                });
+                return async;
+            }
+        };
+        request.setAsyncSupported(true);
+        request.setPathInfo(ZkTree.ROOT);
+        request.setSession(session);
+        request.addHeader("zkUrl", tree.connectString());
+        request.addHeader("Accept-Encoding", acceptEncoding);
+        if ("page".equals(mode)) {
+            request.setParameter("limit", "500");
+            request.setParameter("preview", "1024");
+            request.setParameter("encoding", "utf8");
+        } else if ("stat".equals(mode)) {
+            request.setParameter("stat", "");
+        }
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        servlet.service(request, response);
+        if (null != request.getAsyncContext() && !completed.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("async request not completed");
+        }
+        if (200 != response.getStatus()) {
+            throw new IllegalStateException("unexpected status: " + response.getStatus() + ", " + response.getErrorMessage());
+        }
+        return response.getContentAsByteArray().length;
+    }
+}
@@ -0,0 +1,165 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryNTimes;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.ZooDefs;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 进程内 zookeeper 和预先生成的节点树.
+ * <p>
+ * 树的形状:
+ * <ul>
+ * <li>wide: 根节点下 {@link #WIDE_CHILDREN} 个子节点, 小数据</li>
+ * <li>deep: 每个节点 {@link #DEEP_FANOUT} 个子节点, 共 {@link #DEEP_DEPTH} 层, 小数据</li>
+ * <li>large: 根节点下 {@link #LARGE_CHILDREN} 个子节点, 每个 {@link #LARGE_PAYLOAD} 字节数据</li>
+ * </ul>
+ * 节点数据:
+ * <ul>
+ * <li>ascii: 可打印的 ASCII, 与配置类数据相近</li>
+ * <li>utf8: 混有中文(3 字节 UTF-8)的文本, utf8 编码需要完整解码</li>
+ * <li>binary: 随机字节, 不是合法的 UTF-8, utf8 编码回退到十六进制</li>
+ * </ul>
+ * </p>
+ *
+ * @author changhe.yang
+ */
+@State(Scope.Benchmark)
+public class ZkTree {
+    static final String ROOT = "/bench";
+
+    static final int WIDE_CHILDREN = 2000;
+    static final int DEEP_FANOUT = 3;
+    static final int DEEP_DEPTH = 7;
+    static final int LARGE_CHILDREN = 64;
+    static final int LARGE_PAYLOAD = 128 * 1024;
+    static final int SMALL_PAYLOAD = 64;
+
+    /**
+     * 每个事务(multi)创建的节点数, 通过 {@link BatchWriter#multi(CuratorFramework, List)} 提交.
+     */
+    private static final int BATCH = 500;
+
+    @Param({"wide", "deep", "large"})
+    public String shape;
+
+    @Param({"ascii", "utf8", "binary"})
+    public String payload;
+
+    TestingServer server;
+    CuratorFramework client;
+    int nodes;
+
+    private final List<Op> batch = new ArrayList<Op>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new TestingServer(true);
+        client = CuratorFrameworkFactory.builder()
+                .connectString(server.getConnectString())
+                .retryPolicy(new RetryNTimes(10, 1000))
+                .connectionTimeoutMs(5000)
+                .build();
+        client.start();
+        client.blockUntilConnected();
+
+        final Random random = new Random(17);
+        if ("wide".equals(shape)) {
+            create(ROOT, data(random, SMALL_PAYLOAD));
+            for (int i = 0; i < WIDE_CHILDREN; i++) {
+                create(ROOT + String.format("/node-%05d", i), data(random, SMALL_PAYLOAD));
+            }
+        } else if ("deep".equals(shape)) {
+            createDeep(random, ROOT, 0);
+        } else if ("large".equals(shape)) {
+            create(ROOT, data(random, SMALL_PAYLOAD));
+            for (int i = 0; i < LARGE_CHILDREN; i++) {
+                create(ROOT + String.format("/blob-%03d", i), data(random, LARGE_PAYLOAD));
+                // 大数据节点单独提交, 避免超过 jute.maxbuffer.
+                commit();
+            }
+        } else {
+            throw new IllegalArgumentException("unknown shape: " + shape);
+        }
+        commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    String connectString() {
+        return server.getConnectString();
+    }
+
+    private void createDeep(final Random random, final String path, final int depth) throws Exception {
+        create(path, data(random, SMALL_PAYLOAD));
+        if (depth < DEEP_DEPTH) {
+            for (int i = 0; i < DEEP_FANOUT; i++) {
+                createDeep(random, path + "/d" + depth + "-" + i, depth + 1);
+            }
+        }
+    }
+
+    private void create(final String path, final byte[] data) throws Exception {
+        batch.add(Op.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        nodes++;
+        if (BATCH <= batch.size()) {
+            commit();
+        }
+    }
+
+    private void commit() throws Exception {
+        if (!batch.isEmpty()) {
+            BatchWriter.multi(client, batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * 给定字节数的节点数据, 内容由 {@link #payload} 决定.
+     */
+    private byte[] data(final Random random, final int size) {
+        final byte[] data = new byte[size];
+        if ("ascii".equals(payload)) {
+            for (int i = 0; i < size; i++) {
+                data[i] = (byte) (' ' + random.nextInt(95));
+            }
+        } else if ("utf8".equals(payload)) {
+            // 约四分之一的字符为中文, 剩余不足 3 字节时补 ASCII.
+            int i = 0;
+            while (i < size) {
+                if (3 <= size - i && 0 == random.nextInt(4)) {
+                    final byte[] c = String.valueOf((char) (0x4E00 + random.nextInt(0x5000))).getBytes(StandardCharsets.UTF_8);
+                    System.arraycopy(c, 0, data, i, c.length);
+                    i += c.length;
+                } else {
+                    data[i++] = (byte) (' ' + random.nextInt(95));
+                }
+            }
+        } else if ("binary".equals(payload)) {
+            random.nextBytes(data);
+            // 0xFF 不会出现在 UTF-8 中, 保证不是合法的 UTF-8.
+            data[size - 1] = (byte) 0xFF;
+        } else {
+            throw new IllegalArgumentException("unknown payload: " + payload);
+        }
+        return data;
+    }
+}
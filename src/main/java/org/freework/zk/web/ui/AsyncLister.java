@@ -0,0 +1,491 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 基于 Curator 后台回调(inBackground)的子节点异步列举.
+ * <p>
+ * 获取子节点名称后, 流水线地发出所有子节点的 getData 请求(受最大并发请求数限制, 每收到一个响应发出下一个),
+ * 节点数据和 Stat 由同一个响应返回, 不再需要额外的 checkExists.
+ * 列举过程中被删除的子节点(NoNode)直接跳过.
+ * 所有方法都不阻塞调用线程, 超时由调用方处理(取消返回的 future).
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class AsyncLister {
+    private static final ZookeeperWebUiServlet.View[] EMPTY = new ZookeeperWebUiServlet.View[0];
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SYSTEM_NODE_NAME = "zookeeper";
+    private static final Comparator<String> NATURAL_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(final String a, final String b) {
+            return a.compareTo(b);
+        }
+    };
+
+    /**
+     * 最大并发(未响应)请求数.
+     */
+    private final int maxInFlight;
+
+    AsyncLister(final int maxInFlight) {
+        if (1 > maxInFlight) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * 异步列举给定节点的所有子节点, 可以在父节点和每个子节点上注册 watch.
+     * 取消返回的 future 后不再发出后续请求.
+     *
+     * @param client  the curator client
+     * @param path    the parent path
+     * @param preview 子节点数据的最大字节数, 见 {@link ZookeeperWebUiServlet#view(String, byte[], Stat, int)}
+     * @param watcher 要注册的 watcher, 不需要时为 null
+     * @param stat    存放父节点的 Stat, 不需要时为 null
+     * @return 排序后的子节点视图, 如果节点不存在或没有子节点返回空数组
+     */
+    CompletableFuture<ZookeeperWebUiServlet.View[]> lsAsync(final CuratorFramework client, final String path, final int preview,
+                                                            final CuratorWatcher watcher, final Stat stat) {
+        final CompletableFuture<ZookeeperWebUiServlet.View[]> future = new CompletableFuture<ZookeeperWebUiServlet.View[]>();
+        children(client, path, watcher, stat).thenCompose(new Function<List<String>, CompletionStage<Result[]>>() {
+            @Override
+            public CompletionStage<Result[]> apply(final List<String> children) {
+                final List<String> paths = new ArrayList<String>(children.size());
+                for (final String child : children) {
+                    paths.add(ZookeeperWebUiServlet.resolve(path, child));
+                }
+                return fetch(client, paths, watcher, 0 != preview, future);
+            }
+        }).whenComplete(new BiConsumer<Result[], Throwable>() {
+            @Override
+            public void accept(final Result[] slots, final Throwable e) {
+                if (null != e) {
+                    future.completeExceptionally(unwrap(e));
+                    return;
+                }
+                if (0 == slots.length) {
+                    future.complete(EMPTY);
+                    return;
+                }
+                final List<ZookeeperWebUiServlet.View> candidates = new ArrayList<ZookeeperWebUiServlet.View>(slots.length);
+                for (final Result result : slots) {
+                    if (null != result) {
+                        candidates.add(result.toView(preview));
+                    }
+                }
+                Collections.sort(candidates);
+                future.complete(candidates.toArray(new ZookeeperWebUiServlet.View[candidates.size()]));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 异步分页列举给定节点的子节点, 可以在父节点和当前页的子节点上注册 watch.
+     * 取消返回的 future 后不再发出后续请求.
+     *
+     * @param client  the curator client
+     * @param path    the parent path
+     * @param cursor  上一页返回的游标, 可以为 null
+     * @param offset  起始位置, 仅在 cursor 为 null 时使用
+     * @param limit   每页最大子节点数
+     * @param preview 子节点数据的最大字节数, 见 {@link ZookeeperWebUiServlet#view(String, byte[], Stat, int)}
+     * @param watcher 要注册的 watcher, 不需要时为 null
+     * @param stat    存放父节点的 Stat, 不需要时为 null
+     * @return 当前页, 非法的 cursor 以 IllegalArgumentException 完成
+     */
+    CompletableFuture<ZookeeperWebUiServlet.Page> pageAsync(final CuratorFramework client, final String path, final String cursor,
+                                                            final int offset, final int limit, final int preview,
+                                                            final CuratorWatcher watcher, final Stat stat) {
+        final CompletableFuture<ZookeeperWebUiServlet.Page> future = new CompletableFuture<ZookeeperWebUiServlet.Page>();
+        final List<String> names = new ArrayList<String>();
+        final int[] range = new int[2];
+        children(client, path, watcher, stat).thenCompose(new Function<List<String>, CompletionStage<Result[]>>() {
+            @Override
+            public CompletionStage<Result[]> apply(final List<String> children) {
+                names.addAll(children);
+                final Comparator<String> order = childOrder(path);
+                Collections.sort(names, order);
+
+                final int from = start(names, order, cursor, offset);
+                final int to = (int) Math.min((long) from + limit, names.size());
+                final List<String> paths = new ArrayList<String>(to - from);
+                for (final String name : names.subList(from, to)) {
+                    paths.add(ZookeeperWebUiServlet.resolve(path, name));
+                }
+                range[0] = from;
+                range[1] = to;
+                return fetch(client, paths, watcher, 0 != preview, future);
+            }
+        }).whenComplete(new BiConsumer<Result[], Throwable>() {
+            @Override
+            public void accept(final Result[] slots, final Throwable e) {
+                if (null != e) {
+                    future.completeExceptionally(unwrap(e));
+                    return;
+                }
+                final List<ZookeeperWebUiServlet.View> items = new ArrayList<ZookeeperWebUiServlet.View>(slots.length);
+                for (final Result result : slots) {
+                    if (null != result) {
+                        items.add(result.toView(preview));
+                    }
+                }
+                future.complete(new ZookeeperWebUiServlet.Page(
+                        names.size(), range[0], items.toArray(new ZookeeperWebUiServlet.View[items.size()]),
+                        range[1] < names.size() ? encodeCursor(names.get(range[1] - 1)) : null
+                ));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 对已排序的全部子节点视图分页.
+     *
+     * @param path   the parent path
+     * @param views  已排序的全部子节点
+     * @param cursor 上一页返回的游标, 可以为 null
+     * @param offset 起始位置, 仅在 cursor 为 null 时使用
+     * @param limit  每页最大子节点数
+     * @return 当前页
+     */
+    static ZookeeperWebUiServlet.Page page(final String path, final ZookeeperWebUiServlet.View[] views,
+                                           final String cursor, final int offset, final int limit) {
+        final List<String> names = new ArrayList<String>(views.length);
+        for (final ZookeeperWebUiServlet.View view : views) {
+            names.add(view.getPath().substring(view.getPath().lastIndexOf('/') + 1));
+        }
+        final int from = start(names, childOrder(path), cursor, offset);
+        final int to = (int) Math.min((long) from + limit, names.size());
+        return new ZookeeperWebUiServlet.Page(
+                names.size(), from, Arrays.copyOfRange(views, from, to),
+                to < names.size() ? encodeCursor(names.get(to - 1)) : null
+        );
+    }
+
+    /**
+     * 多层列举: 返回子节点, 并在 depth 层内展开子节点的子节点({@link ZookeeperWebUiServlet.View#getChildren()}).
+     * <p>
+     * 每个节点的子节点列举完成时立即并发列举下一层, 各子树互不等待.
+     * 展开一个节点前按其子节点数(Stat)预留节点预算, 预算不足的节点不展开(children 为 null, 需要时单独列举),
+     * 第一层总是完整返回; 系统节点(/zookeeper)和临时节点不展开. 取消返回的 future 后不再列举下一层.
+     * </p>
+     *
+     * @param path     the parent path
+     * @param depth    列举的层数, 1 与普通列举相同
+     * @param maxNodes 返回的最大节点数(不包括第一层)
+     * @param ls       单层列举
+     * @return 排序后的子节点视图
+     */
+    static CompletableFuture<ZookeeperWebUiServlet.View[]> treeAsync(final String path, final int depth, final int maxNodes,
+                                                                     final Function<String, CompletableFuture<ZookeeperWebUiServlet.View[]>> ls) {
+        final CompletableFuture<ZookeeperWebUiServlet.View[]> future = new CompletableFuture<ZookeeperWebUiServlet.View[]>();
+        final AtomicInteger remaining = new AtomicInteger(maxNodes);
+        ls.apply(path).thenCompose(new Function<ZookeeperWebUiServlet.View[], CompletionStage<ZookeeperWebUiServlet.View[]>>() {
+            @Override
+            public CompletionStage<ZookeeperWebUiServlet.View[]> apply(final ZookeeperWebUiServlet.View[] views) {
+                return expand(views, depth - 1, remaining, ls, future);
+            }
+        }).whenComplete(new BiConsumer<ZookeeperWebUiServlet.View[], Throwable>() {
+            @Override
+            public void accept(final ZookeeperWebUiServlet.View[] views, final Throwable e) {
+                if (null != e) {
+                    future.completeExceptionally(unwrap(e));
+                } else {
+                    future.complete(views);
+                }
+            }
+        });
+        return future;
+    }
+
+    private static CompletableFuture<ZookeeperWebUiServlet.View[]> expand(final ZookeeperWebUiServlet.View[] views, final int depth,
+                                                                          final AtomicInteger remaining,
+                                                                          final Function<String, CompletableFuture<ZookeeperWebUiServlet.View[]>> ls,
+                                                                          final CompletableFuture<?> owner) {
+        if (0 >= depth || owner.isDone()) {
+            return CompletableFuture.completedFuture(views);
+        }
+        final List<CompletableFuture<ZookeeperWebUiServlet.View>> expanded = new ArrayList<CompletableFuture<ZookeeperWebUiServlet.View>>(views.length);
+        for (final ZookeeperWebUiServlet.View view : views) {
+            final int items = view.getItems();
+            if (0 == items || 0 != view.getEphemeralOwner() || ("/" + SYSTEM_NODE_NAME).equals(view.getPath())) {
+                expanded.add(CompletableFuture.completedFuture(view));
+            } else if (0 > remaining.addAndGet(-items)) {
+                remaining.addAndGet(items);
+                expanded.add(CompletableFuture.completedFuture(view));
+            } else {
+                expanded.add(ls.apply(view.getPath()).thenCompose(new Function<ZookeeperWebUiServlet.View[], CompletionStage<ZookeeperWebUiServlet.View[]>>() {
+                    @Override
+                    public CompletionStage<ZookeeperWebUiServlet.View[]> apply(final ZookeeperWebUiServlet.View[] children) {
+                        return expand(children, depth - 1, remaining, ls, owner);
+                    }
+                }).thenApply(new Function<ZookeeperWebUiServlet.View[], ZookeeperWebUiServlet.View>() {
+                    @Override
+                    public ZookeeperWebUiServlet.View apply(final ZookeeperWebUiServlet.View[] children) {
+                        return view.withChildren(children);
+                    }
+                }));
+            }
+        }
+        return CompletableFuture.allOf(expanded.toArray(new CompletableFuture<?>[expanded.size()])).thenApply(new Function<Void, ZookeeperWebUiServlet.View[]>() {
+            @Override
+            public ZookeeperWebUiServlet.View[] apply(final Void v) {
+                final ZookeeperWebUiServlet.View[] result = new ZookeeperWebUiServlet.View[expanded.size()];
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = expanded.get(i).join();
+                }
+                return result;
+            }
+        });
+    }
+
+    private static int start(final List<String> names, final Comparator<String> order, final String cursor, final int offset) {
+        if (null == cursor) {
+            return Math.min(Math.max(offset, 0), names.size());
+        }
+        final int index = Collections.binarySearch(names, decodeCursor(cursor), order);
+        return 0 <= index ? index + 1 : -index - 1;
+    }
+
+    private static Comparator<String> childOrder(final String path) {
+        if (!"/".equals(path)) {
+            return NATURAL_ORDER;
+        }
+        return new Comparator<String>() {
+            @Override
+            public int compare(final String a, final String b) {
+                if (a.equals(b)) {
+                    return 0;
+                }
+                if (SYSTEM_NODE_NAME.equals(a)) {
+                    return -1;
+                }
+                if (SYSTEM_NODE_NAME.equals(b)) {
+                    return 1;
+                }
+                return a.compareTo(b);
+            }
+        };
+    }
+
+    private static String encodeCursor(final String name) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(name.getBytes(UTF_8));
+    }
+
+    private static String decodeCursor(final String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), UTF_8);
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("illegal cursor: " + cursor, e);
+        }
+    }
+
+    /**
+     * 异步流水线地获取给定节点的数据和 Stat, 取消返回的 future 后不再发出后续请求.
+     *
+     * @param client  the curator client
+     * @param paths   the node paths
+     * @param watcher 要注册的数据 watcher, 不需要时为 null
+     * @return 与 paths 一一对应的结果, 不存在的节点为 null
+     */
+    CompletableFuture<Result[]> getDataAsync(final CuratorFramework client, final List<String> paths, final CuratorWatcher watcher) {
+        final CompletableFuture<Result[]> future = new CompletableFuture<Result[]>();
+        fetch(client, paths, watcher, true, future).whenComplete(new BiConsumer<Result[], Throwable>() {
+            @Override
+            public void accept(final Result[] slots, final Throwable e) {
+                if (null != e) {
+                    future.completeExceptionally(unwrap(e));
+                } else {
+                    future.complete(slots);
+                }
+            }
+        });
+        return future;
+    }
+
+    private static Throwable unwrap(final Throwable e) {
+        return e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+    }
+
+    /**
+     * 后台获取子节点名称, 节点不存在时为空列表.
+     */
+    private static CompletableFuture<List<String>> children(final CuratorFramework client, final String path,
+                                                            final CuratorWatcher watcher, final Stat stat) {
+        final CompletableFuture<List<String>> future = new CompletableFuture<List<String>>();
+        final BackgroundCallback callback = new BackgroundCallback() {
+            @Override
+            public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                if (KeeperException.Code.OK == code) {
+                    if (null != stat && null != event.getStat()) {
+                        copy(event.getStat(), stat);
+                    }
+                    future.complete(null != event.getChildren() ? event.getChildren() : Collections.<String>emptyList());
+                } else if (KeeperException.Code.NONODE == code) {
+                    future.complete(Collections.<String>emptyList());
+                } else {
+                    future.completeExceptionally(KeeperException.create(code, path));
+                }
+            }
+        };
+        try {
+            if (null != watcher) {
+                client.getChildren().usingWatcher(watcher).inBackground(callback).forPath(path);
+            } else {
+                client.getChildren().inBackground(callback).forPath(path);
+            }
+        } catch (final Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static void copy(final Stat from, final Stat to) {
+        to.setCzxid(from.getCzxid());
+        to.setMzxid(from.getMzxid());
+        to.setCtime(from.getCtime());
+        to.setMtime(from.getMtime());
+        to.setVersion(from.getVersion());
+        to.setCversion(from.getCversion());
+        to.setAversion(from.getAversion());
+        to.setEphemeralOwner(from.getEphemeralOwner());
+        to.setDataLength(from.getDataLength());
+        to.setNumChildren(from.getNumChildren());
+        to.setPzxid(from.getPzxid());
+    }
+
+    /**
+     * 流水线地发出请求: 先发出 maxInFlight 个, 之后每收到一个响应发出下一个, 不阻塞调用线程.
+     *
+     * @param owner 调用方的 future, 完成(包括取消)后不再发出后续请求
+     */
+    private CompletableFuture<Result[]> fetch(final CuratorFramework client, final List<String> paths, final CuratorWatcher watcher,
+                                              final boolean withData, final CompletableFuture<?> owner) {
+        final Fetch fetch = new Fetch(client, paths, watcher, withData, owner);
+        if (paths.isEmpty()) {
+            fetch.future.complete(fetch.slots);
+            return fetch.future;
+        }
+        for (int i = Math.min(maxInFlight, paths.size()); 0 < i; i--) {
+            fetch.send();
+        }
+        return fetch.future;
+    }
+
+    /**
+     * 一组节点的流水线请求.
+     */
+    private static final class Fetch implements BackgroundCallback {
+        private final CuratorFramework client;
+        private final List<String> paths;
+        private final CuratorWatcher watcher;
+        private final boolean withData;
+        private final CompletableFuture<?> owner;
+        private final Result[] slots;
+        private final CompletableFuture<Result[]> future = new CompletableFuture<Result[]>();
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+
+        private Fetch(final CuratorFramework client, final List<String> paths, final CuratorWatcher watcher,
+                      final boolean withData, final CompletableFuture<?> owner) {
+            this.client = client;
+            this.paths = paths;
+            this.watcher = watcher;
+            this.withData = withData;
+            this.owner = owner;
+            this.slots = new Result[paths.size()];
+            this.remaining = new AtomicInteger(paths.size());
+        }
+
+        private void send() {
+            final int index = next.getAndIncrement();
+            if (index >= paths.size() || future.isDone()) {
+                return;
+            }
+            if (owner.isDone()) {
+                // 调用方已取消或超时.
+                future.cancel(false);
+                return;
+            }
+            final String nodePath = paths.get(index);
+            try {
+                if (!withData && null != watcher) {
+                    client.checkExists().usingWatcher(watcher).inBackground(this, index).forPath(nodePath);
+                } else if (!withData) {
+                    client.checkExists().inBackground(this, index).forPath(nodePath);
+                } else if (null != watcher) {
+                    client.getData().usingWatcher(watcher).inBackground(this, index).forPath(nodePath);
+                } else {
+                    client.getData().inBackground(this, index).forPath(nodePath);
+                }
+            } catch (final Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void processResult(final CuratorFramework c, final CuratorEvent event) {
+            final int index = (Integer) event.getContext();
+            final String nodePath = paths.get(index);
+            final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+            if (KeeperException.Code.OK == code && null != event.getStat()) {
+                slots[index] = new Result(nodePath, event.getData(), event.getStat());
+            } else if (KeeperException.Code.NONODE != code) {
+                future.completeExceptionally(KeeperException.create(code, nodePath));
+                return;
+            }
+            if (0 == remaining.decrementAndGet()) {
+                future.complete(slots);
+            } else {
+                send();
+            }
+        }
+    }
+
+    /**
+     * 单个节点的 getData 结果.
+     */
+    static final class Result {
+        final String path;
+        final byte[] data;
+        final Stat stat;
+
+        Result(final String path, final byte[] data, final Stat stat) {
+            this.path = path;
+            this.data = data;
+            this.stat = stat;
+        }
+
+        ZookeeperWebUiServlet.View toView() {
+            return ZookeeperWebUiServlet.view(path, data, stat);
+        }
+
+        ZookeeperWebUiServlet.View toView(final int preview) {
+            return ZookeeperWebUiServlet.view(path, data, stat, preview);
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package org.freework.zk.web.ui;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * 异步请求处理, 请求在 AsyncContext 中完成, 等待 zookeeper 期间不占用容器线程.
+ * <p>
+ * 读请求(列举, 分页, 节点数据)由 Curator 后台回调组成 {@link CompletableFuture}, 完成后在工作线程写出响应;
+ * 其他仍然使用同步调用的请求整体在工作线程中执行.
+ * 一个慢的或不可用的集群(每个同步调用最多重试 10 次)只会占用工作线程, 静态资源, 统计信息和其他集群的列举不受影响.
+ * </p>
+ * <p>
+ * 请求有截止时间, 超时返回 504 并取消未完成的 zookeeper 操作(不再发出后续的后台请求, 尚未开始的同步处理不再执行);
+ * 客户端断开连接时同样取消. 已发出的 zookeeper 请求无法撤回, 其结果被丢弃.
+ * 已开始的同步处理(写操作)不中断, 执行完成后返回实际的结果, 避免写入的结果未知.
+ * </p>
+ * <p>
+ * 工作线程默认是固定大小的线程池, 运行在 Java 21 及以上时可以使用虚拟线程(每个任务一个).
+ * 未启用时在容器线程中同步完成, 与原来的行为一致.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class AsyncRequests implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncRequests.class);
+
+    /**
+     * 请求属性: 响应由 {@link #await(HttpServletRequest, HttpServletResponse, CompletableFuture, Completion)} 异步写出.
+     */
+    private static final String PENDING = AsyncRequests.class.getName() + ".PENDING";
+
+    private final boolean enabled;
+    private final long deadlineMs;
+    private final boolean virtual;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "async-request-timer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    AsyncRequests(final boolean enabled, final long deadlineMs, final int maxThreads, final boolean virtualThreads) {
+        this.enabled = enabled;
+        this.deadlineMs = deadlineMs;
+        final ExecutorService virtualWorkers = virtualThreads ? virtualThreads() : null;
+        if (virtualThreads && null == virtualWorkers) {
+            LOGGER.warn("virtual threads are not supported by this runtime ({}), use a pool of {} threads",
+                    System.getProperty("java.version"), maxThreads);
+        }
+        this.virtual = null != virtualWorkers;
+        this.workers = null != virtualWorkers ? virtualWorkers : pool(maxThreads);
+    }
+
+    /**
+     * 等待异步结果并写出响应, 不占用当前(容器)线程.
+     * <p>
+     * 结果以 IllegalArgumentException 完成时返回 400, TimeoutException 返回 504, 其他异常返回 500.
+     * </p>
+     *
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @param future       异步结果, 超时或客户端断开时被取消
+     * @param completion   写出结果
+     * @param <T>          结果的类型
+     * @throws IOException 如果未启用异步处理且写出响应失败
+     */
+    <T> void await(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse,
+                   final CompletableFuture<T> future, final Completion<T> completion) throws IOException {
+        if (!enabled) {
+            T value = null;
+            Throwable failure = null;
+            try {
+                value = 0 < deadlineMs ? future.get(deadlineMs, TimeUnit.MILLISECONDS) : future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = e;
+            } catch (final TimeoutException e) {
+                timedOut.incrementAndGet();
+                failure = new TimeoutException("deadline exceeded after " + deadlineMs + "ms");
+            } catch (final ExecutionException e) {
+                failure = e.getCause();
+            } finally {
+                future.cancel(false);
+            }
+            write(httpResponse, completion, value, failure);
+            return;
+        }
+
+        httpRequest.setAttribute(PENDING, Boolean.TRUE);
+        final AsyncContext async = start(httpRequest, httpResponse);
+        final AtomicBoolean done = new AtomicBoolean();
+        final ScheduledFuture<?> deadline = 0 < deadlineMs ? timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (done.compareAndSet(false, true)) {
+                    timedOut.incrementAndGet();
+                    future.cancel(false);
+                    respond(async, httpResponse, completion, null, new TimeoutException("deadline exceeded after " + deadlineMs + "ms"));
+                }
+            }
+        }, deadlineMs, TimeUnit.MILLISECONDS) : null;
+        async.addListener(new Listener() {
+            @Override
+            public void onComplete(final AsyncEvent event) {
+                inFlight.decrementAndGet();
+                if (null != deadline) {
+                    deadline.cancel(false);
+                }
+            }
+
+            @Override
+            public void onError(final AsyncEvent event) {
+                if (done.compareAndSet(false, true)) {
+                    // 客户端断开连接.
+                    cancelled.incrementAndGet();
+                    future.cancel(false);
+                    complete(async);
+                }
+            }
+        });
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(final T value, final Throwable e) {
+                if (done.compareAndSet(false, true)) {
+                    respond(async, httpResponse, completion, value, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 响应是否由 {@link #await(HttpServletRequest, HttpServletResponse, CompletableFuture, Completion)} 异步写出,
+     * 此时由写出结果的回调完成响应.
+     *
+     * @param httpRequest the http request
+     * @return 是否异步写出
+     */
+    static boolean isPending(final HttpServletRequest httpRequest) {
+        return null != httpRequest.getAttribute(PENDING);
+    }
+
+    /**
+     * 在工作线程中执行同步处理, 不占用当前(容器)线程.
+     *
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @param withDeadline 是否使用截止时间(长时间运行的导出, 对比等使用各自的超时时间), 只对尚未开始的处理有效
+     * @param task         同步处理
+     * @throws ServletException 如果未启用异步处理且处理失败
+     * @throws IOException      如果未启用异步处理且IO发生异常
+     */
+    void offload(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse,
+                 final boolean withDeadline, final Task task) throws ServletException, IOException {
+        if (!enabled) {
+            task.run();
+            return;
+        }
+
+        final AsyncContext async = start(httpRequest, httpResponse);
+        final Worker worker = new Worker(async, httpResponse, task);
+        final ScheduledFuture<?> deadline = withDeadline && 0 < deadlineMs ? timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (worker.cancel(true)) {
+                    timedOut.incrementAndGet();
+                }
+            }
+        }, deadlineMs, TimeUnit.MILLISECONDS) : null;
+        async.addListener(new Listener() {
+            @Override
+            public void onComplete(final AsyncEvent event) {
+                inFlight.decrementAndGet();
+                if (null != deadline) {
+                    deadline.cancel(false);
+                }
+            }
+
+            @Override
+            public void onError(final AsyncEvent event) {
+                if (worker.cancel(false)) {
+                    cancelled.incrementAndGet();
+                }
+            }
+        });
+        workers.execute(worker);
+    }
+
+    /**
+     * 异步请求统计信息.
+     *
+     * @return 统计信息
+     */
+    Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("deadlineMs", deadlineMs);
+        stats.put("virtualThreads", virtual);
+        stats.put("inFlight", inFlight.get());
+        stats.put("started", started.get());
+        stats.put("timedOut", timedOut.get());
+        stats.put("cancelled", cancelled.get());
+        stats.put("failed", failed.get());
+        if (workers instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor pool = (ThreadPoolExecutor) workers;
+            stats.put("workers", pool.getPoolSize());
+            stats.put("activeWorkers", pool.getActiveCount());
+            stats.put("queued", pool.getQueue().size());
+        }
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private AsyncContext start(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse) {
+        // 使用(可能被压缩包装的)当前响应, 写出时经过同样的包装.
+        final AsyncContext async = httpRequest.startAsync(httpRequest, httpResponse);
+        // 截止时间由 timer 控制, 容器不超时.
+        async.setTimeout(0);
+        inFlight.incrementAndGet();
+        started.incrementAndGet();
+        return async;
+    }
+
+    private <T> void respond(final AsyncContext async, final HttpServletResponse httpResponse,
+                             final Completion<T> completion, final T value, final Throwable e) {
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write(httpResponse, completion, value, e);
+                    } catch (final Exception ex) {
+                        // 客户端已断开.
+                        LOGGER.debug("write response failed: {}", ex.getMessage());
+                    } finally {
+                        complete(async);
+                    }
+                }
+            });
+        } catch (final RuntimeException ex) {
+            // 已关闭.
+            complete(async);
+        }
+    }
+
+    private <T> void write(final HttpServletResponse httpResponse, final Completion<T> completion,
+                           final T value, final Throwable e) throws IOException {
+        if (null == e) {
+            try {
+                completion.complete(value);
+            } catch (final IOException ex) {
+                throw ex;
+            } catch (final Exception ex) {
+                fail(httpResponse, ex);
+            }
+        } else {
+            fail(httpResponse, e);
+        }
+    }
+
+    private void fail(final HttpServletResponse httpResponse, final Throwable e) throws IOException {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && null != cause.getCause()) {
+            cause = cause.getCause();
+        }
+        if (httpResponse.isCommitted()) {
+            return;
+        }
+        if (cause instanceof IllegalArgumentException) {
+            httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, cause.getMessage());
+        } else if (cause instanceof TimeoutException) {
+            httpResponse.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT, cause.getMessage());
+        } else {
+            failed.incrementAndGet();
+            LOGGER.warn("request failed: {}", cause.toString());
+            httpResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, cause.getMessage());
+        }
+    }
+
+    private static void complete(final AsyncContext async) {
+        try {
+            async.complete();
+        } catch (final IllegalStateException e) {
+            // 已完成(如客户端断开后由容器完成).
+        }
+    }
+
+    private static ExecutorService pool(final int maxThreads) {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger sequence = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "async-request-worker-" + sequence.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Java 21 及以上的 Executors.newVirtualThreadPerTaskExecutor(), 不支持时返回 null.
+     */
+    private static ExecutorService virtualThreads() {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (final Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 写出异步结果.
+     *
+     * @param <T> 结果的类型
+     */
+    interface Completion<T> {
+        /**
+         * 写出结果.
+         *
+         * @param value 结果
+         * @throws Exception 如果写出失败
+         */
+        void complete(T value) throws Exception;
+    }
+
+    /**
+     * 在工作线程中执行的同步处理.
+     */
+    interface Task {
+        /**
+         * 处理请求并写出响应.
+         *
+         * @throws ServletException 如果处理失败
+         * @throws IOException      如果IO发生异常
+         */
+        void run() throws ServletException, IOException;
+    }
+
+    /**
+     * 工作线程中的同步处理, 只能在开始前取消, 开始后执行完成.
+     */
+    private final class Worker implements Runnable {
+        private final AsyncContext async;
+        private final HttpServletResponse httpResponse;
+        private final Task task;
+        private boolean started;
+        private boolean cancelled;
+        private boolean timedOut;
+
+        private Worker(final AsyncContext async, final HttpServletResponse httpResponse, final Task task) {
+            this.async = async;
+            this.httpResponse = httpResponse;
+            this.task = task;
+        }
+
+        /**
+         * 取消尚未开始的处理, 已开始的处理(可能已写入 zookeeper)不中断.
+         *
+         * @param timeout 是否因为超时取消
+         * @return 是否取消了尚未开始的处理
+         */
+        private synchronized boolean cancel(final boolean timeout) {
+            if (started || cancelled) {
+                return false;
+            }
+            cancelled = true;
+            timedOut = timeout;
+            return true;
+        }
+
+        @Override
+        public void run() {
+            final boolean ran;
+            Exception failure = null;
+            synchronized (this) {
+                ran = !cancelled;
+                started = ran;
+            }
+            if (ran) {
+                try {
+                    task.run();
+                } catch (final Exception e) {
+                    failure = e;
+                }
+            }
+            try {
+                if (!ran && isTimedOut()) {
+                    fail(httpResponse, new TimeoutException("deadline exceeded after " + deadlineMs + "ms"));
+                } else if (null != failure) {
+                    fail(httpResponse, failure);
+                }
+            } catch (final Exception e) {
+                LOGGER.debug("write response failed: {}", e.getMessage());
+            } finally {
+                complete(async);
+            }
+        }
+
+        private synchronized boolean isTimedOut() {
+            return timedOut;
+        }
+    }
+
+    /**
+     * 只关心部分事件的 AsyncListener.
+     */
+    private abstract static class Listener implements AsyncListener {
+        @Override
+        public void onComplete(final AsyncEvent event) {
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+        }
+    }
+}
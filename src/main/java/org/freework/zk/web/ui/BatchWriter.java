@@ -0,0 +1,242 @@
+package org.freework.zk.web.ui;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.Base64Variants;
+import freework.util.Bytes;
+import org.apache.curator.RetryLoop;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooDefs;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * 批量写入.
+ * <p>
+ * 一组 create/setData/delete/check 操作作为一个 zookeeper multi 事务提交, 全部成功或全部失败, 只需要一次往返.
+ * setData, delete 和 check 可以指定期望的版本(乐观锁), 不指定时不检查版本.
+ * Curator 的 transaction() 依赖 zookeeper 3.5 客户端的 AsyncCallback.MultiCallback, 使用 3.4 客户端时无法加载,
+ * 因此直接调用 {@link org.apache.zookeeper.ZooKeeper#multi(Iterable)}, 见 {@link #multi(CuratorFramework, List)}.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class BatchWriter {
+    static final String CREATE = "create";
+    static final String SET_DATA = "setData";
+    static final String DELETE = "delete";
+    static final String CHECK = "check";
+
+    /**
+     * 值的编码: base64, 与节点数据的 base64 编码(不换行的标准 base64)相同.
+     */
+    static final String BASE64 = "base64";
+
+    /**
+     * 不检查版本.
+     */
+    private static final int ANY_VERSION = -1;
+
+    /**
+     * 每个事务最多的操作数.
+     */
+    private final int maxOps;
+
+    BatchWriter(final int maxOps) {
+        this.maxOps = maxOps;
+    }
+
+    /**
+     * 作为一个事务执行给定的操作.
+     * <p>
+     * 返回的结果与单节点操作的格式相同(success, message), results 为每个操作的结果:
+     * 成功时包含结果路径和新版本(setData), 失败时包含每个操作的错误码,
+     * 导致失败的操作(failed)之前的操作为 OK (已回滚), 之后的操作为 RUNTIMEINCONSISTENCY (未执行).
+     * </p>
+     *
+     * @param client     the curator client
+     * @param operations 操作
+     * @return 执行结果
+     * @throws IllegalArgumentException 如果操作不合法, 此时没有执行任何操作
+     * @throws Exception                如果提交发生异常(连接断开等)
+     */
+    Map<String, Object> execute(final CuratorFramework client, final Operation[] operations) throws Exception {
+        if (null == operations || 0 == operations.length) {
+            throw new IllegalArgumentException("no operations");
+        }
+        if (maxOps < operations.length) {
+            throw new IllegalArgumentException("too many operations: " + operations.length + ", max: " + maxOps);
+        }
+
+        final List<Op> ops = new ArrayList<Op>(operations.length);
+        for (int i = 0; i < operations.length; i++) {
+            ops.add(op(operations[i], i));
+        }
+
+        final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+        final List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(operations.length);
+        try {
+            final List<OpResult> committed = multi(client, ops);
+            int i = 0;
+            for (final OpResult result : committed) {
+                final Map<String, Object> item = result(operations[i++], true, KeeperException.Code.OK);
+                if (result instanceof OpResult.CreateResult) {
+                    // create 的实际路径(顺序节点等).
+                    item.put("path", ((OpResult.CreateResult) result).getPath());
+                } else if (result instanceof OpResult.SetDataResult) {
+                    item.put("version", ((OpResult.SetDataResult) result).getStat().getVersion());
+                }
+                results.add(item);
+            }
+            ret.put("success", true);
+            ret.put("message", operations.length + " operation(s) committed");
+        } catch (final KeeperException e) {
+            final List<OpResult> opResults = e.getResults();
+            if (null == opResults) {
+                throw e;
+            }
+            String message = "transaction rolled back: " + e.getMessage();
+            int failed = -1;
+            for (int i = 0; i < operations.length; i++) {
+                final int err = i < opResults.size() && opResults.get(i) instanceof OpResult.ErrorResult
+                        ? ((OpResult.ErrorResult) opResults.get(i)).getErr() : KeeperException.Code.RUNTIMEINCONSISTENCY.intValue();
+                final KeeperException.Code code = KeeperException.Code.get(err);
+                if (KeeperException.Code.OK != code && KeeperException.Code.RUNTIMEINCONSISTENCY != code && 0 > failed) {
+                    failed = i;
+                    message = "transaction rolled back, operation " + i + " (" + operations[i].op + " " + operations[i].path + ") failed: " + code;
+                }
+                results.add(result(operations[i], false, code));
+            }
+            ret.put("success", false);
+            ret.put("message", message);
+            ret.put("failed", failed);
+        }
+        ret.put("results", results);
+        return ret;
+    }
+
+    /**
+     * 作为一个 multi 事务提交, 连接断开时按 curator 的重试策略重试.
+     *
+     * @param client the curator client
+     * @param ops    操作
+     * @return 每个操作的结果
+     * @throws KeeperException 如果事务失败, {@link KeeperException#getResults()} 为每个操作的结果
+     * @throws Exception       如果提交发生异常(连接断开等)
+     */
+    static List<OpResult> multi(final CuratorFramework client, final List<Op> ops) throws Exception {
+        return RetryLoop.callWithRetry(client.getZookeeperClient(), new Callable<List<OpResult>>() {
+            @Override
+            public List<OpResult> call() throws Exception {
+                return client.getZookeeperClient().getZooKeeper().multi(ops);
+            }
+        });
+    }
+
+    private static Op op(final Operation operation, final int index) {
+        if (null == operation || null == operation.path) {
+            throw new IllegalArgumentException("operation " + index + ": path is required");
+        }
+        final int version = null != operation.version ? operation.version : ANY_VERSION;
+        final byte[] data = data(operation, index);
+        if (CREATE.equals(operation.op)) {
+            final CreateMode mode = null == operation.mode || "persistent".equalsIgnoreCase(operation.mode) ? CreateMode.PERSISTENT
+                    : ("ephemeral".equalsIgnoreCase(operation.mode) ? CreateMode.EPHEMERAL : null);
+            if (null == mode) {
+                throw new IllegalArgumentException("operation " + index + ": unsupported mode: " + operation.mode);
+            }
+            return Op.create(operation.path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, mode);
+        }
+        if (SET_DATA.equals(operation.op)) {
+            return Op.setData(operation.path, data, version);
+        }
+        if (DELETE.equals(operation.op)) {
+            return Op.delete(operation.path, version);
+        }
+        if (CHECK.equals(operation.op)) {
+            return Op.check(operation.path, version);
+        }
+        throw new IllegalArgumentException("operation " + index + ": unsupported op: " + operation.op);
+    }
+
+    private static byte[] data(final Operation operation, final int index) {
+        if (null == operation.value) {
+            return new byte[0];
+        }
+        if (null == operation.encoding) {
+            return Bytes.toBytes(operation.value);
+        }
+        if (!BASE64.equalsIgnoreCase(operation.encoding)) {
+            throw new IllegalArgumentException("operation " + index + ": unsupported encoding: " + operation.encoding);
+        }
+        try {
+            return Base64Variants.MIME_NO_LINEFEEDS.decode(operation.value);
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("operation " + index + ": illegal base64 value: " + e.getMessage());
+        }
+    }
+
+    private static Map<String, Object> result(final Operation operation, final boolean success, final KeeperException.Code code) {
+        final Map<String, Object> item = new LinkedHashMap<String, Object>();
+        item.put("op", operation.op);
+        item.put("path", operation.path);
+        item.put("success", success);
+        item.put("code", null != code ? code.name() : null);
+        return item;
+    }
+
+    /**
+     * 批量写入中的一个操作.
+     */
+    static final class Operation {
+        /**
+         * 操作类型: create, setData, delete, check.
+         */
+        private final String op;
+
+        /**
+         * 节点路径.
+         */
+        private final String path;
+
+        /**
+         * 节点数据(create, setData), 未指定编码时与单节点操作相同按字符串写入.
+         */
+        private final String value;
+
+        /**
+         * 节点数据的编码: null 表示字符串, base64.
+         */
+        private final String encoding;
+
+        /**
+         * 期望的版本(setData, delete, check), null 表示不检查.
+         */
+        private final Integer version;
+
+        /**
+         * 节点类型(create): persistent(默认), ephemeral(属于共享连接的 session, 见 {@link org.freework.zk.web.ui.util.CuratorHolder}).
+         */
+        private final String mode;
+
+        @JsonCreator
+        Operation(@JsonProperty("op") final String op, @JsonProperty("path") final String path,
+                  @JsonProperty("value") final String value, @JsonProperty("version") final Integer version,
+                  @JsonProperty("mode") final String mode, @JsonProperty("encoding") final String encoding) {
+            this.op = op;
+            this.path = path;
+            this.value = value;
+            this.encoding = encoding;
+            this.version = version;
+            this.mode = mode;
+        }
+    }
+}
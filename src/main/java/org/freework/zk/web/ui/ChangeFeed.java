@@ -0,0 +1,312 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个 zookeeper 集群的节点变更推送.
+ * <p>
+ * 每个被订阅的路径一个共享的 {@link Watch}, 所有订阅者共用同一个 watcher 和同一组 zookeeper watch(exists 和 getChildren).
+ * watch 触发后等待 debounceMs 合并同一路径的连续变更, 然后重新读取节点(同时重新注册 watch)并与上次的状态比较,
+ * 把数据变更, 子节点增删(名称)以及节点的创建/删除推送给订阅该路径的所有订阅者.
+ * </p>
+ * <p>
+ * zookeeper 3.4 不能移除 watch, 没有订阅者的路径只从表中移除, 其 watch 下次触发时被忽略.
+ * 重新连接后(可能是新的 session, watch 已丢失)重新读取所有路径.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class ChangeFeed implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangeFeed.class);
+
+    static final String CREATED = "created";
+    static final String DELETED = "deleted";
+    static final String DATA = "data";
+    static final String CHILDREN = "children";
+
+    private final String connectString;
+    private final CuratorFramework client;
+    private final ScheduledExecutorService scheduler;
+    private final long debounceMs;
+    private final ConcurrentMap<String, Watch> watches = new ConcurrentHashMap<String, Watch>();
+
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private volatile boolean closed;
+
+    private final CuratorWatcher watcher = new CuratorWatcher() {
+        @Override
+        public void process(final WatchedEvent event) {
+            onEvent(event);
+        }
+    };
+
+    private final ConnectionStateListener connectionListener = new ConnectionStateListener() {
+        @Override
+        public void stateChanged(final CuratorFramework c, final ConnectionState newState) {
+            if (ConnectionState.RECONNECTED == newState && !closed) {
+                for (final Watch watch : watches.values()) {
+                    schedule(watch);
+                }
+            }
+        }
+    };
+
+    ChangeFeed(final String connectString, final CuratorFramework client,
+               final ScheduledExecutorService scheduler, final long debounceMs) {
+        this.connectString = connectString;
+        this.client = client;
+        this.scheduler = scheduler;
+        this.debounceMs = debounceMs;
+        this.client.getConnectionStateListenable().addListener(connectionListener);
+    }
+
+    /**
+     * 订阅路径的变更, 第一个订阅者注册 watch 并读取初始状态(不推送).
+     *
+     * @param path       the znode path
+     * @param subscriber the subscriber
+     */
+    synchronized void subscribe(final String path, final ChangeFeeds.Subscriber subscriber) {
+        Watch watch = watches.get(path);
+        if (null == watch) {
+            watch = new Watch(path);
+            watches.put(path, watch);
+            watch.subscribers.add(subscriber);
+            refresh(watch);
+        } else {
+            watch.subscribers.add(subscriber);
+        }
+    }
+
+    /**
+     * 取消订阅, 没有订阅者的路径不再重新注册 watch.
+     *
+     * @param path       the znode path
+     * @param subscriber the subscriber
+     */
+    synchronized void unsubscribe(final String path, final ChangeFeeds.Subscriber subscriber) {
+        final Watch watch = watches.get(path);
+        if (null != watch && watch.subscribers.remove(subscriber) && watch.subscribers.isEmpty()) {
+            watches.remove(path);
+        }
+    }
+
+    /**
+     * 推送统计信息.
+     *
+     * @return 统计信息
+     */
+    Map<String, Object> stats() {
+        final Set<ChangeFeeds.Subscriber> subscribers = new HashSet<ChangeFeeds.Subscriber>();
+        for (final Watch watch : watches.values()) {
+            subscribers.addAll(watch.subscribers);
+        }
+        final Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("connectString", connectString);
+        stats.put("paths", watches.size());
+        stats.put("subscribers", subscribers.size());
+        stats.put("events", events.get());
+        stats.put("refreshes", refreshes.get());
+        stats.put("published", published.get());
+        return stats;
+    }
+
+    private void onEvent(final WatchedEvent event) {
+        final String path = event.getPath();
+        if (closed || Watcher.Event.EventType.None == event.getType() || null == path) {
+            return;
+        }
+        events.incrementAndGet();
+        final Watch watch = watches.get(path);
+        if (null != watch) {
+            schedule(watch);
+        }
+    }
+
+    /**
+     * 合并 debounceMs 内同一路径的变更, 只重新读取一次.
+     */
+    private void schedule(final Watch watch) {
+        if (!watch.pending.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                watch.pending.set(false);
+                refresh(watch);
+            }
+        }, debounceMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 读取节点的 Stat 和子节点, 重新注册 watch (节点不存在时 exists watch 等待创建).
+     */
+    private void refresh(final Watch watch) {
+        if (closed || watch != watches.get(watch.path)) {
+            return;
+        }
+        refreshes.incrementAndGet();
+        try {
+            client.checkExists().usingWatcher(watcher).inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                    final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                    if (KeeperException.Code.NONODE == code || (KeeperException.Code.OK == code && null == event.getStat())) {
+                        publish(watch, watch.update(null, null));
+                    } else if (KeeperException.Code.OK == code) {
+                        refreshChildren(watch);
+                    } else {
+                        // 连接断开, 重新连接后重新读取.
+                        LOGGER.debug("refresh '{}' failed: {}", watch.path, code);
+                    }
+                }
+            }).forPath(watch.path);
+        } catch (final Exception e) {
+            LOGGER.warn("refresh '{}' failed: {}", watch.path, e.getMessage());
+        }
+    }
+
+    private void refreshChildren(final Watch watch) {
+        try {
+            client.getChildren().usingWatcher(watcher).inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                    final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                    if (KeeperException.Code.OK == code) {
+                        publish(watch, watch.update(event.getStat(), event.getChildren()));
+                    } else if (KeeperException.Code.NONODE == code) {
+                        publish(watch, watch.update(null, null));
+                    } else {
+                        LOGGER.debug("refresh children of '{}' failed: {}", watch.path, code);
+                    }
+                }
+            }).forPath(watch.path);
+        } catch (final Exception e) {
+            LOGGER.warn("refresh children of '{}' failed: {}", watch.path, e.getMessage());
+        }
+    }
+
+    private void publish(final Watch watch, final List<Map<String, Object>> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (final ChangeFeeds.Subscriber subscriber : watch.subscribers) {
+            subscriber.publish(changes);
+        }
+        published.addAndGet(changes.size());
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        client.getConnectionStateListenable().removeListener(connectionListener);
+        watches.clear();
+    }
+
+    /**
+     * 一个路径的共享 watch 和上次读取的状态.
+     */
+    private static final class Watch {
+        private final String path;
+        private final Set<ChangeFeeds.Subscriber> subscribers = new CopyOnWriteArraySet<ChangeFeeds.Subscriber>();
+        private final AtomicBoolean pending = new AtomicBoolean();
+        private boolean loaded;
+        private Stat stat;
+        private Set<String> children;
+
+        private Watch(final String path) {
+            this.path = path;
+        }
+
+        /**
+         * 更新状态并返回与上次的差异, 第一次读取只记录状态.
+         *
+         * @param stat     节点的 Stat, 不存在时为 null
+         * @param children 子节点, 不存在时为 null
+         * @return 变更
+         */
+        private synchronized List<Map<String, Object>> update(final Stat stat, final List<String> children) {
+            final Set<String> current = null != children ? new TreeSet<String>(children) : Collections.<String>emptySet();
+            final List<Map<String, Object>> changes = new ArrayList<Map<String, Object>>(2);
+            if (loaded) {
+                if (null == stat) {
+                    if (null != this.stat) {
+                        changes.add(change(DELETED, null));
+                    }
+                } else if (null == this.stat) {
+                    changes.add(change(CREATED, stat));
+                } else {
+                    if (stat.getMzxid() != this.stat.getMzxid()) {
+                        changes.add(change(DATA, stat));
+                    }
+                    if (!current.equals(this.children)) {
+                        final Map<String, Object> change = change(CHILDREN, stat);
+                        final List<String> added = new ArrayList<String>();
+                        final List<String> removed = new ArrayList<String>();
+                        for (final String child : current) {
+                            if (!this.children.contains(child)) {
+                                added.add(child);
+                            }
+                        }
+                        for (final String child : this.children) {
+                            if (!current.contains(child)) {
+                                removed.add(child);
+                            }
+                        }
+                        change.put("added", added);
+                        change.put("removed", removed);
+                        changes.add(change);
+                    }
+                }
+            }
+            this.loaded = true;
+            this.stat = stat;
+            this.children = current;
+            return changes;
+        }
+
+        private Map<String, Object> change(final String type, final Stat stat) {
+            final Map<String, Object> change = new LinkedHashMap<String, Object>();
+            change.put("type", type);
+            change.put("path", path);
+            if (null != stat) {
+                change.put("version", stat.getVersion());
+                change.put("mzxid", stat.getMzxid());
+                change.put("length", stat.getDataLength());
+                change.put("items", stat.getNumChildren());
+            }
+            return change;
+        }
+    }
+}
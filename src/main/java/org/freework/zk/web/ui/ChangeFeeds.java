@@ -0,0 +1,321 @@
+package org.freework.zk.web.ui;
+
+import org.freework.zk.web.ui.util.CuratorPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 节点变更推送的订阅管理.
+ * <p>
+ * 每个浏览器连接(事件流)是一个 {@link Subscriber}, 通过 stream id 增减订阅的路径;
+ * 每个 zookeeper 集群一个 {@link ChangeFeed}, 持有实例池中 curator 实例的一个租用, 最后一个订阅者断开后关闭.
+ * </p>
+ * <p>
+ * 变更先放入订阅者的队列, 由写出线程批量写出, 慢的连接不会阻塞 zookeeper 事件线程;
+ * 队列超过 maxQueued 时丢弃积压的变更, 只推送一个 resync (浏览器重新加载已展开的节点).
+ * 没有变更时定期写出心跳, 写出失败即认为连接已断开.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class ChangeFeeds implements Closeable {
+    static final String STREAM = "stream";
+    static final String RESYNC = "resync";
+
+    private final CuratorPool pool;
+    private final long debounceMs;
+    private final int maxPaths;
+    private final int maxQueued;
+    private final Map<String, ChangeFeed> feeds = new HashMap<String, ChangeFeed>();
+    private final ConcurrentMap<String, Subscriber> subscribers = new ConcurrentHashMap<String, Subscriber>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "change-feed-scheduler");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final ExecutorService writer = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "change-feed-writer-" + sequence.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    ChangeFeeds(final CuratorPool pool, final long debounceMs, final long heartbeatMs, final int maxPaths, final int maxQueued) {
+        this.pool = pool;
+        this.debounceMs = debounceMs;
+        this.maxPaths = maxPaths;
+        this.maxQueued = maxQueued;
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (final Subscriber subscriber : subscribers.values()) {
+                    subscriber.heartbeat();
+                }
+            }
+        }, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 新建订阅者, 第一个事件(stream)包含 stream id.
+     *
+     * @param zkUrl the zookeeper url
+     * @param sink  事件写出
+     * @return the subscriber
+     */
+    synchronized Subscriber subscribe(final String zkUrl, final Sink sink) {
+        final String key = CuratorPool.normalize(zkUrl);
+        ChangeFeed feed = feeds.get(key);
+        if (null == feed) {
+            feed = new ChangeFeed(key, pool.acquire(key), scheduler, debounceMs);
+            feeds.put(key, feed);
+        }
+        final Subscriber subscriber = new Subscriber(UUID.randomUUID().toString(), key, feed, sink);
+        subscribers.put(subscriber.id, subscriber);
+
+        final Map<String, Object> first = new LinkedHashMap<String, Object>();
+        first.put("type", STREAM);
+        first.put("stream", subscriber.id);
+        subscriber.publish(Collections.singletonList(first));
+        return subscriber;
+    }
+
+    /**
+     * 增减事件流订阅的路径.
+     *
+     * @param stream the stream id
+     * @param add    新订阅的路径
+     * @param remove 取消订阅的路径
+     * @return 结果, watched 为订阅的路径数
+     * @throws IllegalArgumentException 如果事件流不存在或订阅的路径超过 maxPaths
+     */
+    Map<String, Object> watch(final String stream, final List<String> add, final List<String> remove) {
+        final Subscriber subscriber = null != stream ? subscribers.get(stream) : null;
+        if (null == subscriber) {
+            throw new IllegalArgumentException("unknown stream: " + stream);
+        }
+        final int watched;
+        synchronized (subscriber) {
+            if (subscriber.closed) {
+                throw new IllegalArgumentException("unknown stream: " + stream);
+            }
+            for (final String path : remove) {
+                if (subscriber.paths.remove(path)) {
+                    subscriber.feed.unsubscribe(path, subscriber);
+                }
+            }
+            final Set<String> added = new HashSet<String>(add);
+            added.removeAll(subscriber.paths);
+            if (subscriber.paths.size() + added.size() > maxPaths) {
+                throw new IllegalArgumentException("too many watched paths, max: " + maxPaths);
+            }
+            for (final String path : added) {
+                subscriber.paths.add(path);
+                subscriber.feed.subscribe(path, subscriber);
+            }
+            watched = subscriber.paths.size();
+        }
+        final Map<String, Object> ret = new HashMap<String, Object>();
+        ret.put("success", true);
+        ret.put("watched", watched);
+        return ret;
+    }
+
+    /**
+     * 关闭订阅者(连接断开), 取消所有订阅, 集群没有订阅者时关闭.
+     *
+     * @param subscriber the subscriber
+     */
+    void unsubscribe(final Subscriber subscriber) {
+        if (null == subscribers.remove(subscriber.id)) {
+            return;
+        }
+        synchronized (subscriber) {
+            subscriber.closed = true;
+            for (final String path : subscriber.paths) {
+                subscriber.feed.unsubscribe(path, subscriber);
+            }
+            subscriber.paths.clear();
+        }
+        subscriber.sink.close();
+        synchronized (this) {
+            for (final Subscriber other : subscribers.values()) {
+                if (other.feed == subscriber.feed) {
+                    return;
+                }
+            }
+            if (feeds.remove(subscriber.cluster) == subscriber.feed) {
+                subscriber.feed.close();
+                pool.release(subscriber.cluster);
+            }
+        }
+    }
+
+    /**
+     * 所有集群的推送统计信息.
+     *
+     * @return 统计信息
+     */
+    synchronized List<Map<String, Object>> stats() {
+        final List<Map<String, Object>> stats = new ArrayList<Map<String, Object>>(feeds.size());
+        for (final ChangeFeed feed : feeds.values()) {
+            stats.add(feed.stats());
+        }
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        for (final Subscriber subscriber : subscribers.values()) {
+            unsubscribe(subscriber);
+        }
+        scheduler.shutdownNow();
+        writer.shutdownNow();
+    }
+
+    /**
+     * 事件写出(如 Server-Sent Events 响应).
+     */
+    interface Sink {
+        /**
+         * 写出一批事件并刷新.
+         *
+         * @param events 事件, type 为事件类型
+         * @throws IOException 如果连接已断开
+         */
+        void send(List<Map<String, Object>> events) throws IOException;
+
+        /**
+         * 写出心跳并刷新.
+         *
+         * @throws IOException 如果连接已断开
+         */
+        void heartbeat() throws IOException;
+
+        /**
+         * 结束响应.
+         */
+        void close();
+    }
+
+    /**
+     * 一个事件流的订阅.
+     */
+    final class Subscriber {
+        private final String id;
+        private final String cluster;
+        private final ChangeFeed feed;
+        private final Sink sink;
+        private final Set<String> paths = new HashSet<String>();
+        private final ConcurrentLinkedQueue<Map<String, Object>> queue = new ConcurrentLinkedQueue<Map<String, Object>>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicBoolean writing = new AtomicBoolean();
+        private volatile boolean overflowed;
+        private volatile boolean closed;
+
+        private Subscriber(final String id, final String cluster, final ChangeFeed feed, final Sink sink) {
+            this.id = id;
+            this.cluster = cluster;
+            this.feed = feed;
+            this.sink = sink;
+        }
+
+        /**
+         * 放入待写出的变更.
+         *
+         * @param changes 变更
+         */
+        void publish(final List<Map<String, Object>> changes) {
+            for (final Map<String, Object> change : changes) {
+                if (maxQueued < queued.incrementAndGet()) {
+                    queued.decrementAndGet();
+                    overflowed = true;
+                } else {
+                    queue.add(change);
+                }
+            }
+            write(false);
+        }
+
+        private void heartbeat() {
+            write(true);
+        }
+
+        /**
+         * 同一时间只有一个线程写出, 写出期间放入的变更由该线程继续写出.
+         */
+        private void write(final boolean heartbeat) {
+            if (closed || !writing.compareAndSet(false, true)) {
+                return;
+            }
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        boolean idle = heartbeat;
+                        do {
+                            final List<Map<String, Object>> events = drain();
+                            if (!events.isEmpty()) {
+                                sink.send(events);
+                                idle = false;
+                            } else if (idle) {
+                                sink.heartbeat();
+                                idle = false;
+                            }
+                            writing.set(false);
+                        } while ((!queue.isEmpty() || overflowed) && !closed && writing.compareAndSet(false, true));
+                    } catch (final Exception e) {
+                        // 连接已断开.
+                        writing.set(false);
+                        unsubscribe(Subscriber.this);
+                    }
+                }
+            });
+        }
+
+        private List<Map<String, Object>> drain() {
+            final List<Map<String, Object>> events = new ArrayList<Map<String, Object>>();
+            if (overflowed) {
+                overflowed = false;
+                queue.clear();
+                queued.set(0);
+                final Map<String, Object> resync = new LinkedHashMap<String, Object>();
+                resync.put("type", RESYNC);
+                events.add(resync);
+                return events;
+            }
+            Map<String, Object> event;
+            while (null != (event = queue.poll())) {
+                queued.decrementAndGet();
+                events.add(event);
+            }
+            return events;
+        }
+    }
+}
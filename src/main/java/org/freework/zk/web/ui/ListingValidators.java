@@ -0,0 +1,441 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 子节点列举的条件请求(ETag/If-None-Match)校验.
+ * <p>
+ * ETag 由请求参数和每个子节点的 czxid, mzxid, version, cversion, aversion, 数据长度和子节点数计算, 内容相同则 ETag 相同.
+ * 列举时在父节点(getChildren)和每个子节点(getData/exists)上注册 watch, 列举后再异步在每个子节点上注册子节点 watch,
+ * 任何 watch 触发(或连接断开)都使对应路径的校验信息失效.
+ * 校验信息有效且 If-None-Match 匹配时, 只需一次父节点的 checkExists 确认 cversion 和 pzxid 没有变化即可返回 304,
+ * 不再读取所有子节点.
+ * </p>
+ * <p>
+ * ACL 变更不触发 watch, 304 响应中子节点的 aversion 可能滞后.
+ * zookeeper 3.4 不能移除 watch, 淘汰的校验信息的 watch 保留到下次触发.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class ListingValidators {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListingValidators.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * 集群+路径 -> 校验信息, 按访问顺序淘汰.
+     */
+    private final Map<String, Validator> validators;
+
+    /**
+     * 每个集群一个 watcher.
+     */
+    private final ConcurrentMap<String, CuratorWatcher> watchers = new ConcurrentHashMap<String, CuratorWatcher>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    ListingValidators(final int maxEntries) {
+        this.validators = new LinkedHashMap<String, Validator>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Validator> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 计算子节点列举的 ETag (弱校验, 与响应的编码和压缩无关).
+     *
+     * @param variant 请求参数(预览长度, 编码, 分页等)
+     * @param views   子节点
+     * @return the etag
+     */
+    static String etag(final String variant, final ZookeeperWebUiServlet.View[] views) {
+        return "W/\"" + Long.toHexString(hash(hash(FNV_OFFSET, null != variant ? variant : ""), views)) + '"';
+    }
+
+    /**
+     * 计算子节点分页的 ETag.
+     *
+     * @param variant 请求参数
+     * @param page    the page
+     * @return the etag
+     */
+    static String etag(final String variant, final ZookeeperWebUiServlet.Page page) {
+        return etag(variant + '\n' + page.getTotal() + '\n' + page.getOffset() + '\n' + page.getNext(), page.getItems());
+    }
+
+    /**
+     * If-None-Match 是否包含给定的 ETag.
+     *
+     * @param ifNoneMatch If-None-Match 请求头, 可以为 null
+     * @param etag        the etag
+     * @return 是否匹配
+     */
+    static boolean matches(final String ifNoneMatch, final String etag) {
+        if (null == ifNoneMatch) {
+            return false;
+        }
+        for (final String candidate : ifNoneMatch.split(",")) {
+            final String tag = candidate.trim();
+            if ("*".equals(tag) || etag.equals(tag) || etag.equals("W/" + tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 给定集群的 watcher, 列举时注册在父节点和子节点上.
+     *
+     * @param cluster the normalized zookeeper url
+     * @return the watcher
+     */
+    CuratorWatcher watcher(final String cluster) {
+        CuratorWatcher watcher = watchers.get(cluster);
+        if (null == watcher) {
+            watcher = new CuratorWatcher() {
+                @Override
+                public void process(final WatchedEvent event) {
+                    if (Watcher.Event.EventType.None == event.getType()) {
+                        if (Watcher.Event.KeeperState.SyncConnected != event.getState()) {
+                            // 连接断开或 session 过期期间可能丢失事件.
+                            invalidateAll(cluster);
+                        }
+                    } else if (null != event.getPath()) {
+                        invalidate(cluster, event.getPath());
+                        invalidate(cluster, parentOf(event.getPath()));
+                    }
+                }
+            };
+            final CuratorWatcher existing = watchers.putIfAbsent(cluster, watcher);
+            watcher = null != existing ? existing : watcher;
+        }
+        return watcher;
+    }
+
+    /**
+     * 重新列举(注册 watch)并记录新的 ETag.
+     *
+     * @param client  the curator client
+     * @param cluster the normalized zookeeper url
+     * @param path    the parent path
+     * @param variant 请求参数
+     * @param source  列举方式
+     * @param <T>     列举结果的类型
+     * @return 列举结果
+     */
+    <T> CompletableFuture<Listing<T>> list(final CuratorFramework client, final String cluster, final String path,
+                                           final String variant, final Source<T> source) {
+        final Object token = begin(client, cluster, path);
+        final Stat stat = new Stat();
+        return source.list(watcher(cluster), stat).thenApply(new Function<T, Listing<T>>() {
+            @Override
+            public Listing<T> apply(final T value) {
+                final String etag = source.etag(value);
+                put(token, cluster, variant, etag, stat, source.views(value));
+                return new Listing<T>(etag, value);
+            }
+        });
+    }
+
+    /**
+     * 不使用校验信息的列举, 每次都重新列举并计算 ETag.
+     *
+     * @param source 列举方式
+     * @param <T>    列举结果的类型
+     * @return 列举结果
+     */
+    static <T> CompletableFuture<Listing<T>> list(final Source<T> source) {
+        return source.list(null, null).thenApply(new Function<T, Listing<T>>() {
+            @Override
+            public Listing<T> apply(final T value) {
+                return new Listing<T>(source.etag(value), value);
+            }
+        });
+    }
+
+    /**
+     * 如果 If-None-Match 与有效的校验信息匹配, 并且父节点的子节点没有变化(一次后台 checkExists), 返回匹配的 ETag.
+     *
+     * @param client      the curator client
+     * @param cluster     the normalized zookeeper url
+     * @param path        the parent path
+     * @param variant     请求参数
+     * @param ifNoneMatch If-None-Match 请求头, 可以为 null
+     * @return 匹配的 ETag, 需要重新列举时为 null
+     */
+    CompletableFuture<String> notModified(final CuratorFramework client, final String cluster, final String path,
+                                          final String variant, final String ifNoneMatch) {
+        if (null == ifNoneMatch) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final Validator validator;
+        final String etag;
+        final int cversion;
+        final long pzxid;
+        synchronized (validators) {
+            validator = validators.get(cluster + '\n' + path);
+            etag = null != validator && validator.client == client ? validator.etags.get(variant) : null;
+            cversion = null != validator ? validator.cversion : 0;
+            pzxid = null != validator ? validator.pzxid : 0;
+        }
+        if (null == etag || !matches(ifNoneMatch, etag)) {
+            misses.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<String> future = new CompletableFuture<String>();
+        try {
+            client.checkExists().inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                    final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                    final Stat stat = event.getStat();
+                    if (KeeperException.Code.OK == code && null != stat
+                            && stat.getCversion() == cversion && stat.getPzxid() == pzxid && validator.valid) {
+                        hits.incrementAndGet();
+                        future.complete(etag);
+                    } else if (KeeperException.Code.OK == code || KeeperException.Code.NONODE == code) {
+                        misses.incrementAndGet();
+                        future.complete(null);
+                    } else {
+                        future.completeExceptionally(KeeperException.create(code, path));
+                    }
+                }
+            }).forPath(path);
+        } catch (final Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 开始列举前创建新的校验信息, 列举期间 watch 触发会使其失效, 避免记录已过期的列举.
+     *
+     * @param client  the curator client
+     * @param cluster the normalized zookeeper url
+     * @param path    the parent path
+     * @return 校验信息
+     */
+    private Object begin(final CuratorFramework client, final String cluster, final String path) {
+        final Validator validator = new Validator(client);
+        synchronized (validators) {
+            validators.put(cluster + '\n' + path, validator);
+        }
+        return validator;
+    }
+
+    /**
+     * 记录列举的 ETag, 并在每个子节点上异步注册子节点 watch (子节点数变化时失效).
+     *
+     * @param token   {@link #begin(CuratorFramework, String, String)} 返回的校验信息
+     * @param cluster the normalized zookeeper url
+     * @param variant 请求参数
+     * @param etag    the etag
+     * @param stat    列举时父节点的 Stat
+     * @param views   列举的子节点
+     */
+    private void put(final Object token, final String cluster, final String variant,
+             final String etag, final Stat stat, final ZookeeperWebUiServlet.View[] views) {
+        final Validator validator = (Validator) token;
+        final CuratorFramework client = validator.client;
+        synchronized (validators) {
+            if (!validator.valid) {
+                return;
+            }
+            validator.cversion = stat.getCversion();
+            validator.pzxid = stat.getPzxid();
+            validator.etags.put(variant, etag);
+        }
+        final CuratorWatcher watcher = watcher(cluster);
+        for (final ZookeeperWebUiServlet.View view : views) {
+            final int items = view.getItems();
+            try {
+                client.getChildren().usingWatcher(watcher).inBackground(new BackgroundCallback() {
+                    @Override
+                    public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                        final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                        if (KeeperException.Code.OK != code || null == event.getStat() || items != event.getStat().getNumChildren()) {
+                            // 列举之后, 注册 watch 之前发生了变化.
+                            validator.valid = false;
+                        }
+                    }
+                }).forPath(view.getPath());
+            } catch (final Exception e) {
+                validator.valid = false;
+                LOGGER.warn("watch children of '{}' failed: {}", view.getPath(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 校验统计信息.
+     *
+     * @return 统计信息
+     */
+    Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        synchronized (validators) {
+            stats.put("entries", validators.size());
+        }
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    private void invalidate(final String cluster, final String path) {
+        final Validator validator;
+        synchronized (validators) {
+            validator = validators.remove(cluster + '\n' + path);
+        }
+        if (null != validator) {
+            validator.valid = false;
+            invalidations.incrementAndGet();
+        }
+    }
+
+    private void invalidateAll(final String cluster) {
+        synchronized (validators) {
+            final Iterator<Map.Entry<String, Validator>> it = validators.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<String, Validator> entry = it.next();
+                if (entry.getKey().startsWith(cluster + '\n')) {
+                    entry.getValue().valid = false;
+                    it.remove();
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static String parentOf(final String path) {
+        final int index = path.lastIndexOf('/');
+        return 0 < index ? path.substring(0, index) : "/";
+    }
+
+    /**
+     * 子节点(包括多层列举展开的子节点)的哈希.
+     */
+    private static long hash(long hash, final ZookeeperWebUiServlet.View[] views) {
+        for (final ZookeeperWebUiServlet.View view : views) {
+            hash = hash(hash, view.getPath());
+            hash = hash(hash, view.getCzxid());
+            hash = hash(hash, view.getMzxid());
+            hash = hash(hash, view.getVersion());
+            hash = hash(hash, view.getCversion());
+            hash = hash(hash, view.getAversion());
+            hash = hash(hash, view.getLength());
+            hash = hash(hash, view.getItems());
+            if (null != view.getChildren()) {
+                hash = hash(hash, view.getChildren().length);
+                hash = hash(hash, view.getChildren());
+            }
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, final String value) {
+        for (final byte b : value.getBytes(UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+        }
+        return (hash ^ 0xFF) * FNV_PRIME;
+    }
+
+    private static long hash(long hash, final long value) {
+        for (int i = 0; i < 64; i += 8) {
+            hash = (hash ^ ((value >>> i) & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * 列举方式.
+     *
+     * @param <T> 列举结果的类型
+     */
+    interface Source<T> {
+        /**
+         * 异步列举.
+         *
+         * @param watcher 要注册在父节点和子节点上的 watcher, 不需要时为 null
+         * @param stat    存放父节点的 Stat, 不需要时为 null
+         * @return 列举结果
+         */
+        CompletableFuture<T> list(CuratorWatcher watcher, Stat stat);
+
+        /**
+         * 列举结果的 ETag.
+         *
+         * @param value 列举结果
+         * @return the etag
+         */
+        String etag(T value);
+
+        /**
+         * 列举结果中的子节点.
+         *
+         * @param value 列举结果
+         * @return 子节点
+         */
+        ZookeeperWebUiServlet.View[] views(T value);
+    }
+
+    /**
+     * 条件列举的结果.
+     *
+     * @param <T> 列举结果的类型
+     */
+    static final class Listing<T> {
+        final String etag;
+
+        /**
+         * 列举结果, 未修改(If-None-Match 匹配)时为 null.
+         */
+        final T value;
+
+        Listing(final String etag, final T value) {
+            this.etag = etag;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 一个父节点的校验信息: 列举时父节点的 cversion 和 pzxid, 每组请求参数的 ETag.
+     */
+    private static final class Validator {
+        private final CuratorFramework client;
+        private final Map<String, String> etags = new HashMap<String, String>(4);
+        private int cversion;
+        private long pzxid;
+        private volatile boolean valid = true;
+
+        private Validator(final CuratorFramework client) {
+            this.client = client;
+        }
+    }
+}
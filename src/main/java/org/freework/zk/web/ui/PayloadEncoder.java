@@ -0,0 +1,200 @@
+package org.freework.zk.web.ui;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 节点数据在 JSON 中的编码.
+ * <p>
+ * 编码直接从 byte[] 写入 {@link JsonGenerator}, 使用线程内复用的缓冲区, 不生成中间字符串.
+ * 响应使用的编码通过 ObjectWriter 的属性 {@link #ATTRIBUTE} 指定, 默认为 {@link #HEX}.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+abstract class PayloadEncoder {
+    /**
+     * ObjectWriter 中指定编码的属性名.
+     */
+    static final String ATTRIBUTE = PayloadEncoder.class.getName();
+
+    /**
+     * 复用缓冲区的最大字符数, 更大的数据使用临时缓冲区.
+     */
+    private static final int MAX_REUSABLE_CHARS = 64 * 1024;
+
+    private static final ThreadLocal<char[]> BUFFERS = new ThreadLocal<char[]>();
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final Map<String, PayloadEncoder> ENCODERS = new ConcurrentHashMap<String, PayloadEncoder>();
+
+    /**
+     * "0x" 开始的十六进制, 与之前的格式相同.
+     */
+    static final PayloadEncoder HEX = register(new PayloadEncoder("hex") {
+        @Override
+        void write(final byte[] data, final int offset, final int length, final JsonGenerator generator) throws IOException {
+            // 十六进制字符不需要转义, 连同引号作为原始值写出.
+            final int size = 2 * length + 4;
+            final char[] buffer = buffer(size);
+            int pos = 0;
+            buffer[pos++] = '"';
+            buffer[pos++] = '0';
+            buffer[pos++] = 'x';
+            for (int i = offset; i < offset + length; i++) {
+                buffer[pos++] = HEX_DIGITS[(data[i] >> 4) & 0xF];
+                buffer[pos++] = HEX_DIGITS[data[i] & 0xF];
+            }
+            buffer[pos++] = '"';
+            generator.writeRawValue(buffer, 0, pos);
+        }
+    });
+
+    /**
+     * 不换行的标准 base64.
+     */
+    static final PayloadEncoder BASE64 = register(new PayloadEncoder("base64") {
+        @Override
+        void write(final byte[] data, final int offset, final int length, final JsonGenerator generator) throws IOException {
+            generator.writeBinary(Base64Variants.MIME_NO_LINEFEEDS, data, offset, length);
+        }
+    });
+
+    /**
+     * 合法的 UTF-8 数据直接作为字符串, 否则(或字符串以 "0x" 开始时)使用 {@link #HEX},
+     * 因此 "0x" 开始的值总是十六进制.
+     */
+    static final PayloadEncoder UTF8 = register(new PayloadEncoder("utf8") {
+        private final ThreadLocal<CharsetDecoder> decoders = new ThreadLocal<CharsetDecoder>();
+
+        @Override
+        void write(final byte[] data, final int offset, final int length, final JsonGenerator generator) throws IOException {
+            if (1 < length && '0' == data[offset] && 'x' == data[offset + 1]) {
+                HEX.write(data, offset, length, generator);
+                return;
+            }
+            final char[] buffer = buffer(length);
+            int ascii = 0;
+            while (ascii < length && 0 <= data[offset + ascii]) {
+                buffer[ascii] = (char) data[offset + ascii];
+                ascii++;
+            }
+            if (ascii == length) {
+                generator.writeString(buffer, 0, length);
+                return;
+            }
+
+            CharsetDecoder decoder = decoders.get();
+            if (null == decoder) {
+                decoder = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT);
+                decoders.set(decoder);
+            }
+            final CharBuffer out = CharBuffer.wrap(buffer, ascii, buffer.length - ascii);
+            decoder.reset();
+            // UTF-8 解码后的字符数不会超过字节数.
+            final CoderResult result = decoder.decode(ByteBuffer.wrap(data, offset + ascii, length - ascii), out, true);
+            if (result.isError() || decoder.flush(out).isError()) {
+                HEX.write(data, offset, length, generator);
+            } else {
+                generator.writeString(buffer, 0, out.position());
+            }
+        }
+    });
+
+    private final String name;
+
+    protected PayloadEncoder(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * 编码名称.
+     *
+     * @return 编码名称
+     */
+    String name() {
+        return name;
+    }
+
+    /**
+     * 将数据编码为一个 JSON 值写出.
+     *
+     * @param data      数据
+     * @param offset    起始位置
+     * @param length    字节数
+     * @param generator the json generator
+     * @throws IOException 如果IO发生异常
+     */
+    abstract void write(byte[] data, int offset, int length, JsonGenerator generator) throws IOException;
+
+    /**
+     * 注册编码, 客户端可以通过名称选择.
+     *
+     * @param encoder 编码
+     * @return 编码
+     */
+    static PayloadEncoder register(final PayloadEncoder encoder) {
+        ENCODERS.put(encoder.name(), encoder);
+        return encoder;
+    }
+
+    /**
+     * 获取给定名称的编码.
+     *
+     * @param name 编码名称, null 时为 {@link #HEX}
+     * @return 编码
+     * @throws IllegalArgumentException 如果编码不存在
+     */
+    static PayloadEncoder forName(final String name) {
+        if (null == name) {
+            return HEX;
+        }
+        final PayloadEncoder encoder = ENCODERS.get(name);
+        if (null == encoder) {
+            throw new IllegalArgumentException("unsupported encoding: " + name + ", available: " + ENCODERS.keySet());
+        }
+        return encoder;
+    }
+
+    private static char[] buffer(final int size) {
+        if (MAX_REUSABLE_CHARS < size) {
+            return new char[size];
+        }
+        char[] buffer = BUFFERS.get();
+        if (null == buffer || buffer.length < size) {
+            buffer = new char[Math.max(size, 256)];
+            BUFFERS.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * 节点数据的序列化器, 使用 ObjectWriter 属性指定的编码, 空数据为 null.
+     */
+    static final class Serializer extends JsonSerializer<byte[]> {
+        @Override
+        public void serialize(final byte[] data, final JsonGenerator generator, final SerializerProvider provider) throws IOException {
+            final Object encoder = provider.getAttribute(ATTRIBUTE);
+            if (0 == data.length) {
+                generator.writeNull();
+            } else {
+                (encoder instanceof PayloadEncoder ? (PayloadEncoder) encoder : HEX).write(data, 0, data.length, generator);
+            }
+        }
+    }
+}
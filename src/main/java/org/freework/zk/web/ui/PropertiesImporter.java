@@ -0,0 +1,275 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.utils.PathUtils;
+import org.apache.zookeeper.KeeperException;
+import org.freework.zk.web.ui.util.PropertiesReader;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流式并行导入 properties (导出的逆操作).
+ * <p>
+ * 属性名为节点的绝对路径, 属性值为节点数据(UTF-8), 与 {@link SubtreeDumper} 导出的格式相同.
+ * 每读取一个条目就发出后台 getData 请求, 不存在时创建(包括缺失的父节点), 数据不同时 setData,
+ * 相同时不写入; 请求在最大并发数内流水线执行, 读取上传内容的线程只在达到并发上限时等待.
+ * </p>
+ * <p>
+ * 支持三种模式: apply 写入; dry-run 只统计将要创建和更新的节点数; diff 同时返回有差异的条目.
+ * 导入不是原子的, 失败的条目记录在结果中, 不影响其他条目.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class PropertiesImporter {
+    static final String APPLY = "apply";
+    static final String DRY_RUN = "dry-run";
+    static final String DIFF = "diff";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String ZK_SYSTEM_NODE_PATH = "/zookeeper";
+
+    /**
+     * 结果中最多返回的错误数.
+     */
+    private static final int MAX_ERRORS = 100;
+
+    /**
+     * 最大并发(未完成)条目数.
+     */
+    private final int concurrency;
+
+    /**
+     * 等待并发许可的超时时间(毫秒).
+     */
+    private final long timeoutMs;
+
+    /**
+     * diff 模式最多返回的差异条目数.
+     */
+    private final int maxChanges;
+
+    PropertiesImporter(final int concurrency, final long timeoutMs, final int maxChanges) {
+        if (1 > concurrency) {
+            throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        this.timeoutMs = timeoutMs;
+        this.maxChanges = maxChanges;
+    }
+
+    /**
+     * 导入给定子树下的条目, 子树外的条目和 zookeeper 系统节点跳过.
+     *
+     * @param client the curator client
+     * @param root   子树根路径
+     * @param in     properties
+     * @param mode   {@link #APPLY}, {@link #DRY_RUN} 或 {@link #DIFF}
+     * @return 导入结果
+     * @throws Exception 如果读取发生异常或等待超时
+     */
+    Map<String, Object> load(final CuratorFramework client, final String root, final PropertiesReader in, final String mode) throws Exception {
+        if (!APPLY.equals(mode) && !DRY_RUN.equals(mode) && !DIFF.equals(mode)) {
+            throw new IllegalArgumentException("unsupported mode: " + mode + ", available: " + Arrays.asList(APPLY, DRY_RUN, DIFF));
+        }
+        final long start = System.currentTimeMillis();
+        final Session session = new Session(client, APPLY.equals(mode), DIFF.equals(mode));
+        final String prefix = "/".equals(root) ? "/" : root + '/';
+        long entries = 0;
+        while (in.next()) {
+            entries++;
+            final String path = in.key();
+            if (!(path.equals(root) || path.startsWith(prefix))
+                    || ZK_SYSTEM_NODE_PATH.equals(path) || path.startsWith(ZK_SYSTEM_NODE_PATH + '/')) {
+                session.skipped.incrementAndGet();
+                continue;
+            }
+            try {
+                PathUtils.validatePath(path);
+            } catch (final IllegalArgumentException e) {
+                session.fail(path, e.getMessage());
+                continue;
+            }
+            session.acquire(1);
+            session.read(path, in.value().getBytes(UTF_8));
+        }
+
+        // 等待所有已发出的请求完成.
+        session.acquire(concurrency);
+
+        final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+        final long failed = session.failed.get();
+        ret.put("success", 0 == failed);
+        ret.put("message", (APPLY.equals(mode) ? "imported " : "compared ") + entries + " entries");
+        ret.put("mode", mode);
+        ret.put("entries", entries);
+        ret.put("created", session.created.get());
+        ret.put("updated", session.updated.get());
+        ret.put("unchanged", session.unchanged.get());
+        ret.put("skipped", session.skipped.get());
+        ret.put("failed", failed);
+        ret.put("elapsedMs", System.currentTimeMillis() - start);
+        if (DIFF.equals(mode)) {
+            synchronized (session) {
+                ret.put("changes", session.changes);
+                ret.put("changesTruncated", session.changesTruncated);
+            }
+        }
+        synchronized (session) {
+            ret.put("errors", session.errors);
+        }
+        return ret;
+    }
+
+    /**
+     * 一次导入的状态.
+     */
+    private final class Session {
+        private final CuratorFramework client;
+        private final boolean write;
+        private final boolean diff;
+        private final Semaphore permits = new Semaphore(concurrency);
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong updated = new AtomicLong();
+        private final AtomicLong unchanged = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final List<Map<String, Object>> changes = new ArrayList<Map<String, Object>>();
+        private final List<String> errors = new ArrayList<String>();
+        private boolean changesTruncated;
+
+        private Session(final CuratorFramework client, final boolean write, final boolean diff) {
+            this.client = client;
+            this.write = write;
+            this.diff = diff;
+        }
+
+        private void acquire(final int n) throws InterruptedException, TimeoutException {
+            if (!permits.tryAcquire(n, timeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException("import timed out after " + timeoutMs + "ms, in flight: " + (concurrency - permits.availablePermits()));
+            }
+        }
+
+        /**
+         * 读取当前数据, 决定创建, 更新或跳过.
+         */
+        private void read(final String path, final byte[] data) {
+            try {
+                client.getData().inBackground(new BackgroundCallback() {
+                    @Override
+                    public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                        final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                        if (KeeperException.Code.NONODE == code) {
+                            change(path, "create", null, data);
+                            if (write) {
+                                create(path, data);
+                            } else {
+                                created.incrementAndGet();
+                                done();
+                            }
+                        } else if (KeeperException.Code.OK != code) {
+                            fail(path, String.valueOf(code));
+                            done();
+                        } else if (Arrays.equals(null != event.getData() ? event.getData() : new byte[0], data)) {
+                            unchanged.incrementAndGet();
+                            done();
+                        } else {
+                            change(path, "update", event.getData(), data);
+                            if (write) {
+                                setData(path, data);
+                            } else {
+                                updated.incrementAndGet();
+                                done();
+                            }
+                        }
+                    }
+                }).forPath(path);
+            } catch (final Exception e) {
+                fail(path, e.getMessage());
+                done();
+            }
+        }
+
+        private void create(final String path, final byte[] data) {
+            try {
+                client.create().creatingParentsIfNeeded().inBackground(new BackgroundCallback() {
+                    @Override
+                    public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                        final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                        if (KeeperException.Code.OK == code) {
+                            created.incrementAndGet();
+                            done();
+                        } else if (KeeperException.Code.NODEEXISTS == code) {
+                            // 已作为其他条目的父节点创建.
+                            setData(path, data);
+                        } else {
+                            fail(path, String.valueOf(code));
+                            done();
+                        }
+                    }
+                }).forPath(path, data);
+            } catch (final Exception e) {
+                fail(path, e.getMessage());
+                done();
+            }
+        }
+
+        private void setData(final String path, final byte[] data) {
+            try {
+                client.setData().inBackground(new BackgroundCallback() {
+                    @Override
+                    public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                        final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                        if (KeeperException.Code.OK == code) {
+                            updated.incrementAndGet();
+                        } else {
+                            fail(path, String.valueOf(code));
+                        }
+                        done();
+                    }
+                }).forPath(path, data);
+            } catch (final Exception e) {
+                fail(path, e.getMessage());
+                done();
+            }
+        }
+
+        private void done() {
+            permits.release();
+        }
+
+        private synchronized void change(final String path, final String action, final byte[] from, final byte[] to) {
+            if (!diff) {
+                return;
+            }
+            if (changes.size() >= maxChanges) {
+                changesTruncated = true;
+                return;
+            }
+            final Map<String, Object> change = new LinkedHashMap<String, Object>();
+            change.put("path", path);
+            change.put("action", action);
+            change.put("from", null != from ? new String(from, UTF_8) : null);
+            change.put("to", new String(to, UTF_8));
+            changes.add(change);
+        }
+
+        private synchronized void fail(final String path, final String message) {
+            failed.incrementAndGet();
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(path + ": " + message);
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package org.freework.zk.web.ui;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.freework.zk.web.ui.util.Jacksons;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 相同读请求的合并(single-flight).
+ * <p>
+ * 按 集群+路径+端点和请求参数 合并同时进行的相同读请求(列举, 分页, 节点数据, 导出):
+ * 第一个请求执行 zookeeper 读取, 之后到达的相同请求共享同一个进行中的结果和同一份序列化的响应.
+ * 配置 ttlMs 时完成的结果继续共享 ttlMs(微缓存), 通过本服务写入集群后立即失效; 失败的结果不共享.
+ * </p>
+ * <p>
+ * 所有会话共用实例池中同一个集群的 curator 实例, 结果与会话无关.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class RequestCoalescer {
+    static final String LEADER = "leader";
+    static final String COALESCED = "coalesced";
+    static final String CACHED = "cached";
+
+    private final long ttlMs;
+    private final RequestMetrics metrics;
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+    private final ScheduledExecutorService expirer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "request-coalescer-expirer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final AtomicLong leaders = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong cached = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    RequestCoalescer(final long ttlMs, final RequestMetrics metrics) {
+        this.ttlMs = Math.max(0, ttlMs);
+        this.metrics = metrics;
+    }
+
+    /**
+     * 获取合并的结果: 有相同的进行中(或未过期)的请求时共享其结果, 否则调用 loader 并由之后的相同请求共享.
+     * <p>
+     * 每个请求得到各自的 future, 取消(超时或断开)只影响自己; 所有等待的请求都取消后才取消进行中的读取.
+     * </p>
+     *
+     * @param httpRequest the http request, 用于指标
+     * @param cluster     集群
+     * @param path        the znode path
+     * @param mode        端点和请求参数
+     * @param loader      执行读取
+     * @param <T>         结果的类型
+     * @return 结果
+     */
+    <T> CompletableFuture<T> get(final HttpServletRequest httpRequest, final String cluster, final String path,
+                                 final String mode, final Supplier<CompletableFuture<T>> loader) {
+        final String key = cluster + '\n' + path + '\n' + mode;
+        while (true) {
+            final Flight existing = flights.get(key);
+            if (null != existing && existing.join()) {
+                final boolean done = 0 < ttlMs && existing.shared.isDone();
+                (done ? cached : coalesced).incrementAndGet();
+                metrics.coalesce(httpRequest, done ? CACHED : COALESCED);
+                return existing.waiter(key);
+            }
+            final Flight flight = new Flight();
+            if (null == existing ? null != flights.putIfAbsent(key, flight) : !flights.replace(key, existing, flight)) {
+                continue;
+            }
+            flight.join();
+            leaders.incrementAndGet();
+            metrics.coalesce(httpRequest, LEADER);
+            flight.shared.whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(final Object value, final Throwable e) {
+                    if (null != e || 0 == ttlMs) {
+                        flights.remove(key, flight);
+                    } else {
+                        flight.expire(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMs));
+                        expirer.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                flights.remove(key, flight);
+                            }
+                        }, ttlMs, TimeUnit.MILLISECONDS);
+                    }
+                }
+            });
+            try {
+                flight.load(loader.get());
+            } catch (final RuntimeException e) {
+                flight.shared.completeExceptionally(e);
+            }
+            return flight.waiter(key);
+        }
+    }
+
+    /**
+     * 集群被写入(通过本服务)后, 丢弃该集群所有共享的结果, 之后的请求重新读取.
+     *
+     * @param cluster 集群
+     */
+    void invalidate(final String cluster) {
+        final Iterator<String> it = flights.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(cluster + '\n')) {
+                it.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 合并统计信息.
+     *
+     * @return 统计信息
+     */
+    Map<String, Object> stats() {
+        final long l = leaders.get();
+        final long c = coalesced.get();
+        final long h = cached.get();
+        final long total = l + c + h;
+        final Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("ttlMs", ttlMs);
+        stats.put("flights", flights.size());
+        stats.put(LEADER, l);
+        stats.put(COALESCED, c);
+        stats.put(CACHED, h);
+        stats.put("hitRate", 0 < total ? (double) (c + h) / total : 0D);
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    void close() {
+        expirer.shutdownNow();
+        flights.clear();
+    }
+
+    /**
+     * 包装响应的 Writer, 同时在内存中保留最多 maxChars 个字符, 用于共享流式写出的响应(如导出).
+     *
+     * @param target   响应的 Writer
+     * @param maxChars 最多保留的字符数
+     * @return the capture
+     */
+    static Capture capture(final Writer target, final int maxChars) {
+        return new Capture(target, maxChars);
+    }
+
+    /**
+     * 转换读取的结果, 取消返回的 future 时同时取消读取(合并的读取被所有请求放弃时停止 zookeeper 请求).
+     *
+     * @param source the source future
+     * @param fn     转换
+     * @param <S>    读取结果的类型
+     * @param <T>    转换结果的类型
+     * @return 转换的结果
+     */
+    static <S, T> CompletableFuture<T> map(final CompletableFuture<S> source, final Function<? super S, ? extends T> fn) {
+        final CompletableFuture<T> mapped = source.thenApply(fn);
+        mapped.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(final T value, final Throwable e) {
+                if (mapped.isCancelled()) {
+                    source.cancel(false);
+                }
+            }
+        });
+        return mapped;
+    }
+
+    /**
+     * 一个进行中(或已完成未过期)的读取.
+     */
+    private final class Flight {
+        private final CompletableFuture<Object> shared = new CompletableFuture<Object>();
+        private CompletableFuture<?> loading;
+        private int waiters;
+        private boolean abandoned;
+        private long expiresAt;
+        private boolean expiring;
+
+        /**
+         * 加入等待, 已放弃或已过期时返回 false.
+         */
+        private synchronized boolean join() {
+            if (abandoned || (expiring && System.nanoTime() - expiresAt >= 0)) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        private synchronized void expire(final long at) {
+            expiresAt = at;
+            expiring = true;
+        }
+
+        private void load(final CompletableFuture<?> future) {
+            synchronized (this) {
+                loading = future;
+            }
+            future.whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(final Object value, final Throwable e) {
+                    if (null != e) {
+                        shared.completeExceptionally(e);
+                    } else {
+                        shared.complete(value);
+                    }
+                }
+            });
+        }
+
+        /**
+         * 一个等待的请求的 future, 所有等待的请求都取消后取消读取.
+         */
+        @SuppressWarnings("unchecked")
+        private <T> CompletableFuture<T> waiter(final String key) {
+            final CompletableFuture<T> waiter = new CompletableFuture<T>();
+            shared.whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(final Object value, final Throwable e) {
+                    if (null != e) {
+                        waiter.completeExceptionally(e);
+                    } else {
+                        waiter.complete((T) value);
+                    }
+                }
+            });
+            waiter.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(final T value, final Throwable e) {
+                    leave(key, waiter.isCancelled());
+                }
+            });
+            return waiter;
+        }
+
+        private void leave(final String key, final boolean cancelled) {
+            final CompletableFuture<?> abandon;
+            synchronized (this) {
+                waiters--;
+                if (!cancelled || 0 < waiters || shared.isDone()) {
+                    return;
+                }
+                abandoned = true;
+                abandon = loading;
+            }
+            flights.remove(key, this);
+            if (null != abandon) {
+                abandon.cancel(false);
+            }
+            shared.cancel(false);
+        }
+    }
+
+    /**
+     * 共享的 JSON 响应, 只序列化一次.
+     */
+    static final class Shared {
+        /**
+         * the etag, 没有时为 null.
+         */
+        final String etag;
+
+        /**
+         * 响应对象, 未修改或不存在时为 null.
+         */
+        final Object value;
+
+        private final ObjectWriter writer;
+        private byte[] body;
+
+        Shared(final String etag, final Object value, final ObjectWriter writer) {
+            this.etag = etag;
+            this.value = value;
+            this.writer = writer;
+        }
+
+        /**
+         * 序列化的响应, 第一个写出的请求序列化, 其他请求直接使用.
+         *
+         * @return JSON 字节
+         */
+        synchronized byte[] body() {
+            if (null == body) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                Jacksons.serialize(out, writer, value);
+                body = out.toByteArray();
+            }
+            return body;
+        }
+    }
+
+    /**
+     * 写出并保留内容的 Writer, 超过最大字符数后只写出.
+     */
+    static final class Capture extends Writer {
+        private final Writer target;
+        private final int maxChars;
+        private StringBuilder captured = new StringBuilder();
+
+        private Capture(final Writer target, final int maxChars) {
+            this.target = target;
+            this.maxChars = maxChars;
+        }
+
+        @Override
+        public void write(final char[] buf, final int off, final int len) throws IOException {
+            target.write(buf, off, len);
+            if (null != captured) {
+                if (captured.length() + len > maxChars) {
+                    captured = null;
+                } else {
+                    captured.append(buf, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+
+        /**
+         * 保留的内容.
+         *
+         * @return 完整的内容, 超过最大字符数时为 null
+         */
+        String captured() {
+            return null != captured ? captured.toString() : null;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.freework.zk.web.ui;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import org.freework.zk.web.ui.util.CuratorPool;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求指标.
+ * <p>
+ * 按请求方法, 端点, zookeeper 集群和响应状态记录请求耗时,
+ * 以及每个端点序列化的 JSON 字节数, 每次列举的子节点数和相同读请求的合并结果.
+ * 集群地址由客户端提供, 通过 {@link #clusterLimit(int)} 限制集群标签的取值个数.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class RequestMetrics {
+    static final String REQUESTS = "zk.web.ui.requests";
+    static final String RESPONSE_BYTES = "zk.web.ui.response.bytes";
+    static final String LISTING_CHILDREN = "zk.web.ui.listing.children";
+    static final String COALESCE = "zk.web.ui.coalesce";
+
+    /**
+     * 没有 zookeeper 地址的请求(静态资源, 统计信息等)的集群标签.
+     */
+    private static final String NO_CLUSTER = "none";
+
+    /**
+     * 超过集群标签取值个数后的集群标签.
+     */
+    static final String OTHER_CLUSTER = "other";
+
+    /**
+     * 指标名称前缀(包括 curator 调用的指标).
+     */
+    private static final String PREFIX = "zk.web.ui.";
+
+    private final MeterRegistry registry;
+
+    RequestMetrics(final MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 记录一次请求.
+     *
+     * @param httpRequest the http request
+     * @param status      响应状态
+     * @param nanos       耗时(纳秒)
+     */
+    void request(final HttpServletRequest httpRequest, final int status, final long nanos) {
+        Timer.builder(REQUESTS)
+                .description("zk-web-ui servlet requests")
+                .tag("method", httpRequest.getMethod())
+                .tag("endpoint", endpointOf(httpRequest))
+                .tag("cluster", clusterOf(httpRequest))
+                .tag("status", String.valueOf(status))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录序列化的 JSON 字节数.
+     *
+     * @param httpRequest the http request
+     * @param bytes       字节数
+     */
+    void responseBytes(final HttpServletRequest httpRequest, final long bytes) {
+        DistributionSummary.builder(RESPONSE_BYTES)
+                .description("serialized json bytes per response")
+                .baseUnit("bytes")
+                .tag("endpoint", endpointOf(httpRequest))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(bytes);
+    }
+
+    /**
+     * 记录一次列举的子节点数.
+     *
+     * @param httpRequest the http request
+     * @param children    子节点数
+     */
+    void listing(final HttpServletRequest httpRequest, final int children) {
+        DistributionSummary.builder(LISTING_CHILDREN)
+                .description("children per listing")
+                .tag("endpoint", endpointOf(httpRequest))
+                .tag("cluster", clusterOf(httpRequest))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(children);
+    }
+
+    /**
+     * 记录一次读请求的合并结果.
+     *
+     * @param httpRequest the http request
+     * @param result      {@link RequestCoalescer#LEADER}, {@link RequestCoalescer#COALESCED} 或 {@link RequestCoalescer#CACHED}
+     */
+    void coalesce(final HttpServletRequest httpRequest, final String result) {
+        Counter.builder(COALESCE)
+                .description("coalesced read requests")
+                .tag("endpoint", endpointOf(httpRequest))
+                .tag("cluster", clusterOf(httpRequest))
+                .tag("result", result)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * 限制 zk-web-ui 指标的集群标签取值个数的过滤器, 最先出现的 maxClusters 个集群单独记录, 之后的集群记录为 {@link #OTHER_CLUSTER}.
+     *
+     * @param maxClusters 最多的集群标签取值个数
+     * @return the meter filter
+     */
+    static MeterFilter clusterLimit(final int maxClusters) {
+        final Set<String> clusters = new HashSet<String>();
+        return new MeterFilter() {
+            @Override
+            public Meter.Id map(final Meter.Id id) {
+                final String cluster = id.getTag("cluster");
+                if (!id.getName().startsWith(PREFIX) || null == cluster || NO_CLUSTER.equals(cluster)) {
+                    return id;
+                }
+                synchronized (clusters) {
+                    if (clusters.contains(cluster) || (clusters.size() < maxClusters && clusters.add(cluster))) {
+                        return id;
+                    }
+                }
+                return id.withTag(Tag.of("cluster", OTHER_CLUSTER));
+            }
+        };
+    }
+
+    /**
+     * 请求对应的端点, 与 servlet 中的分支一致, 标签取值是有限的.
+     *
+     * @param httpRequest the http request
+     * @return 端点名称
+     */
+    static String endpointOf(final HttpServletRequest httpRequest) {
+        final String method = httpRequest.getMethod();
+        if ("POST".equals(method)) {
+            if (null != httpRequest.getParameter("batch")) {
+                return "batch";
+            }
+            if (null != httpRequest.getParameter("watch")) {
+                return "watch";
+            }
+            return null != httpRequest.getParameter("import") ? "import" : "update";
+        }
+        if ("PUT".equals(method)) {
+            return "create";
+        }
+        if ("DELETE".equals(method)) {
+            return null != httpRequest.getParameter("recursive") ? "deleteRecursive" : "delete";
+        }
+        if (!"GET".equals(method)) {
+            return "other";
+        }
+        final String pathInfo = httpRequest.getPathInfo();
+        if ("/".equals(pathInfo) && (null != httpRequest.getParameter("pool")
+                || null != httpRequest.getParameter("mirror") || null != httpRequest.getParameter("index")
+                || null != httpRequest.getParameter("compression") || null != httpRequest.getParameter("snapshot")
+                || null != httpRequest.getParameter("feeds") || null != httpRequest.getParameter("etag")
+                || null != httpRequest.getParameter("async") || null != httpRequest.getParameter("coalesce"))) {
+            return "stats";
+        }
+        if ("/".equals(pathInfo) && null != httpRequest.getParameter("events")) {
+            return "events";
+        }
+        if (null != httpRequest.getParameter("dump")) {
+            return "dump";
+        }
+        if (null == pathInfo || (null == httpRequest.getHeader("zkUrl") && "/".equals(pathInfo))) {
+            return "redirect";
+        }
+        if (null != httpRequest.getParameter("diff")) {
+            return "diff";
+        }
+        if (pathInfo.endsWith(".html") || pathInfo.endsWith(".css") || pathInfo.endsWith(".js") || pathInfo.startsWith("/images/") || pathInfo.startsWith("/js/")) {
+            return "static";
+        }
+        if (null != httpRequest.getParameter("search")) {
+            return "search";
+        }
+        if (null != httpRequest.getParameter("usage")) {
+            return "usage";
+        }
+        if (null != httpRequest.getParameter("data")) {
+            return "data";
+        }
+        return null != httpRequest.getParameter("limit") ? "page" : "ls";
+    }
+
+    private static String clusterOf(final HttpServletRequest httpRequest) {
+        String zkUrl = httpRequest.getHeader("zkUrl");
+        if (null == zkUrl) {
+            zkUrl = httpRequest.getParameter("zkUrl");
+        }
+        return null != zkUrl ? CuratorPool.normalize(zkUrl) : NO_CLUSTER;
+    }
+}
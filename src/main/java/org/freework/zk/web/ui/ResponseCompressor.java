@@ -0,0 +1,325 @@
+package org.freework.zk.web.ui;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 根据 Accept-Encoding 协商的响应压缩(gzip, 可选 deflate).
+ * <p>
+ * 响应体先写入大小为阈值的缓冲区, 小于阈值的响应不压缩直接写出;
+ * 超过阈值后设置 Content-Encoding 并开始流式压缩, 之后的数据直接压缩写出, 不会缓冲完整响应.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class ResponseCompressor {
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+
+    /**
+     * 压缩的最小响应字节数.
+     */
+    private final int minSize;
+
+    /**
+     * 是否允许 deflate (客户端不接受 gzip 时使用).
+     */
+    private final boolean deflate;
+
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong compressed = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    ResponseCompressor(final int minSize, final boolean deflate) {
+        this.minSize = Math.max(0, minSize);
+        this.deflate = deflate;
+    }
+
+    /**
+     * 如果客户端接受压缩, 返回压缩响应, 否则返回原响应.
+     * 返回的响应在请求处理完成后需要调用 {@link #finish(HttpServletResponse)}.
+     *
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @return 压缩响应或原响应
+     */
+    HttpServletResponse wrap(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse) {
+        final String acceptEncoding = httpRequest.getHeader("Accept-Encoding");
+        final String encoding = accepts(acceptEncoding, GZIP) ? GZIP : (deflate && accepts(acceptEncoding, DEFLATE) ? DEFLATE : null);
+        if (null == encoding) {
+            return httpResponse;
+        }
+        httpResponse.addHeader("Vary", "Accept-Encoding");
+        return new CompressingResponse(httpResponse, encoding);
+    }
+
+    /**
+     * 完成响应: 未超过阈值的响应原样写出, 已压缩的响应写出压缩尾部.
+     *
+     * @param httpResponse {@link #wrap(HttpServletRequest, HttpServletResponse)} 返回的响应
+     * @throws IOException 如果IO发生异常
+     */
+    void finish(final HttpServletResponse httpResponse) throws IOException {
+        if (httpResponse instanceof CompressingResponse) {
+            ((CompressingResponse) httpResponse).finish();
+        }
+    }
+
+    /**
+     * 压缩统计信息.
+     *
+     * @return 统计信息
+     */
+    Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        final long in = bytesIn.get();
+        final long out = bytesOut.get();
+        stats.put("minSize", minSize);
+        stats.put("deflate", deflate);
+        stats.put("responses", responses.get());
+        stats.put("compressed", compressed.get());
+        stats.put("bytesIn", in);
+        stats.put("bytesOut", out);
+        stats.put("bytesSaved", in - out);
+        return stats;
+    }
+
+    /**
+     * 判断 Accept-Encoding 是否接受给定的编码 (q=0 表示不接受).
+     *
+     * @param acceptEncoding Accept-Encoding 请求头
+     * @param coding         编码, eg: gzip
+     * @return 是否接受
+     */
+    static boolean accepts(final String acceptEncoding, final String coding) {
+        if (null == acceptEncoding) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (final String element : acceptEncoding.split(",")) {
+            final String[] parts = element.trim().split(";");
+            final String name = parts[0].trim();
+            final boolean accepted = !(1 < parts.length && isZeroQuality(parts[1].trim()));
+            if (coding.equalsIgnoreCase(name) || (GZIP.equals(coding) && "x-gzip".equalsIgnoreCase(name))) {
+                return accepted;
+            }
+            if ("*".equals(name)) {
+                wildcard = accepted;
+            }
+        }
+        return null != wildcard && wildcard;
+    }
+
+    private static boolean isZeroQuality(final String param) {
+        if (!param.startsWith("q=")) {
+            return false;
+        }
+        try {
+            return 0 == Double.parseDouble(param.substring(2));
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 延迟决定是否压缩的响应.
+     */
+    private final class CompressingResponse extends HttpServletResponseWrapper {
+        private final String encoding;
+        private final byte[] buffer;
+        private int buffered;
+        private long written;
+        private CountingOutputStream counter;
+        private DeflaterOutputStream compressor;
+        private ServletOutputStream stream;
+        private PrintWriter writer;
+
+        /**
+         * 已调用 sendError, sendRedirect 或 finish, 不再处理.
+         */
+        private boolean done;
+
+        private CompressingResponse(final HttpServletResponse response, final String encoding) {
+            super(response);
+            this.encoding = encoding;
+            this.buffer = new byte[minSize];
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (null != writer) {
+                throw new IllegalStateException("getWriter() has already been called for this response");
+            }
+            if (null == stream) {
+                stream = new ServletOutputStream() {
+                    @Override
+                    public void write(final int b) throws IOException {
+                        write(new byte[]{(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(final byte[] b, final int off, final int len) throws IOException {
+                        CompressingResponse.this.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        CompressingResponse.this.flush();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    /**
+                     * 压缩流只支持阻塞写出({@link #isReady()} 总是 true), 不支持非阻塞写出.
+                     */
+                    @Override
+                    public void setWriteListener(final WriteListener listener) {
+                        throw new IllegalStateException("non-blocking write is not supported by the compressing response, isReady() is always true");
+                    }
+                };
+            }
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (null == writer) {
+                if (null != stream) {
+                    throw new IllegalStateException("getOutputStream() has already been called for this response");
+                }
+                final ServletOutputStream out = getOutputStream();
+                stream = null;
+                writer = new PrintWriter(new OutputStreamWriter(out, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(final int len) {
+            // 长度由压缩决定.
+        }
+
+        @Override
+        public void setContentLengthLong(final long len) {
+            // 长度由压缩决定.
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            flush();
+        }
+
+        @Override
+        public void sendError(final int sc, final String msg) throws IOException {
+            done = true;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(final int sc) throws IOException {
+            done = true;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendRedirect(final String location) throws IOException {
+            done = true;
+            super.sendRedirect(location);
+        }
+
+        private void write(final byte[] b, final int off, final int len) throws IOException {
+            if (done) {
+                throw new IOException("response is already completed");
+            }
+            written += len;
+            if (null != compressor) {
+                compressor.write(b, off, len);
+            } else if (buffered + len <= buffer.length) {
+                System.arraycopy(b, off, buffer, buffered, len);
+                buffered += len;
+            } else {
+                start();
+                compressor.write(b, off, len);
+            }
+        }
+
+        private void flush() throws IOException {
+            // 未超过阈值时继续缓冲, 以便决定是否压缩.
+            if (null != compressor) {
+                compressor.flush();
+            }
+        }
+
+        private void start() throws IOException {
+            final HttpServletResponse response = (HttpServletResponse) getResponse();
+            response.setHeader("Content-Encoding", encoding);
+            counter = new CountingOutputStream(response.getOutputStream());
+            compressor = GZIP.equals(encoding) ? new GZIPOutputStream(counter, 8192, true) : new DeflaterOutputStream(counter, true);
+            compressor.write(buffer, 0, buffered);
+            buffered = 0;
+        }
+
+        private void finish() throws IOException {
+            if (null != writer) {
+                writer.flush();
+            }
+            if (done) {
+                return;
+            }
+            done = true;
+            responses.incrementAndGet();
+            bytesIn.addAndGet(written);
+            if (null != compressor) {
+                compressor.finish();
+                compressor.flush();
+                compressed.incrementAndGet();
+                bytesOut.addAndGet(counter.count);
+            } else {
+                final HttpServletResponse response = (HttpServletResponse) getResponse();
+                response.setContentLength(buffered);
+                response.getOutputStream().write(buffer, 0, buffered);
+                bytesOut.addAndGet(buffered);
+            }
+        }
+    }
+
+    /**
+     * 统计写出字节数.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,893 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * 基于 watch 增量维护的 zookeeper 树搜索索引.
+ * <p>
+ * 创建后逐层流水线地遍历根路径下的所有节点(getData 和 getChildren 同时注册 watch), 之后根据 watch 事件增量更新:
+ * 数据变化时重新读取数据, 子节点变化时加载新增的子树(与构建使用相同的流水线), 节点删除时移除子树. 重连后 watch 可能已失效, 重新构建.
+ * 构建期间子节点的变化推迟到构建完成后处理, 避免重复遍历尚未索引的子树.
+ * </p>
+ * <p>
+ * 节点路径和数据(按 UTF-8 解码, 只索引前 max-value-bytes 个字节)按字符三元组(trigram, 忽略大小写)建立倒排索引,
+ * 查询求各三元组倒排表的交集得到候选节点, 再逐个验证; 正则查询使用其中必须出现的最长字面量.
+ * 少于3个字符的查询和没有足够长字面量的正则查询扫描范围内的所有节点.
+ * 节点更新时分配新的编号, 旧编号只标记删除, 倒排表只追加(保持有序), 删除的编号多于存活节点时重建倒排表.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class SearchIndex implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchIndex.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String ZK_SYSTEM_NODE_PATH = "/zookeeper";
+
+    static final String SUBSTRING = "substring";
+    static final String PREFIX = "prefix";
+    static final String REGEX = "regex";
+
+    static final String ALL = "all";
+    static final String PATH = "path";
+    static final String VALUE = "value";
+
+    /**
+     * 删除的编号至少达到该数量(且多于存活节点)才重建倒排表.
+     */
+    private static final int COMPACT_THRESHOLD = 65536;
+
+    private final String connectString;
+    private final CuratorFramework client;
+    private final Executor executor;
+    private final List<String> roots;
+
+    /**
+     * 最多索引的节点数, 超过后不再索引新节点.
+     */
+    private final int maxNodes;
+
+    /**
+     * 每个节点索引的数据最大字节数.
+     */
+    private final int maxValueBytes;
+
+    /**
+     * 构建时最大并发(未响应)请求数.
+     */
+    private final int concurrency;
+
+    /**
+     * 构建时等待一层节点的超时时间(毫秒).
+     */
+    private final long timeoutMs;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 路径到编号, 按路径排序(用于子树范围和直接子节点).
+     */
+    private final TreeMap<String, Integer> ids = new TreeMap<String, Integer>();
+
+    /**
+     * 按编号的路径, 数据和 mzxid, 已删除的编号路径为 null.
+     */
+    private String[] paths = new String[1024];
+    private String[] values = new String[1024];
+    private long[] mzxids = new long[1024];
+    private int next;
+
+    /**
+     * 三元组到包含它的节点编号(升序).
+     */
+    private final Map<Long, Postings> postings = new HashMap<Long, Postings>();
+    private long postingCount;
+
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * 构建期间子节点发生变化的路径, 构建完成后刷新.
+     */
+    private final Set<String> deferred = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean building;
+    private volatile boolean truncated;
+    private volatile boolean closed;
+    private volatile long lastBuildMs;
+    private volatile String lastError;
+
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+
+    private final CuratorWatcher watcher = new CuratorWatcher() {
+        @Override
+        public void process(final WatchedEvent event) {
+            onEvent(event);
+        }
+    };
+
+    private final ConnectionStateListener connectionListener = new ConnectionStateListener() {
+        @Override
+        public void stateChanged(final CuratorFramework c, final ConnectionState newState) {
+            if (ConnectionState.RECONNECTED == newState && !closed) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        build();
+                    }
+                });
+            }
+        }
+    };
+
+    SearchIndex(final String connectString, final CuratorFramework client, final Executor executor, final List<String> roots,
+                final int maxNodes, final int maxValueBytes, final int concurrency, final long timeoutMs) {
+        this.connectString = connectString;
+        this.client = client;
+        this.executor = executor;
+        this.roots = roots;
+        this.maxNodes = maxNodes;
+        this.maxValueBytes = maxValueBytes;
+        this.concurrency = concurrency;
+        this.timeoutMs = timeoutMs;
+        this.client.getConnectionStateListenable().addListener(connectionListener);
+    }
+
+    /**
+     * 给定路径是否在索引的根路径下(zookeeper 系统节点除外).
+     *
+     * @param path the znode path
+     * @return true if indexed
+     */
+    boolean covers(final String path) {
+        if (ZK_SYSTEM_NODE_PATH.equals(path) || path.startsWith(ZK_SYSTEM_NODE_PATH + '/')) {
+            return false;
+        }
+        for (final String root : roots) {
+            if ("/".equals(root) || root.equals(path) || path.startsWith(root + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 清空索引并重新遍历所有节点, 构建期间的查询返回部分结果.
+     */
+    void build() {
+        final int gen = generation.incrementAndGet();
+        final long start = System.currentTimeMillis();
+        building = true;
+        deferred.clear();
+        lock.writeLock().lock();
+        try {
+            reset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            List<String> level = new ArrayList<String>();
+            for (final String root : roots) {
+                if (covers(root) && null != client.checkExists().forPath(root)) {
+                    level.add(root);
+                }
+            }
+            while (!level.isEmpty() && gen == generation.get() && !truncated) {
+                level = fetch(level, gen);
+            }
+            lastError = null;
+        } catch (final Exception e) {
+            LOGGER.warn("build search index of '{}' failed: {}", connectString, e.getMessage());
+            lastError = e.getMessage();
+        } finally {
+            if (gen == generation.get()) {
+                building = false;
+                lastBuildMs = System.currentTimeMillis() - start;
+            }
+            builds.incrementAndGet();
+        }
+        if (!building) {
+            for (final String path : new ArrayList<String>(deferred)) {
+                if (deferred.remove(path)) {
+                    refreshChildren(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * 流水线地读取一层节点的数据和子节点(注册 watch), 返回下一层节点.
+     */
+    private List<String> fetch(final List<String> level, final int gen) throws Exception {
+        final List<String> children = Collections.synchronizedList(new ArrayList<String>());
+        final Semaphore permits = new Semaphore(concurrency);
+        final CountDownLatch latch = new CountDownLatch(2 * level.size());
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        int sent = 0;
+        try {
+            for (; sent < level.size() && null == failure.get() && gen == generation.get(); sent++) {
+                final String path = level.get(sent);
+                permits.acquire(2);
+                try {
+                    client.getData().usingWatcher(watcher).inBackground(new BackgroundCallback() {
+                        @Override
+                        public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                            try {
+                                final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                                if (KeeperException.Code.OK == code) {
+                                    if (gen == generation.get()) {
+                                        put(path, event.getData(), event.getStat());
+                                    }
+                                } else if (KeeperException.Code.NONODE != code) {
+                                    failure.compareAndSet(null, KeeperException.create(code, path));
+                                }
+                            } finally {
+                                permits.release();
+                                latch.countDown();
+                            }
+                        }
+                    }).forPath(path);
+                } catch (final Exception e) {
+                    permits.release();
+                    latch.countDown();
+                    failure.compareAndSet(null, e);
+                }
+                try {
+                    client.getChildren().usingWatcher(watcher).inBackground(new BackgroundCallback() {
+                        @Override
+                        public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                            try {
+                                final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                                if (KeeperException.Code.OK == code) {
+                                    for (final String child : event.getChildren()) {
+                                        final String childPath = ZookeeperWebUiServlet.resolve(path, child);
+                                        if (covers(childPath)) {
+                                            children.add(childPath);
+                                        }
+                                    }
+                                } else if (KeeperException.Code.NONODE != code) {
+                                    failure.compareAndSet(null, KeeperException.create(code, path));
+                                }
+                            } finally {
+                                permits.release();
+                                latch.countDown();
+                            }
+                        }
+                    }).forPath(path);
+                } catch (final Exception e) {
+                    permits.release();
+                    latch.countDown();
+                    failure.compareAndSet(null, e);
+                }
+            }
+        } finally {
+            // 未发出的请求不会回调.
+            for (int i = 2 * sent; i < 2 * level.size(); i++) {
+                latch.countDown();
+            }
+        }
+        if (!latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("index " + level.size() + " nodes timed out after " + timeoutMs + "ms");
+        }
+        final Exception e = failure.get();
+        if (null != e) {
+            throw e;
+        }
+        return new ArrayList<String>(children);
+    }
+
+    private void onEvent(final WatchedEvent event) {
+        final String path = event.getPath();
+        if (closed || Watcher.Event.EventType.None == event.getType() || null == path) {
+            return;
+        }
+        events.incrementAndGet();
+        switch (event.getType()) {
+            case NodeDataChanged:
+                refreshData(path);
+                break;
+            case NodeChildrenChanged:
+                if (building) {
+                    // 子节点可能尚未索引, 构建完成后再比较.
+                    deferred.add(path);
+                    if (building || !deferred.remove(path)) {
+                        break;
+                    }
+                }
+                refreshChildren(path);
+                break;
+            case NodeDeleted:
+                remove(path);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void refreshData(final String path) {
+        try {
+            client.getData().usingWatcher(watcher).inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                    final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                    if (KeeperException.Code.OK == code) {
+                        put(path, event.getData(), event.getStat());
+                    } else if (KeeperException.Code.NONODE == code) {
+                        remove(path);
+                    }
+                }
+            }).forPath(path);
+        } catch (final Exception e) {
+            LOGGER.warn("refresh data of '{}' failed: {}", path, e.getMessage());
+        }
+    }
+
+    private void refreshChildren(final String path) {
+        try {
+            client.getChildren().usingWatcher(watcher).inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                    final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                    if (KeeperException.Code.NONODE == code) {
+                        remove(path);
+                        return;
+                    }
+                    if (KeeperException.Code.OK != code) {
+                        return;
+                    }
+                    final Set<String> previous = childrenOf(path);
+                    final List<String> added = new ArrayList<String>();
+                    for (final String child : event.getChildren()) {
+                        final String childPath = ZookeeperWebUiServlet.resolve(path, child);
+                        if (!previous.remove(child) && covers(childPath)) {
+                            added.add(childPath);
+                        }
+                    }
+                    for (final String child : previous) {
+                        remove(ZookeeperWebUiServlet.resolve(path, child));
+                    }
+                    if (!added.isEmpty()) {
+                        load(added);
+                    }
+                }
+            }).forPath(path);
+        } catch (final Exception e) {
+            LOGGER.warn("refresh children of '{}' failed: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * 在后台通过 {@link #fetch(List, int)} 逐层加载新增的子树(注册 watch).
+     */
+    private void load(final List<String> subtrees) {
+        if (closed) {
+            return;
+        }
+        final int gen = generation.get();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<String> level = subtrees;
+                    while (!level.isEmpty() && gen == generation.get() && !truncated) {
+                        level = fetch(level, gen);
+                    }
+                } catch (final Exception e) {
+                    LOGGER.warn("load {} subtrees of '{}' failed: {}", subtrees.size(), connectString, e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * 查询索引.
+     * <p>
+     * substring: 路径或数据包含查询字符串; prefix: 路径的某一段或数据以查询字符串开始; regex: 路径或数据包含匹配正则表达式的子串.
+     * 结果按路径排序, 最多 limit 个, more 表示还有更多匹配.
+     * </p>
+     *
+     * @param scope      只查询该子树下的节点
+     * @param query      查询字符串
+     * @param type       {@link #SUBSTRING}, {@link #PREFIX} 或 {@link #REGEX}
+     * @param in         匹配 {@link #PATH}, {@link #VALUE} 或两者({@link #ALL})
+     * @param ignoreCase 是否忽略大小写
+     * @param limit      最多返回的结果数
+     * @return 查询结果
+     * @throws IllegalArgumentException 如果查询类型不支持或正则表达式非法
+     */
+    Map<String, Object> search(final String scope, final String query, final String type, final String in,
+                               final boolean ignoreCase, final int limit) {
+        if (!ALL.equals(in) && !PATH.equals(in) && !VALUE.equals(in)) {
+            throw new IllegalArgumentException("unsupported in: " + in + ", available: " + Arrays.asList(ALL, PATH, VALUE));
+        }
+        if (null == query || query.isEmpty()) {
+            throw new IllegalArgumentException("query is required");
+        }
+        final long start = System.nanoTime();
+        final Matcher matcher;
+        final String literal;
+        if (SUBSTRING.equals(type)) {
+            matcher = new Matcher() {
+                @Override
+                boolean matches(final String path, final String value) {
+                    return (!VALUE.equals(in) && contains(path, query, ignoreCase))
+                            || (!PATH.equals(in) && contains(value, query, ignoreCase));
+                }
+            };
+            literal = query;
+        } else if (PREFIX.equals(type)) {
+            final String segment = "/" + query;
+            matcher = new Matcher() {
+                @Override
+                boolean matches(final String path, final String value) {
+                    return (!VALUE.equals(in) && contains(path, segment, ignoreCase))
+                            || (!PATH.equals(in) && value.regionMatches(ignoreCase, 0, query, 0, query.length()));
+                }
+            };
+            literal = PATH.equals(in) ? segment : query;
+        } else if (REGEX.equals(type)) {
+            final Pattern pattern = Pattern.compile(query, ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+            matcher = new Matcher() {
+                @Override
+                boolean matches(final String path, final String value) {
+                    return (!VALUE.equals(in) && pattern.matcher(path).find())
+                            || (!PATH.equals(in) && pattern.matcher(value).find());
+                }
+            };
+            literal = requiredLiteral(query);
+        } else {
+            throw new IllegalArgumentException("unsupported type: " + type + ", available: " + Arrays.asList(SUBSTRING, PREFIX, REGEX));
+        }
+        queries.incrementAndGet();
+
+        final boolean indexed = null != literal && 3 <= literal.length();
+        final List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+        final int[] examined = new int[1];
+        final int nodes;
+        lock.readLock().lock();
+        try {
+            nodes = ids.size();
+            if (indexed) {
+                lookup(scope, literal, matcher, limit + 1, results, examined);
+                Collections.sort(results, new Comparator<Map<String, Object>>() {
+                    @Override
+                    public int compare(final Map<String, Object> a, final Map<String, Object> b) {
+                        return ((String) a.get("path")).compareTo((String) b.get("path"));
+                    }
+                });
+            } else {
+                scan(scope, matcher, limit + 1, results, examined);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        final boolean more = results.size() > limit;
+        final List<Map<String, Object>> shown = more ? results.subList(0, limit) : results;
+
+        final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+        ret.put("success", true);
+        ret.put("message", shown.size() + (more ? "+" : "") + " match(es) for '" + query + "'" + (building ? ", index is building" : ""));
+        ret.put("query", query);
+        ret.put("type", type);
+        ret.put("in", in);
+        ret.put("scope", scope);
+        ret.put("count", shown.size());
+        ret.put("more", more);
+        ret.put("strategy", indexed ? "trigram" : "scan");
+        ret.put("examined", examined[0]);
+        ret.put("nodes", nodes);
+        ret.put("building", building);
+        ret.put("truncated", truncated);
+        ret.put("elapsedMicros", (System.nanoTime() - start) / 1000);
+        ret.put("results", new ArrayList<Map<String, Object>>(shown));
+        return ret;
+    }
+
+    /**
+     * 求查询字符串所有三元组倒排表的交集, 验证候选节点.
+     */
+    private void lookup(final String scope, final String literal, final Matcher matcher, final int max,
+                        final List<Map<String, Object>> results, final int[] examined) {
+        // 结果的路径一定包含范围的路径.
+        final long[] keys = trigrams(literal, "/".equals(scope) ? null : scope);
+        final Postings[] lists = new Postings[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            lists[i] = postings.get(keys[i]);
+            if (null == lists[i]) {
+                return;
+            }
+        }
+        Arrays.sort(lists, new Comparator<Postings>() {
+            @Override
+            public int compare(final Postings a, final Postings b) {
+                return a.size < b.size ? -1 : (a.size == b.size ? 0 : 1);
+            }
+        });
+        final int[] cursors = new int[lists.length];
+        final Postings smallest = lists[0];
+        for (int i = 0; i < smallest.size && results.size() < max; i++) {
+            final int id = smallest.ids[i];
+            boolean all = true;
+            for (int k = 1; k < lists.length && all; k++) {
+                final int pos = Arrays.binarySearch(lists[k].ids, cursors[k], lists[k].size, id);
+                cursors[k] = 0 <= pos ? pos + 1 : -pos - 1;
+                all = 0 <= pos;
+            }
+            final String path = all ? paths[id] : null;
+            if (null != path && inScope(scope, path)) {
+                examined[0]++;
+                if (matcher.matches(path, values[id])) {
+                    results.add(result(path, values[id]));
+                }
+            }
+        }
+    }
+
+    /**
+     * 按路径顺序扫描子树下的所有节点.
+     */
+    private void scan(final String scope, final Matcher matcher, final int max,
+                      final List<Map<String, Object>> results, final int[] examined) {
+        final Integer self = ids.get(scope);
+        if (null != self) {
+            examined[0]++;
+            if (matcher.matches(scope, values[self])) {
+                results.add(result(scope, values[self]));
+            }
+        }
+        for (final Map.Entry<String, Integer> entry : descendants(scope).entrySet()) {
+            if (results.size() >= max) {
+                break;
+            }
+            examined[0]++;
+            final int id = entry.getValue();
+            if (matcher.matches(entry.getKey(), values[id])) {
+                results.add(result(entry.getKey(), values[id]));
+            }
+        }
+    }
+
+    /**
+     * 正则表达式匹配的子串中必须出现的最长字面量(保守估计), 没有时返回 null.
+     * <p>
+     * 包含选择(|)或 \Q 时不提取; 分组和字符类的内容, 以及后面跟随 ?, * 或 {} 量词的字符不计入.
+     * </p>
+     */
+    static String requiredLiteral(final String regex) {
+        if (0 <= regex.indexOf('|') || regex.contains("\\Q")) {
+            return null;
+        }
+        String longest = null;
+        final StringBuilder run = new StringBuilder();
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            boolean literal = false;
+            if ('\\' == c && i + 1 < regex.length()) {
+                c = regex.charAt(++i);
+                // \. \/ 等转义的标点是字面量, \d \w 等不是.
+                literal = !inClass && 0 == depth && !Character.isLetterOrDigit(c);
+            } else if (inClass) {
+                inClass = ']' != c;
+            } else if ('[' == c) {
+                inClass = true;
+            } else if ('{' == c) {
+                // 量词 {n,m}.
+                final int end = regex.indexOf('}', i);
+                i = 0 > end ? regex.length() : end;
+            } else if ('(' == c) {
+                depth++;
+            } else if (')' == c) {
+                depth = Math.max(0, depth - 1);
+            } else {
+                literal = 0 == depth && 0 > ".^$?*+{}".indexOf(c);
+            }
+            final char quantifier = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+            if (literal && '?' != quantifier && '*' != quantifier && '{' != quantifier) {
+                run.append(c);
+                if ('+' != quantifier) {
+                    continue;
+                }
+            }
+            if (null == longest || run.length() > longest.length()) {
+                longest = run.toString();
+            }
+            run.setLength(0);
+        }
+        if (null == longest || run.length() > longest.length()) {
+            longest = run.toString();
+        }
+        return longest.isEmpty() ? null : longest;
+    }
+
+    private static Map<String, Object> result(final String path, final String value) {
+        final Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("path", path);
+        result.put("value", value);
+        return result;
+    }
+
+    private static boolean inScope(final String scope, final String path) {
+        return "/".equals(scope) || path.equals(scope) || (path.startsWith(scope) && '/' == path.charAt(scope.length()));
+    }
+
+    private static boolean contains(final String s, final String q, final boolean ignoreCase) {
+        if (!ignoreCase) {
+            return s.contains(q);
+        }
+        for (int i = 0, n = s.length() - q.length(); i <= n; i++) {
+            if (s.regionMatches(true, i, q, 0, q.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 字符串的三元组(忽略大小写), 去重后升序.
+     */
+    private static long[] trigrams(final String s, final String t) {
+        final int n = Math.max(0, s.length() - 2) + (null != t ? Math.max(0, t.length() - 2) : 0);
+        final long[] keys = new long[n];
+        int i = append(s, keys, 0);
+        if (null != t) {
+            i = append(t, keys, i);
+        }
+        Arrays.sort(keys, 0, i);
+        int size = 0;
+        for (int j = 0; j < i; j++) {
+            if (0 == size || keys[size - 1] != keys[j]) {
+                keys[size++] = keys[j];
+            }
+        }
+        return size < keys.length ? Arrays.copyOf(keys, size) : keys;
+    }
+
+    private static int append(final String s, final long[] keys, int i) {
+        for (int j = 0; j + 2 < s.length(); j++) {
+            keys[i++] = ((long) Character.toLowerCase(s.charAt(j)) << 32)
+                    | ((long) Character.toLowerCase(s.charAt(j + 1)) << 16)
+                    | Character.toLowerCase(s.charAt(j + 2));
+        }
+        return i;
+    }
+
+    /* ******************************
+     *  索引修改
+     * ****************************** */
+
+    private void put(final String path, final byte[] data, final Stat stat) {
+        final String value = null != data ? new String(data, 0, Math.min(data.length, maxValueBytes), UTF_8) : "";
+        lock.writeLock().lock();
+        try {
+            final Integer id = ids.get(path);
+            if (null != id) {
+                if (mzxids[id] >= stat.getMzxid()) {
+                    // 未变化或过期的响应.
+                    return;
+                }
+                paths[id] = null;
+                values[id] = null;
+            } else if (ids.size() >= maxNodes) {
+                truncated = true;
+                return;
+            }
+            ids.put(path, add(path, value, stat.getMzxid()));
+            compactIfNecessary();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(final String path) {
+        lock.writeLock().lock();
+        try {
+            final Integer id = ids.remove(path);
+            if (null != id) {
+                paths[id] = null;
+                values[id] = null;
+            }
+            final NavigableMap<String, Integer> descendants = descendants(path);
+            for (final Integer descendant : descendants.values()) {
+                paths[descendant] = null;
+                values[descendant] = null;
+            }
+            descendants.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 已索引的直接子节点名称.
+     */
+    private Set<String> childrenOf(final String path) {
+        final String prefix = "/".equals(path) ? "/" : path + '/';
+        final Set<String> names = new HashSet<String>();
+        lock.readLock().lock();
+        try {
+            String key = ids.higherKey(prefix);
+            while (null != key && key.startsWith(prefix)) {
+                final int slash = key.indexOf('/', prefix.length());
+                if (0 > slash) {
+                    names.add(key.substring(prefix.length()));
+                    key = ids.higherKey(key);
+                } else {
+                    // 跳过孙节点.
+                    key = ids.ceilingKey(key.substring(0, slash) + '0');
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return names;
+    }
+
+    /**
+     * 子树下的所有节点(不包括根), '0' 是 '/' 的下一个字符.
+     */
+    private NavigableMap<String, Integer> descendants(final String path) {
+        return "/".equals(path) ? ids.subMap("/", false, "0", false) : ids.subMap(path + '/', true, path + '0', false);
+    }
+
+    /* ******************************
+     *  以下方法需要持有写锁调用
+     * ****************************** */
+
+    private int add(final String path, final String value, final long mzxid) {
+        if (next == paths.length) {
+            final int capacity = paths.length * 2;
+            paths = Arrays.copyOf(paths, capacity);
+            values = Arrays.copyOf(values, capacity);
+            mzxids = Arrays.copyOf(mzxids, capacity);
+        }
+        final int id = next++;
+        paths[id] = path;
+        values[id] = value;
+        mzxids[id] = mzxid;
+        for (final long key : trigrams(path, value)) {
+            Postings list = postings.get(key);
+            if (null == list) {
+                list = new Postings();
+                postings.put(key, list);
+            }
+            list.add(id);
+            postingCount++;
+        }
+        return id;
+    }
+
+    private void compactIfNecessary() {
+        final int dead = next - ids.size();
+        if (COMPACT_THRESHOLD > dead || ids.size() > dead) {
+            return;
+        }
+        final String[] oldPaths = paths;
+        final String[] oldValues = values;
+        final long[] oldMzxids = mzxids;
+        final int capacity = Math.max(1024, Integer.highestOneBit(ids.size()) * 2);
+        paths = new String[capacity];
+        values = new String[capacity];
+        mzxids = new long[capacity];
+        next = 0;
+        postings.clear();
+        postingCount = 0;
+        for (final Map.Entry<String, Integer> entry : ids.entrySet()) {
+            final int id = entry.getValue();
+            entry.setValue(add(oldPaths[id], oldValues[id], oldMzxids[id]));
+        }
+    }
+
+    private void reset() {
+        ids.clear();
+        paths = new String[1024];
+        values = new String[1024];
+        mzxids = new long[1024];
+        next = 0;
+        postings.clear();
+        postingCount = 0;
+        truncated = false;
+    }
+
+    /**
+     * 索引统计信息.
+     *
+     * @return 统计信息
+     */
+    Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("connectString", connectString);
+        stats.put("roots", roots);
+        lock.readLock().lock();
+        try {
+            stats.put("nodes", ids.size());
+            stats.put("deleted", next - ids.size());
+            stats.put("trigrams", postings.size());
+            stats.put("postings", postingCount);
+        } finally {
+            lock.readLock().unlock();
+        }
+        stats.put("maxNodes", maxNodes);
+        stats.put("building", building);
+        stats.put("truncated", truncated);
+        stats.put("builds", builds.get());
+        stats.put("lastBuildMs", lastBuildMs);
+        stats.put("lastError", lastError);
+        stats.put("events", events.get());
+        stats.put("queries", queries.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        generation.incrementAndGet();
+        client.getConnectionStateListenable().removeListener(connectionListener);
+        lock.writeLock().lock();
+        try {
+            reset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 节点的匹配条件.
+     */
+    private abstract static class Matcher {
+
+        abstract boolean matches(String path, String value);
+    }
+
+    /**
+     * 升序的节点编号列表.
+     */
+    private static final class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(final int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
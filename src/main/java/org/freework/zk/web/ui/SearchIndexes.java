@@ -0,0 +1,167 @@
+package org.freework.zk.web.ui;
+
+import org.freework.zk.web.ui.util.CuratorPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 每个 zookeeper 集群一个 {@link SearchIndex}, 第一次查询时在后台构建.
+ * <p>
+ * 索引持有实例池中 curator 实例的一个租用, 保证 watch 所在的连接不会因空闲被关闭.
+ * 超过空闲时间未查询的索引由后台线程关闭并归还租用, 再次查询时重新构建.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class SearchIndexes implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchIndexes.class);
+
+    private final CuratorPool pool;
+    private final List<String> roots;
+    private final int maxNodes;
+    private final int maxValueBytes;
+    private final int concurrency;
+    private final long timeoutMs;
+    private final long idleTimeoutMs;
+    private final ConcurrentMap<String, Entry> indexes = new ConcurrentHashMap<String, Entry>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "search-index-" + sequence.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final ScheduledExecutorService evictor;
+
+    SearchIndexes(final CuratorPool pool, final List<String> roots, final int maxNodes,
+                  final int maxValueBytes, final int concurrency, final long timeoutMs, final long idleTimeoutMs) {
+        this.pool = pool;
+        this.roots = roots;
+        this.maxNodes = maxNodes;
+        this.maxValueBytes = maxValueBytes;
+        this.concurrency = concurrency;
+        this.timeoutMs = timeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "search-index-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        final long period = Math.max(1000L, Math.min(idleTimeoutMs, 30000L));
+        this.evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 获取给定集群的索引, 如果不存在则创建并在后台构建.
+     *
+     * @param zkUrl the zookeeper url
+     * @return the search index
+     */
+    SearchIndex get(final String zkUrl) {
+        final String key = CuratorPool.normalize(zkUrl);
+        Entry entry = indexes.get(key);
+        if (null == entry) {
+            synchronized (this) {
+                entry = indexes.get(key);
+                if (null == entry) {
+                    final SearchIndex created = new SearchIndex(key, pool.acquire(key), executor, roots, maxNodes, maxValueBytes, concurrency, timeoutMs);
+                    entry = new Entry(created);
+                    indexes.put(key, entry);
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            created.build();
+                        }
+                    });
+                }
+            }
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        return entry.index;
+    }
+
+    /**
+     * 关闭超过空闲时间未查询的索引并归还租用.
+     */
+    void evictIdle() {
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String, Entry> entry : indexes.entrySet()) {
+            if (now - entry.getValue().lastAccess >= idleTimeoutMs) {
+                evict(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private synchronized void evict(final String key, final Entry entry) {
+        if (!indexes.remove(key, entry)) {
+            return;
+        }
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("evict idle search index: {}", key);
+        }
+        entry.index.close();
+        pool.release(key);
+    }
+
+    /**
+     * 所有索引的统计信息.
+     *
+     * @return 统计信息
+     */
+    List<Map<String, Object>> stats() {
+        final List<Map<String, Object>> stats = new ArrayList<Map<String, Object>>(indexes.size());
+        for (final Entry entry : indexes.values()) {
+            final Map<String, Object> stat = entry.index.stats();
+            stat.put("lastAccess", entry.lastAccess);
+            stats.add(stat);
+        }
+        return stats;
+    }
+
+    @Override
+    public synchronized void close() {
+        evictor.shutdownNow();
+        for (final Map.Entry<String, Entry> entry : indexes.entrySet()) {
+            entry.getValue().index.close();
+            pool.release(entry.getKey());
+        }
+        indexes.clear();
+        executor.shutdownNow();
+    }
+
+    /**
+     * 索引及其最后查询时间.
+     */
+    private static final class Entry {
+        private final SearchIndex index;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private Entry(final SearchIndex index) {
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,676 @@
+package org.freework.zk.web.ui;
+
+import org.apache.zookeeper.data.Stat;
+import org.freework.zk.web.ui.util.MappedFile;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+
+/**
+ * zookeeper 快照(snapshot.*)和事务日志(log.*)文件的只读树.
+ * <p>
+ * 快照按深度优先的前序序列化 DataTree (根节点的路径为空字符串, 以路径 "/" 结束), 子树在文件中是连续的.
+ * 打开时内存映射快照并顺序扫描一遍, 只读取每个节点的路径长度, 数据长度和临时节点所有者, 跳过数据,
+ * 记录每个节点的文件位置和子树结束的节点序号; 路径, 数据和 Stat 在访问时才从映射中读取.
+ * </p>
+ * <p>
+ * 指定 zxid 时重放快照之后的事务日志直到该 zxid, 修改记录在内存覆盖层中, 快照文件不变.
+ * 快照是模糊的(生成期间仍有事务提交), 与 zookeeper 恢复时相同从快照的 zxid 之后开始重放, 重放是幂等的.
+ * 打开后树不再修改, 可以被多个线程同时读取.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class SnapshotTree {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final ZookeeperWebUiServlet.View[] EMPTY = new ZookeeperWebUiServlet.View[0];
+
+    private static final int SNAP_MAGIC = 0x5a4b534e;
+    private static final int LOG_MAGIC = 0x5a4b4c47;
+
+    /**
+     * StatPersisted: czxid, mzxid, ctime, mtime, version, cversion, aversion, ephemeralOwner, pzxid.
+     */
+    private static final int STAT_BYTES = 60;
+    private static final int EPHEMERAL_OWNER_OFFSET = 44;
+
+    /**
+     * 影响树的事务类型, 见 ZooDefs.OpCode.
+     */
+    private static final int CREATE = 1;
+    private static final int DELETE = 2;
+    private static final int SET_DATA = 5;
+    private static final int MULTI = 14;
+    private static final int CLOSE_SESSION = -11;
+
+    private final File file;
+    private final long zxid;
+    private final MappedFile mapped;
+
+    /**
+     * 按前序的节点文件位置, 以及子树结束(不包含)的节点序号.
+     */
+    private long[] offsets = new long[1024];
+    private int[] ends = new int[1024];
+    private int count;
+
+    /**
+     * 快照中的临时节点: session -> 节点序号.
+     */
+    private final Map<Long, List<Integer>> ephemerals = new HashMap<Long, List<Integer>>();
+
+    /**
+     * 重放的修改: 路径 -> 节点, 值为 null 表示已删除.
+     */
+    private final Map<String, Node> overlay = new HashMap<String, Node>();
+
+    /**
+     * 重放创建的子节点名称和临时节点.
+     */
+    private final Map<String, Set<String>> created = new HashMap<String, Set<String>>();
+    private final Map<Long, Set<String>> createdEphemerals = new HashMap<Long, Set<String>>();
+
+    private long replayedTo;
+    private int replayed;
+    private final long openMs;
+
+    /**
+     * 正在进行的读取数加上打开状态(未关闭时为 1), 为 0 时解除映射.
+     */
+    private final AtomicInteger leases = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * 打开快照, 如果 upTo 不小于快照的 zxid 则重放事务日志.
+     *
+     * @param file the snapshot file
+     * @param zxid 快照的 zxid (文件名后缀)
+     * @param logs 按起始 zxid 排序的事务日志文件
+     * @param upTo 重放到的 zxid (包含), 小于 0 表示不重放
+     * @throws IOException 如果文件不是快照/事务日志或读取失败
+     */
+    SnapshotTree(final File file, final long zxid, final List<File> logs, final long upTo) throws IOException {
+        final long start = System.currentTimeMillis();
+        this.file = file;
+        this.zxid = zxid;
+        this.mapped = new MappedFile(file);
+        this.replayedTo = zxid;
+        boolean opened = false;
+        try {
+            try {
+                index();
+            } catch (final IndexOutOfBoundsException e) {
+                throw new IOException("truncated snapshot: " + file, e);
+            }
+            if (0 <= upTo) {
+                for (final File log : logs) {
+                    if (!replay(log, upTo)) {
+                        break;
+                    }
+                }
+            }
+            opened = true;
+        } finally {
+            if (!opened) {
+                mapped.close();
+            }
+        }
+        this.openMs = System.currentTimeMillis() - start;
+    }
+
+    /**
+     * 列举子节点.
+     *
+     * @param path    the parent path
+     * @param preview 子节点数据的最大字节数, 见 {@link ZookeeperWebUiServlet#view(String, byte[], Stat, int)}
+     * @return 排序后的子节点视图, 节点不存在时为空
+     */
+    ZookeeperWebUiServlet.View[] ls(final String path, final int preview) {
+        retain();
+        try {
+            if (null == node(path)) {
+                return EMPTY;
+            }
+            final List<ZookeeperWebUiServlet.View> views = new ArrayList<ZookeeperWebUiServlet.View>();
+            final Set<String> seen = new HashSet<String>();
+            final int parent = find(path);
+            if (0 <= parent) {
+                for (int i = parent + 1; i < ends[parent]; i = ends[i]) {
+                    final String childPath = pathOf(i);
+                    final Node child = overlay.containsKey(childPath) ? overlay.get(childPath) : read(i);
+                    seen.add(childPath);
+                    if (null != child) {
+                        views.add(ZookeeperWebUiServlet.view(childPath, child.data, child.stat(childCount(childPath, i)), preview));
+                    }
+                }
+            }
+            final Set<String> names = created.get(path);
+            if (null != names) {
+                for (final String name : names) {
+                    final String childPath = ZookeeperWebUiServlet.resolve(path, name);
+                    final Node child = overlay.get(childPath);
+                    if (null != child && seen.add(childPath)) {
+                        views.add(ZookeeperWebUiServlet.view(childPath, child.data, child.stat(childCount(childPath, find(childPath))), preview));
+                    }
+                }
+            }
+            Collections.sort(views);
+            return views.toArray(new ZookeeperWebUiServlet.View[views.size()]);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * 获取节点视图.
+     *
+     * @param path the znode path
+     * @return 节点视图, 节点不存在时为 null
+     */
+    ZookeeperWebUiServlet.View stat(final String path) {
+        retain();
+        try {
+            final Node node = node(path);
+            return null != node ? ZookeeperWebUiServlet.view(path, node.data, node.stat(childCount(path, find(path)))) : null;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * 用于导出的节点读取.
+     *
+     * @return the source
+     */
+    SubtreeDumper.Source source() {
+        return new SubtreeDumper.Source() {
+            @Override
+            public CompletableFuture<SubtreeDumper.Node> read(final String path) {
+                retain();
+                try {
+                    final Node node = node(path);
+                    if (null == node) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    final List<String> children = children(path, find(path));
+                    return CompletableFuture.completedFuture(new SubtreeDumper.Node(node.data, node.stat(children.size()), children));
+                } finally {
+                    release();
+                }
+            }
+        };
+    }
+
+    /**
+     * 关闭快照, 正在进行的读取完成后解除映射, 之后的读取抛出 {@link IllegalStateException}.
+     */
+    void close() {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+
+    /**
+     * 是否已关闭.
+     *
+     * @return 是否已关闭
+     */
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    private void retain() {
+        for (; ; ) {
+            final int n = leases.get();
+            if (0 >= n) {
+                throw new IllegalStateException("snapshot is closed: " + file);
+            }
+            if (leases.compareAndSet(n, n + 1)) {
+                return;
+            }
+        }
+    }
+
+    private void release() {
+        if (0 == leases.decrementAndGet()) {
+            mapped.close();
+        }
+    }
+
+    /**
+     * 快照统计信息.
+     *
+     * @return 统计信息
+     */
+    Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("file", file.getPath());
+        stats.put("bytes", mapped.size());
+        stats.put("zxid", "0x" + Long.toHexString(zxid));
+        stats.put("nodes", count);
+        stats.put("replayed", replayed);
+        stats.put("replayedTo", "0x" + Long.toHexString(replayedTo));
+        stats.put("overlay", overlay.size());
+        stats.put("openMs", openMs);
+        return stats;
+    }
+
+    /* ******************************
+     *  快照
+     * ****************************** */
+
+    /**
+     * 扫描快照, 建立节点位置和子树范围的索引.
+     */
+    private void index() throws IOException {
+        if (SNAP_MAGIC != mapped.getInt(0)) {
+            throw new IOException("not a zookeeper snapshot: " + file);
+        }
+        // 文件头: magic, version, dbid.
+        long pos = 16;
+        // session: id, timeout.
+        pos += 4 + 12L * mapped.getInt(pos);
+        // ACL 缓存: id -> ACL 列表(perms, scheme, id).
+        final int acls = mapped.getInt(pos);
+        pos += 4;
+        for (int i = 0; i < acls; i++) {
+            final int n = mapped.getInt(pos + 8);
+            pos += 12;
+            for (int j = 0; j < n; j++) {
+                pos = skipString(skipString(pos + 4));
+            }
+        }
+
+        // 当前节点的祖先(路径和序号).
+        final List<String> stackPaths = new ArrayList<String>();
+        final List<Integer> stack = new ArrayList<Integer>();
+        while (true) {
+            final String path = readString(pos);
+            if ("/".equals(path)) {
+                break;
+            }
+            final long offset = pos;
+            pos = skipString(pos);
+            final int dataLength = mapped.getInt(pos);
+            // 数据, ACL 引用.
+            pos += 4 + Math.max(0, dataLength) + 8;
+            final long owner = mapped.getLong(pos + EPHEMERAL_OWNER_OFFSET);
+            pos += STAT_BYTES;
+
+            while (!stack.isEmpty() && !isDescendant(stackPaths.get(stackPaths.size() - 1), path)) {
+                stackPaths.remove(stackPaths.size() - 1);
+                ends[stack.remove(stack.size() - 1)] = count;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            offsets[count] = offset;
+            if (0 != owner) {
+                List<Integer> nodes = ephemerals.get(owner);
+                if (null == nodes) {
+                    nodes = new ArrayList<Integer>();
+                    ephemerals.put(owner, nodes);
+                }
+                nodes.add(count);
+            }
+            stack.add(count);
+            stackPaths.add(path);
+            count++;
+        }
+        for (final Integer i : stack) {
+            ends[i] = count;
+        }
+        if (0 == count) {
+            throw new IOException("empty snapshot: " + file);
+        }
+    }
+
+    private static boolean isDescendant(final String ancestor, final String path) {
+        return path.startsWith(ancestor) && path.length() > ancestor.length() && '/' == path.charAt(ancestor.length());
+    }
+
+    private String readString(final long pos) {
+        final int len = mapped.getInt(pos);
+        return 0 > len ? null : new String(mapped.get(pos + 4, len), UTF_8);
+    }
+
+    private long skipString(final long pos) {
+        return pos + 4 + Math.max(0, mapped.getInt(pos));
+    }
+
+    /**
+     * 快照中节点的路径, 根节点为 "/".
+     */
+    private String pathOf(final int i) {
+        final String path = readString(offsets[i]);
+        return path.isEmpty() ? "/" : path;
+    }
+
+    /**
+     * 读取快照中的节点.
+     */
+    private Node read(final int i) {
+        long pos = skipString(offsets[i]);
+        final int dataLength = mapped.getInt(pos);
+        final byte[] data = 0 > dataLength ? null : mapped.get(pos + 4, dataLength);
+        pos += 4 + Math.max(0, dataLength) + 8;
+        final Stat stat = new Stat(
+                mapped.getLong(pos), mapped.getLong(pos + 8), mapped.getLong(pos + 16), mapped.getLong(pos + 24),
+                mapped.getInt(pos + 32), mapped.getInt(pos + 36), mapped.getInt(pos + 40), mapped.getLong(pos + 44),
+                Math.max(0, dataLength), 0, mapped.getLong(pos + 52)
+        );
+        return new Node(data, stat);
+    }
+
+    /**
+     * 在快照中查找节点的序号, 从根节点逐段查找子节点.
+     *
+     * @return 节点序号, 不存在时返回 -1
+     */
+    private int find(final String path) {
+        int node = 0;
+        if ("/".equals(path)) {
+            return node;
+        }
+        int from = 1;
+        while (0 <= node && from < path.length()) {
+            int to = path.indexOf('/', from);
+            to = 0 > to ? path.length() : to;
+            final String prefix = path.substring(0, to);
+            int child = -1;
+            for (int i = node + 1; i < ends[node]; i = ends[i]) {
+                if (prefix.equals(readString(offsets[i]))) {
+                    child = i;
+                    break;
+                }
+            }
+            node = child;
+            from = to + 1;
+        }
+        return node;
+    }
+
+    /* ******************************
+     *  快照 + 覆盖层
+     * ****************************** */
+
+    private Node node(final String path) {
+        if (overlay.containsKey(path)) {
+            return overlay.get(path);
+        }
+        final int i = find(path);
+        return 0 <= i ? read(i) : null;
+    }
+
+    /**
+     * 子节点名称, parent 为节点在快照中的序号(不存在时为 -1).
+     */
+    private List<String> children(final String path, final int parent) {
+        final Set<String> names = new TreeSet<String>();
+        if (0 <= parent) {
+            for (int i = parent + 1; i < ends[parent]; i = ends[i]) {
+                final String childPath = pathOf(i);
+                if (!overlay.containsKey(childPath) || null != overlay.get(childPath)) {
+                    names.add(childPath.substring(childPath.lastIndexOf('/') + 1));
+                }
+            }
+        }
+        final Set<String> added = created.get(path);
+        if (null != added) {
+            for (final String name : added) {
+                if (null != overlay.get(ZookeeperWebUiServlet.resolve(path, name))) {
+                    names.add(name);
+                }
+            }
+        }
+        return new ArrayList<String>(names);
+    }
+
+    private int childCount(final String path, final int parent) {
+        if (!overlay.isEmpty()) {
+            return children(path, parent).size();
+        }
+        int n = 0;
+        for (int i = parent + 1; 0 <= parent && i < ends[parent]; i = ends[i]) {
+            n++;
+        }
+        return n;
+    }
+
+    /* ******************************
+     *  事务日志重放
+     * ****************************** */
+
+    /**
+     * 重放一个事务日志文件.
+     *
+     * @return 是否继续重放下一个文件
+     */
+    private boolean replay(final File log, final long upTo) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+        try {
+            if (LOG_MAGIC != in.readInt()) {
+                throw new IOException("not a zookeeper transaction log: " + log);
+            }
+            // version, dbid.
+            in.readInt();
+            in.readLong();
+            while (true) {
+                final byte[] txn;
+                try {
+                    final long crc = in.readLong();
+                    final int length = in.readInt();
+                    if (0 >= length) {
+                        // 预分配的空白.
+                        return true;
+                    }
+                    txn = new byte[length];
+                    in.readFully(txn);
+                    final Adler32 checksum = new Adler32();
+                    checksum.update(txn, 0, length);
+                    if (checksum.getValue() != crc || 'B' != in.readByte()) {
+                        // 未写完的事务.
+                        return false;
+                    }
+                } catch (final EOFException e) {
+                    return true;
+                }
+                final DataInputStream record = new DataInputStream(new ByteArrayInputStream(txn));
+                final long clientId = record.readLong();
+                record.readInt();
+                final long txnZxid = record.readLong();
+                final long time = record.readLong();
+                final int type = record.readInt();
+                if (txnZxid <= zxid) {
+                    continue;
+                }
+                if (txnZxid > upTo) {
+                    return false;
+                }
+                apply(type, record, clientId, txnZxid, time);
+                replayed++;
+                replayedTo = txnZxid;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void apply(final int type, final DataInputStream txn, final long clientId, final long txnZxid, final long time) throws IOException {
+        switch (type) {
+            case CREATE: {
+                final String path = readString(txn);
+                final byte[] data = readBuffer(txn);
+                // ACL 列表.
+                final int acls = txn.readInt();
+                for (int i = 0; i < acls; i++) {
+                    txn.readInt();
+                    readString(txn);
+                    readString(txn);
+                }
+                final boolean ephemeral = txn.readBoolean();
+                create(path, data, ephemeral ? clientId : 0, txn.readInt(), txnZxid, time);
+                break;
+            }
+            case DELETE:
+                delete(readString(txn), txnZxid);
+                break;
+            case SET_DATA: {
+                final String path = readString(txn);
+                final byte[] data = readBuffer(txn);
+                final int version = txn.readInt();
+                final Node node = mutable(path);
+                if (null != node) {
+                    node.data = data;
+                    node.stat.setMzxid(txnZxid);
+                    node.stat.setMtime(time);
+                    node.stat.setVersion(version);
+                    node.stat.setDataLength(null != data ? data.length : 0);
+                }
+                break;
+            }
+            case MULTI: {
+                final int n = txn.readInt();
+                for (int i = 0; i < n; i++) {
+                    final int subType = txn.readInt();
+                    final byte[] sub = readBuffer(txn);
+                    apply(subType, new DataInputStream(new ByteArrayInputStream(null != sub ? sub : new byte[0])), clientId, txnZxid, time);
+                }
+                break;
+            }
+            case CLOSE_SESSION:
+                closeSession(clientId, txnZxid);
+                break;
+            default:
+                // createSession, setACL, check, error 不影响节点.
+                break;
+        }
+    }
+
+    private void create(final String path, final byte[] data, final long owner, final int parentCVersion, final long txnZxid, final long time) {
+        final int length = null != data ? data.length : 0;
+        overlay.put(path, new Node(data, new Stat(txnZxid, txnZxid, time, time, 0, 0, 0, owner, length, 0, txnZxid)));
+        final int index = path.lastIndexOf('/');
+        final String parentPath = 0 < index ? path.substring(0, index) : "/";
+        Set<String> names = created.get(parentPath);
+        if (null == names) {
+            names = new HashSet<String>();
+            created.put(parentPath, names);
+        }
+        names.add(path.substring(index + 1));
+        if (0 != owner) {
+            Set<String> paths = createdEphemerals.get(owner);
+            if (null == paths) {
+                paths = new HashSet<String>();
+                createdEphemerals.put(owner, paths);
+            }
+            paths.add(path);
+        }
+        final Node parent = mutable(parentPath);
+        if (null != parent) {
+            parent.stat.setCversion(parentCVersion);
+            parent.stat.setPzxid(txnZxid);
+        }
+    }
+
+    private void delete(final String path, final long txnZxid) {
+        overlay.put(path, null);
+        final int index = path.lastIndexOf('/');
+        final Node parent = mutable(0 < index ? path.substring(0, index) : "/");
+        if (null != parent) {
+            parent.stat.setPzxid(txnZxid);
+        }
+    }
+
+    private void closeSession(final long owner, final long txnZxid) {
+        final Set<String> paths = new HashSet<String>();
+        final List<Integer> nodes = ephemerals.get(owner);
+        if (null != nodes) {
+            for (final Integer i : nodes) {
+                paths.add(pathOf(i));
+            }
+        }
+        final Set<String> added = createdEphemerals.remove(owner);
+        if (null != added) {
+            paths.addAll(added);
+        }
+        for (final String path : paths) {
+            final Node node = node(path);
+            if (null != node && owner == node.stat.getEphemeralOwner()) {
+                delete(path, txnZxid);
+            }
+        }
+    }
+
+    /**
+     * 覆盖层中可修改的节点, 第一次修改时从快照复制.
+     */
+    private Node mutable(final String path) {
+        if (overlay.containsKey(path)) {
+            return overlay.get(path);
+        }
+        final int i = find(path);
+        final Node node = 0 <= i ? read(i) : null;
+        if (null != node) {
+            overlay.put(path, node);
+        }
+        return node;
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final byte[] bytes = readBuffer(in);
+        return null != bytes ? new String(bytes, UTF_8) : null;
+    }
+
+    private static byte[] readBuffer(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (0 > length) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * 节点数据和 Stat (子节点数在读取时计算).
+     */
+    private static final class Node {
+        private byte[] data;
+        private final Stat stat;
+
+        private Node(final byte[] data, final Stat stat) {
+            this.data = data;
+            this.stat = stat;
+        }
+
+        private Stat stat(final int children) {
+            final Stat copy = new Stat(
+                    stat.getCzxid(), stat.getMzxid(), stat.getCtime(), stat.getMtime(), stat.getVersion(), stat.getCversion(),
+                    stat.getAversion(), stat.getEphemeralOwner(), stat.getDataLength(), children, stat.getPzxid()
+            );
+            return copy;
+        }
+    }
+}
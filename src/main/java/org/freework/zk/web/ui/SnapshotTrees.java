@@ -0,0 +1,258 @@
+package org.freework.zk.web.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * 离线快照的打开和缓存.
+ * <p>
+ * 快照使用 "snapshot:" 开头的 zookeeper url 访问, 格式为 snapshot:文件或目录[@zxid],
+ * 目录是 zookeeper 的 dataDir/dataLogDir (或其中的 version-2), 选取 zxid 不大于给定 zxid 的最新快照;
+ * 指定 zxid 时重放同一目录下的事务日志到该 zxid (latest 表示重放全部事务日志).
+ * zxid 可以是十进制或 0x 开头的十六进制.
+ * </p>
+ * <p>
+ * 只能访问配置的目录下的文件, 最近使用的若干个快照保持打开, 超过后关闭最久未使用的快照并解除映射.
+ * 打开(扫描快照和重放事务日志)在锁外进行, 同一快照同时只打开一次, 其他请求等待打开完成.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class SnapshotTrees {
+    static final String PREFIX = "snapshot:";
+
+    private static final String SNAPSHOT_FILE_PREFIX = "snapshot.";
+    private static final String LOG_FILE_PREFIX = "log.";
+    private static final String VERSION_DIR = "version-2";
+    private static final String LATEST = "latest";
+
+    private final List<File> dirs;
+    private final int maxOpen;
+
+    /**
+     * 快照 -> 打开中或已打开的快照, 按访问顺序.
+     */
+    private final Map<String, CompletableFuture<SnapshotTree>> trees = new LinkedHashMap<String, CompletableFuture<SnapshotTree>>(16, 0.75F, true);
+
+    SnapshotTrees(final List<String> dirs, final int maxOpen) throws IOException {
+        this.dirs = new ArrayList<File>(dirs.size());
+        for (final String dir : dirs) {
+            this.dirs.add(new File(dir).getCanonicalFile());
+        }
+        this.maxOpen = Math.max(1, maxOpen);
+    }
+
+    /**
+     * 是否是离线快照的 url.
+     *
+     * @param zkUrl the zookeeper url
+     * @return 是否是快照
+     */
+    static boolean isSnapshot(final String zkUrl) {
+        return null != zkUrl && zkUrl.startsWith(PREFIX);
+    }
+
+    /**
+     * 获取快照, 如果没有打开则打开(并重放事务日志).
+     *
+     * @param zkUrl snapshot:文件或目录[@zxid]
+     * @return the snapshot tree
+     * @throws IllegalArgumentException 如果 url 非法, 文件不在配置的目录下或没有找到快照
+     * @throws IOException              如果读取快照或事务日志失败
+     */
+    SnapshotTree get(final String zkUrl) throws IOException {
+        final String spec = zkUrl.substring(PREFIX.length()).trim();
+        final int at = spec.lastIndexOf('@');
+        final long upTo;
+        if (0 > at) {
+            upTo = -1;
+        } else if (LATEST.equals(spec.substring(at + 1))) {
+            upTo = Long.MAX_VALUE;
+        } else {
+            upTo = Long.decode(spec.substring(at + 1));
+        }
+        File file = new File(0 > at ? spec : spec.substring(0, at)).getCanonicalFile();
+        if (!isAllowed(file)) {
+            throw new IllegalArgumentException("snapshot is not under the configured dirs: " + file);
+        }
+        if (file.isDirectory()) {
+            final File versioned = new File(file, VERSION_DIR);
+            final TreeMap<Long, File> snapshots = list(versioned.isDirectory() ? versioned : file, SNAPSHOT_FILE_PREFIX);
+            final Map.Entry<Long, File> latest = 0 > upTo ? snapshots.lastEntry() : snapshots.floorEntry(upTo);
+            if (null == latest) {
+                throw new IllegalArgumentException("no snapshot found in: " + file);
+            }
+            file = latest.getValue();
+        }
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("snapshot not found: " + file);
+        }
+        final long zxid = zxidOf(file, SNAPSHOT_FILE_PREFIX);
+        if (0 > zxid) {
+            throw new IllegalArgumentException("not a snapshot file: " + file);
+        }
+
+        final String key = file.getPath() + '@' + upTo;
+        for (; ; ) {
+            final CompletableFuture<SnapshotTree> future;
+            final boolean opening;
+            final List<CompletableFuture<SnapshotTree>> evicted = new ArrayList<CompletableFuture<SnapshotTree>>();
+            synchronized (this) {
+                final CompletableFuture<SnapshotTree> existing = trees.get(key);
+                opening = null == existing;
+                if (opening) {
+                    future = new CompletableFuture<SnapshotTree>();
+                    trees.put(key, future);
+                    final Iterator<CompletableFuture<SnapshotTree>> it = trees.values().iterator();
+                    while (trees.size() > maxOpen && it.hasNext()) {
+                        evicted.add(it.next());
+                        it.remove();
+                    }
+                } else {
+                    future = existing;
+                }
+            }
+            for (final CompletableFuture<SnapshotTree> eldest : evicted) {
+                close(eldest);
+            }
+
+            if (opening) {
+                try {
+                    future.complete(new SnapshotTree(file, zxid, 0 > upTo ? Collections.<File>emptyList() : logs(file.getParentFile(), zxid), upTo));
+                } catch (final Throwable e) {
+                    synchronized (this) {
+                        trees.remove(key, future);
+                    }
+                    future.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            final SnapshotTree tree = await(future);
+            // 等待期间被关闭(超过最大打开数)时重新打开.
+            if (!tree.isClosed()) {
+                return tree;
+            }
+        }
+    }
+
+    /**
+     * 关闭所有快照.
+     */
+    void close() {
+        final List<CompletableFuture<SnapshotTree>> closing;
+        synchronized (this) {
+            closing = new ArrayList<CompletableFuture<SnapshotTree>>(trees.values());
+            trees.clear();
+        }
+        for (final CompletableFuture<SnapshotTree> future : closing) {
+            close(future);
+        }
+    }
+
+    /**
+     * 打开的快照的统计信息.
+     *
+     * @return 统计信息
+     */
+    synchronized List<Map<String, Object>> stats() {
+        final List<Map<String, Object>> stats = new ArrayList<Map<String, Object>>(trees.size());
+        for (final CompletableFuture<SnapshotTree> future : trees.values()) {
+            // 打开中的快照不统计.
+            final SnapshotTree tree = future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+            if (null != tree) {
+                stats.add(tree.stats());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 打开完成后关闭快照(正在进行的读取完成后解除映射).
+     */
+    private static void close(final CompletableFuture<SnapshotTree> future) {
+        future.thenAccept(new Consumer<SnapshotTree>() {
+            @Override
+            public void accept(final SnapshotTree tree) {
+                tree.close();
+            }
+        });
+    }
+
+    private static SnapshotTree await(final CompletableFuture<SnapshotTree> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while opening snapshot");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private boolean isAllowed(final File file) {
+        for (final File dir : dirs) {
+            if (file.equals(dir) || file.getPath().startsWith(dir.getPath() + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 需要重放的事务日志: 起始 zxid 不大于快照 zxid 的最后一个日志及其之后的日志.
+     */
+    private static List<File> logs(final File dir, final long zxid) {
+        final TreeMap<Long, File> logs = list(dir, LOG_FILE_PREFIX);
+        final Long first = logs.floorKey(zxid);
+        return new ArrayList<File>((null != first ? logs.tailMap(first, true) : logs).values());
+    }
+
+    private static TreeMap<Long, File> list(final File dir, final String prefix) {
+        final TreeMap<Long, File> files = new TreeMap<Long, File>();
+        final File[] children = dir.listFiles();
+        if (null != children) {
+            for (final File child : children) {
+                final long zxid = zxidOf(child, prefix);
+                if (0 <= zxid && child.isFile()) {
+                    files.put(zxid, child);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * 文件名中的 zxid (十六进制后缀).
+     *
+     * @return zxid, 文件名不匹配时返回 -1
+     */
+    private static long zxidOf(final File file, final String prefix) {
+        final String name = file.getName();
+        if (!name.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length()), 16);
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.freework.zk.web.ui;
+
+import freework.io.IOUtils;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.util.DigestUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 内存中的静态资源.
+ * <p>
+ * 启动时一次性加载 classpath 下给定目录中的所有资源, 之后每次请求直接从内存写出.
+ * 每个资源带有强 ETag, 支持 If-None-Match 返回 304; 文本资源预先压缩为 gzip, 根据 Accept-Encoding 选择.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class StaticResources {
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<String, String>();
+
+    static {
+        CONTENT_TYPES.put("html", "text/html;charset=UTF-8");
+        CONTENT_TYPES.put("js", "text/javascript;charset=UTF-8");
+        CONTENT_TYPES.put("css", "text/css;charset=UTF-8");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+    }
+
+    /**
+     * 资源路径(以 '/' 开始, 相对于资源目录) 到资源的映射, 加载后不再修改.
+     */
+    private final Map<String, Asset> assets;
+
+    /**
+     * Cache-Control 响应头.
+     */
+    private final String cacheControl;
+
+    /**
+     * 加载给定 classpath 目录下的所有资源.
+     *
+     * @param classLoader   the class loader
+     * @param location      资源目录, eg: support/web
+     * @param maxAgeSeconds 浏览器缓存时间(秒), 0 表示每次使用前都需要验证
+     * @throws IOException 如果读取资源发生异常
+     */
+    StaticResources(final ClassLoader classLoader, final String location, final long maxAgeSeconds) throws IOException {
+        final String base = '/' + location + '/';
+        final Map<String, Asset> loaded = new HashMap<String, Asset>();
+        final Resource[] resources = new PathMatchingResourcePatternResolver(classLoader).getResources("classpath*:" + location + "/**");
+        for (final Resource resource : resources) {
+            final String url = resource.getURL().toString();
+            final int index = url.lastIndexOf(base);
+            if (0 > index || url.endsWith("/") || !resource.isReadable()) {
+                // 目录.
+                continue;
+            }
+            final String path = url.substring(index + base.length() - 1);
+            if (!loaded.containsKey(path)) {
+                loaded.put(path, load(path, resource));
+            }
+        }
+        this.assets = Collections.unmodifiableMap(loaded);
+        this.cacheControl = 0 < maxAgeSeconds ? "public, max-age=" + maxAgeSeconds : "no-cache";
+    }
+
+    /**
+     * 写出给定的资源.
+     *
+     * @param path         资源路径
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @throws IOException 如果IO发生异常
+     */
+    void write(final String path, final HttpServletRequest httpRequest, final HttpServletResponse httpResponse) throws IOException {
+        final Asset asset = assets.get(path);
+        if (null == asset) {
+            httpResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        final boolean gzip = null != asset.gzipped && ResponseCompressor.accepts(httpRequest.getHeader("Accept-Encoding"), "gzip");
+        final String etag = gzip ? asset.gzippedEtag : asset.etag;
+
+        httpResponse.setHeader("ETag", etag);
+        httpResponse.setHeader("Cache-Control", cacheControl);
+        if (null != asset.gzipped) {
+            httpResponse.setHeader("Vary", "Accept-Encoding");
+        }
+        if (matches(httpRequest.getHeader("If-None-Match"), etag)) {
+            httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        final byte[] bytes = gzip ? asset.gzipped : asset.bytes;
+        if (null != asset.contentType) {
+            httpResponse.setContentType(asset.contentType);
+        }
+        if (gzip) {
+            httpResponse.setHeader("Content-Encoding", "gzip");
+        }
+        httpResponse.setContentLength(bytes.length);
+        httpResponse.getOutputStream().write(bytes);
+    }
+
+    /**
+     * 已加载的资源数.
+     *
+     * @return 资源数
+     */
+    int size() {
+        return assets.size();
+    }
+
+    private static Asset load(final String path, final Resource resource) throws IOException {
+        final InputStream in = resource.getInputStream();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        IOUtils.flow(in, buffer, true, true);
+
+        final byte[] bytes = buffer.toByteArray();
+        final String contentType = CONTENT_TYPES.get(path.substring(path.lastIndexOf('.') + 1));
+        final byte[] gzipped = null != contentType && contentType.startsWith("text/") ? gzip(bytes) : null;
+        return new Asset(bytes, null != gzipped && gzipped.length < bytes.length ? gzipped : null, contentType);
+    }
+
+    private static byte[] gzip(final byte[] bytes) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 2 + 32);
+        final GZIPOutputStream out = new GZIPOutputStream(buffer);
+        out.write(bytes);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * If-None-Match 使用弱比较.
+     */
+    static boolean matches(final String ifNoneMatch, final String etag) {
+        if (null == ifNoneMatch) {
+            return false;
+        }
+        for (final String candidate : ifNoneMatch.split(",")) {
+            final String tag = candidate.trim();
+            if ("*".equals(tag) || etag.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 加载到内存中的资源.
+     */
+    private static final class Asset {
+        private final byte[] bytes;
+        private final byte[] gzipped;
+        private final String contentType;
+        private final String etag;
+        private final String gzippedEtag;
+
+        private Asset(final byte[] bytes, final byte[] gzipped, final String contentType) {
+            final String digest = DigestUtils.md5DigestAsHex(bytes);
+            this.bytes = bytes;
+            this.gzipped = gzipped;
+            this.contentType = contentType;
+            this.etag = '"' + digest + '"';
+            this.gzippedEtag = '"' + digest + "-gz\"";
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 并行递归删除子树.
+ * <p>
+ * 先逐层流水线地 getChildren 得到整个子树(超过最大节点数时不删除), 再从最深的一层开始自底向上删除:
+ * 同一层的节点在更深的层删除后都是叶子节点, 按批次作为 multi 事务删除, 多个批次并行提交.
+ * 批次失败(节点已被删除或有新的子节点)时逐个删除该批次的节点, 已不存在的节点单独计数(missing), 不计为已删除.
+ * zookeeper 3.4 没有异步 multi, 批次在线程池中同步提交.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class SubtreeDeleter {
+    /**
+     * 结果中最多返回的错误数.
+     */
+    private static final int MAX_ERRORS = 100;
+
+    /**
+     * 每个 multi 事务删除的节点数.
+     */
+    private final int batchSize;
+
+    /**
+     * 最大节点数, 超过时不删除.
+     */
+    private final int maxNodes;
+
+    /**
+     * 等待一层 getChildren 或一个批次的超时时间(毫秒).
+     */
+    private final long timeoutMs;
+
+    /**
+     * 遍历时最多同时未完成的 getChildren 请求数.
+     */
+    private final int scanWindow;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param concurrency 最多并行提交的批次数
+     * @param batchSize   每个 multi 事务删除的节点数
+     * @param maxNodes    最大节点数
+     * @param timeoutMs   超时时间(毫秒)
+     * @param scanWindow  遍历时最多同时未完成的 getChildren 请求数
+     */
+    SubtreeDeleter(final int concurrency, final int batchSize, final int maxNodes, final long timeoutMs, final int scanWindow) {
+        if (1 > concurrency || 1 > batchSize || 1 > scanWindow) {
+            throw new IllegalArgumentException("illegal concurrency: " + concurrency + ", batch size: " + batchSize + ", scan window: " + scanWindow);
+        }
+        this.batchSize = batchSize;
+        this.maxNodes = maxNodes;
+        this.timeoutMs = timeoutMs;
+        this.scanWindow = scanWindow;
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger sequence = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "subtree-deleter-" + sequence.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 删除进度.
+     */
+    interface Listener {
+
+        /**
+         * 子树遍历完成.
+         *
+         * @param nodes 子树节点数
+         * @throws IOException 如果IO发生异常
+         */
+        void scanned(int nodes) throws IOException;
+
+        /**
+         * 一个批次处理完成, 在调用 {@link #delete(CuratorFramework, String, Listener)} 的线程中回调.
+         *
+         * @param deleted 已删除的节点数
+         * @param missing 遍历后已被其他客户端删除的节点数
+         * @param failed  删除失败的节点数
+         * @param total   子树节点数
+         * @throws IOException 如果IO发生异常
+         */
+        void progress(int deleted, int missing, int failed, int total) throws IOException;
+    }
+
+    /**
+     * 统计子树的节点数, 不删除.
+     *
+     * @param client the curator client
+     * @param path   子树根路径
+     * @return 统计结果, 超过最大节点数时 exceeded 为 true
+     * @throws Exception 如果 zookeeper 操作失败或超时
+     */
+    Map<String, Object> count(final CuratorFramework client, final String path) throws Exception {
+        final long start = System.currentTimeMillis();
+        final List<List<String>> levels = scan(client, path);
+        final int nodes = sizeOf(levels);
+        final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+        ret.put("success", true);
+        ret.put("message", nodes > maxNodes ? "more than " + maxNodes + " nodes under '" + path + "'" : nodes + " node(s) under '" + path + "'");
+        ret.put("nodes", nodes);
+        ret.put("depth", levels.size());
+        ret.put("exceeded", nodes > maxNodes);
+        ret.put("maxNodes", maxNodes);
+        ret.put("elapsedMs", System.currentTimeMillis() - start);
+        return ret;
+    }
+
+    /**
+     * 删除子树(包括根节点).
+     *
+     * @param client   the curator client
+     * @param path     子树根路径
+     * @param listener 进度
+     * @return 删除结果
+     * @throws Exception 如果 zookeeper 操作失败或超时
+     */
+    Map<String, Object> delete(final CuratorFramework client, final String path, final Listener listener) throws Exception {
+        final long start = System.currentTimeMillis();
+        final List<List<String>> levels = scan(client, path);
+        final int total = sizeOf(levels);
+        final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+        if (total > maxNodes) {
+            ret.put("success", false);
+            ret.put("message", "more than " + maxNodes + " nodes under '" + path + "', nothing deleted");
+            ret.put("nodes", total);
+            return ret;
+        }
+        listener.scanned(total);
+
+        final AtomicInteger deleted = new AtomicInteger();
+        final AtomicInteger missing = new AtomicInteger();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger failed = new AtomicInteger();
+        for (int depth = levels.size() - 1; depth >= 0; depth--) {
+            final List<String> level = levels.get(depth);
+            final ExecutorCompletionService<Void> completion = new ExecutorCompletionService<Void>(executor);
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int from = 0; from < level.size(); from += batchSize) {
+                final List<String> batch = level.subList(from, Math.min(from + batchSize, level.size()));
+                futures.add(completion.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        deleteBatch(client, batch, deleted, missing, failed, errors);
+                        return null;
+                    }
+                }));
+            }
+            boolean completed = false;
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    final Future<Void> future = completion.poll(timeoutMs, TimeUnit.MILLISECONDS);
+                    if (null == future) {
+                        throw new TimeoutException("delete batch timed out after " + timeoutMs + "ms");
+                    }
+                    future.get();
+                    listener.progress(deleted.get(), missing.get(), failed.get(), total);
+                }
+                completed = true;
+            } finally {
+                if (!completed) {
+                    // 超时或失败时取消还在排队的批次, 已提交的 multi 不中断.
+                    for (final Future<Void> future : futures) {
+                        future.cancel(false);
+                    }
+                }
+            }
+        }
+
+        ret.put("success", 0 == failed.get());
+        ret.put("message", deleted.get() + " of " + total + " node(s) deleted" + (0 < missing.get() ? ", " + missing.get() + " already deleted" : ""));
+        ret.put("nodes", total);
+        ret.put("deleted", deleted.get());
+        ret.put("missing", missing.get());
+        ret.put("failed", failed.get());
+        ret.put("elapsedMs", System.currentTimeMillis() - start);
+        synchronized (errors) {
+            ret.put("errors", new ArrayList<String>(errors));
+        }
+        return ret;
+    }
+
+    /**
+     * 关闭删除线程池.
+     */
+    void close() {
+        executor.shutdownNow();
+    }
+
+    private void deleteBatch(final CuratorFramework client, final List<String> batch, final AtomicInteger deleted,
+                             final AtomicInteger missing, final AtomicInteger failed, final List<String> errors) throws Exception {
+        final List<Op> ops = new ArrayList<Op>(batch.size());
+        for (final String path : batch) {
+            ops.add(Op.delete(path, -1));
+        }
+        try {
+            BatchWriter.multi(client, ops);
+            deleted.addAndGet(batch.size());
+            return;
+        } catch (final KeeperException e) {
+            // 逐个删除.
+        }
+        for (final String path : batch) {
+            try {
+                client.delete().forPath(path);
+                deleted.incrementAndGet();
+            } catch (final KeeperException.NoNodeException e) {
+                // 遍历后已被删除.
+                missing.incrementAndGet();
+            } catch (final KeeperException e) {
+                failed.incrementAndGet();
+                if (errors.size() < MAX_ERRORS) {
+                    errors.add(path + ": " + e.code());
+                }
+            }
+        }
+    }
+
+    /**
+     * 逐层获取子树的所有节点, 第 0 层为根节点, 节点数超过最大值时停止.
+     */
+    private List<List<String>> scan(final CuratorFramework client, final String path) throws Exception {
+        final List<List<String>> levels = new ArrayList<List<String>>();
+        if (null == client.checkExists().forPath(path)) {
+            return levels;
+        }
+        List<String> level = Collections.singletonList(path);
+        int nodes = 1;
+        while (!level.isEmpty()) {
+            levels.add(level);
+            if (nodes > maxNodes) {
+                break;
+            }
+            level = children(client, level);
+            nodes += level.size();
+        }
+        return levels;
+    }
+
+    /**
+     * 流水线地获取给定节点的所有子节点路径.
+     */
+    private List<String> children(final CuratorFramework client, final List<String> parents) throws Exception {
+        final List<String> children = Collections.synchronizedList(new ArrayList<String>());
+        final Semaphore permits = new Semaphore(scanWindow);
+        final CountDownLatch latch = new CountDownLatch(parents.size());
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        int sent = 0;
+        try {
+            for (; sent < parents.size() && null == failure.get(); sent++) {
+                final String parent = parents.get(sent);
+                permits.acquire();
+                try {
+                    client.getChildren().inBackground(new BackgroundCallback() {
+                        @Override
+                        public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                            try {
+                                final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                                if (KeeperException.Code.OK == code) {
+                                    for (final String child : event.getChildren()) {
+                                        children.add(ZookeeperWebUiServlet.resolve(parent, child));
+                                    }
+                                } else if (KeeperException.Code.NONODE != code) {
+                                    failure.compareAndSet(null, KeeperException.create(code, parent));
+                                }
+                            } finally {
+                                permits.release();
+                                latch.countDown();
+                            }
+                        }
+                    }).forPath(parent);
+                } catch (final Exception e) {
+                    permits.release();
+                    latch.countDown();
+                    failure.compareAndSet(null, e);
+                }
+            }
+        } finally {
+            // 未发出的请求不会回调.
+            for (int i = sent; i < parents.size(); i++) {
+                latch.countDown();
+            }
+        }
+        if (!latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("get children of " + parents.size() + " nodes timed out after " + timeoutMs + "ms");
+        }
+        final Exception e = failure.get();
+        if (null != e) {
+            throw e;
+        }
+        return new ArrayList<String>(children);
+    }
+
+    private static int sizeOf(final List<List<String>> levels) {
+        int size = 0;
+        for (final List<String> level : levels) {
+            size += level.size();
+        }
+        return size;
+    }
+}
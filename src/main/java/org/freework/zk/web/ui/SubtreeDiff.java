@@ -0,0 +1,600 @@
+package org.freework.zk.web.ui;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 并行对比两个子树(可以在不同的集群).
+ * <p>
+ * 两侧同时遍历: 每个节点先用 getChildren(带 Stat) 获取子节点和 Stat, 不传输数据;
+ * 数据长度不同即为变化, 都为空即为相同, 否则比较数据的 SHA-256.
+ * 摘要按 (集群, 路径) 缓存并用 mzxid 校验, 再次对比时未修改的节点不需要重新读取数据
+ * (zookeeper 没有服务端摘要, 第一次对比长度相同的非空节点仍需要读取两侧的数据).
+ * 只存在于一侧的子树逐个节点展开.
+ * </p>
+ * <p>
+ * 差异(added: 只在源, removed: 只在目标, changed: 数据不同)在发现时立即回调, 按深度优先的顺序.
+ * 需要时生成把目标同步为源的批量操作({@link BatchWriter} 的格式): 先自顶向下 create 和 setData,
+ * 再自底向上 delete, setData 和 delete 带目标节点的版本. 与导出相同, 临时节点和 zookeeper 系统节点不参与对比.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class SubtreeDiff {
+    static final String ADDED = "added";
+    static final String REMOVED = "removed";
+    static final String CHANGED = "changed";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String ZK_SYSTEM_NODE_PATH = "/zookeeper";
+
+    /**
+     * 结果中最多返回的错误数.
+     */
+    private static final int MAX_ERRORS = 100;
+
+    private static final int BOTH = 0;
+    private static final int SOURCE_ONLY = 1;
+    private static final int TARGET_ONLY = 2;
+
+    /**
+     * 最多同时对比的节点数.
+     */
+    private final int concurrency;
+
+    /**
+     * 最多对比的节点数, 超过时停止.
+     */
+    private final int maxNodes;
+
+    /**
+     * 等待节点对比的超时时间(毫秒).
+     */
+    private final long timeoutMs;
+
+    /**
+     * 每个集群最多缓存的摘要数.
+     */
+    private final int cacheEntries;
+
+    private final ConcurrentMap<String, Map<String, Digest>> digests = new ConcurrentHashMap<String, Map<String, Digest>>();
+
+    /**
+     * @param concurrency  最多同时对比的节点数
+     * @param maxNodes     最多对比的节点数
+     * @param timeoutMs    超时时间(毫秒)
+     * @param cacheEntries 每个集群最多缓存的摘要数
+     */
+    SubtreeDiff(final int concurrency, final int maxNodes, final long timeoutMs, final int cacheEntries) {
+        if (1 > concurrency) {
+            throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        }
+        this.concurrency = concurrency;
+        this.maxNodes = maxNodes;
+        this.timeoutMs = timeoutMs;
+        this.cacheEntries = cacheEntries;
+    }
+
+    /**
+     * 对比的一侧.
+     */
+    static final class Side {
+        private final String cluster;
+        private final CuratorFramework client;
+        private final String path;
+
+        /**
+         * @param cluster 规范化的集群地址, 用于摘要缓存
+         * @param client  the curator client
+         * @param path    子树根路径
+         */
+        Side(final String cluster, final CuratorFramework client, final String path) {
+            this.cluster = cluster;
+            this.client = client;
+            this.path = path;
+        }
+
+        private String absolute(final String relative) {
+            return relative.isEmpty() ? path : ("/".equals(path) ? relative : path + relative);
+        }
+    }
+
+    /**
+     * 差异回调.
+     */
+    interface Listener {
+
+        /**
+         * 发现一个差异, 在调用 {@link #diff(Side, Side, boolean, Listener)} 的线程中回调.
+         *
+         * @param entry 差异: type, path (相对于子树根路径, 根为 "/") 和两侧的 Stat 摘要
+         * @throws IOException 如果IO发生异常
+         */
+        void entry(Map<String, Object> entry) throws IOException;
+    }
+
+    /**
+     * 对比两个子树.
+     *
+     * @param source    源
+     * @param target    目标
+     * @param reconcile 是否生成把目标同步为源的批量操作(需要读取新增和变化的节点数据)
+     * @param listener  差异回调
+     * @return 对比结果
+     * @throws Exception 如果回调发生异常或超时
+     */
+    Map<String, Object> diff(final Side source, final Side target, final boolean reconcile, final Listener listener) throws Exception {
+        final long start = System.currentTimeMillis();
+        final BlockingQueue<Result> results = new LinkedBlockingQueue<Result>();
+        final Deque<Task> pending = new ArrayDeque<Task>();
+        final List<Map<String, Object>> writes = new ArrayList<Map<String, Object>>();
+        final List<Map<String, Object>> deletes = new ArrayList<Map<String, Object>>();
+        final List<String> errors = new ArrayList<String>();
+        final int[] counts = new int[3];
+        int compared = 0;
+        int failed = 0;
+        int inFlight = 0;
+        boolean truncated = false;
+
+        pending.push(new Task("", BOTH));
+        while (!pending.isEmpty() || 0 < inFlight) {
+            while (inFlight < concurrency && !pending.isEmpty()) {
+                if (compared >= maxNodes) {
+                    truncated = true;
+                    pending.clear();
+                    break;
+                }
+                final Task task = pending.pop();
+                compare(source, target, task, reconcile).whenComplete(new BiConsumer<Result, Throwable>() {
+                    @Override
+                    public void accept(final Result result, final Throwable e) {
+                        results.add(null != result ? result : new Result(task, e));
+                    }
+                });
+                compared++;
+                inFlight++;
+            }
+            if (0 == inFlight) {
+                break;
+            }
+            final Result result = results.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            if (null == result) {
+                throw new TimeoutException("diff timed out after " + timeoutMs + "ms, in flight: " + inFlight);
+            }
+            inFlight--;
+            if (null != result.error) {
+                failed++;
+                if (errors.size() < MAX_ERRORS) {
+                    errors.add(result.task.relative + ": " + result.error.getMessage());
+                }
+                continue;
+            }
+            if (null != result.entry) {
+                final Object type = result.entry.get("type");
+                counts[ADDED.equals(type) ? 0 : (REMOVED.equals(type) ? 1 : 2)]++;
+                listener.entry(result.entry);
+            }
+            if (null != result.operation) {
+                (BatchWriter.DELETE.equals(result.operation.get("op")) ? deletes : writes).add(result.operation);
+            }
+            // 倒序入栈, 子节点按名称顺序出栈.
+            for (int i = result.children.size() - 1; i >= 0; i--) {
+                pending.push(result.children.get(i));
+            }
+        }
+
+        final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+        ret.put("success", 0 == failed && !truncated);
+        ret.put("message", (truncated ? "stopped after " + maxNodes + " nodes, " : "")
+                + (counts[0] + counts[1] + counts[2]) + " difference(s) in " + compared + " node(s)");
+        ret.put("source", source.path);
+        ret.put("target", target.path);
+        ret.put("compared", compared);
+        ret.put(ADDED, counts[0]);
+        ret.put(REMOVED, counts[1]);
+        ret.put(CHANGED, counts[2]);
+        ret.put("failed", failed);
+        ret.put("truncated", truncated);
+        ret.put("elapsedMs", System.currentTimeMillis() - start);
+        ret.put("errors", errors);
+        if (reconcile) {
+            Collections.reverse(deletes);
+            writes.addAll(deletes);
+            ret.put("operations", writes);
+        }
+        return ret;
+    }
+
+    /**
+     * 对比一个节点, 结果包含差异, 同步操作和需要继续对比的子节点.
+     */
+    private CompletableFuture<Result> compare(final Side source, final Side target, final Task task, final boolean reconcile) {
+        final String relative = task.relative;
+        if (SOURCE_ONLY == task.sides) {
+            return list(source, relative).thenCompose(new Function<Listing, CompletionStage<Result>>() {
+                @Override
+                public CompletionStage<Result> apply(final Listing s) {
+                    return added(source, target, task, s, reconcile);
+                }
+            });
+        }
+        if (TARGET_ONLY == task.sides) {
+            return list(target, relative).thenApply(new Function<Listing, Result>() {
+                @Override
+                public Result apply(final Listing t) {
+                    return removed(target, task, t, reconcile);
+                }
+            });
+        }
+        return list(source, relative).thenCombine(list(target, relative), new BiFunction<Listing, Listing, Listing[]>() {
+            @Override
+            public Listing[] apply(final Listing s, final Listing t) {
+                return new Listing[]{s, t};
+            }
+        }).thenCompose(new Function<Listing[], CompletionStage<Result>>() {
+            @Override
+            public CompletionStage<Result> apply(final Listing[] pair) {
+                final Listing s = pair[0];
+                final Listing t = pair[1];
+                if (null == s) {
+                    return CompletableFuture.completedFuture(removed(target, task, t, reconcile));
+                }
+                if (null == t) {
+                    return added(source, target, task, s, reconcile);
+                }
+                return common(source, target, task, s, t, reconcile);
+            }
+        });
+    }
+
+    private CompletableFuture<Result> added(final Side source, final Side target, final Task task,
+                                            final Listing s, final boolean reconcile) {
+        if (null == s) {
+            return CompletableFuture.completedFuture(new Result(task));
+        }
+        final CompletableFuture<byte[]> data = reconcile ? read(source, task.relative) : CompletableFuture.<byte[]>completedFuture(null);
+        return data.thenApply(new Function<byte[], Result>() {
+            @Override
+            public Result apply(final byte[] value) {
+                final Result result = new Result(task);
+                result.entry = entry(ADDED, task.relative, s.stat, null);
+                if (reconcile) {
+                    result.operation = operation(BatchWriter.CREATE, target.absolute(task.relative), value, null);
+                }
+                for (final String child : s.children) {
+                    result.children.add(new Task(task.child(child), SOURCE_ONLY));
+                }
+                return result;
+            }
+        });
+    }
+
+    private Result removed(final Side target, final Task task, final Listing t, final boolean reconcile) {
+        final Result result = new Result(task);
+        if (null != t) {
+            result.entry = entry(REMOVED, task.relative, null, t.stat);
+            if (reconcile) {
+                result.operation = operation(BatchWriter.DELETE, target.absolute(task.relative), null, t.stat.getVersion());
+            }
+            for (final String child : t.children) {
+                result.children.add(new Task(task.child(child), TARGET_ONLY));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 两侧都存在的节点: 对比子节点集合和数据.
+     */
+    private CompletableFuture<Result> common(final Side source, final Side target, final Task task,
+                                              final Listing s, final Listing t, final boolean reconcile) {
+        final Result result = new Result(task);
+        final Set<String> targetChildren = new HashSet<String>(t.children);
+        for (final String child : s.children) {
+            result.children.add(new Task(task.child(child), targetChildren.remove(child) ? BOTH : SOURCE_ONLY));
+        }
+        for (final String child : t.children) {
+            if (targetChildren.contains(child)) {
+                result.children.add(new Task(task.child(child), TARGET_ONLY));
+            }
+        }
+
+        final int length = s.stat.getDataLength();
+        if (length != t.stat.getDataLength()) {
+            return difference(source, target, task, s, t, null, reconcile, result);
+        }
+        if (0 == length) {
+            return CompletableFuture.completedFuture(result);
+        }
+        return digest(source, task.relative, s.stat).thenCombine(digest(target, task.relative, t.stat), new BiFunction<Digest, Digest, Digest[]>() {
+            @Override
+            public Digest[] apply(final Digest a, final Digest b) {
+                return new Digest[]{a, b};
+            }
+        }).thenCompose(new Function<Digest[], CompletionStage<Result>>() {
+            @Override
+            public CompletionStage<Result> apply(final Digest[] pair) {
+                if (Arrays.equals(pair[0].hash, pair[1].hash)) {
+                    return CompletableFuture.completedFuture(result);
+                }
+                return difference(source, target, task, s, t, pair[0].data, reconcile, result);
+            }
+        });
+    }
+
+    /**
+     * 数据不同的节点, 同步时使用已读取的源数据, 没有时读取.
+     */
+    private CompletableFuture<Result> difference(final Side source, final Side target, final Task task, final Listing s, final Listing t,
+                                                 final byte[] data, final boolean reconcile, final Result result) {
+        result.entry = entry(CHANGED, task.relative, s.stat, t.stat);
+        if (!reconcile) {
+            return CompletableFuture.completedFuture(result);
+        }
+        final CompletableFuture<byte[]> value = null != data ? CompletableFuture.completedFuture(data) : read(source, task.relative);
+        return value.thenApply(new Function<byte[], Result>() {
+            @Override
+            public Result apply(final byte[] bytes) {
+                result.operation = operation(BatchWriter.SET_DATA, target.absolute(task.relative), bytes, t.stat.getVersion());
+                return result;
+            }
+        });
+    }
+
+    /**
+     * 节点数据的摘要, 缓存中 mzxid 相同时直接返回, 否则读取数据并计算.
+     */
+    private CompletableFuture<Digest> digest(final Side side, final String relative, final Stat stat) {
+        final String path = side.absolute(relative);
+        final Map<String, Digest> cache = cacheOf(side.cluster);
+        final Digest cached = cache.get(path);
+        if (null != cached && cached.mzxid == stat.getMzxid()) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return read(side, relative).thenApply(new Function<byte[], Digest>() {
+            @Override
+            public Digest apply(final byte[] data) {
+                final byte[] bytes = null != data ? data : new byte[0];
+                final byte[] hash = sha256(bytes);
+                cache.put(path, new Digest(stat.getMzxid(), hash, null));
+                return new Digest(stat.getMzxid(), hash, bytes);
+            }
+        });
+    }
+
+    private Map<String, Digest> cacheOf(final String cluster) {
+        Map<String, Digest> cache = digests.get(cluster);
+        if (null == cache) {
+            cache = Collections.synchronizedMap(new LinkedHashMap<String, Digest>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Digest> eldest) {
+                    return size() > cacheEntries;
+                }
+            });
+            final Map<String, Digest> existing = digests.putIfAbsent(cluster, cache);
+            cache = null != existing ? existing : cache;
+        }
+        return cache;
+    }
+
+    /**
+     * 获取子节点和 Stat (不传输数据), 节点不存在或为临时节点时结果为 null.
+     */
+    private static CompletableFuture<Listing> list(final Side side, final String relative) {
+        final String path = side.absolute(relative);
+        final CompletableFuture<Listing> future = new CompletableFuture<Listing>();
+        try {
+            side.client.getChildren().inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                    final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                    if (KeeperException.Code.NONODE == code) {
+                        future.complete(null);
+                    } else if (KeeperException.Code.OK != code) {
+                        future.completeExceptionally(KeeperException.create(code, path));
+                    } else if (0 != event.getStat().getEphemeralOwner()) {
+                        future.complete(null);
+                    } else {
+                        final List<String> children = new ArrayList<String>(event.getChildren());
+                        if ("/".equals(path)) {
+                            children.remove(ZK_SYSTEM_NODE_PATH.substring(1));
+                        }
+                        Collections.sort(children);
+                        future.complete(new Listing(event.getStat(), children));
+                    }
+                }
+            }).forPath(path);
+        } catch (final Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 读取节点数据, 节点不存在时结果为 null.
+     */
+    private static CompletableFuture<byte[]> read(final Side side, final String relative) {
+        final String path = side.absolute(relative);
+        final CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+        try {
+            side.client.getData().inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                    final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                    if (KeeperException.Code.OK == code) {
+                        future.complete(event.getData());
+                    } else if (KeeperException.Code.NONODE == code) {
+                        future.complete(null);
+                    } else {
+                        future.completeExceptionally(KeeperException.create(code, path));
+                    }
+                }
+            }).forPath(path);
+        } catch (final Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static Map<String, Object> entry(final String type, final String relative, final Stat source, final Stat target) {
+        final Map<String, Object> entry = new LinkedHashMap<String, Object>();
+        entry.put("type", type);
+        entry.put("path", relative.isEmpty() ? "/" : relative);
+        if (null != source) {
+            entry.put("sourceLength", source.getDataLength());
+            entry.put("sourceMtime", source.getMtime());
+        }
+        if (null != target) {
+            entry.put("targetLength", target.getDataLength());
+            entry.put("targetMtime", target.getMtime());
+            entry.put("targetVersion", target.getVersion());
+        }
+        return entry;
+    }
+
+    /**
+     * {@link BatchWriter.Operation} 格式的操作, 合法的 UTF-8 数据作为字符串, 否则使用 base64 编码, 保证写入的数据与源相同.
+     */
+    private static Map<String, Object> operation(final String op, final String path, final byte[] value, final Integer version) {
+        final Map<String, Object> operation = new LinkedHashMap<String, Object>();
+        operation.put("op", op);
+        operation.put("path", path);
+        if (!BatchWriter.DELETE.equals(op)) {
+            final String text = null != value ? utf8(value) : "";
+            if (null != text) {
+                operation.put("value", text);
+            } else {
+                operation.put("value", Base64Variants.MIME_NO_LINEFEEDS.encode(value));
+                operation.put("encoding", BatchWriter.BASE64);
+            }
+        }
+        if (null != version) {
+            operation.put("version", version);
+        }
+        return operation;
+    }
+
+    /**
+     * 严格解码 UTF-8.
+     *
+     * @param data 数据
+     * @return 字符串, 不是合法的 UTF-8 时返回 null
+     */
+    private static String utf8(final byte[] data) {
+        try {
+            return UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(data)).toString();
+        } catch (final CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    private static byte[] sha256(final byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 待对比的节点.
+     */
+    private static final class Task {
+        private final String relative;
+        private final int sides;
+
+        private Task(final String relative, final int sides) {
+            this.relative = relative;
+            this.sides = sides;
+        }
+
+        private String child(final String name) {
+            return relative + '/' + name;
+        }
+    }
+
+    /**
+     * 节点的 Stat 和排序后的子节点.
+     */
+    private static final class Listing {
+        private final Stat stat;
+        private final List<String> children;
+
+        private Listing(final Stat stat, final List<String> children) {
+            this.stat = stat;
+            this.children = children;
+        }
+    }
+
+    /**
+     * 数据摘要, data 只在刚读取时存在(不缓存).
+     */
+    private static final class Digest {
+        private final long mzxid;
+        private final byte[] hash;
+        private final byte[] data;
+
+        private Digest(final long mzxid, final byte[] hash, final byte[] data) {
+            this.mzxid = mzxid;
+            this.hash = hash;
+            this.data = data;
+        }
+    }
+
+    /**
+     * 一个节点的对比结果.
+     */
+    private static final class Result {
+        private final Task task;
+        private final Throwable error;
+        private final List<Task> children = new ArrayList<Task>();
+        private Map<String, Object> entry;
+        private Map<String, Object> operation;
+
+        private Result(final Task task) {
+            this(task, null);
+        }
+
+        private Result(final Task task, final Throwable error) {
+            this.task = task;
+            this.error = error instanceof CompletionException && null != error.getCause() ? error.getCause() : error;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.BackgroundPathable;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.freework.zk.web.ui.util.PropertiesWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * 流式并行导出子树为 properties.
+ * <p>
+ * 条目按路径字符串的自然顺序(与 {@link java.util.TreeMap} 相同)边遍历边写出.
+ * 由于节点路径总是小于其所有后代路径, 使用最小堆保存待写出的节点, 每次弹出最小路径即为下一个要写出的条目,
+ * 堆中只有已发现未写出的节点(遍历前沿), 内存占用与 深度 x 扇出 成正比而不是整个子树大小.
+ * </p>
+ * <p>
+ * 节点读取是异步的: 节点读取完成时立即发现其子节点并放入工作队列, 工作队列同样按路径排序,
+ * 在并发读取数和已读取未写出节点数的限制内跨层级预读, 写出线程只等待下一个要写出的节点.
+ * 临时节点由 getData 返回的 Stat 判断, 不再需要额外的 checkExists.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class SubtreeDumper {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SubtreeDumper.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 最大并发读取数.
+     */
+    private final int concurrency;
+
+    /**
+     * 最大已读取(含读取中)未写出的节点数.
+     */
+    private final int maxBuffered;
+
+    /**
+     * 等待单个节点读取的超时时间(毫秒).
+     */
+    private final long timeoutMs;
+
+    SubtreeDumper(final int concurrency, final int maxBuffered, final long timeoutMs) {
+        if (1 > concurrency || concurrency > maxBuffered) {
+            throw new IllegalArgumentException("illegal concurrency: " + concurrency + ", max buffered: " + maxBuffered);
+        }
+        this.concurrency = concurrency;
+        this.maxBuffered = maxBuffered;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * 异步节点读取.
+     */
+    interface Source {
+
+        /**
+         * 读取节点的数据, Stat 和子节点.
+         *
+         * @param path the znode path
+         * @return 节点, 如果不存在结果为 null
+         */
+        CompletableFuture<Node> read(String path);
+    }
+
+    /**
+     * 读取到的节点, 临时节点不需要子节点列表.
+     */
+    static final class Node {
+        final byte[] data;
+        final Stat stat;
+        final List<String> children;
+
+        Node(final byte[] data, final Stat stat, final List<String> children) {
+            this.data = data;
+            this.stat = stat;
+            this.children = null != children ? children : Collections.<String>emptyList();
+        }
+    }
+
+    /**
+     * 使用 Curator 后台回调直接读取 zookeeper 的节点读取.
+     *
+     * @param client the curator client
+     * @return the source
+     */
+    static Source direct(final CuratorFramework client) {
+        return direct(client, null);
+    }
+
+    /**
+     * 使用 Curator 后台回调直接读取 zookeeper 并注册 watch 的节点读取.
+     * <p>
+     * 注册 watch 时非临时节点总是读取子节点(注册子节点 watch), 没有子节点的节点新建子节点时也会触发.
+     * </p>
+     *
+     * @param client  the curator client
+     * @param watcher the watcher, 可以为 null
+     * @return the source
+     */
+    static Source direct(final CuratorFramework client, final CuratorWatcher watcher) {
+        return new Source() {
+            @Override
+            public CompletableFuture<Node> read(final String path) {
+                final CompletableFuture<Node> future = new CompletableFuture<Node>();
+                try {
+                    final BackgroundPathable<byte[]> getData = null != watcher ? client.getData().usingWatcher(watcher) : client.getData();
+                    getData.inBackground(new BackgroundCallback() {
+                        @Override
+                        public void processResult(final CuratorFramework c, final CuratorEvent event) throws Exception {
+                            final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                            if (KeeperException.Code.NONODE == code) {
+                                future.complete(null);
+                            } else if (KeeperException.Code.OK != code) {
+                                future.completeExceptionally(KeeperException.create(code, path));
+                            } else if (0 != event.getStat().getEphemeralOwner() || (null == watcher && 0 == event.getStat().getNumChildren())) {
+                                future.complete(new Node(event.getData(), event.getStat(), null));
+                            } else {
+                                readChildren(client, watcher, path, new Node(event.getData(), event.getStat(), null), future);
+                            }
+                        }
+                    }).forPath(path);
+                } catch (final Exception e) {
+                    future.completeExceptionally(e);
+                }
+                return future;
+            }
+        };
+    }
+
+    private static void readChildren(final CuratorFramework client, final CuratorWatcher watcher, final String path,
+                                     final Node node, final CompletableFuture<Node> future) throws Exception {
+        final BackgroundPathable<List<String>> getChildren = null != watcher ? client.getChildren().usingWatcher(watcher) : client.getChildren();
+        getChildren.inBackground(new BackgroundCallback() {
+            @Override
+            public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+                if (KeeperException.Code.OK == code) {
+                    future.complete(new Node(node.data, node.stat, event.getChildren()));
+                } else if (KeeperException.Code.NONODE == code) {
+                    // 读取数据后被删除.
+                    future.complete(node);
+                } else {
+                    future.completeExceptionally(KeeperException.create(code, path));
+                }
+            }
+        }).forPath(path);
+    }
+
+    /**
+     * 导出给定路径的子树, 跳过临时节点.
+     *
+     * @param source the node source
+     * @param path   the subtree root
+     * @param out    the properties writer
+     * @return 写出的条目数
+     * @throws Exception 如果 zookeeper 操作失败或IO发生异常
+     */
+    long dump(final Source source, final String path, final PropertiesWriter out) throws Exception {
+        final Traversal traversal = new Traversal(source);
+        final PriorityQueue<String> frontier = new PriorityQueue<String>();
+        traversal.discover(path);
+        frontier.add(path);
+
+        long count = 0;
+        try {
+            String current;
+            while (null != (current = frontier.poll())) {
+                final Node node = traversal.take(current);
+                if (null == node) {
+                    continue;
+                }
+                if (0 != node.stat.getEphemeralOwner()) {
+                    // skip ephemeral znode
+                    LOGGER.debug("skip ephemeral znode: [{}]", current);
+                    continue;
+                }
+                if (null != node.data) {
+                    out.write(current, new String(node.data, UTF_8));
+                    count++;
+                }
+                for (final String child : node.children) {
+                    frontier.add(ZookeeperWebUiServlet.resolve(current, child));
+                }
+            }
+        } finally {
+            traversal.close();
+        }
+        out.flush();
+        return count;
+    }
+
+    /**
+     * 一次导出的预读状态.
+     */
+    private final class Traversal {
+        private final Source source;
+        private final Map<String, Slot> slots = new HashMap<String, Slot>();
+        private final PriorityQueue<String> pending = new PriorityQueue<String>();
+        private int inFlight;
+        private int buffered;
+        private boolean pumping;
+        private boolean closed;
+
+        private Traversal(final Source source) {
+            this.source = source;
+        }
+
+        synchronized void discover(final String path) {
+            slots.put(path, new Slot());
+            pending.add(path);
+            pump();
+        }
+
+        Node take(final String path) throws Exception {
+            final Slot slot;
+            synchronized (this) {
+                slot = slots.remove(path);
+                if (!slot.dispatched) {
+                    // 写出线程需要的节点总是立即读取, 不受并发限制.
+                    dispatch(path, slot);
+                }
+            }
+            try {
+                return slot.future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (final ExecutionException e) {
+                final Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            } catch (final TimeoutException e) {
+                throw new TimeoutException("read '" + path + "' timed out after " + timeoutMs + "ms");
+            } finally {
+                synchronized (this) {
+                    if (slot.done) {
+                        buffered--;
+                    }
+                    slot.taken = true;
+                    pump();
+                }
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            pending.clear();
+            slots.clear();
+        }
+
+        private void pump() {
+            if (pumping) {
+                return;
+            }
+            pumping = true;
+            try {
+                while (!closed && inFlight < concurrency && inFlight + buffered < maxBuffered && !pending.isEmpty()) {
+                    final String path = pending.poll();
+                    final Slot slot = slots.get(path);
+                    if (null != slot && !slot.dispatched) {
+                        dispatch(path, slot);
+                    }
+                }
+            } finally {
+                pumping = false;
+            }
+        }
+
+        private void dispatch(final String path, final Slot slot) {
+            slot.dispatched = true;
+            inFlight++;
+            source.read(path).whenComplete(new BiConsumer<Node, Throwable>() {
+                @Override
+                public void accept(final Node node, final Throwable e) {
+                    complete(path, slot, node, e);
+                }
+            });
+        }
+
+        private synchronized void complete(final String path, final Slot slot, final Node node, final Throwable e) {
+            inFlight--;
+            if (!slot.taken) {
+                slot.done = true;
+                buffered++;
+            }
+            if (null != e) {
+                slot.future.completeExceptionally(e);
+            } else {
+                if (!closed && null != node && 0 == node.stat.getEphemeralOwner()) {
+                    for (final String child : node.children) {
+                        final String childPath = ZookeeperWebUiServlet.resolve(path, child);
+                        slots.put(childPath, new Slot());
+                        pending.add(childPath);
+                    }
+                }
+                slot.future.complete(node);
+            }
+            pump();
+        }
+    }
+
+    /**
+     * 已发现节点的读取状态.
+     */
+    private static final class Slot {
+        private final CompletableFuture<Node> future = new CompletableFuture<Node>();
+        private boolean dispatched;
+        private boolean done;
+        private boolean taken;
+    }
+}
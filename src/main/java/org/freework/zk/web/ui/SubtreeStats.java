@@ -0,0 +1,448 @@
+package org.freework.zk.web.ui;
+
+import org.apache.zookeeper.data.Stat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 子树统计: 节点数, 数据总字节数, 最大深度, 临时节点数, 最大的节点, 以及按字节数排序的最重的子节点.
+ * <p>
+ * 并行异步遍历: 节点读取完成时立即读取其子节点(受最大并发读取数限制), 不按顺序, 每个节点的统计由子节点的统计合并得到,
+ * 只保留每个子树的汇总和前 K 个最大的节点, 内存占用与遍历前沿成正比. 读取的节点数超过 maxNodes 时停止深入, 结果标记为 truncated.
+ * </p>
+ * <p>
+ * 使用 {@link Memo} 时(集群有 {@link TreeMirror}), 各子树的统计保留在镜像中, 读取时注册镜像的 watch,
+ * 任何变化使所在路径及其所有祖先的统计失效, 再次统计时只重新读取变化的路径, 未变化的子树直接使用保留的统计.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class SubtreeStats {
+    private static final Comparator<Sized> BY_LENGTH = new Comparator<Sized>() {
+        @Override
+        public int compare(final Sized a, final Sized b) {
+            return a.length != b.length ? Long.compare(a.length, b.length) : b.path.compareTo(a.path);
+        }
+    };
+    private static final Comparator<Aggregate> HEAVIEST_FIRST = new Comparator<Aggregate>() {
+        @Override
+        public int compare(final Aggregate a, final Aggregate b) {
+            if (a.bytes != b.bytes) {
+                return Long.compare(b.bytes, a.bytes);
+            }
+            return a.nodes != b.nodes ? Long.compare(b.nodes, a.nodes) : a.path.compareTo(b.path);
+        }
+    };
+
+    /**
+     * 最大并发读取数.
+     */
+    private final int concurrency;
+
+    /**
+     * 每次统计最多读取的节点数.
+     */
+    private final long maxNodes;
+
+    /**
+     * 返回的最重的子节点数和最大的节点数.
+     */
+    private final int topK;
+
+    SubtreeStats(final int concurrency, final long maxNodes, final int topK) {
+        if (1 > concurrency || 1 > topK) {
+            throw new IllegalArgumentException("illegal concurrency: " + concurrency + ", top k: " + topK);
+        }
+        this.concurrency = concurrency;
+        this.maxNodes = maxNodes;
+        this.topK = topK;
+    }
+
+    int topK() {
+        return topK;
+    }
+
+    /**
+     * 统计给定路径的子树.
+     *
+     * @param source 节点读取
+     * @param path   the subtree root
+     * @param memo   保留的子树统计, 可以为 null (source 必须注册使其失效的 watch)
+     * @param top    返回的最重的子节点数和最大的节点数, 不超过 topK
+     * @return 统计结果, 子树根节点不存在时为 null
+     */
+    CompletableFuture<Map<String, Object>> stats(final SubtreeDumper.Source source, final String path,
+                                                 final Memo memo, final int top) {
+        final long start = System.nanoTime();
+        final Traversal traversal = new Traversal(source, memo);
+        final CompletableFuture<Map<String, Object>> result = traversal.result;
+        // 根节点总是重新读取, 以获得每个子节点的统计.
+        traversal.read(path).thenCompose(new Function<SubtreeDumper.Node, CompletionStage<Map<String, Object>>>() {
+            @Override
+            public CompletionStage<Map<String, Object>> apply(final SubtreeDumper.Node node) {
+                if (null == node) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                return traversal.children(path, node).thenApply(new Function<List<Aggregate>, Map<String, Object>>() {
+                    @Override
+                    public Map<String, Object> apply(final List<Aggregate> children) {
+                        final Aggregate root = merge(path, node.stat, children);
+                        final List<Aggregate> heaviest = new ArrayList<Aggregate>(children);
+                        Collections.sort(heaviest, HEAVIEST_FIRST);
+
+                        final Map<String, Object> ret = toMap(root);
+                        final List<Map<String, Object>> childStats = new ArrayList<Map<String, Object>>();
+                        for (final Aggregate child : heaviest.subList(0, Math.min(top, heaviest.size()))) {
+                            childStats.add(toMap(child));
+                        }
+                        ret.put("children", childStats);
+                        final List<Map<String, Object>> largest = new ArrayList<Map<String, Object>>();
+                        for (final Sized sized : root.largest.subList(0, Math.min(top, root.largest.size()))) {
+                            final Map<String, Object> entry = new LinkedHashMap<String, Object>();
+                            entry.put("path", sized.path);
+                            entry.put("length", sized.length);
+                            largest.add(entry);
+                        }
+                        ret.put("largest", largest);
+                        ret.put("reads", traversal.reads.get());
+                        ret.put("memoized", traversal.memoized.get());
+                        ret.put("elapsedMs", (System.nanoTime() - start) / 1000000);
+                        return ret;
+                    }
+                });
+            }
+        }).whenComplete(new BiConsumer<Map<String, Object>, Throwable>() {
+            @Override
+            public void accept(final Map<String, Object> value, final Throwable e) {
+                if (null != e) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(value);
+                }
+            }
+        });
+        return result;
+    }
+
+    private static Map<String, Object> toMap(final Aggregate aggregate) {
+        final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+        ret.put("path", aggregate.path);
+        ret.put("nodes", aggregate.nodes);
+        ret.put("bytes", aggregate.bytes);
+        ret.put("maxDepth", aggregate.depth);
+        ret.put("ephemerals", aggregate.ephemerals);
+        ret.put("truncated", aggregate.truncated);
+        return ret;
+    }
+
+    /**
+     * 合并节点自身和子节点的统计.
+     */
+    private Aggregate merge(final String path, final Stat stat, final List<Aggregate> children) {
+        long nodes = 1;
+        long bytes = stat.getDataLength();
+        int depth = 0;
+        long ephemerals = 0 != stat.getEphemeralOwner() ? 1 : 0;
+        boolean truncated = false;
+        final PriorityQueue<Sized> largest = new PriorityQueue<Sized>(topK + 1, BY_LENGTH);
+        offer(largest, new Sized(path, stat.getDataLength()));
+        for (final Aggregate child : children) {
+            nodes += child.nodes;
+            bytes += child.bytes;
+            depth = Math.max(depth, child.depth + 1);
+            ephemerals += child.ephemerals;
+            truncated |= child.truncated;
+            for (final Sized sized : child.largest) {
+                if (!offer(largest, sized)) {
+                    // 子节点的列表按长度降序, 之后的更小.
+                    break;
+                }
+            }
+        }
+        final List<Sized> sorted = new ArrayList<Sized>(largest);
+        Collections.sort(sorted, Collections.reverseOrder(BY_LENGTH));
+        return new Aggregate(path, nodes, bytes, depth, ephemerals, truncated, Collections.unmodifiableList(sorted));
+    }
+
+    private boolean offer(final PriorityQueue<Sized> largest, final Sized sized) {
+        if (largest.size() < topK) {
+            largest.add(sized);
+            return true;
+        }
+        if (0 < BY_LENGTH.compare(sized, largest.peek())) {
+            largest.poll();
+            largest.add(sized);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 一次统计的遍历状态.
+     */
+    private final class Traversal {
+        private final SubtreeDumper.Source source;
+        private final Memo memo;
+        private final CompletableFuture<Map<String, Object>> result = new CompletableFuture<Map<String, Object>>();
+        private final Queue<Runnable> pending = new ArrayDeque<Runnable>();
+        private final AtomicLong reads = new AtomicLong();
+        private final AtomicLong memoized = new AtomicLong();
+        private int inFlight;
+
+        private Traversal(final SubtreeDumper.Source source, final Memo memo) {
+            this.source = source;
+            this.memo = memo;
+        }
+
+        /**
+         * 子树的统计, 优先使用保留的统计.
+         */
+        private CompletableFuture<Aggregate> aggregate(final String path) {
+            final Aggregate memoizedAggregate = null != memo ? memo.get(path) : null;
+            if (null != memoizedAggregate) {
+                memoized.incrementAndGet();
+                return CompletableFuture.completedFuture(memoizedAggregate);
+            }
+            if (reads.get() >= maxNodes) {
+                return CompletableFuture.completedFuture(new Aggregate(path, 0, 0, 0, 0, true, Collections.<Sized>emptyList()));
+            }
+            final long since = null != memo ? memo.sequence() : 0;
+            return read(path).thenCompose(new Function<SubtreeDumper.Node, CompletionStage<Aggregate>>() {
+                @Override
+                public CompletionStage<Aggregate> apply(final SubtreeDumper.Node node) {
+                    if (null == node) {
+                        // 遍历期间被删除.
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return children(path, node).thenApply(new Function<List<Aggregate>, Aggregate>() {
+                        @Override
+                        public Aggregate apply(final List<Aggregate> children) {
+                            final Aggregate aggregate = merge(path, node.stat, children);
+                            if (null != memo && !aggregate.truncated) {
+                                memo.put(path, aggregate, since);
+                            }
+                            return aggregate;
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * 所有子节点的统计(不包括遍历期间被删除的).
+         */
+        private CompletableFuture<List<Aggregate>> children(final String path, final SubtreeDumper.Node node) {
+            if (node.children.isEmpty()) {
+                return CompletableFuture.completedFuture(Collections.<Aggregate>emptyList());
+            }
+            final List<CompletableFuture<Aggregate>> futures = new ArrayList<CompletableFuture<Aggregate>>(node.children.size());
+            for (final String child : node.children) {
+                futures.add(aggregate(ZookeeperWebUiServlet.resolve(path, child)));
+            }
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(new Function<Void, List<Aggregate>>() {
+                @Override
+                public List<Aggregate> apply(final Void v) {
+                    final List<Aggregate> children = new ArrayList<Aggregate>(futures.size());
+                    for (final CompletableFuture<Aggregate> future : futures) {
+                        final Aggregate child = future.join();
+                        if (null != child) {
+                            children.add(child);
+                        }
+                    }
+                    return children;
+                }
+            });
+        }
+
+        /**
+         * 读取节点, 超过最大并发读取数时排队; 统计已结束(如被取消)时不再读取.
+         */
+        private CompletableFuture<SubtreeDumper.Node> read(final String path) {
+            final CompletableFuture<SubtreeDumper.Node> future = new CompletableFuture<SubtreeDumper.Node>();
+            reads.incrementAndGet();
+            final Runnable dispatch = new Runnable() {
+                @Override
+                public void run() {
+                    if (result.isDone()) {
+                        release();
+                        future.completeExceptionally(new CancellationException("subtree stats of '" + path + "' cancelled"));
+                        return;
+                    }
+                    source.read(path).whenComplete(new BiConsumer<SubtreeDumper.Node, Throwable>() {
+                        @Override
+                        public void accept(final SubtreeDumper.Node node, final Throwable e) {
+                            release();
+                            if (null != e) {
+                                future.completeExceptionally(e);
+                            } else {
+                                future.complete(node);
+                            }
+                        }
+                    });
+                }
+            };
+            synchronized (this) {
+                if (inFlight >= concurrency) {
+                    pending.add(dispatch);
+                    return future;
+                }
+                inFlight++;
+            }
+            dispatch.run();
+            return future;
+        }
+
+        private void release() {
+            final Runnable next;
+            synchronized (this) {
+                next = pending.poll();
+                if (null == next) {
+                    inFlight--;
+                }
+            }
+            if (null != next) {
+                next.run();
+            }
+        }
+    }
+
+    /**
+     * 一个子树的统计.
+     */
+    static final class Aggregate {
+        private final String path;
+        private final long nodes;
+        private final long bytes;
+        private final int depth;
+        private final long ephemerals;
+        private final boolean truncated;
+
+        /**
+         * 前 K 个最大的节点, 按长度降序.
+         */
+        private final List<Sized> largest;
+
+        private Aggregate(final String path, final long nodes, final long bytes, final int depth,
+                          final long ephemerals, final boolean truncated, final List<Sized> largest) {
+            this.path = path;
+            this.nodes = nodes;
+            this.bytes = bytes;
+            this.depth = depth;
+            this.ephemerals = ephemerals;
+            this.truncated = truncated;
+            this.largest = largest;
+        }
+    }
+
+    /**
+     * 节点的数据长度.
+     */
+    private static final class Sized {
+        private final String path;
+        private final long length;
+
+        private Sized(final String path, final long length) {
+            this.path = path;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 保留的子树统计, 按访问顺序淘汰.
+     * <p>
+     * 每次失效递增序号, 并记录失效路径(及其祖先)的序号; 统计开始读取节点之后该路径失效过时不保留其统计,
+     * 避免保留遍历期间已变化的统计. 失效记录被淘汰后, 早于被淘汰记录开始的统计都不保留.
+     * </p>
+     */
+    static final class Memo {
+        private final Map<String, Aggregate> aggregates;
+        private final Map<String, Long> invalidated;
+        private long sequence;
+        private long floor;
+
+        Memo(final int maxEntries) {
+            this.aggregates = new LinkedHashMap<String, Aggregate>(16, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Aggregate> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+            this.invalidated = new LinkedHashMap<String, Long>() {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+                    if (size() > maxEntries) {
+                        floor = Math.max(floor, eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized long sequence() {
+            return sequence;
+        }
+
+        synchronized Aggregate get(final String path) {
+            return aggregates.get(path);
+        }
+
+        /**
+         * 保留统计, 如果该路径在 since 之后失效过则忽略.
+         */
+        synchronized void put(final String path, final Aggregate aggregate, final long since) {
+            final Long last = invalidated.get(path);
+            if (since >= floor && (null == last || last <= since)) {
+                aggregates.put(path, aggregate);
+            }
+        }
+
+        /**
+         * 路径变化(数据, 子节点或删除), 使其及其所有祖先的统计失效.
+         *
+         * @param path the znode path
+         */
+        synchronized void invalidate(final String path) {
+            sequence++;
+            String current = path;
+            while (true) {
+                aggregates.remove(current);
+                invalidated.remove(current);
+                invalidated.put(current, sequence);
+                if ("/".equals(current)) {
+                    break;
+                }
+                final int index = current.lastIndexOf('/');
+                current = 0 < index ? current.substring(0, index) : "/";
+            }
+        }
+
+        /**
+         * 连接丢失或重连后 watch 可能已失效, 丢弃所有统计.
+         */
+        synchronized void clear() {
+            sequence++;
+            floor = sequence;
+            aggregates.clear();
+            invalidated.clear();
+        }
+
+        synchronized int size() {
+            return aggregates.size();
+        }
+    }
+}
@@ -0,0 +1,643 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * 基于 watch 的 zookeeper 树内存镜像.
+ * <p>
+ * 只镜像配置的根路径下的节点, 节点在被浏览时才加载(子节点列表, Stat 和数据), 并注册 watch 保持更新.
+ * 镜像占用内存超过预算时不再缓存新节点, watch 触发的更新超过预算时移除该节点的子树, 调用方应回退到直接读取 zookeeper.
+ * 连接丢失或重连后 watch 可能已失效, 此时清空镜像重新按需加载.
+ * </p>
+ * <p>
+ * watch 在读取时注册, 读取完成到保存之间可能已经触发(一次性, 之后不再触发).
+ * 因此读取前先放入占位节点, 期间触发的事件记录在占位节点上, 保存后重新读取.
+ * </p>
+ * <p>
+ * 镜像同时保留子树统计({@link SubtreeStats.Memo}), 统计时通过 {@link #watchedSource()} 读取的节点注册镜像的 watch,
+ * watch 触发时使所在路径及其祖先的统计失效.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class TreeMirror implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TreeMirror.class);
+
+    /**
+     * 每个节点的估算固定开销(节点对象, Stat, map entry).
+     */
+    private static final long NODE_OVERHEAD = 160;
+
+    private final String connectString;
+    private final CuratorFramework client;
+    private final AsyncLister lister;
+    private final List<String> roots;
+    private final long maxBytes;
+
+    private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<String, Node>();
+    private volatile long usedBytes;
+    private final SubtreeStats.Memo aggregates;
+
+    /**
+     * 正在后台加载子节点的路径.
+     */
+    private final Set<String> warming = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong overBudget = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+
+    private final CuratorWatcher watcher = new CuratorWatcher() {
+        @Override
+        public void process(final WatchedEvent event) {
+            onEvent(event);
+        }
+    };
+
+    private final ConnectionStateListener connectionListener = new ConnectionStateListener() {
+        @Override
+        public void stateChanged(final CuratorFramework c, final ConnectionState newState) {
+            if (ConnectionState.LOST == newState || ConnectionState.RECONNECTED == newState) {
+                clear();
+            }
+        }
+    };
+
+    TreeMirror(final String connectString, final CuratorFramework client, final AsyncLister lister,
+               final List<String> roots, final long maxBytes, final int maxAggregates) {
+        this.connectString = connectString;
+        this.client = client;
+        this.lister = lister;
+        this.roots = roots;
+        this.maxBytes = maxBytes;
+        this.aggregates = new SubtreeStats.Memo(maxAggregates);
+        this.client.getConnectionStateListenable().addListener(connectionListener);
+    }
+
+    /**
+     * 给定路径是否在镜像的根路径下.
+     *
+     * @param path the znode path
+     * @return true if mirrored
+     */
+    boolean covers(final String path) {
+        for (final String root : roots) {
+            if ("/".equals(root) || root.equals(path) || path.startsWith(root + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 列举子节点, 只从内存返回, 不加载.
+     *
+     * @param path    the parent path
+     * @param preview 子节点数据的最大字节数, 见 {@link ZookeeperWebUiServlet#view(String, byte[], Stat, int)}
+     * @return 排序后的子节点视图, 如果不在镜像范围内或尚未镜像返回 null
+     */
+    ZookeeperWebUiServlet.View[] cached(final String path, final int preview) {
+        final ZookeeperWebUiServlet.View[] cached = covers(path) ? cachedChildren(path, preview) : null;
+        if (null != cached) {
+            hits.incrementAndGet();
+        }
+        return cached;
+    }
+
+    /**
+     * 在后台加载子节点并注册 watch, 不阻塞调用线程, 已镜像或正在加载时忽略.
+     *
+     * @param path the parent path
+     */
+    void warm(final String path) {
+        if (!covers(path) || null != cachedChildren(path, 0) || !warming.add(path)) {
+            return;
+        }
+        misses.incrementAndGet();
+        final Node parent;
+        synchronized (this) {
+            parent = placeholder(path);
+        }
+        try {
+            client.getChildren().usingWatcher(watcher).inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                    if (KeeperException.Code.OK.intValue() != event.getResultCode()) {
+                        synchronized (TreeMirror.this) {
+                            discard(path, parent);
+                        }
+                        warming.remove(path);
+                        return;
+                    }
+                    final List<String> children = event.getChildren();
+                    final List<String> paths = new ArrayList<String>(children.size());
+                    for (final String child : children) {
+                        paths.add(ZookeeperWebUiServlet.resolve(path, child));
+                    }
+                    final Node[] placeholders = placeholders(paths);
+                    lister.getDataAsync(client, paths, watcher).whenComplete(new BiConsumer<AsyncLister.Result[], Throwable>() {
+                        @Override
+                        public void accept(final AsyncLister.Result[] results, final Throwable e) {
+                            try {
+                                if (null == e) {
+                                    store(path, parent, children, placeholders, results);
+                                } else {
+                                    LOGGER.debug("warm children of '{}' failed: {}", path, e.getMessage());
+                                    discard(path, parent, paths, placeholders);
+                                }
+                            } finally {
+                                warming.remove(path);
+                            }
+                        }
+                    });
+                }
+            }).forPath(path);
+        } catch (final Exception e) {
+            LOGGER.warn("warm children of '{}' failed: {}", path, e.getMessage());
+            synchronized (this) {
+                discard(path, parent);
+            }
+            warming.remove(path);
+        }
+    }
+
+    /**
+     * 获取节点视图, 只从内存返回, 不加载.
+     *
+     * @param path the znode path
+     * @return 节点视图, 如果不在镜像范围内或尚未镜像返回 null
+     */
+    ZookeeperWebUiServlet.View cachedView(final String path) {
+        final Node node = covers(path) ? nodes.get(path) : null;
+        if (null == node || !node.dataLoaded) {
+            return null;
+        }
+        hits.incrementAndGet();
+        return ZookeeperWebUiServlet.view(path, node.data, node.stat);
+    }
+
+    /**
+     * 优先从内存读取节点的 {@link SubtreeDumper.Source}, 未镜像的节点从 fallback 读取.
+     *
+     * @param fallback 未镜像节点的读取
+     * @return the source
+     */
+    SubtreeDumper.Source source(final SubtreeDumper.Source fallback) {
+        return new SubtreeDumper.Source() {
+            @Override
+            public CompletableFuture<SubtreeDumper.Node> read(final String path) {
+                final Node node = covers(path) ? nodes.get(path) : null;
+                if (null != node && node.dataLoaded) {
+                    final Stat stat = node.stat;
+                    final List<String> children = node.children;
+                    if (null != children || 0 == stat.getNumChildren()) {
+                        hits.incrementAndGet();
+                        return CompletableFuture.completedFuture(new SubtreeDumper.Node(node.data, stat, children));
+                    }
+                }
+                misses.incrementAndGet();
+                return fallback.read(path);
+            }
+        };
+    }
+
+    /**
+     * 直接读取 zookeeper 并注册镜像的 watch 的 {@link SubtreeDumper.Source}, 用于维护子树统计.
+     *
+     * @return the source
+     */
+    SubtreeDumper.Source watchedSource() {
+        return SubtreeDumper.direct(client, watcher);
+    }
+
+    /**
+     * 保留的子树统计.
+     *
+     * @return the memo
+     */
+    SubtreeStats.Memo aggregates() {
+        return aggregates;
+    }
+
+    private ZookeeperWebUiServlet.View[] cachedChildren(final String path, final int preview) {
+        final Node parent = nodes.get(path);
+        final List<String> children = null != parent ? parent.children : null;
+        if (null == children) {
+            return null;
+        }
+        final ZookeeperWebUiServlet.View[] views = new ZookeeperWebUiServlet.View[children.size()];
+        for (int i = 0; i < views.length; i++) {
+            final String childPath = ZookeeperWebUiServlet.resolve(path, children.get(i));
+            final Node child = nodes.get(childPath);
+            if (null == child || !child.dataLoaded) {
+                return null;
+            }
+            views[i] = ZookeeperWebUiServlet.view(childPath, child.data, child.stat, preview);
+        }
+        Arrays.sort(views);
+        return views;
+    }
+
+    /**
+     * 移除读取失败的父节点和子节点的占位节点.
+     */
+    private synchronized void discard(final String path, final Node parent, final List<String> paths, final Node[] placeholders) {
+        for (int i = 0; i < placeholders.length; i++) {
+            discard(paths.get(i), placeholders[i]);
+        }
+        discard(path, parent);
+    }
+
+    /**
+     * 为要读取的子节点放入占位节点.
+     */
+    private synchronized Node[] placeholders(final List<String> paths) {
+        final Node[] placeholders = new Node[paths.size()];
+        for (int i = 0; i < placeholders.length; i++) {
+            placeholders[i] = placeholder(paths.get(i));
+        }
+        return placeholders;
+    }
+
+    /**
+     * 保存读取的子节点(不超过内存预算时), 重新读取读取期间已变化的节点.
+     *
+     * @param path         the parent path
+     * @param parent       父节点的占位节点
+     * @param children     子节点名称
+     * @param placeholders 子节点的占位节点
+     * @param results      子节点的读取结果, 不存在的为 null
+     */
+    private void store(final String path, final Node parent, final List<String> children, final Node[] placeholders,
+                       final AsyncLister.Result[] results) {
+        final List<String> names = new ArrayList<String>(results.length);
+        long estimated = 0;
+        for (int i = 0; i < results.length; i++) {
+            final AsyncLister.Result result = results[i];
+            if (null != result) {
+                names.add(children.get(i));
+                estimated += sizeOf(result.path, result.data) + sizeOf(children.get(i), null);
+            }
+        }
+
+        final List<String> dirtyData = new ArrayList<String>();
+        boolean dirtyChildren = false;
+        synchronized (this) {
+            if (parent != nodes.get(path)) {
+                // 读取期间被删除或镜像被清空, 不保存.
+                for (int i = 0; i < placeholders.length; i++) {
+                    discard(ZookeeperWebUiServlet.resolve(path, children.get(i)), placeholders[i]);
+                }
+            } else if (usedBytes + estimated > maxBytes) {
+                overBudget.incrementAndGet();
+                for (int i = 0; i < placeholders.length; i++) {
+                    discard(ZookeeperWebUiServlet.resolve(path, children.get(i)), placeholders[i]);
+                }
+                discard(path, parent);
+            } else {
+                for (int i = 0; i < results.length; i++) {
+                    final String childPath = ZookeeperWebUiServlet.resolve(path, children.get(i));
+                    final Node placeholder = placeholders[i];
+                    if (null == results[i] || placeholder != nodes.get(childPath)) {
+                        discard(childPath, placeholder);
+                        continue;
+                    }
+                    updateData(childPath, results[i].data, results[i].stat, false);
+                    if (placeholder.dataDirty) {
+                        placeholder.dataDirty = false;
+                        dirtyData.add(childPath);
+                    }
+                }
+                updateChildren(path, names);
+                dirtyChildren = parent.childrenDirty;
+                parent.childrenDirty = false;
+            }
+        }
+        for (final String childPath : dirtyData) {
+            refreshData(childPath);
+        }
+        if (dirtyChildren) {
+            refreshChildren(path);
+        }
+    }
+
+    private void onEvent(final WatchedEvent event) {
+        final String path = event.getPath();
+        if (Watcher.Event.EventType.None == event.getType() || null == path) {
+            return;
+        }
+        events.incrementAndGet();
+        aggregates.invalidate(path);
+        switch (event.getType()) {
+            case NodeDataChanged:
+                synchronized (this) {
+                    final Node node = nodes.get(path);
+                    if (null == node) {
+                        break;
+                    }
+                    if (!node.dataLoaded) {
+                        // 读取中, 保存后重新读取.
+                        node.dataDirty = true;
+                        break;
+                    }
+                }
+                refreshData(path);
+                break;
+            case NodeChildrenChanged:
+                synchronized (this) {
+                    final Node node = nodes.get(path);
+                    if (null == node) {
+                        break;
+                    }
+                    if (null == node.children) {
+                        node.childrenDirty = true;
+                        break;
+                    }
+                }
+                refreshChildren(path);
+                break;
+            case NodeDeleted:
+                synchronized (this) {
+                    remove(path);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void refreshData(final String path) {
+        try {
+            client.getData().usingWatcher(watcher).inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                    final int rc = event.getResultCode();
+                    boolean dirty = false;
+                    synchronized (TreeMirror.this) {
+                        final Node node = nodes.get(path);
+                        if (KeeperException.Code.OK.intValue() == rc) {
+                            if (null != node && !updateData(path, event.getData(), event.getStat(), true)) {
+                                // 超过预算, 之后该子树直接读取.
+                                overBudget.incrementAndGet();
+                                evict(path);
+                            } else if (null != node && node.dataDirty) {
+                                node.dataDirty = false;
+                                dirty = true;
+                            }
+                        } else {
+                            remove(path);
+                        }
+                    }
+                    if (dirty) {
+                        refreshData(path);
+                    }
+                }
+            }).forPath(path);
+        } catch (final Exception e) {
+            LOGGER.warn("refresh data of '{}' failed: {}", path, e.getMessage());
+            synchronized (this) {
+                remove(path);
+            }
+        }
+    }
+
+    private void refreshChildren(final String path) {
+        try {
+            client.getChildren().usingWatcher(watcher).inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(final CuratorFramework c, final CuratorEvent event) {
+                    final int rc = event.getResultCode();
+                    final List<String> added = new ArrayList<String>();
+                    synchronized (TreeMirror.this) {
+                        final Node node = nodes.get(path);
+                        if (null == node) {
+                            return;
+                        }
+                        if (KeeperException.Code.OK.intValue() != rc) {
+                            remove(path);
+                            return;
+                        }
+                        if (usedBytes + childrenBytes(event.getChildren()) - node.childrenBytes > maxBytes) {
+                            overBudget.incrementAndGet();
+                            evict(path);
+                            return;
+                        }
+                        final List<String> previous = null != node.children ? node.children : Collections.<String>emptyList();
+                        final Set<String> current = new HashSet<String>(event.getChildren());
+                        for (final String child : previous) {
+                            if (!current.contains(child)) {
+                                remove(ZookeeperWebUiServlet.resolve(path, child));
+                            }
+                        }
+                        current.removeAll(previous);
+                        for (final String child : current) {
+                            final String childPath = ZookeeperWebUiServlet.resolve(path, child);
+                            nodes.putIfAbsent(childPath, new Node());
+                            added.add(childPath);
+                        }
+                        if (node.dataLoaded && null != event.getStat()) {
+                            node.stat = event.getStat();
+                        }
+                        updateChildren(path, event.getChildren());
+                    }
+                    for (final String childPath : added) {
+                        refreshData(childPath);
+                    }
+                }
+            }).forPath(path);
+        } catch (final Exception e) {
+            LOGGER.warn("refresh children of '{}' failed: {}", path, e.getMessage());
+            synchronized (this) {
+                remove(path);
+            }
+        }
+    }
+
+    /* ******************************
+     *  以下方法需要持有 this 锁调用
+     * ****************************** */
+
+    /**
+     * 读取前放入占位节点(已存在时返回已有的节点), 读取期间的事件记录在其上.
+     */
+    private Node placeholder(final String path) {
+        Node node = nodes.get(path);
+        if (null == node) {
+            node = new Node();
+            nodes.put(path, node);
+        }
+        return node;
+    }
+
+    /**
+     * 移除未保存数据的占位节点.
+     */
+    private void discard(final String path, final Node placeholder) {
+        if (!placeholder.dataLoaded && null == placeholder.children) {
+            nodes.remove(path, placeholder);
+        }
+    }
+
+    private boolean updateData(final String path, final byte[] data, final Stat stat, final boolean checkBudget) {
+        Node node = nodes.get(path);
+        final long bytes = sizeOf(path, data);
+        final long delta = bytes - (null != node ? node.dataBytes : 0);
+        if (checkBudget && usedBytes + delta > maxBytes) {
+            return false;
+        }
+        if (null == node) {
+            node = new Node();
+            nodes.put(path, node);
+        } else if (node.dataLoaded && node.stat.getMzxid() > stat.getMzxid()) {
+            // 过期的响应.
+            return true;
+        }
+        node.data = data;
+        node.stat = stat;
+        node.dataLoaded = true;
+        node.dataBytes = bytes;
+        usedBytes += delta;
+        return true;
+    }
+
+    private void updateChildren(final String path, final List<String> children) {
+        Node node = nodes.get(path);
+        if (null == node) {
+            node = new Node();
+            nodes.put(path, node);
+        }
+        final List<String> sorted = new ArrayList<String>(children);
+        Collections.sort(sorted);
+        final long bytes = childrenBytes(sorted);
+        usedBytes += bytes - node.childrenBytes;
+        node.childrenBytes = bytes;
+        node.children = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * 节点已删除: 移除节点及其子树, 并从父节点的子节点列表中删除.
+     */
+    private void remove(final String path) {
+        if (!evict(path)) {
+            return;
+        }
+        final int index = path.lastIndexOf('/');
+        final String parentPath = 0 < index ? path.substring(0, index) : "/";
+        final Node parent = !path.equals(parentPath) ? nodes.get(parentPath) : null;
+        if (null != parent && null != parent.children) {
+            final List<String> siblings = new ArrayList<String>(parent.children);
+            if (siblings.remove(path.substring(index + 1))) {
+                updateChildren(parentPath, siblings);
+            }
+        }
+    }
+
+    /**
+     * 移除节点及其子树, 父节点的子节点列表不变(列举父节点时因子节点未加载而回退到直接读取).
+     *
+     * @return 节点是否存在
+     */
+    private boolean evict(final String path) {
+        final Node node = nodes.remove(path);
+        if (null == node) {
+            return false;
+        }
+        usedBytes -= node.dataBytes + node.childrenBytes;
+        final List<String> children = node.children;
+        if (null != children) {
+            for (final String child : children) {
+                evict(ZookeeperWebUiServlet.resolve(path, child));
+            }
+        }
+        return true;
+    }
+
+    synchronized void clear() {
+        nodes.clear();
+        usedBytes = 0;
+        aggregates.clear();
+    }
+
+    private static long childrenBytes(final List<String> children) {
+        long bytes = 0;
+        for (final String child : children) {
+            bytes += sizeOf(child, null);
+        }
+        return bytes;
+    }
+
+    private static long sizeOf(final String path, final byte[] data) {
+        return NODE_OVERHEAD + 2L * path.length() + (null != data ? data.length : 0);
+    }
+
+    /**
+     * 镜像统计信息.
+     *
+     * @return 统计信息
+     */
+    Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("connectString", connectString);
+        stats.put("roots", roots);
+        stats.put("nodes", nodes.size());
+        stats.put("usedBytes", usedBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("overBudget", overBudget.get());
+        stats.put("events", events.get());
+        stats.put("aggregates", aggregates.size());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        client.getConnectionStateListenable().removeListener(connectionListener);
+        clear();
+    }
+
+    /**
+     * 镜像的节点, children 为 null 表示子节点列表尚未加载.
+     */
+    private static final class Node {
+        private volatile byte[] data;
+        private volatile Stat stat;
+        private volatile boolean dataLoaded;
+        private volatile List<String> children;
+        private long dataBytes;
+        private long childrenBytes;
+
+        /**
+         * 读取期间(数据或子节点尚未保存)触发的 watch, 保存后需要重新读取.
+         */
+        private boolean dataDirty;
+        private boolean childrenDirty;
+    }
+}
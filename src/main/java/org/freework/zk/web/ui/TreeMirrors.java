@@ -0,0 +1,161 @@
+package org.freework.zk.web.ui;
+
+import org.freework.zk.web.ui.util.CuratorPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个 zookeeper 集群一个 {@link TreeMirror}.
+ * <p>
+ * 镜像持有实例池中 curator 实例的一个租用, 保证 watch 所在的连接不会因空闲被关闭.
+ * 镜像数超过上限时关闭最久未访问的镜像, 超过空闲时间未访问的镜像由后台线程关闭, 关闭时归还租用.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class TreeMirrors implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TreeMirrors.class);
+
+    private final CuratorPool pool;
+    private final AsyncLister lister;
+    private final List<String> roots;
+    private final long maxBytes;
+    private final int maxAggregates;
+    private final int maxMirrors;
+    private final long idleTimeoutMs;
+    private final ConcurrentMap<String, Entry> mirrors = new ConcurrentHashMap<String, Entry>();
+    private final ScheduledExecutorService evictor;
+
+    TreeMirrors(final CuratorPool pool, final AsyncLister lister, final List<String> roots,
+                final long maxBytes, final int maxAggregates, final int maxMirrors, final long idleTimeoutMs) {
+        this.pool = pool;
+        this.lister = lister;
+        this.roots = roots;
+        this.maxBytes = maxBytes;
+        this.maxAggregates = maxAggregates;
+        this.maxMirrors = Math.max(1, maxMirrors);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "tree-mirror-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        final long period = Math.max(1000L, Math.min(idleTimeoutMs, 30000L));
+        this.evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 获取给定集群的镜像, 如果不存在则创建(镜像数达到上限时先关闭最久未访问的镜像).
+     *
+     * @param zkUrl the zookeeper url
+     * @return the tree mirror
+     */
+    TreeMirror get(final String zkUrl) {
+        final String key = CuratorPool.normalize(zkUrl);
+        Entry entry = mirrors.get(key);
+        if (null == entry) {
+            synchronized (this) {
+                entry = mirrors.get(key);
+                if (null == entry) {
+                    while (mirrors.size() >= maxMirrors && evictEldest()) {
+                        // continue.
+                    }
+                    entry = new Entry(new TreeMirror(key, pool.acquire(key), lister, roots, maxBytes, maxAggregates));
+                    mirrors.put(key, entry);
+                }
+            }
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        return entry.mirror;
+    }
+
+    /**
+     * 关闭超过空闲时间未访问的镜像.
+     */
+    void evictIdle() {
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String, Entry> entry : mirrors.entrySet()) {
+            if (now - entry.getValue().lastAccess >= idleTimeoutMs) {
+                evict(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private synchronized boolean evictEldest() {
+        Map.Entry<String, Entry> eldest = null;
+        for (final Map.Entry<String, Entry> entry : mirrors.entrySet()) {
+            if (null == eldest || entry.getValue().lastAccess < eldest.getValue().lastAccess) {
+                eldest = entry;
+            }
+        }
+        return null != eldest && evict(eldest.getKey(), eldest.getValue());
+    }
+
+    private synchronized boolean evict(final String key, final Entry entry) {
+        if (!mirrors.remove(key, entry)) {
+            return false;
+        }
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("evict tree mirror: {}", key);
+        }
+        entry.mirror.close();
+        pool.release(key);
+        return true;
+    }
+
+    /**
+     * 所有镜像的统计信息.
+     *
+     * @return 统计信息
+     */
+    List<Map<String, Object>> stats() {
+        final List<Map<String, Object>> stats = new ArrayList<Map<String, Object>>(mirrors.size());
+        for (final Entry entry : mirrors.values()) {
+            final Map<String, Object> stat = entry.mirror.stats();
+            stat.put("lastAccess", entry.lastAccess);
+            stats.add(stat);
+        }
+        return stats;
+    }
+
+    @Override
+    public synchronized void close() {
+        evictor.shutdownNow();
+        for (final Map.Entry<String, Entry> entry : mirrors.entrySet()) {
+            entry.getValue().mirror.close();
+            pool.release(entry.getKey());
+        }
+        mirrors.clear();
+    }
+
+    /**
+     * 镜像及其最后访问时间.
+     */
+    private static final class Entry {
+        private final TreeMirror mirror;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private Entry(final TreeMirror mirror) {
+            this.mirror = mirror;
+        }
+    }
+}
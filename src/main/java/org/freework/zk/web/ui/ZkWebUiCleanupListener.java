@@ -4,17 +4,19 @@ import org.freework.zk.web.ui.util.CuratorHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 import javax.servlet.http.HttpSessionEvent;
 import javax.servlet.http.HttpSessionListener;
 
 /**
- * Session中Curator实例清理监听.
+ * Session中Curator实例租用归还监听, 应用停止时关闭实例池.
  *
  * @author changhe.yang
  */
 @WebListener
-public class ZkWebUiCleanupListener implements HttpSessionListener {
+public class ZkWebUiCleanupListener implements HttpSessionListener, ServletContextListener {
     private static final Logger LOGGER = LoggerFactory.getLogger(ZkWebUiCleanupListener.class);
 
     /**
@@ -34,4 +36,20 @@ public class ZkWebUiCleanupListener implements HttpSessionListener {
     public void sessionDestroyed(final HttpSessionEvent event) {
         CuratorHolder.destroyIfNecessary(event.getSession());
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void contextInitialized(final ServletContextEvent event) {
+        // nothing
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void contextDestroyed(final ServletContextEvent event) {
+        CuratorHolder.shutdown();
+    }
 }
@@ -1,46 +1,436 @@
 package org.freework.zk.web.ui;
 
 import freework.codec.Hex;
-import freework.io.IOUtils;
 import freework.util.Bytes;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.micrometer.core.instrument.Metrics;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.utils.PathUtils;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.data.Stat;
 import org.freework.zk.web.ui.util.CuratorHolder;
+import org.freework.zk.web.ui.util.CuratorPool;
 import org.freework.zk.web.ui.util.Jacksons;
-import org.freework.zk.web.ui.util.OrderedProperties;
+import org.freework.zk.web.ui.util.PropertiesReader;
+import org.freework.zk.web.ui.util.PropertiesWriter;
+import org.springframework.core.env.PropertyResolver;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Zookeeper UI servlet.
  *
  * @author changhe.yang
  */
-@WebServlet(urlPatterns = "/*")
+@WebServlet(urlPatterns = "/*", asyncSupported = true)
 public class ZookeeperWebUiServlet extends HttpServlet {
     /**
-     * UTF-8 charset.
+     * ZK internal folder (quota info, etc) - have to stay away from it.
+     */
+    private static final String ZK_SYSTEM_NODE_PATH = "/zookeeper";
+
+    /**
+     * 分页获取子节点时每页最大子节点数.
+     */
+    private static final int MAX_PAGE_SIZE = 10000;
+
+    /**
+     * 搜索时默认和最大返回的结果数.
+     */
+    private static final int DEFAULT_SEARCH_LIMIT = 100;
+    private static final int MAX_SEARCH_LIMIT = 1000;
+
+    /**
+     * 节点视图包含完整数据.
+     */
+    static final int FULL_DATA = -1;
+
+    /**
+     * 预先解析根类型的 ObjectWriter 和 ObjectReader.
+     */
+    private static final ObjectWriter VIEWS_WRITER = Jacksons.writerFor(View[].class);
+    private static final ObjectWriter VIEW_WRITER = Jacksons.writerFor(View.class);
+    private static final ObjectWriter PAGE_WRITER = Jacksons.writerFor(Page.class);
+    private static final ObjectWriter MAP_WRITER = Jacksons.writerFor(Map.class);
+    private static final ObjectWriter LIST_WRITER = Jacksons.writerFor(List.class);
+    private static final ObjectWriter PROGRESS_WRITER = Jacksons.writerFor(Map.class).without(SerializationFeature.INDENT_OUTPUT);
+    private static final ObjectReader BATCH_READER = Jacksons.reader(BatchWriter.Operation[].class);
+
+    /**
+     * 请求和响应的字符集.
      */
     private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     /**
-     * ZK internal folder (quota info, etc) - have to stay away from it.
+     * Server-Sent Events 的事件结束和心跳(注释行).
      */
-    private static final String ZK_SYSTEM_NODE_PATH = "/zookeeper";
+    private static final byte[] EVENT_END = "\n\n".getBytes(UTF_8);
+    private static final byte[] HEARTBEAT = ": ping\n\n".getBytes(UTF_8);
+
+    /**
+     * 在工作线程中执行的端点 -> 是否使用截止时间(导出, 对比, 搜索, 批量操作等使用各自的超时时间).
+     */
+    private static final Map<String, Boolean> OFFLOADED = new HashMap<String, Boolean>();
+
+    // 注册在工作线程中执行的端点.
+    static {
+        OFFLOADED.put("update", true);
+        OFFLOADED.put("create", true);
+        OFFLOADED.put("delete", true);
+        OFFLOADED.put("batch", false);
+        OFFLOADED.put("import", false);
+        OFFLOADED.put("deleteRecursive", false);
+        OFFLOADED.put("dump", false);
+        OFFLOADED.put("search", false);
+        OFFLOADED.put("diff", false);
+    }
+
+    /**
+     * 子节点异步列举.
+     */
+    private AsyncLister lister;
+
+    /**
+     * 内存树镜像, 未启用时为 null.
+     */
+    private TreeMirrors mirrors;
+
+    /**
+     * 搜索索引, 未启用时为 null.
+     */
+    private SearchIndexes indexes;
+
+    /**
+     * 离线快照, 未启用时为 null.
+     */
+    private SnapshotTrees snapshots;
+
+    /**
+     * 节点变更推送, 未启用时为 null.
+     */
+    private ChangeFeeds feeds;
+
+    /**
+     * 子节点列举的条件请求校验, 未启用时为 null (仍然返回 ETag, 但每次都重新列举).
+     */
+    private ListingValidators validators;
+
+    /**
+     * 相同读请求的合并, 未启用时为 null (每个请求各自读取).
+     */
+    private RequestCoalescer coalescer;
+
+    /**
+     * 共享的导出输出的最大字符数, 未启用合并时为 0.
+     */
+    private int maxDumpChars;
+
+    /**
+     * 等待共享导出的最大毫秒数, 未启用合并时为 0.
+     */
+    private long dumpWaitMs;
+
+    /**
+     * 异步请求处理.
+     */
+    private AsyncRequests requests;
+
+    /**
+     * 子树导出.
+     */
+    private SubtreeDumper dumper;
+
+    /**
+     * 子树统计, 总是启用, 不为 null (未启用镜像时每次统计直接读取).
+     */
+    private SubtreeStats usage;
+
+    /**
+     * 多层列举的最大层数, 不大于 1 时不展开(只返回第一层).
+     */
+    private int maxDepth;
+
+    /**
+     * 多层列举每个响应最多展开的节点数(不包括第一层), 0 表示不展开.
+     */
+    private int maxDepthNodes;
+
+    /**
+     * 子树对比.
+     */
+    private SubtreeDiff differ;
+
+    /**
+     * 批量写入.
+     */
+    private BatchWriter batch;
+
+    /**
+     * properties 导入.
+     */
+    private PropertiesImporter importer;
+
+    /**
+     * 递归删除.
+     */
+    private SubtreeDeleter deleter;
+
+    /**
+     * 内存中的静态资源.
+     */
+    private StaticResources resources;
+
+    /**
+     * 响应压缩, 未启用时为 null.
+     */
+    private ResponseCompressor compressor;
+
+    /**
+     * 请求指标.
+     */
+    private RequestMetrics metrics;
+
+    @Override
+    public void init() throws ServletException {
+        final WebApplicationContext context = WebApplicationContextUtils.getWebApplicationContext(getServletContext());
+        final PropertyResolver props = null != context ? context.getEnvironment() : new StandardEnvironment();
+        this.lister = new AsyncLister(props.getProperty("zk-web-ui.ls.max-in-flight", Integer.class, 256));
+        this.maxDepth = props.getProperty("zk-web-ui.prefetch.max-depth", Integer.class, 5);
+        this.maxDepthNodes = props.getProperty("zk-web-ui.prefetch.max-nodes", Integer.class, 2000);
+        this.usage = new SubtreeStats(
+                props.getProperty("zk-web-ui.usage.concurrency", Integer.class, 64),
+                props.getProperty("zk-web-ui.usage.max-nodes", Long.class, 1000000L),
+                props.getProperty("zk-web-ui.usage.top-k", Integer.class, 10)
+        );
+        this.dumper = new SubtreeDumper(
+                props.getProperty("zk-web-ui.dump.concurrency", Integer.class, 64),
+                props.getProperty("zk-web-ui.dump.max-buffered", Integer.class, 4096),
+                props.getProperty("zk-web-ui.dump.timeout-ms", Long.class, 30000L)
+        );
+        this.differ = new SubtreeDiff(
+                props.getProperty("zk-web-ui.diff.concurrency", Integer.class, 64),
+                props.getProperty("zk-web-ui.diff.max-nodes", Integer.class, 100000),
+                props.getProperty("zk-web-ui.diff.timeout-ms", Long.class, 30000L),
+                props.getProperty("zk-web-ui.diff.cache-entries", Integer.class, 100000)
+        );
+        this.batch = new BatchWriter(props.getProperty("zk-web-ui.batch.max-ops", Integer.class, 1000));
+        this.importer = new PropertiesImporter(
+                props.getProperty("zk-web-ui.import.concurrency", Integer.class, 256),
+                props.getProperty("zk-web-ui.import.timeout-ms", Long.class, 30000L),
+                props.getProperty("zk-web-ui.import.max-changes", Integer.class, 10000)
+        );
+        this.deleter = new SubtreeDeleter(
+                props.getProperty("zk-web-ui.delete.concurrency", Integer.class, 8),
+                props.getProperty("zk-web-ui.delete.batch-size", Integer.class, 500),
+                props.getProperty("zk-web-ui.delete.max-nodes", Integer.class, 100000),
+                props.getProperty("zk-web-ui.delete.timeout-ms", Long.class, 30000L),
+                props.getProperty("zk-web-ui.delete.scan-window", Integer.class, 256)
+        );
+        try {
+            this.resources = new StaticResources(
+                    getClass().getClassLoader(), "support/web",
+                    props.getProperty("zk-web-ui.resources.max-age-seconds", Long.class, 0L)
+            );
+        } catch (final IOException e) {
+            throw new ServletException("load static resources failed", e);
+        }
+        if (props.getProperty("zk-web-ui.compression.enabled", Boolean.class, true)) {
+            this.compressor = new ResponseCompressor(
+                    props.getProperty("zk-web-ui.compression.min-size", Integer.class, 1024),
+                    props.getProperty("zk-web-ui.compression.deflate", Boolean.class, true)
+            );
+        }
+        Metrics.globalRegistry.config().meterFilter(RequestMetrics.clusterLimit(props.getProperty("zk-web-ui.metrics.max-clusters", Integer.class, 32)));
+        this.metrics = new RequestMetrics(Metrics.globalRegistry);
+        CuratorHolder.getPool().setIdleTimeoutMs(props.getProperty("zk-web-ui.pool.idle-timeout-ms", Long.class, 300000L));
+        if (props.getProperty("zk-web-ui.mirror.enabled", Boolean.class, false)) {
+            this.mirrors = new TreeMirrors(
+                    CuratorHolder.getPool(), lister,
+                    Arrays.asList(props.getProperty("zk-web-ui.mirror.roots", String[].class, new String[]{"/"})),
+                    props.getProperty("zk-web-ui.mirror.max-bytes", Long.class, 64L * 1024 * 1024),
+                    props.getProperty("zk-web-ui.mirror.max-aggregates", Integer.class, 100000),
+                    props.getProperty("zk-web-ui.mirror.max-clusters", Integer.class, 16),
+                    props.getProperty("zk-web-ui.mirror.idle-timeout-ms", Long.class, 1800000L)
+            );
+        }
+        if (props.getProperty("zk-web-ui.search.enabled", Boolean.class, false)) {
+            this.indexes = new SearchIndexes(
+                    CuratorHolder.getPool(),
+                    Arrays.asList(props.getProperty("zk-web-ui.search.roots", String[].class, new String[]{"/"})),
+                    props.getProperty("zk-web-ui.search.max-nodes", Integer.class, 1000000),
+                    props.getProperty("zk-web-ui.search.max-value-bytes", Integer.class, 256),
+                    props.getProperty("zk-web-ui.search.concurrency", Integer.class, 256),
+                    props.getProperty("zk-web-ui.search.timeout-ms", Long.class, 30000L),
+                    props.getProperty("zk-web-ui.search.idle-timeout-ms", Long.class, 1800000L)
+            );
+        }
+        if (props.getProperty("zk-web-ui.events.enabled", Boolean.class, true)) {
+            this.feeds = new ChangeFeeds(
+                    CuratorHolder.getPool(),
+                    props.getProperty("zk-web-ui.events.debounce-ms", Long.class, 200L),
+                    props.getProperty("zk-web-ui.events.heartbeat-ms", Long.class, 15000L),
+                    props.getProperty("zk-web-ui.events.max-paths", Integer.class, 1000),
+                    props.getProperty("zk-web-ui.events.max-queued", Integer.class, 1000)
+            );
+        }
+        if (props.getProperty("zk-web-ui.coalesce.enabled", Boolean.class, true)) {
+            this.coalescer = new RequestCoalescer(props.getProperty("zk-web-ui.coalesce.ttl-ms", Long.class, 0L), metrics);
+            this.maxDumpChars = props.getProperty("zk-web-ui.coalesce.max-dump-chars", Integer.class, 16 * 1024 * 1024);
+            this.dumpWaitMs = props.getProperty("zk-web-ui.coalesce.dump-wait-ms", Long.class, 30000L);
+        }
+        if (props.getProperty("zk-web-ui.etag.enabled", Boolean.class, true)) {
+            this.validators = new ListingValidators(props.getProperty("zk-web-ui.etag.max-entries", Integer.class, 10000));
+        }
+        final String[] snapshotDirs = props.getProperty("zk-web-ui.snapshot.dirs", String[].class, new String[0]);
+        if (0 < snapshotDirs.length) {
+            try {
+                this.snapshots = new SnapshotTrees(Arrays.asList(snapshotDirs), props.getProperty("zk-web-ui.snapshot.max-open", Integer.class, 4));
+            } catch (final IOException e) {
+                throw new ServletException("resolve snapshot dirs failed", e);
+            }
+        }
+        this.requests = new AsyncRequests(
+                props.getProperty("zk-web-ui.async.enabled", Boolean.class, true),
+                props.getProperty("zk-web-ui.async.deadline-ms", Long.class, 30000L),
+                props.getProperty("zk-web-ui.async.max-threads", Integer.class, 200),
+                props.getProperty("zk-web-ui.async.virtual-threads", Boolean.class, false)
+        );
+    }
+
+    @Override
+    public void destroy() {
+        requests.close();
+        if (null != coalescer) {
+            coalescer.close();
+        }
+        deleter.close();
+        if (null != mirrors) {
+            mirrors.close();
+        }
+        if (null != indexes) {
+            indexes.close();
+        }
+        if (null != feeds) {
+            feeds.close();
+        }
+        if (null != snapshots) {
+            snapshots.close();
+        }
+    }
+
+    @Override
+    protected void service(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
+        final long start = System.nanoTime();
+        int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        try {
+            if (SnapshotTrees.isSnapshot(req.getHeader("zkUrl")) && !"GET".equals(req.getMethod()) && !"HEAD".equals(req.getMethod())) {
+                // 离线快照是只读的.
+                final Map<String, Object> ret = new HashMap<String, Object>();
+                ret.put("success", false);
+                ret.put("message", "illegal_request: snapshot is read-only");
+                writeJson(req, resp, MAP_WRITER, ret);
+            } else if (OFFLOADED.containsKey(RequestMetrics.endpointOf(req))) {
+                // 仍然使用同步 zookeeper 调用的请求在工作线程中执行.
+                requests.offload(req, resp, OFFLOADED.get(RequestMetrics.endpointOf(req)), new AsyncRequests.Task() {
+                    @Override
+                    public void run() throws ServletException, IOException {
+                        ZookeeperWebUiServlet.super.service(req, resp);
+                    }
+                });
+            } else {
+                super.service(req, resp);
+            }
+            status = resp.getStatus();
+        } finally {
+            if (req.isAsyncStarted()) {
+                // 异步完成, 超时或出错时记录(只记录一次, 超时或出错后容器仍会回调 onComplete).
+                req.getAsyncContext().addListener(new AsyncListener() {
+                    private final AtomicBoolean recorded = new AtomicBoolean();
+
+                    private void record(final int status) {
+                        if (recorded.compareAndSet(false, true)) {
+                            invalidate(req);
+                            metrics.request(req, status, System.nanoTime() - start);
+                        }
+                    }
+
+                    @Override
+                    public void onComplete(final AsyncEvent event) {
+                        record(resp.getStatus());
+                    }
+
+                    @Override
+                    public void onTimeout(final AsyncEvent event) {
+                        record(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+                    }
+
+                    @Override
+                    public void onError(final AsyncEvent event) {
+                        record(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    }
+
+                    @Override
+                    public void onStartAsync(final AsyncEvent event) {
+                    }
+                });
+            } else {
+                invalidate(req);
+                metrics.request(req, status, System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * 通过本服务写入集群后, 丢弃该集群合并共享的读取结果.
+     */
+    private void invalidate(final HttpServletRequest req) {
+        final String zkUrl = req.getHeader("zkUrl");
+        if (null != coalescer && null != zkUrl && !"GET".equals(req.getMethod()) && !"HEAD".equals(req.getMethod())) {
+            coalescer.invalidate(CuratorPool.normalize(zkUrl));
+        }
+    }
 
     @Override
     protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
@@ -48,71 +438,865 @@ public class ZookeeperWebUiServlet extends HttpServlet {
         final String pathInfo = req.getPathInfo();
         final String zkUrl = req.getHeader("zkUrl");
 
+        // 连接池统计信息.
+        if ("/".equals(pathInfo) && null != req.getParameter("pool")) {
+            writeJson(req, resp, MAP_WRITER, CuratorHolder.getPool().stats());
+            return;
+        }
+
+        // 内存树镜像统计信息.
+        if ("/".equals(pathInfo) && null != req.getParameter("mirror")) {
+            writeJson(req, resp, LIST_WRITER, null != mirrors ? mirrors.stats() : Collections.emptyList());
+            return;
+        }
+
+        // 搜索索引统计信息.
+        if ("/".equals(pathInfo) && null != req.getParameter("index")) {
+            writeJson(req, resp, LIST_WRITER, null != indexes ? indexes.stats() : Collections.emptyList());
+            return;
+        }
+
+        // 节点变更推送统计信息.
+        if ("/".equals(pathInfo) && null != req.getParameter("feeds")) {
+            writeJson(req, resp, LIST_WRITER, null != feeds ? feeds.stats() : Collections.emptyList());
+            return;
+        }
+
+        // 节点变更事件流(EventSource 不能设置请求头, zkUrl 为请求参数).
+        if ("/".equals(pathInfo) && null != req.getParameter("events")) {
+            doEvents(req, resp);
+            return;
+        }
+
+        // 打开的离线快照统计信息.
+        if ("/".equals(pathInfo) && null != req.getParameter("snapshot")) {
+            writeJson(req, resp, LIST_WRITER, null != snapshots ? snapshots.stats() : Collections.emptyList());
+            return;
+        }
+
+        // 异步请求统计信息.
+        if ("/".equals(pathInfo) && null != req.getParameter("async")) {
+            writeJson(req, resp, MAP_WRITER, requests.stats());
+            return;
+        }
+
+        // 相同读请求的合并统计信息.
+        if ("/".equals(pathInfo) && null != req.getParameter("coalesce")) {
+            writeJson(req, resp, MAP_WRITER, null != coalescer ? coalescer.stats() : Collections.emptyMap());
+            return;
+        }
+
+        // 子节点列举的条件请求统计信息.
+        if ("/".equals(pathInfo) && null != req.getParameter("etag")) {
+            writeJson(req, resp, MAP_WRITER, null != validators ? validators.stats() : Collections.emptyMap());
+            return;
+        }
+
+        // 响应压缩统计信息.
+        if ("/".equals(pathInfo) && null != req.getParameter("compression")) {
+            writeJson(req, resp, MAP_WRITER, null != compressor ? compressor.stats() : Collections.emptyMap());
+            return;
+        }
+
         // 没有指定路径或没有 zookeeper 地址, 重定向到首页进行输入.
         if (null == pathInfo || ("/".equals(pathInfo) && null == zkUrl)) {
             resp.sendRedirect(req.getContextPath() + req.getServletPath() + "/index.html");
             return;
         }
 
-        // 导出节点操作.
-        if (null != req.getParameter("dump")) {
+        // 子树对比, 以 NDJSON 逐行返回差异(不压缩).
+        if (null != req.getParameter("diff")) {
+            doDiff(req, resp, pathInfo, zkUrl);
+            return;
+        }
+
+        // 静态资源(文本资源已预先压缩).
+        if (null == req.getParameter("dump") && (pathInfo.endsWith(".html") || pathInfo.endsWith(".css") || pathInfo.endsWith(".js") || pathInfo.startsWith("/images/") || pathInfo.startsWith("/js/"))) {
+            resources.write(pathInfo, req, resp);
+            return;
+        }
+
+        // 节点操作, JSON 和 properties 响应协商压缩.
+        final HttpServletResponse response = null != compressor ? compressor.wrap(req, resp) : resp;
+        doGetNode(req, response, pathInfo, zkUrl);
+        if (!AsyncRequests.isPending(req)) {
+            finish(response);
+        }
+    }
+
+    private void doGetNode(final HttpServletRequest req, final HttpServletResponse resp,
+                           final String pathInfo, final String zkUrl) throws ServletException, IOException {
+        // 离线快照(zkUrl 为 snapshot:文件或目录[@zxid]), 导出时 zkUrl 为请求参数.
+        final String url = null != req.getParameter("dump") ? req.getParameter("zkUrl") : zkUrl;
+        final SnapshotTree snapshot;
+        try {
+            snapshot = SnapshotTrees.isSnapshot(url) ? snapshotOf(url) : null;
+        } catch (final IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        // 导出节点操作.
+        if (null != req.getParameter("dump")) {
+            try {
+                // 相同的导出同时进行时, 第一个请求导出并保留输出, 其他请求等待并直接写出.
+                final boolean[] leader = new boolean[1];
+                final CompletableFuture<String> mine = new CompletableFuture<String>();
+                final CompletableFuture<String> shared = coalesce(req, null != snapshot ? url : CuratorPool.normalize(url), pathInfo, new Supplier<CompletableFuture<String>>() {
+                    @Override
+                    public CompletableFuture<String> get() {
+                        leader[0] = true;
+                        return mine;
+                    }
+                });
+                if (leader[0]) {
+                    final RequestCoalescer.Capture capture = RequestCoalescer.capture(resp.getWriter(), maxDumpChars);
+                    try {
+                        dump(req, url, snapshot, pathInfo, capture);
+                        mine.complete(capture.captured());
+                    } finally {
+                        // 导出失败(包括 Error)时等待的请求各自导出.
+                        if (!mine.isDone()) {
+                            mine.completeExceptionally(new IllegalStateException("dump failed: " + pathInfo));
+                        }
+                    }
+                } else {
+                    String text;
+                    try {
+                        text = shared.get(dumpWaitMs, TimeUnit.MILLISECONDS);
+                    } catch (final ExecutionException e) {
+                        // 第一个请求失败, 自己导出.
+                        text = null;
+                    } catch (final TimeoutException e) {
+                        // 第一个请求太慢, 放弃等待并自己导出.
+                        shared.cancel(false);
+                        text = null;
+                    }
+                    if (null != text) {
+                        resp.getWriter().write(text);
+                    } else {
+                        dump(req, url, snapshot, pathInfo, resp.getWriter());
+                    }
+                }
+            } catch (Exception e) {
+                throw new ServletException(e);
+            }
+            return;
+        }
+
+        // 搜索子树下的节点.
+        if (null != req.getParameter("search")) {
+            doSearch(req, resp, pathInfo, zkUrl);
+            return;
+        }
+
+        // 子树统计.
+        if (null != req.getParameter("usage")) {
+            doUsage(req, resp, pathInfo, zkUrl, snapshot);
+            return;
+        }
+
+        // 节点数据的编码: hex(默认), base64, utf8.
+        final PayloadEncoder encoder;
+        try {
+            encoder = PayloadEncoder.forName(req.getParameter("encoding"));
+        } catch (final IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        // 获取单个节点的完整数据.
+        if (null != req.getParameter("data")) {
+            try {
+                final ObjectWriter writer = VIEW_WRITER.withAttribute(PayloadEncoder.ATTRIBUTE, encoder);
+                final TreeMirror mirror = null == snapshot && null != mirrors ? mirrors.get(zkUrl) : null;
+                final View mirrored = null != mirror ? mirror.cachedView(pathInfo) : null;
+                if (null != snapshot) {
+                    writeView(req, resp, new RequestCoalescer.Shared(null, snapshot.stat(pathInfo), writer));
+                } else if (null != mirrored) {
+                    writeView(req, resp, new RequestCoalescer.Shared(null, mirrored, writer));
+                } else {
+                    final CuratorFramework client = CuratorHolder.createIfNecessary(req.getSession(), zkUrl);
+                    final CompletableFuture<RequestCoalescer.Shared> data = coalesce(req, CuratorPool.normalize(zkUrl), pathInfo, new Supplier<CompletableFuture<RequestCoalescer.Shared>>() {
+                        @Override
+                        public CompletableFuture<RequestCoalescer.Shared> get() {
+                            return RequestCoalescer.map(lister.getDataAsync(client, Collections.singletonList(pathInfo), null), new Function<AsyncLister.Result[], RequestCoalescer.Shared>() {
+                                @Override
+                                public RequestCoalescer.Shared apply(final AsyncLister.Result[] results) {
+                                    return new RequestCoalescer.Shared(null, null != results[0] ? results[0].toView() : null, writer);
+                                }
+                            });
+                        }
+                    });
+                    requests.await(req, resp, data, new AsyncRequests.Completion<RequestCoalescer.Shared>() {
+                        @Override
+                        public void complete(final RequestCoalescer.Shared value) throws IOException {
+                            writeView(req, resp, value);
+                        }
+                    });
+                }
+            } catch (final Exception e) {
+                throw new ServletException(e);
+            }
+            return;
+        }
+
+        // 子节点数据: 默认完整数据, 'stat' 只获取 Stat, 'preview=N' 最多返回前N个字节.
+        final int preview;
+        try {
+            preview = previewOf(req);
+        } catch (final NumberFormatException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        // 分页获取子节点信息.
+        final String limit = req.getParameter("limit");
+        if (null != limit) {
+            try {
+                final String cursor = req.getParameter("cursor");
+                final String offset = req.getParameter("offset");
+                final int size = Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(limit)));
+                final int from = null != offset ? Integer.parseInt(offset) : 0;
+                final String variant = req.getQueryString();
+                final ObjectWriter writer = PAGE_WRITER.withAttribute(PayloadEncoder.ATTRIBUTE, encoder);
+                if (null != snapshot) {
+                    final Page page = AsyncLister.page(pathInfo, snapshot.ls(pathInfo, preview), cursor, from, size);
+                    writePage(req, resp, new RequestCoalescer.Shared(ListingValidators.etag(variant, page), page, writer));
+                    return;
+                }
+                final CuratorFramework client = CuratorHolder.createIfNecessary(req.getSession(), zkUrl);
+                final TreeMirror mirror = null != mirrors ? mirrors.get(zkUrl) : null;
+                final View[] cached = null != mirror ? mirror.cached(pathInfo, preview) : null;
+                if (null != cached) {
+                    final Page page = AsyncLister.page(pathInfo, cached, cursor, from, size);
+                    writePage(req, resp, new RequestCoalescer.Shared(ListingValidators.etag(variant, page), page, writer));
+                    return;
+                }
+                // 异步列举, 等待 zookeeper 期间不占用容器线程.
+                final CompletableFuture<RequestCoalescer.Shared> listing = listing(req, client, zkUrl, pathInfo, variant, writer, new ListingValidators.Source<Page>() {
+                    @Override
+                    public CompletableFuture<Page> list(final CuratorWatcher watcher, final Stat stat) {
+                        return lister.pageAsync(client, pathInfo, cursor, from, size, preview, watcher, stat);
+                    }
+
+                    @Override
+                    public String etag(final Page page) {
+                        return ListingValidators.etag(variant, page);
+                    }
+
+                    @Override
+                    public View[] views(final Page page) {
+                        return page.getItems();
+                    }
+                });
+                requests.await(req, resp, listing, new AsyncRequests.Completion<RequestCoalescer.Shared>() {
+                    @Override
+                    public void complete(final RequestCoalescer.Shared value) throws IOException {
+                        writePage(req, resp, value);
+                    }
+                });
+            } catch (final IllegalArgumentException e) {
+                // 非法的 limit, offset 或 cursor.
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            } catch (final Exception e) {
+                throw new ServletException(e);
+            }
+            return;
+        }
+
+        // 多层列举: 展开 depth 层内的子节点.
+        final int depth;
+        final int budget;
+        try {
+            final String depthValue = req.getParameter("depth");
+            final String budgetValue = req.getParameter("budget");
+            depth = Math.max(1, Math.min(maxDepth, null != depthValue ? Integer.parseInt(depthValue) : 1));
+            budget = Math.max(0, Math.min(maxDepthNodes, null != budgetValue ? Integer.parseInt(budgetValue) : maxDepthNodes));
+        } catch (final NumberFormatException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (1 < depth) {
+            doTree(req, resp, pathInfo, zkUrl, snapshot, encoder, preview, depth, budget);
+            return;
+        }
+
+        // 获取当前节点信息和子节点信息.
+        try {
+            final String variant = req.getQueryString();
+            final ObjectWriter writer = VIEWS_WRITER.withAttribute(PayloadEncoder.ATTRIBUTE, encoder);
+            if (null != snapshot) {
+                final View[] views = snapshot.ls(pathInfo, preview);
+                writeViews(req, resp, new RequestCoalescer.Shared(ListingValidators.etag(variant, views), views, writer));
+                return;
+            }
+            final CuratorFramework client = CuratorHolder.createIfNecessary(req.getSession(), zkUrl);
+            final TreeMirror mirror = null != mirrors ? mirrors.get(zkUrl) : null;
+            final View[] mirrored = null != mirror ? mirror.cached(pathInfo, preview) : null;
+            if (null != mirrored) {
+                writeViews(req, resp, new RequestCoalescer.Shared(ListingValidators.etag(variant, mirrored), mirrored, writer));
+                return;
+            }
+            if (null != mirror) {
+                // 未镜像时在后台加载镜像, 本次请求仍然异步列举.
+                mirror.warm(pathInfo);
+            }
+            // 异步列举, 等待 zookeeper 期间不占用容器线程.
+            final CompletableFuture<RequestCoalescer.Shared> listing = listing(req, client, zkUrl, pathInfo, variant, writer, new ListingValidators.Source<View[]>() {
+                @Override
+                public CompletableFuture<View[]> list(final CuratorWatcher watcher, final Stat stat) {
+                    return lister.lsAsync(client, pathInfo, preview, watcher, stat);
+                }
+
+                @Override
+                public String etag(final View[] views) {
+                    return ListingValidators.etag(variant, views);
+                }
+
+                @Override
+                public View[] views(final View[] views) {
+                    return views;
+                }
+            });
+            requests.await(req, resp, listing, new AsyncRequests.Completion<RequestCoalescer.Shared>() {
+                @Override
+                public void complete(final RequestCoalescer.Shared value) throws IOException {
+                    writeViews(req, resp, value);
+                }
+            });
+        } catch (final Exception e) {
+            throw new ServletException(e);
+        }
+    }
+
+    /**
+     * 统计当前路径的子树: 节点数, 数据总字节数, 最大深度, 临时节点数, 按字节数排序的最重的子节点和最大的节点.
+     * <pre>
+     * GET /path?usage[&amp;top=10]
+     * </pre>
+     * 集群配置了镜像并且路径在镜像范围内时, 未变化的子树使用镜像中保留的统计.
+     *
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @param pathInfo     子树根路径
+     * @param zkUrl        the zookeeper url
+     * @param snapshot     离线快照, 可以为 null
+     * @throws IOException 如果IO发生异常
+     */
+    private void doUsage(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse,
+                         final String pathInfo, final String zkUrl, final SnapshotTree snapshot) throws IOException {
+        final int top;
+        try {
+            final String value = httpRequest.getParameter("top");
+            top = Math.max(1, Math.min(usage.topK(), null != value ? Integer.parseInt(value) : usage.topK()));
+        } catch (final NumberFormatException e) {
+            httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        final SubtreeDumper.Source source;
+        final SubtreeStats.Memo memo;
+        final TreeMirror mirror = null == snapshot && null != mirrors ? mirrors.get(zkUrl) : null;
+        if (null != snapshot) {
+            source = snapshot.source();
+            memo = null;
+        } else if (null != mirror && mirror.covers(pathInfo)) {
+            source = mirror.watchedSource();
+            memo = mirror.aggregates();
+        } else {
+            source = SubtreeDumper.direct(CuratorHolder.createIfNecessary(httpRequest.getSession(), zkUrl));
+            memo = null;
+        }
+        final CompletableFuture<RequestCoalescer.Shared> stats = coalesce(httpRequest, null != snapshot ? zkUrl : CuratorPool.normalize(zkUrl), pathInfo, new Supplier<CompletableFuture<RequestCoalescer.Shared>>() {
+            @Override
+            public CompletableFuture<RequestCoalescer.Shared> get() {
+                return RequestCoalescer.map(usage.stats(source, pathInfo, memo, top), new Function<Map<String, Object>, RequestCoalescer.Shared>() {
+                    @Override
+                    public RequestCoalescer.Shared apply(final Map<String, Object> value) {
+                        return new RequestCoalescer.Shared(null, value, MAP_WRITER);
+                    }
+                });
+            }
+        });
+        requests.await(httpRequest, httpResponse, stats, new AsyncRequests.Completion<RequestCoalescer.Shared>() {
+            @Override
+            public void complete(final RequestCoalescer.Shared value) throws IOException {
+                writeView(httpRequest, httpResponse, value);
+            }
+        });
+    }
+
+    /**
+     * 以 properties 格式导出子树.
+     */
+    private void dump(final HttpServletRequest req, final String url, final SnapshotTree snapshot,
+                      final String path, final Writer writer) throws Exception {
+        final SubtreeDumper.Source source;
+        if (null != snapshot) {
+            source = snapshot.source();
+        } else {
+            final CuratorFramework zk = CuratorHolder.createIfNecessary(req.getSession(), url);
+            final TreeMirror mirror = null != mirrors ? mirrors.get(url) : null;
+            final SubtreeDumper.Source direct = SubtreeDumper.direct(zk);
+            source = null != mirror ? mirror.source(direct) : direct;
+        }
+        final PropertiesWriter out = new PropertiesWriter(writer);
+        out.writeHeader(url);
+        dumper.dump(source, path, out);
+    }
+
+    /**
+     * 多层列举, 一次请求返回 depth 层内的子节点.
+     * <pre>
+     * GET /path?depth=3[&amp;budget=2000][&amp;preview=N]
+     * </pre>
+     * 各层并发列举, 节点数超过 budget 后不再展开(children 为 null). 已镜像的节点从镜像读取.
+     * 结果包含多层节点, 不使用父节点上的校验信息, ETag 由所有返回的节点计算.
+     */
+    private void doTree(final HttpServletRequest req, final HttpServletResponse resp, final String pathInfo, final String zkUrl,
+                        final SnapshotTree snapshot, final PayloadEncoder encoder, final int preview,
+                        final int depth, final int budget) throws ServletException, IOException {
+        final String variant = req.getQueryString();
+        final ObjectWriter writer = VIEWS_WRITER.withAttribute(PayloadEncoder.ATTRIBUTE, encoder);
+        final Function<String, CompletableFuture<View[]>> ls;
+        final String cluster;
+        if (null != snapshot) {
+            cluster = zkUrl;
+            ls = new Function<String, CompletableFuture<View[]>>() {
+                @Override
+                public CompletableFuture<View[]> apply(final String path) {
+                    return CompletableFuture.completedFuture(snapshot.ls(path, preview));
+                }
+            };
+        } else {
+            final CuratorFramework client;
+            try {
+                client = CuratorHolder.createIfNecessary(req.getSession(), zkUrl);
+            } catch (final Exception e) {
+                throw new ServletException(e);
+            }
+            final TreeMirror mirror = null != mirrors ? mirrors.get(zkUrl) : null;
+            cluster = CuratorPool.normalize(zkUrl);
+            ls = new Function<String, CompletableFuture<View[]>>() {
+                @Override
+                public CompletableFuture<View[]> apply(final String path) {
+                    final View[] cached = null != mirror ? mirror.cached(path, preview) : null;
+                    return null != cached ? CompletableFuture.completedFuture(cached) : lister.lsAsync(client, path, preview, null, null);
+                }
+            };
+        }
+        final CompletableFuture<RequestCoalescer.Shared> tree = coalesce(req, cluster, pathInfo, new Supplier<CompletableFuture<RequestCoalescer.Shared>>() {
+            @Override
+            public CompletableFuture<RequestCoalescer.Shared> get() {
+                return RequestCoalescer.map(AsyncLister.treeAsync(pathInfo, depth, budget, ls), new Function<View[], RequestCoalescer.Shared>() {
+                    @Override
+                    public RequestCoalescer.Shared apply(final View[] views) {
+                        return new RequestCoalescer.Shared(ListingValidators.etag(variant, views), views, writer);
+                    }
+                });
+            }
+        });
+        requests.await(req, resp, tree, new AsyncRequests.Completion<RequestCoalescer.Shared>() {
+            @Override
+            public void complete(final RequestCoalescer.Shared value) throws IOException {
+                writeViews(req, resp, value);
+            }
+        });
+    }
+
+    /**
+     * 条件列举, 未启用校验时每次都重新列举.
+     * <p>
+     * 需要重新列举时合并相同的请求, 共享列举结果和序列化的响应.
+     * </p>
+     */
+    private <T> CompletableFuture<RequestCoalescer.Shared> listing(final HttpServletRequest req, final CuratorFramework client, final String zkUrl,
+                                                                   final String path, final String variant, final ObjectWriter writer,
+                                                                   final ListingValidators.Source<T> source) {
+        final String cluster = CuratorPool.normalize(zkUrl);
+        final Supplier<CompletableFuture<RequestCoalescer.Shared>> loader = new Supplier<CompletableFuture<RequestCoalescer.Shared>>() {
+            @Override
+            public CompletableFuture<RequestCoalescer.Shared> get() {
+                final CompletableFuture<ListingValidators.Listing<T>> listing = null != validators
+                        ? validators.list(client, cluster, path, variant, source)
+                        : ListingValidators.list(source);
+                return RequestCoalescer.map(listing, new Function<ListingValidators.Listing<T>, RequestCoalescer.Shared>() {
+                    @Override
+                    public RequestCoalescer.Shared apply(final ListingValidators.Listing<T> value) {
+                        return new RequestCoalescer.Shared(value.etag, value.value, writer);
+                    }
+                });
+            }
+        };
+        final String ifNoneMatch = req.getHeader("If-None-Match");
+        if (null == validators || null == ifNoneMatch) {
+            return coalesce(req, cluster, path, loader);
+        }
+        // 校验信息匹配时只需一次 checkExists, 不合并.
+        final AtomicReference<CompletableFuture<RequestCoalescer.Shared>> reloading = new AtomicReference<CompletableFuture<RequestCoalescer.Shared>>();
+        final CompletableFuture<RequestCoalescer.Shared> listing = validators.notModified(client, cluster, path, variant, ifNoneMatch).thenCompose(new Function<String, CompletionStage<RequestCoalescer.Shared>>() {
+            @Override
+            public CompletionStage<RequestCoalescer.Shared> apply(final String matched) {
+                if (null != matched) {
+                    return CompletableFuture.completedFuture(new RequestCoalescer.Shared(matched, null, writer));
+                }
+                reloading.set(coalesce(req, cluster, path, loader));
+                return reloading.get();
+            }
+        });
+        listing.whenComplete(new BiConsumer<RequestCoalescer.Shared, Throwable>() {
+            @Override
+            public void accept(final RequestCoalescer.Shared value, final Throwable e) {
+                if (listing.isCancelled() && null != reloading.get()) {
+                    reloading.get().cancel(false);
+                }
+            }
+        });
+        return listing;
+    }
+
+    /**
+     * 合并相同的读请求(集群, 路径, 端点和请求参数相同), 未启用合并时直接读取.
+     */
+    private <T> CompletableFuture<T> coalesce(final HttpServletRequest req, final String cluster, final String path,
+                                              final Supplier<CompletableFuture<T>> loader) {
+        return null != coalescer
+                ? coalescer.get(req, cluster, path, RequestMetrics.endpointOf(req) + '?' + req.getQueryString(), loader)
+                : loader.get();
+    }
+
+    /**
+     * 写出子节点列举, 未修改(value 为 null)或 If-None-Match 匹配时返回 304.
+     */
+    private void writeViews(final HttpServletRequest req, final HttpServletResponse resp, final RequestCoalescer.Shared shared) throws IOException {
+        if (!notModified(req, resp, shared.etag) && null != shared.value) {
+            metrics.listing(req, ((View[]) shared.value).length);
+            writeShared(req, resp, shared);
+        }
+        finish(resp);
+    }
+
+    /**
+     * 写出子节点分页, 未修改(value 为 null)或 If-None-Match 匹配时返回 304.
+     */
+    private void writePage(final HttpServletRequest req, final HttpServletResponse resp, final RequestCoalescer.Shared shared) throws IOException {
+        if (!notModified(req, resp, shared.etag) && null != shared.value) {
+            metrics.listing(req, ((Page) shared.value).getTotal());
+            writeShared(req, resp, shared);
+        }
+        finish(resp);
+    }
+
+    /**
+     * 写出单个节点, 不存在时返回 404.
+     */
+    private void writeView(final HttpServletRequest req, final HttpServletResponse resp, final RequestCoalescer.Shared shared) throws IOException {
+        if (null == shared.value) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+        } else {
+            writeShared(req, resp, shared);
+        }
+        finish(resp);
+    }
+
+    /**
+     * 写出共享的 JSON 响应, 合并的请求只序列化一次.
+     */
+    private void writeShared(final HttpServletRequest req, final HttpServletResponse resp, final RequestCoalescer.Shared shared) throws IOException {
+        final byte[] body = shared.body();
+        resp.setContentType("application/json;charset=UTF-8");
+        resp.getOutputStream().write(body);
+        metrics.responseBytes(req, body.length);
+    }
+
+    /**
+     * 完成(可能被压缩包装的)响应, 可以重复调用.
+     */
+    private void finish(final HttpServletResponse resp) throws IOException {
+        if (null != compressor) {
+            compressor.finish(resp);
+        }
+    }
+
+    /**
+     * 搜索当前路径子树下的节点.
+     * <pre>
+     * GET /path?search=keyword[&amp;type=substring|prefix|regex][&amp;in=all|path|value][&amp;ignoreCase][&amp;limit=100]
+     * </pre>
+     *
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @param pathInfo     子树根路径
+     * @param zkUrl        the zookeeper url
+     * @throws IOException 如果IO发生异常
+     */
+    private void doSearch(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse,
+                          final String pathInfo, final String zkUrl) throws IOException {
+        final String type = httpRequest.getParameter("type");
+        final String in = httpRequest.getParameter("in");
+        final String limit = httpRequest.getParameter("limit");
+        Map<String, Object> ret = new HashMap<String, Object>();
+        if (null == indexes) {
+            ret.put("success", false);
+            ret.put("message", "illegal_request: search index is disabled");
+        } else if (null == zkUrl) {
+            ret.put("success", false);
+            ret.put("message", "illegal_request");
+        } else if (SnapshotTrees.isSnapshot(zkUrl)) {
+            ret.put("success", false);
+            ret.put("message", "illegal_request: search is not supported on snapshots");
+        } else {
             try {
-                final String url = req.getParameter("zkUrl");
-                final CuratorFramework zk = CuratorHolder.createIfNecessary(req.getSession(), url);
-                final OrderedProperties o = new OrderedProperties();
-                o.putAll(asProperties(zk, pathInfo));
-                o.store(resp.getWriter(), url);
-            } catch (Exception e) {
-                throw new ServletException(e);
+                final int size = null != limit ? Math.max(1, Math.min(MAX_SEARCH_LIMIT, Integer.parseInt(limit))) : DEFAULT_SEARCH_LIMIT;
+                ret = indexes.get(zkUrl).search(
+                        pathInfo, httpRequest.getParameter("search"),
+                        null != type ? type : SearchIndex.SUBSTRING, null != in ? in : SearchIndex.ALL,
+                        null != httpRequest.getParameter("ignoreCase"), size
+                );
+            } catch (final IllegalArgumentException e) {
+                // 非法的 limit, 查询类型或正则表达式.
+                ret.put("success", false);
+                ret.put("message", "illegal_request: " + e.getMessage());
             }
-            return;
         }
+        writeJson(httpRequest, httpResponse, MAP_WRITER, ret);
+    }
 
-        // 静态资源.
-        if (pathInfo.endsWith(".html") || pathInfo.endsWith(".css") || pathInfo.endsWith(".js") || pathInfo.startsWith("/images/") || pathInfo.startsWith("/js/")) {
-            this.writeResource(pathInfo, resp);
+    /**
+     * 对比当前路径与目标(可以在另一个集群)的子树.
+     * <pre>
+     * GET /path?diff[&amp;target=/other/path][&amp;targetUrl=host:port][&amp;reconcile]
+     * </pre>
+     * 以 NDJSON 逐行返回差异(type 为 added, removed 或 changed), 最后一行 type 为 done,
+     * reconcile 时包含把目标同步为当前子树的批量操作, 可以直接提交到目标集群的 POST /?batch.
+     *
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @param pathInfo     源子树根路径
+     * @param zkUrl        源 zookeeper url
+     * @throws IOException 如果IO发生异常
+     */
+    private void doDiff(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse,
+                        final String pathInfo, final String zkUrl) throws IOException {
+        final String targetUrl = null != httpRequest.getParameter("targetUrl") ? httpRequest.getParameter("targetUrl") : zkUrl;
+        final String targetPath = null != httpRequest.getParameter("target") ? httpRequest.getParameter("target") : pathInfo;
+        Map<String, Object> ret = new HashMap<String, Object>();
+        try {
+            if (null == zkUrl || isSystemPath(pathInfo) || isSystemPath(targetPath)) {
+                throw new IllegalArgumentException("illegal path or zookeeper url");
+            }
+            if (SnapshotTrees.isSnapshot(zkUrl) || SnapshotTrees.isSnapshot(targetUrl)) {
+                throw new IllegalArgumentException("diff is not supported on snapshots");
+            }
+            PathUtils.validatePath(targetPath);
+        } catch (final IllegalArgumentException e) {
+            ret.put("success", false);
+            ret.put("message", "illegal_request: " + e.getMessage());
+            writeJson(httpRequest, httpResponse, MAP_WRITER, ret);
             return;
         }
 
-        // 获取当前节点信息和子节点信息.
+        httpResponse.setContentType("application/x-ndjson;charset=UTF-8");
+        final OutputStream out = httpResponse.getOutputStream();
         try {
-            final CuratorFramework client = CuratorHolder.createIfNecessary(req.getSession(), zkUrl);
-            final View[] views = ls(client, pathInfo);
-            final String json = Jacksons.serialize(views);
-            resp.getWriter().print(json);
+            final SubtreeDiff.Side source = new SubtreeDiff.Side(
+                    CuratorPool.normalize(zkUrl), CuratorHolder.createIfNecessary(httpRequest.getSession(), zkUrl), pathInfo
+            );
+            final SubtreeDiff.Side target = new SubtreeDiff.Side(
+                    CuratorPool.normalize(targetUrl), CuratorHolder.createIfNecessary(httpRequest.getSession(), targetUrl), targetPath
+            );
+            ret = differ.diff(source, target, null != httpRequest.getParameter("reconcile"), new SubtreeDiff.Listener() {
+                /**
+                 * 差异最多每 200ms 发送一次.
+                 */
+                private long last;
+
+                @Override
+                public void entry(final Map<String, Object> entry) throws IOException {
+                    Jacksons.serialize(out, PROGRESS_WRITER, entry);
+                    out.write('\n');
+                    final long now = System.currentTimeMillis();
+                    if (now - last >= 200) {
+                        last = now;
+                        out.flush();
+                    }
+                }
+            });
+        } catch (final IOException e) {
+            throw e;
         } catch (final Exception e) {
+            ret.put("success", false);
+            ret.put("message", "internal_error: " + e.getMessage());
+        }
+        final Map<String, Object> done = new LinkedHashMap<String, Object>();
+        done.put("type", "done");
+        done.putAll(ret);
+        writeLine(out, done);
+    }
+
+    /**
+     * 打开离线快照.
+     *
+     * @param zkUrl snapshot:文件或目录[@zxid]
+     * @return the snapshot tree
+     * @throws IllegalArgumentException 如果未启用, url 非法或没有找到快照
+     * @throws ServletException         如果读取快照或事务日志失败
+     */
+    private SnapshotTree snapshotOf(final String zkUrl) throws ServletException {
+        if (null == snapshots) {
+            throw new IllegalArgumentException("snapshot browsing is disabled");
+        }
+        try {
+            return snapshots.get(zkUrl);
+        } catch (final IOException e) {
             throw new ServletException(e);
         }
     }
 
     /**
-     * 写入静态资源.
+     * 节点变更事件流(Server-Sent Events).
+     * <pre>
+     * GET /?events&amp;zkUrl=host:port
+     * </pre>
+     * 第一个事件(stream)包含 stream id, 之后通过 POST /?watch&amp;stream=id 增减订阅的路径,
+     * 订阅路径的 created, deleted, data 和 children(新增和删除的子节点名称)事件合并后推送, resync 表示有事件被丢弃.
+     * 响应异步完成, 不占用容器线程.
      *
-     * @param pathInfo     静态资源路径
+     * @param httpRequest  the http request
      * @param httpResponse the http response
      * @throws IOException 如果IO发生异常
      */
-    private void writeResource(final String pathInfo, final HttpServletResponse httpResponse) throws IOException {
-        final InputStream in = getClass().getClassLoader().getResourceAsStream("support/web" + pathInfo);
-        if (null == in) {
-            httpResponse.sendError(HttpServletResponse.SC_NOT_FOUND);
-        } else {
-            httpResponse.setCharacterEncoding("UTF-8");
-            if (pathInfo.endsWith(".html")) {
-                httpResponse.setContentType("text/html");
-            } else if (pathInfo.endsWith(".png")) {
-                httpResponse.setContentType("image/png");
-            } else if (pathInfo.endsWith(".js")) {
-                httpResponse.setContentType("text/javascript");
-            } else if (pathInfo.endsWith(".css")) {
-                httpResponse.setContentType("text/css");
+    private void doEvents(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse) throws IOException {
+        final String zkUrl = httpRequest.getParameter("zkUrl");
+        if (null == feeds || null == zkUrl || SnapshotTrees.isSnapshot(zkUrl)) {
+            final Map<String, Object> ret = new HashMap<String, Object>();
+            ret.put("success", false);
+            ret.put("message", null == feeds ? "illegal_request: change events are disabled" : "illegal_request");
+            writeJson(httpRequest, httpResponse, MAP_WRITER, ret);
+            return;
+        }
+
+        httpResponse.setContentType("text/event-stream;charset=UTF-8");
+        httpResponse.setHeader("Cache-Control", "no-cache");
+        // 禁止反向代理缓冲.
+        httpResponse.setHeader("X-Accel-Buffering", "no");
+        final AsyncContext async = httpRequest.startAsync();
+        async.setTimeout(0);
+        final OutputStream out = httpResponse.getOutputStream();
+        final ChangeFeeds.Subscriber subscriber = feeds.subscribe(zkUrl, new ChangeFeeds.Sink() {
+            @Override
+            public void send(final List<Map<String, Object>> events) throws IOException {
+                for (final Map<String, Object> event : events) {
+                    out.write(("event: " + event.get("type") + "\ndata: ").getBytes(UTF_8));
+                    Jacksons.serialize(out, PROGRESS_WRITER, event);
+                    out.write(EVENT_END);
+                }
+                out.flush();
+            }
+
+            @Override
+            public void heartbeat() throws IOException {
+                out.write(HEARTBEAT);
+                out.flush();
+            }
+
+            @Override
+            public void close() {
+                try {
+                    async.complete();
+                } catch (final IllegalStateException e) {
+                    // 已完成.
+                }
+            }
+        });
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(final AsyncEvent event) {
+                feeds.unsubscribe(subscriber);
+            }
+
+            @Override
+            public void onTimeout(final AsyncEvent event) {
+                feeds.unsubscribe(subscriber);
+            }
+
+            @Override
+            public void onError(final AsyncEvent event) {
+                feeds.unsubscribe(subscriber);
+            }
+
+            @Override
+            public void onStartAsync(final AsyncEvent event) {
             }
-            IOUtils.flow(in, httpResponse.getOutputStream(), true, false);
+        });
+    }
+
+    private static boolean isSystemPath(final String path) {
+        return null == path || ZK_SYSTEM_NODE_PATH.equals(path) || path.startsWith(ZK_SYSTEM_NODE_PATH + '/');
+    }
+
+    private static int previewOf(final HttpServletRequest req) {
+        if (null != req.getParameter("stat")) {
+            return 0;
+        }
+        final String preview = req.getParameter("preview");
+        return null != preview ? Math.max(0, Integer.parseInt(preview)) : FULL_DATA;
+    }
+
+    /**
+     * 设置子节点列举的 ETag, 如果与 If-None-Match 匹配则返回 304.
+     * <p>
+     * 列举结果与 zkUrl 请求头相关, 浏览器缓存的列举每次使用前都需要重新校验.
+     * </p>
+     *
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @param etag         the etag
+     * @return 是否已返回 304
+     */
+    private boolean notModified(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse, final String etag) {
+        httpResponse.setHeader("ETag", etag);
+        httpResponse.setHeader("Cache-Control", "no-cache");
+        httpResponse.addHeader("Vary", "zkUrl");
+        if (ListingValidators.matches(httpRequest.getHeader("If-None-Match"), etag)) {
+            httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * 使用给定的 ObjectWriter 将结果直接序列化到响应输出流, 并记录序列化的字节数(压缩前).
+     *
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @param writer       the object writer
+     * @param value        the value
+     * @throws IOException 如果IO发生异常
+     */
+    private void writeJson(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse,
+                           final ObjectWriter writer, final Object value) throws IOException {
+        httpResponse.setContentType("application/json;charset=UTF-8");
+        final long[] count = new long[1];
+        final OutputStream out = new FilterOutputStream(httpResponse.getOutputStream()) {
+            @Override
+            public void write(final int b) throws IOException {
+                out.write(b);
+                count[0]++;
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+                count[0] += len;
+            }
+        };
+        Jacksons.serialize(out, writer, value);
+        metrics.responseBytes(httpRequest, count[0]);
     }
 
     /**
-     * 更新节点数据.
+     * 更新节点数据, 批量写入(?batch), 导入 properties(?import) 或增减事件流订阅的路径(?watch).
      *
      * @param httpRequest  the http request
      * @param httpResponse the http response
@@ -120,6 +1304,18 @@ public class ZookeeperWebUiServlet extends HttpServlet {
      */
     @Override
     protected void doPost(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse) throws IOException {
+        if (null != httpRequest.getParameter("batch")) {
+            doBatch(httpRequest, httpResponse);
+            return;
+        }
+        if (null != httpRequest.getParameter("import")) {
+            doImport(httpRequest, httpResponse);
+            return;
+        }
+        if (null != httpRequest.getParameter("watch")) {
+            doWatch(httpRequest, httpResponse);
+            return;
+        }
         final String pathInfo = httpRequest.getPathInfo();
         final String value = httpRequest.getParameter("value");
         final String zkUrl = httpRequest.getHeader("zkUrl");
@@ -144,11 +1340,121 @@ public class ZookeeperWebUiServlet extends HttpServlet {
                 ret.put("message", "internal_error: " + e.getMessage());
             }
         }
-        httpResponse.getWriter().print(Jacksons.serialize(ret));
+        writeJson(httpRequest, httpResponse, MAP_WRITER, ret);
+    }
+
+    /**
+     * 增减事件流订阅的路径, add 和 remove 可以有多个.
+     * <pre>
+     * POST /?watch&amp;stream=id&amp;add=/a&amp;add=/b&amp;remove=/c
+     * </pre>
+     *
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @throws IOException 如果IO发生异常
+     */
+    private void doWatch(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse) throws IOException {
+        final String[] add = httpRequest.getParameterValues("add");
+        final String[] remove = httpRequest.getParameterValues("remove");
+        Map<String, Object> ret = new HashMap<String, Object>();
+        try {
+            if (null == feeds) {
+                throw new IllegalArgumentException("change events are disabled");
+            }
+            final List<String> paths = null != add ? Arrays.asList(add) : Collections.<String>emptyList();
+            for (final String path : paths) {
+                PathUtils.validatePath(path);
+            }
+            ret = feeds.watch(
+                    httpRequest.getParameter("stream"), paths,
+                    null != remove ? Arrays.asList(remove) : Collections.<String>emptyList()
+            );
+        } catch (final IllegalArgumentException e) {
+            ret.put("success", false);
+            ret.put("message", "illegal_request: " + e.getMessage());
+        }
+        writeJson(httpRequest, httpResponse, MAP_WRITER, ret);
+    }
+
+    /**
+     * 批量写入: 请求体为操作的 JSON 数组, 所有操作作为一个事务提交.
+     * <pre>
+     * POST /?batch
+     * [{"op":"setData","path":"/a","value":"1","version":3},{"op":"create","path":"/b","value":"","mode":"ephemeral"},
+     *  {"op":"delete","path":"/c"},{"op":"check","path":"/d","version":0}]
+     * </pre>
+     *
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @throws IOException 如果IO发生异常
+     */
+    private void doBatch(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse) throws IOException {
+        final String zkUrl = httpRequest.getHeader("zkUrl");
+        Map<String, Object> ret = new HashMap<String, Object>();
+        BatchWriter.Operation[] operations = null;
+        try {
+            operations = BATCH_READER.readValue(httpRequest.getInputStream());
+        } catch (final JsonProcessingException e) {
+            ret.put("success", false);
+            ret.put("message", "illegal_request: " + e.getOriginalMessage());
+        }
+        if (null != operations) {
+            try {
+                ret = batch.execute(CuratorHolder.createIfNecessary(httpRequest.getSession(), zkUrl), operations);
+            } catch (final IllegalArgumentException e) {
+                ret.put("success", false);
+                ret.put("message", "illegal_request: " + e.getMessage());
+            } catch (final Exception e) {
+                ret.put("success", false);
+                ret.put("message", "internal_error: " + e.getMessage());
+            }
+        }
+        writeJson(httpRequest, httpResponse, MAP_WRITER, ret);
+    }
+
+    /**
+     * 导入 properties: 请求体为导出格式的 properties, 只导入当前路径子树下的条目.
+     * <pre>
+     * POST /path?import[&amp;mode=apply|dry-run|diff]
+     * </pre>
+     * 请求体的字符集由 Content-Type 指定, 未指定时与 {@link java.util.Properties#load(java.io.InputStream)} 相同为 ISO-8859-1.
+     *
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @throws IOException 如果IO发生异常
+     */
+    private void doImport(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse) throws IOException {
+        final String pathInfo = httpRequest.getPathInfo();
+        final String zkUrl = httpRequest.getHeader("zkUrl");
+        final String mode = httpRequest.getParameter("mode");
+        Map<String, Object> ret = new HashMap<String, Object>();
+        if (null == pathInfo) {
+            ret.put("success", false);
+            ret.put("message", "illegal_request");
+        } else {
+            final String charset = httpRequest.getCharacterEncoding();
+            final PropertiesReader in = new PropertiesReader(new InputStreamReader(
+                    httpRequest.getInputStream(), null != charset ? charset : "ISO-8859-1"
+            ));
+            try {
+                final CuratorFramework zk = CuratorHolder.createIfNecessary(httpRequest.getSession(), zkUrl);
+                ret = importer.load(zk, pathInfo, in, null != mode ? mode : PropertiesImporter.APPLY);
+            } catch (final IllegalArgumentException e) {
+                ret.put("success", false);
+                ret.put("message", "illegal_request: " + e.getMessage());
+            } catch (final Exception e) {
+                ret.put("success", false);
+                ret.put("message", "internal_error: " + e.getMessage());
+            }
+        }
+        writeJson(httpRequest, httpResponse, MAP_WRITER, ret);
     }
 
     /**
      * 创建Zookeeper节点.
+     * <p>
+     * 临时节点通过共享的 curator 实例创建, 生命周期是该实例的 zookeeper session 而不是 http session, 见 {@link CuratorHolder}.
+     * </p>
      *
      * @param httpRequest  the http request
      * @param httpResponse the http response
@@ -181,7 +1487,7 @@ public class ZookeeperWebUiServlet extends HttpServlet {
                 ret.put("message", "internal_error: " + e.getMessage());
             }
         }
-        httpResponse.getWriter().print(Jacksons.serialize(ret));
+        writeJson(httpRequest, httpResponse, MAP_WRITER, ret);
     }
 
     /**
@@ -193,6 +1499,10 @@ public class ZookeeperWebUiServlet extends HttpServlet {
      */
     @Override
     protected void doDelete(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse) throws IOException {
+        if (null != httpRequest.getParameter("recursive")) {
+            doDeleteRecursive(httpRequest, httpResponse);
+            return;
+        }
         final String pathInfo = httpRequest.getPathInfo();
         final Map<String, Object> ret = new HashMap<String, Object>();
         final String zkUrl = httpRequest.getHeader("zkUrl");
@@ -216,12 +1526,154 @@ public class ZookeeperWebUiServlet extends HttpServlet {
                 ret.put("message", "internal_error: " + e.getMessage());
             }
         }
-        httpResponse.getWriter().print(Jacksons.serialize(ret));
+        writeJson(httpRequest, httpResponse, MAP_WRITER, ret);
+    }
+
+    /**
+     * 递归删除子树.
+     * <pre>
+     * DELETE /path?recursive&amp;dryRun  统计子树节点数
+     * DELETE /path?recursive          删除子树, 以 NDJSON 逐行返回进度, 最后一行为结果
+     * </pre>
+     *
+     * @param httpRequest  the http request
+     * @param httpResponse the http response
+     * @throws IOException 如果IO发生异常
+     */
+    private void doDeleteRecursive(final HttpServletRequest httpRequest, final HttpServletResponse httpResponse) throws IOException {
+        final String pathInfo = httpRequest.getPathInfo();
+        final String zkUrl = httpRequest.getHeader("zkUrl");
+        final boolean dryRun = null != httpRequest.getParameter("dryRun");
+        Map<String, Object> ret = new HashMap<String, Object>();
+        if (null == pathInfo || "/".equals(pathInfo) || ZK_SYSTEM_NODE_PATH.equals(pathInfo) || pathInfo.startsWith(ZK_SYSTEM_NODE_PATH + '/')) {
+            ret.put("success", false);
+            ret.put("message", "illegal_request");
+            writeJson(httpRequest, httpResponse, MAP_WRITER, ret);
+            return;
+        }
+        if (dryRun) {
+            try {
+                ret = deleter.count(CuratorHolder.createIfNecessary(httpRequest.getSession(), zkUrl), pathInfo);
+            } catch (final Exception e) {
+                ret.put("success", false);
+                ret.put("message", "internal_error: " + e.getMessage());
+            }
+            writeJson(httpRequest, httpResponse, MAP_WRITER, ret);
+            return;
+        }
+
+        httpResponse.setContentType("application/x-ndjson;charset=UTF-8");
+        final OutputStream out = httpResponse.getOutputStream();
+        try {
+            final CuratorFramework zk = CuratorHolder.createIfNecessary(httpRequest.getSession(), zkUrl);
+            ret = deleter.delete(zk, pathInfo, new SubtreeDeleter.Listener() {
+                /**
+                 * 进度最多每 200ms 写出一次.
+                 */
+                private long last;
+
+                @Override
+                public void scanned(final int nodes) throws IOException {
+                    final Map<String, Object> line = new LinkedHashMap<String, Object>();
+                    line.put("phase", "scan");
+                    line.put("nodes", nodes);
+                    writeLine(out, line);
+                }
+
+                @Override
+                public void progress(final int deleted, final int missing, final int failed, final int total) throws IOException {
+                    final long now = System.currentTimeMillis();
+                    if (now - last >= 200 || deleted + missing + failed >= total) {
+                        last = now;
+                        final Map<String, Object> line = new LinkedHashMap<String, Object>();
+                        line.put("phase", "delete");
+                        line.put("deleted", deleted);
+                        line.put("missing", missing);
+                        line.put("failed", failed);
+                        line.put("total", total);
+                        writeLine(out, line);
+                    }
+                }
+            });
+        } catch (final IOException e) {
+            throw e;
+        } catch (final Exception e) {
+            ret.put("success", false);
+            ret.put("message", "internal_error: " + e.getMessage());
+        }
+        final Map<String, Object> done = new LinkedHashMap<String, Object>();
+        done.put("phase", "done");
+        done.putAll(ret);
+        writeLine(out, done);
+    }
+
+    /**
+     * 写出一行 JSON 并立即发送.
+     */
+    private static void writeLine(final OutputStream out, final Map<String, Object> line) throws IOException {
+        Jacksons.serialize(out, PROGRESS_WRITER, line);
+        out.write('\n');
+        out.flush();
+    }
+
+    /**
+     * 子节点分页.
+     */
+    public static class Page {
+        /**
+         * 子节点总数.
+         */
+        private final int total;
+
+        /**
+         * 当前页第一个子节点的位置.
+         */
+        private final int offset;
+
+        /**
+         * 当前页的子节点.
+         */
+        private final View[] items;
+
+        /**
+         * 下一页游标, 没有下一页时为 null.
+         */
+        private final String next;
+
+        public Page(final int total, final int offset, final View[] items, final String next) {
+            this.total = total;
+            this.offset = offset;
+            this.items = items;
+            this.next = next;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public View[] getItems() {
+            return items;
+        }
+
+        public String getNext() {
+            return next;
+        }
     }
 
+    @JsonPropertyOrder({"path", "data"})
     public static class View implements Comparable<View> {
         private final String path;
-        private final String data;
+
+        /**
+         * 节点数据(可能被截断), 序列化时使用请求指定的编码.
+         */
+        @JsonProperty("data")
+        @JsonSerialize(using = PayloadEncoder.Serializer.class)
+        private final byte[] data;
 
         /**
          * 节点数据的字节数
@@ -273,10 +1725,27 @@ public class ZookeeperWebUiServlet extends HttpServlet {
          */
         private int items;
 
-        public View(final String path, final String data, final long length,
+        /**
+         * data 是否不完整(只有 Stat 或只有数据的前几个字节), 完整数据需要单独获取.
+         */
+        private boolean truncated;
+
+        /**
+         * 多层列举(depth)时展开的子节点, 未展开时为 null.
+         */
+        private View[] children;
+
+        public View(final String path, final byte[] data, final long length,
                     final long czxid, final long mzxid, final long ctime,
                     final long mtime, final int version, final int cvertion,
                     final int aversion, final long ephemeralOwner, final int items) {
+            this(path, data, length, czxid, mzxid, ctime, mtime, version, cvertion, aversion, ephemeralOwner, items, false);
+        }
+
+        public View(final String path, final byte[] data, final long length,
+                    final long czxid, final long mzxid, final long ctime,
+                    final long mtime, final int version, final int cvertion,
+                    final int aversion, final long ephemeralOwner, final int items, final boolean truncated) {
             this.path = path;
             this.data = data;
             this.length = length;
@@ -289,14 +1758,19 @@ public class ZookeeperWebUiServlet extends HttpServlet {
             this.aversion = aversion;
             this.ephemeralOwner = ephemeralOwner;
             this.items = items;
+            this.truncated = truncated;
         }
 
         public String getPath() {
             return path;
         }
 
+        /**
+         * 十六进制("0x"开始)表示的节点数据, 空数据为 null.
+         */
+        @JsonIgnore
         public String getData() {
-            return data;
+            return null != data && 0 < data.length ? "0x" + Hex.encode(data) : null;
         }
 
         public long getLength() {
@@ -339,6 +1813,27 @@ public class ZookeeperWebUiServlet extends HttpServlet {
             return items;
         }
 
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public View[] getChildren() {
+            return children;
+        }
+
+        /**
+         * 包含展开的子节点的副本.
+         *
+         * @param children 展开的子节点
+         * @return 新的节点视图
+         */
+        View withChildren(final View[] children) {
+            final View view = new View(path, data, length, czxid, mzxid, ctime, mtime, version, cversion, aversion, ephemeralOwner, items, truncated);
+            view.children = children;
+            return view;
+        }
+
         @Override
         public int compareTo(final View other) {
             if (this == other) {
@@ -354,78 +1849,54 @@ public class ZookeeperWebUiServlet extends HttpServlet {
         }
     }
 
-    private static View stat(final CuratorFramework client, final String path) throws Exception {
-        if (null != client.checkExists().forPath(path)) {
-            final Stat stat = new Stat();
-            final byte[] data = client.getData().storingStatIn(stat).forPath(path);
-            final long length = Math.max(null != data ? data.length : 0, stat.getDataLength());
-            final String hexData = null != data ? (0 < data.length ? "0x" + Hex.encode(data) : null) : null;
-            return new View(
-                    path, hexData, length, stat.getCzxid(),
-                    stat.getMzxid(), stat.getCtime(), stat.getMtime(), stat.getVersion(),
-                    stat.getCversion(), stat.getAversion(), stat.getEphemeralOwner(), stat.getNumChildren()
-            );
+    static View stat(final CuratorFramework client, final String path) throws Exception {
+        final Stat stat = new Stat();
+        final byte[] data;
+        try {
+            data = client.getData().storingStatIn(stat).forPath(path);
+        } catch (final KeeperException.NoNodeException e) {
+            return null;
         }
-        return null;
+        return view(path, data, stat);
     }
 
-    private static View[] ls(final CuratorFramework client, final String path) throws Exception {
-        final List<String> children = null != client.checkExists().forPath(path) ? client.getChildren().forPath(path) : null;
-        if (null != children && !children.isEmpty()) {
-            final List<View> candidates = new ArrayList<>(children.size());
-            for (final String child : children) {
-                /*
-                if (ZK_SYSTEM_NODE.equals(child)) {
-                    continue;
-                }
-                */
-
-                final View view = stat(client, resolve(path, child));
-                if (null != view) {
-                    candidates.add(view);
-                }
-            }
-            Collections.sort(candidates);
-            return candidates.toArray(new View[candidates.size()]);
-        }
-        return new View[0];
+    static View view(final String path, final byte[] data, final Stat stat) {
+        return view(path, data, stat, FULL_DATA);
     }
 
-    private static Map<String, String> asProperties(final CuratorFramework zk, final String... paths) throws Exception {
-        final Map<String, String> props = new TreeMap<String, String>();
-        for (final String path : paths) {
-            asProperties(zk, path, props);
-        }
-        return props;
+    /**
+     * 创建节点视图.
+     *
+     * @param path    the znode path
+     * @param data    节点数据, 只获取了 Stat 时为 null
+     * @param stat    节点 Stat
+     * @param preview 数据的最大字节数, 小于0为完整数据, 0为不包含数据, 大于0时截断(不截断 UTF-8 多字节字符)
+     * @return 节点视图
+     */
+    static View view(final String path, final byte[] data, final Stat stat, final int preview) {
+        final long length = Math.max(null != data ? data.length : 0, stat.getDataLength());
+        final byte[] shown = 0 > preview || null == data ? data : (0 == preview ? null : truncate(data, preview));
+        final boolean truncated = (null != shown ? shown.length : 0) < length;
+        return new View(
+                path, shown, length, stat.getCzxid(),
+                stat.getMzxid(), stat.getCtime(), stat.getMtime(), stat.getVersion(),
+                stat.getCversion(), stat.getAversion(), stat.getEphemeralOwner(), stat.getNumChildren(), truncated
+        );
     }
 
-    private static void asProperties(final CuratorFramework zk, final String path, final Map<String, String> props) throws Exception {
-        final Map<String, String> finalProps = null != props ? props : new TreeMap<String, String>();
-        final Stat stat = zk.checkExists().forPath(path);
-        if (null == stat || 0 != stat.getEphemeralOwner()) {
-            if (null != stat) {
-                // skip ephemeral znode
-                System.err.println(String.format("skip ephemeral znode: [%s]", path));
-            }
-            return;
-        }
-
-        final byte[] data = zk.getData().forPath(path);
-        //path.substring(1).replace('/', '.');
-        final String key = path;
-        if (!"".equals(key) && null != data) {
-            finalProps.put(key, new String(data, UTF_8));
+    private static byte[] truncate(final byte[] data, final int max) {
+        if (data.length <= max) {
+            return data;
         }
-
-        final List<String> children = zk.getChildren().forPath(path);
-        if (null != children && !children.isEmpty()) {
-            for (final String child : children) {
-                asProperties(zk, resolve(path, child), finalProps);
-            }
+        int end = max;
+        // 回退到 UTF-8 字符边界(10xxxxxx 为后续字节), 最多回退3个字节.
+        for (int i = 0; i < 3 && 0 < end && 0x80 == (data[end] & 0xC0); i++) {
+            end--;
         }
+        return Arrays.copyOf(data, end);
     }
 
-    private static String resolve(final String path, final String child) {
+    static String resolve(final String path, final String child) {
         return path + (!path.endsWith("/") ? "/" : "") + child;
     }
 }
@@ -1,30 +1,80 @@
 package org.freework.zk.web.ui.util;
 
-import com.google.common.collect.Maps;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
 import org.apache.curator.framework.CuratorFramework;
-import org.apache.curator.framework.CuratorFrameworkFactory;
-import org.apache.curator.retry.RetryNTimes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpSession;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
 
 /**
  * CuratorHolder.
+ * <p>
+ * Curator 实例由进程级的 {@link CuratorPool} 共享, session 中只记录租用的连接串,
+ * session 销毁时归还租用而不是关闭实例.
+ * 因此通过共享实例创建的临时节点属于实例的 zookeeper session, 不随 http session 销毁而删除,
+ * 直到实例空闲超时关闭.
+ * </p>
  *
  * @author changhe.yang
  */
 public class CuratorHolder {
     private static final Logger LOGGER = LoggerFactory.getLogger(CuratorHolder.class);
-    private static final String ZK_INSTANCES_KEY = "zk.instances";
+    private static final String ZK_LEASES_KEY = "zk.leases";
+
+    /**
+     * 默认空闲实例关闭时间: 5分钟.
+     */
+    private static final long DEFAULT_IDLE_TIMEOUT_MS = 5 * 60 * 1000L;
+
+    private static final CuratorPool POOL = new CuratorPool(DEFAULT_IDLE_TIMEOUT_MS);
+
+    /**
+     * 租用了 curator 实例的 session 数.
+     */
+    private static final AtomicInteger SESSIONS = new AtomicInteger();
+
+    static {
+        Gauge.builder("zk.web.ui.pool.clients", POOL, new ToDoubleFunction<CuratorPool>() {
+            @Override
+            public double applyAsDouble(final CuratorPool pool) {
+                return pool.size();
+            }
+        }).description("shared curator clients").register(Metrics.globalRegistry);
+        Gauge.builder("zk.web.ui.pool.leases", POOL, new ToDoubleFunction<CuratorPool>() {
+            @Override
+            public double applyAsDouble(final CuratorPool pool) {
+                return pool.activeLeases();
+            }
+        }).description("active session leases").register(Metrics.globalRegistry);
+        Gauge.builder("zk.web.ui.sessions", SESSIONS, new ToDoubleFunction<AtomicInteger>() {
+            @Override
+            public double applyAsDouble(final AtomicInteger sessions) {
+                return sessions.get();
+            }
+        }).description("sessions holding curator leases").register(Metrics.globalRegistry);
+    }
 
     private CuratorHolder() {
         throw new AssertionError("can't instantiate");
     }
 
     /**
-     * 如果当前session没有对应的 curator 实例则创建, 否则直接返回.
+     * 获取共享的 curator 实例池.
+     *
+     * @return the curator pool
+     */
+    public static CuratorPool getPool() {
+        return POOL;
+    }
+
+    /**
+     * 如果当前session没有租用对应的 curator 实例则从实例池租用, 否则直接返回.
      *
      * @param session the http session
      * @param zkUrl   the zookeeper url
@@ -32,52 +82,63 @@ public class CuratorHolder {
      */
     @SuppressWarnings("unchecked")
     public static CuratorFramework createIfNecessary(final HttpSession session, final String zkUrl) {
-        final String serverUrl = zkUrl.startsWith("zookeeper://") ? zkUrl.substring(12) : zkUrl;
-        Map<String, Object> instanceMap = (Map<String, Object>) session.getAttribute(ZK_INSTANCES_KEY);
-        if (null == instanceMap) {
-            instanceMap = Maps.newHashMap();
-            session.setAttribute(ZK_INSTANCES_KEY, instanceMap);
+        final String serverUrl = CuratorPool.normalize(zkUrl);
+        Set<String> leases = (Set<String>) session.getAttribute(ZK_LEASES_KEY);
+        if (null == leases) {
+            synchronized (session) {
+                leases = (Set<String>) session.getAttribute(ZK_LEASES_KEY);
+                if (null == leases) {
+                    leases = new HashSet<String>();
+                    session.setAttribute(ZK_LEASES_KEY, leases);
+                }
+            }
         }
 
-        CuratorFramework instance;
-        final Object value = instanceMap.get(serverUrl);
-        if (!(value instanceof CuratorFramework)) {
-            final CuratorFrameworkFactory.Builder builder = CuratorFrameworkFactory.builder()
-                    .connectString(serverUrl)
-                    // .retryPolicy(new RetryNTimes(Integer.MAX_VALUE, 1000))
-                    .retryPolicy(new RetryNTimes(10, 1000))
-                    .connectionTimeoutMs(5000);
-            instance = builder.build();
-            instance.start();
-            instanceMap.put(serverUrl, instance);
-        } else {
-            instance = (CuratorFramework) value;
+        synchronized (leases) {
+            if (leases.contains(serverUrl)) {
+                final CuratorFramework instance = POOL.get(serverUrl);
+                if (null != instance) {
+                    return instance;
+                }
+            }
+            final CuratorFramework instance = POOL.acquire(serverUrl);
+            if (leases.isEmpty()) {
+                SESSIONS.incrementAndGet();
+            }
+            leases.add(serverUrl);
+            return instance;
         }
-        return instance;
     }
 
     /**
-     * 销毁当前session关联的所有curator 实例.
+     * 归还当前session租用的所有curator 实例.
      *
      * @param session the http session
      */
     @SuppressWarnings("unchecked")
     public static void destroyIfNecessary(final HttpSession session) {
-        final Map<String, ?> instancesMap = (Map<String, ?>) session.getAttribute(ZK_INSTANCES_KEY);
-        if (null == instancesMap) {
+        final Set<String> leases = (Set<String>) session.getAttribute(ZK_LEASES_KEY);
+        if (null == leases) {
             return;
         }
-        for (final Map.Entry<String, ?> entry : instancesMap.entrySet()) {
-            final Object instance = entry.getValue();
-            if (instance instanceof CuratorFramework) {
+        synchronized (leases) {
+            if (!leases.isEmpty()) {
+                SESSIONS.decrementAndGet();
+            }
+            for (final String serverUrl : leases) {
                 if (LOGGER.isInfoEnabled()) {
-                    LOGGER.info("destroy curator instance: {} on session: {}", instance, session.getId());
+                    LOGGER.info("release curator instance: {} on session: {}", serverUrl, session.getId());
                 }
-                ((CuratorFramework) instance).close();
-            } else {
-                LOGGER.warn("unknown object({}) found in curator instances map", instance.getClass());
+                POOL.release(serverUrl);
             }
-            instancesMap.remove(entry.getKey());
+            leases.clear();
         }
     }
+
+    /**
+     * 关闭实例池中的所有 curator 实例.
+     */
+    public static void shutdown() {
+        POOL.shutdown();
+    }
 }
@@ -0,0 +1,305 @@
+package org.freework.zk.web.ui.util;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.retry.RetryNTimes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程级共享的 Curator 实例池.
+ * <p>
+ * 以规范化后的连接串为 key, 同一集群的所有会话共享一个 Curator 实例(一个 ZK 会话).
+ * 实例采用引用计数, 引用计数归零后超过空闲时间的实例会被后台线程关闭.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+public class CuratorPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CuratorPool.class);
+    private static final String URL_SCHEME = "zookeeper://";
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final ScheduledExecutorService evictor;
+    private volatile long idleTimeoutMs;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong leasesAcquired = new AtomicLong();
+    private final AtomicLong leasesReleased = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong connectLatencyTotalMs = new AtomicLong();
+    private final AtomicLong connectLatencyMaxMs = new AtomicLong();
+
+    public CuratorPool(final long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "curator-pool-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, 30, 30, TimeUnit.SECONDS);
+    }
+
+    public void setIdleTimeoutMs(final long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * 规范化 zookeeper 连接串: 去除 'zookeeper://' 前缀, 主机名小写并排序, 保留 chroot.
+     *
+     * @param zkUrl the zookeeper url
+     * @return 规范化后的连接串
+     */
+    public static String normalize(final String zkUrl) {
+        if (null == zkUrl) {
+            throw new IllegalArgumentException("zookeeper url must not be null");
+        }
+        String url = zkUrl.trim();
+        url = url.startsWith(URL_SCHEME) ? url.substring(URL_SCHEME.length()) : url;
+
+        final int slash = url.indexOf('/');
+        final String hosts = 0 > slash ? url : url.substring(0, slash);
+        final String chroot = 0 > slash || slash == url.length() - 1 ? "" : url.substring(slash);
+
+        final String[] segments = hosts.split(",");
+        final List<String> normalized = new ArrayList<String>(segments.length);
+        for (final String segment : segments) {
+            final String host = segment.trim().toLowerCase(Locale.ENGLISH);
+            if (!host.isEmpty()) {
+                normalized.add(host);
+            }
+        }
+        final String[] sorted = normalized.toArray(new String[normalized.size()]);
+        Arrays.sort(sorted);
+
+        final StringBuilder buff = new StringBuilder(url.length());
+        for (int i = 0; i < sorted.length; i++) {
+            buff.append(0 < i ? "," : "").append(sorted[i]);
+        }
+        return buff.append(chroot).toString();
+    }
+
+    /**
+     * 租用给定 key 的 curator 实例, 引用计数加一, 如果不存在则创建.
+     *
+     * @param key 规范化后的连接串
+     * @return the curator instance
+     */
+    public synchronized CuratorFramework acquire(final String key) {
+        Entry entry = entries.get(key);
+        if (null == entry) {
+            entry = new Entry(key);
+            entries.put(key, entry);
+        }
+        entry.refCount++;
+        leasesAcquired.incrementAndGet();
+        return entry.client;
+    }
+
+    /**
+     * 获取已租用的 curator 实例.
+     *
+     * @param key 规范化后的连接串
+     * @return the curator instance, 如果不存在返回 null
+     */
+    public synchronized CuratorFramework get(final String key) {
+        final Entry entry = entries.get(key);
+        return null != entry ? entry.client : null;
+    }
+
+    /**
+     * 归还租用的 curator 实例, 引用计数减一, 实例不会立即关闭.
+     *
+     * @param key 规范化后的连接串
+     */
+    public synchronized void release(final String key) {
+        final Entry entry = entries.get(key);
+        if (null == entry || 0 >= entry.refCount) {
+            LOGGER.warn("release unknown curator lease: {}", key);
+            return;
+        }
+        entry.refCount--;
+        leasesReleased.incrementAndGet();
+        if (0 == entry.refCount) {
+            entry.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 关闭引用计数为0且空闲超时的实例.
+     */
+    public void evictIdle() {
+        final List<Entry> expired = new ArrayList<Entry>();
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            final Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                final Entry entry = it.next();
+                if (0 == entry.refCount && now - entry.idleSince >= idleTimeoutMs) {
+                    it.remove();
+                    expired.add(entry);
+                }
+            }
+        }
+        for (final Entry entry : expired) {
+            if (LOGGER.isInfoEnabled()) {
+                LOGGER.info("evict idle curator instance: {}", entry.key);
+            }
+            entry.client.close();
+            evicted.incrementAndGet();
+        }
+    }
+
+    /**
+     * 关闭所有实例.
+     */
+    public void shutdown() {
+        evictor.shutdownNow();
+        final List<Entry> all;
+        synchronized (this) {
+            all = new ArrayList<Entry>(entries.values());
+            entries.clear();
+        }
+        for (final Entry entry : all) {
+            entry.client.close();
+        }
+    }
+
+    /**
+     * 池中的实例数.
+     *
+     * @return 实例数
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 所有实例的租用数之和.
+     *
+     * @return 租用数
+     */
+    public synchronized int activeLeases() {
+        int leases = 0;
+        for (final Entry entry : entries.values()) {
+            leases += entry.refCount;
+        }
+        return leases;
+    }
+
+    /**
+     * 连接池统计信息.
+     *
+     * @return 统计信息
+     */
+    public Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        final List<Map<String, Object>> clients = new ArrayList<Map<String, Object>>();
+        final long now = System.currentTimeMillis();
+        int activeLeases = 0;
+        synchronized (this) {
+            for (final Entry entry : entries.values()) {
+                final Map<String, Object> client = new LinkedHashMap<String, Object>();
+                client.put("connectString", entry.key);
+                client.put("state", entry.client.getState());
+                client.put("connected", entry.client.getZookeeperClient().isConnected());
+                client.put("leases", entry.refCount);
+                client.put("connectLatencyMs", entry.connectLatencyMs);
+                client.put("idleMs", 0 == entry.refCount ? now - entry.idleSince : 0);
+                clients.add(client);
+                activeLeases += entry.refCount;
+            }
+        }
+        final long connectCount = connects.get();
+        stats.put("size", clients.size());
+        stats.put("activeLeases", activeLeases);
+        stats.put("leasesAcquired", leasesAcquired.get());
+        stats.put("leasesReleased", leasesReleased.get());
+        stats.put("created", created.get());
+        stats.put("evicted", evicted.get());
+        stats.put("connects", connectCount);
+        stats.put("connectLatencyAvgMs", 0 < connectCount ? connectLatencyTotalMs.get() / connectCount : 0);
+        stats.put("connectLatencyMaxMs", connectLatencyMaxMs.get());
+        stats.put("clients", clients);
+        return stats;
+    }
+
+    /**
+     * 池中的实例及其引用计数.
+     */
+    private class Entry {
+        private final String key;
+        private final CuratorFramework client;
+        private final long createdAt = System.nanoTime();
+        private volatile long connectLatencyMs = -1;
+        private int refCount;
+        private long idleSince;
+
+        private Entry(final String key) {
+            this.key = key;
+            this.client = CuratorFrameworkFactory.builder()
+                    .connectString(key)
+                    // .retryPolicy(new RetryNTimes(Integer.MAX_VALUE, 1000))
+                    .retryPolicy(new RetryNTimes(10, 1000))
+                    .connectionTimeoutMs(5000)
+                    .build();
+            this.client.getZookeeperClient().setTracerDriver(new MeteredTracerDriver(Metrics.globalRegistry, key));
+            this.client.getConnectionStateListenable().addListener(new ConnectionStateListener() {
+                @Override
+                public void stateChanged(final CuratorFramework client, final ConnectionState newState) {
+                    if (ConnectionState.CONNECTED == newState) {
+                        onConnected(Entry.this);
+                    }
+                }
+            });
+            this.client.start();
+            created.incrementAndGet();
+        }
+    }
+
+    private void onConnected(final Entry entry) {
+        final long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - entry.createdAt);
+        entry.connectLatencyMs = latency;
+        connects.incrementAndGet();
+        connectLatencyTotalMs.addAndGet(latency);
+        Timer.builder("zk.web.ui.pool.connect")
+                .description("time from client creation to first connection")
+                .tag("cluster", entry.key)
+                .register(Metrics.globalRegistry)
+                .record(latency, TimeUnit.MILLISECONDS);
+        long max;
+        while (latency > (max = connectLatencyMaxMs.get()) && !connectLatencyMaxMs.compareAndSet(max, latency)) {
+            // retry
+        }
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("curator instance connected: {} in {}ms", entry.key, latency);
+        }
+    }
+}
@@ -5,6 +5,7 @@
  */
 package org.freework.zk.web.ui.util;
 
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -18,8 +19,9 @@ import freework.util.Throwables;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.ref.WeakReference;
 import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * 对 Jackson JSON Data Binding (De)Serialization 的简单封装
@@ -41,32 +43,32 @@ import java.lang.reflect.Type;
  */
 @SuppressWarnings({"unused"})
 public abstract class Jacksons {
-    /* mapper 是线程安全的且可以重用 */
-    private static volatile WeakReference<ObjectMapper> cache;
+    /*
+     * mapper 是线程安全的且可以重用, 强引用持有:
+     * mapper 内部缓存了序列化器, GC 后重建会丢失这些缓存.
+     */
+    private static volatile ObjectMapper cache;
     private static final Object mapperMonitor = new Object();
 
+    /* 按根类型缓存的 ObjectWriter, 根类型的序列化器已预先解析 */
+    private static final ConcurrentMap<Type, ObjectWriter> writers = new ConcurrentHashMap<Type, ObjectWriter>();
+
     /**
      * 获取该类中维护的Jackson ObjectMapper对象
      *
      * @return 内部维护的 Jackson ObjectMapper
      */
     public static ObjectMapper getJacksonMapper() {
-        WeakReference<ObjectMapper> ref = cache;
-        ObjectMapper mapper = null;
-
-        if (ref != null) {
-            mapper = ref.get();
-            if (mapper != null) {
-                return mapper;
-            }
+        ObjectMapper mapper = cache;
+        if (mapper != null) {
+            return mapper;
         }
 
         synchronized (mapperMonitor) {
-            ref = cache;
-            if (ref == null || ref.get() == null) {
-                mapper = new ObjectMapper();
-                mapper = initConfig(mapper);
-                cache = new WeakReference<ObjectMapper>(mapper);
+            mapper = cache;
+            if (mapper == null) {
+                mapper = initConfig(new ObjectMapper());
+                cache = mapper;
             }
         }
         return mapper;
@@ -162,6 +164,25 @@ public abstract class Jacksons {
         }
     }
 
+    /**
+     * Java Object --&gt; JSON (UTF-8), 使用给定的 ObjectWriter 直接写入输出流
+     * <p>
+     * 不生成中间字符串, 写入后 flush 但不关闭输出流.
+     *
+     * @param outputStream 输出流
+     * @param writer       ObjectWriter, 一般通过 {@link #writerFor(Type)} 获取
+     * @param object       要序列化的对象
+     */
+    public static void serialize(OutputStream outputStream, ObjectWriter writer, Object object) {
+        try {
+            final JsonGenerator generator = writer.getFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+            writer.writeValue(generator, object);
+            generator.flush();
+        } catch (IOException e) {
+            Throwables.unchecked(e);
+        }
+    }
+
     /**
      * Java Object --&gt; JSONP
      *
@@ -273,6 +294,23 @@ public abstract class Jacksons {
         return getJacksonMapper().writer();
     }
 
+    /**
+     * 获取给定根类型的 ObjectWriter
+     * 该方法返回缓存的ObjectWriter, 根类型的序列化器只在第一次获取时解析
+     *
+     * @param type 根类型
+     * @return ObjectWriter
+     */
+    public static ObjectWriter writerFor(Type type) {
+        ObjectWriter writer = writers.get(type);
+        if (writer == null) {
+            writer = getJacksonMapper().writerFor(constructType(type));
+            final ObjectWriter previous = writers.putIfAbsent(type, writer);
+            writer = previous != null ? previous : writer;
+        }
+        return writer;
+    }
+
     /**
      * 获取 ObjectReader, 以便做进一步的反序列化设置
      * 该方法始终返回一个新的基于Mapper配置的ObjectReader
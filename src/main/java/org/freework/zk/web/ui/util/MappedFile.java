@@ -0,0 +1,181 @@
+package org.freework.zk.web.ui.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 只读内存映射文件.
+ * <p>
+ * 单个 {@link java.nio.MappedByteBuffer} 最大 2GB, 这里按 1GB 分段映射, 使用 64 位绝对位置读取(大端序),
+ * 跨段的读取逐字节拼接. 读取不修改缓冲区的 position, 可以被多个线程同时使用.
+ * 映射在 {@link #close()} 时解除, 调用方需要保证关闭后不再读取(解除映射后的读取会使 JVM 崩溃);
+ * 无法解除时(或没有关闭时)在对象被回收时解除.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+public class MappedFile implements Closeable {
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final ByteBuffer[] segments;
+    private final long size;
+    private volatile boolean closed;
+
+    public MappedFile(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            this.size = channel.size();
+            this.segments = new ByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                final long start = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        } finally {
+            // 关闭通道不影响已建立的映射.
+            raf.close();
+        }
+    }
+
+    /**
+     * 文件大小.
+     *
+     * @return 字节数
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * 读取一个字节.
+     *
+     * @param pos 位置
+     * @return 字节
+     */
+    public byte get(final long pos) {
+        check(pos, 1);
+        return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & SEGMENT_MASK));
+    }
+
+    /**
+     * 读取一个 int.
+     *
+     * @param pos 位置
+     * @return int
+     */
+    public int getInt(final long pos) {
+        check(pos, 4);
+        final ByteBuffer segment = segments[(int) (pos >>> SEGMENT_BITS)];
+        final int offset = (int) (pos & SEGMENT_MASK);
+        if (offset + 4 <= segment.limit()) {
+            return segment.getInt(offset);
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (get(pos + i) & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * 读取一个 long.
+     *
+     * @param pos 位置
+     * @return long
+     */
+    public long getLong(final long pos) {
+        check(pos, 8);
+        final ByteBuffer segment = segments[(int) (pos >>> SEGMENT_BITS)];
+        final int offset = (int) (pos & SEGMENT_MASK);
+        if (offset + 8 <= segment.limit()) {
+            return segment.getLong(offset);
+        }
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (get(pos + i) & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * 读取给定长度的字节.
+     *
+     * @param pos 位置
+     * @param len 长度
+     * @return 字节数组
+     */
+    public byte[] get(final long pos, final int len) {
+        check(pos, len);
+        final byte[] bytes = new byte[len];
+        int done = 0;
+        while (done < len) {
+            final long p = pos + done;
+            final ByteBuffer segment = segments[(int) (p >>> SEGMENT_BITS)].duplicate();
+            segment.position((int) (p & SEGMENT_MASK));
+            final int n = Math.min(len - done, segment.remaining());
+            segment.get(bytes, done, n);
+            done += n;
+        }
+        return bytes;
+    }
+
+    /**
+     * 解除映射.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (final ByteBuffer segment : segments) {
+            unmap(segment);
+        }
+    }
+
+    /**
+     * 立即解除映射: Java 9 及以上使用 Unsafe.invokeCleaner, Java 8 使用 DirectBuffer.cleaner().
+     */
+    private static void unmap(final ByteBuffer buffer) {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = null;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (final NoSuchMethodException e) {
+                // Java 8.
+            }
+            if (null != invokeCleaner) {
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } else {
+                final Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                final Object c = cleaner.invoke(buffer);
+                if (null != c) {
+                    c.getClass().getMethod("clean").invoke(c);
+                }
+            }
+        } catch (final Exception e) {
+            // 无法立即解除, 在缓冲区被回收时解除.
+        }
+    }
+
+    private void check(final long pos, final int len) {
+        if (closed) {
+            throw new IllegalStateException("mapped file is closed");
+        }
+        if (0 > pos || 0 > len || pos + len > size) {
+            throw new IndexOutOfBoundsException("read " + len + " bytes at " + pos + ", file size: " + size);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.freework.zk.web.ui.util;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.curator.drivers.AdvancedTracerDriver;
+import org.apache.curator.drivers.EventTrace;
+import org.apache.curator.drivers.OperationTrace;
+import org.apache.zookeeper.KeeperException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 将 Curator 的操作跟踪记录为 micrometer 指标.
+ * <p>
+ * Curator 为每个 zookeeper 调用(包括后台调用)生成名为 "XxxBuilderImpl-Foreground/Background" 的跟踪,
+ * 按集群, 操作, 前台/后台和返回码记录耗时和响应字节数.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+class MeteredTracerDriver extends AdvancedTracerDriver {
+    static final String CALLS = "zk.web.ui.zk.calls";
+    static final String RESPONSE_BYTES = "zk.web.ui.zk.response.bytes";
+    static final String EVENTS = "zk.web.ui.zk.events";
+
+    private static final Map<String, String> OPERATIONS = new HashMap<String, String>();
+
+    static {
+        OPERATIONS.put("ExistsBuilderImpl", "checkExists");
+        OPERATIONS.put("GetDataBuilderImpl", "getData");
+        OPERATIONS.put("GetChildrenBuilderImpl", "getChildren");
+        OPERATIONS.put("CreateBuilderImpl", "create");
+        OPERATIONS.put("SetDataBuilderImpl", "setData");
+        OPERATIONS.put("DeleteBuilderImpl", "delete");
+    }
+
+    private final MeterRegistry registry;
+    private final String cluster;
+
+    MeteredTracerDriver(final MeterRegistry registry, final String cluster) {
+        this.registry = registry;
+        this.cluster = cluster;
+    }
+
+    @Override
+    public void addTrace(final OperationTrace trace) {
+        final String name = trace.getName();
+        final int index = name.indexOf('-');
+        final String builder = 0 < index ? name.substring(0, index) : name;
+        final String operation = OPERATIONS.containsKey(builder) ? OPERATIONS.get(builder) : builder;
+        final String mode = name.endsWith("-Background") ? "background" : "foreground";
+        final KeeperException.Code code = KeeperException.Code.get(trace.getReturnCode());
+        final String result = null != code ? code.name() : String.valueOf(trace.getReturnCode());
+
+        Timer.builder(CALLS)
+                .description("zookeeper calls")
+                .tag("cluster", cluster)
+                .tag("operation", operation)
+                .tag("mode", mode)
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(trace.getLatencyMs(), TimeUnit.MILLISECONDS);
+        if (0 < trace.getResponseBytesLength()) {
+            DistributionSummary.builder(RESPONSE_BYTES)
+                    .description("zookeeper response payload bytes")
+                    .baseUnit("bytes")
+                    .tag("cluster", cluster)
+                    .tag("operation", operation)
+                    .register(registry)
+                    .record(trace.getResponseBytesLength());
+        }
+    }
+
+    @Override
+    public void addEvent(final EventTrace trace) {
+        registry.counter(EVENTS, "cluster", cluster, "event", trace.getName()).increment();
+    }
+}
@@ -0,0 +1,173 @@
+package org.freework.zk.web.ui.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 逐条读取 properties 的 Reader.
+ * <p>
+ * 解析规则与 {@link java.util.Properties#load(Reader)} 完全一致(注释, 续行, 分隔符, 转义),
+ * 但不需要先把所有条目加载到内存中, 条目按文件中的顺序逐条返回, 与 {@link PropertiesWriter} 对应.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+public class PropertiesReader implements Closeable {
+    private final BufferedReader reader;
+    private final StringBuilder line = new StringBuilder(256);
+    private String key;
+    private String value;
+
+    public PropertiesReader(final Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * 读取下一个属性, 之后通过 {@link #key()} 和 {@link #value()} 获取.
+     *
+     * @return 是否读取到属性, 到达末尾时返回 false
+     * @throws IOException              如果IO发生异常
+     * @throws IllegalArgumentException 如果包含非法的 \\uxxxx 转义
+     */
+    public boolean next() throws IOException {
+        if (!readLogicalLine()) {
+            key = null;
+            value = null;
+            return false;
+        }
+        final int len = line.length();
+        int keyLen = 0;
+        int valueStart = len;
+        boolean hasSep = false;
+        boolean precedingBackslash = false;
+        while (keyLen < len) {
+            final char c = line.charAt(keyLen);
+            if ((c == '=' || c == ':') && !precedingBackslash) {
+                valueStart = keyLen + 1;
+                hasSep = true;
+                break;
+            } else if ((c == ' ' || c == '\t' || c == '\f') && !precedingBackslash) {
+                valueStart = keyLen + 1;
+                break;
+            }
+            precedingBackslash = c == '\\' && !precedingBackslash;
+            keyLen++;
+        }
+        while (valueStart < len) {
+            final char c = line.charAt(valueStart);
+            if (c != ' ' && c != '\t' && c != '\f') {
+                if (!hasSep && (c == '=' || c == ':')) {
+                    hasSep = true;
+                } else {
+                    break;
+                }
+            }
+            valueStart++;
+        }
+        key = loadConvert(line, 0, keyLen);
+        value = loadConvert(line, valueStart, len);
+        return true;
+    }
+
+    /**
+     * 当前属性名.
+     *
+     * @return 属性名
+     */
+    public String key() {
+        return key;
+    }
+
+    /**
+     * 当前属性值.
+     *
+     * @return 属性值
+     */
+    public String value() {
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * 读取一个逻辑行(合并续行, 跳过空行和注释, 去掉行首空白).
+     */
+    private boolean readLogicalLine() throws IOException {
+        line.setLength(0);
+        String physical;
+        boolean continuation = false;
+        while (null != (physical = reader.readLine())) {
+            int start = 0;
+            while (start < physical.length() && isWhitespace(physical.charAt(start))) {
+                start++;
+            }
+            if (!continuation && (start == physical.length() || physical.charAt(start) == '#' || physical.charAt(start) == '!')) {
+                continue;
+            }
+            int backslashes = 0;
+            for (int i = physical.length() - 1; i >= start && physical.charAt(i) == '\\'; i--) {
+                backslashes++;
+            }
+            continuation = 1 == (backslashes & 1);
+            line.append(physical, start, continuation ? physical.length() - 1 : physical.length());
+            if (!continuation) {
+                return true;
+            }
+        }
+        // 最后一行以续行符结束.
+        return continuation;
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+    /**
+     * 与 Properties#loadConvert 相同的反转义.
+     */
+    private static String loadConvert(final CharSequence in, final int from, final int to) {
+        final StringBuilder out = new StringBuilder(to - from);
+        int off = from;
+        while (off < to) {
+            char c = in.charAt(off++);
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            if (off == to) {
+                break;
+            }
+            c = in.charAt(off++);
+            if (c == 'u') {
+                if (off + 4 > to) {
+                    throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                }
+                int v = 0;
+                for (int i = 0; i < 4; i++) {
+                    final int digit = Character.digit(in.charAt(off++), 16);
+                    if (0 > digit) {
+                        throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                    }
+                    v = (v << 4) + digit;
+                }
+                out.append((char) v);
+            } else if (c == 't') {
+                out.append('\t');
+            } else if (c == 'r') {
+                out.append('\r');
+            } else if (c == 'n') {
+                out.append('\n');
+            } else if (c == 'f') {
+                out.append('\f');
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,153 @@
+package org.freework.zk.web.ui.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+/**
+ * 逐条写出 properties 的 Writer.
+ * <p>
+ * 输出格式与 {@link java.util.Properties#store(Writer, String)} 完全一致(注释, 日期行, 转义规则),
+ * 但不需要先把所有条目收集到内存中, 条目按调用顺序写出.
+ * </p>
+ *
+ * @author changhe.yang
+ */
+public class PropertiesWriter implements Flushable, Closeable {
+    private static final char[] HEX_DIGIT = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+
+    private final BufferedWriter writer;
+
+    public PropertiesWriter(final Writer writer) {
+        this.writer = writer instanceof BufferedWriter ? (BufferedWriter) writer : new BufferedWriter(writer);
+    }
+
+    /**
+     * 写出注释(如果不为 null)和日期行.
+     *
+     * @param comments 注释
+     * @throws IOException 如果IO发生异常
+     */
+    public void writeHeader(final String comments) throws IOException {
+        if (null != comments) {
+            writeComments(comments);
+        }
+        writer.write("#" + new Date().toString());
+        writer.newLine();
+    }
+
+    /**
+     * 写出一个属性.
+     *
+     * @param key   属性名
+     * @param value 属性值
+     * @throws IOException 如果IO发生异常
+     */
+    public void write(final String key, final String value) throws IOException {
+        writer.write(saveConvert(key, true));
+        writer.write('=');
+        writer.write(saveConvert(value, false));
+        writer.newLine();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void writeComments(final String comments) throws IOException {
+        writer.write("#");
+        final int len = comments.length();
+        int current = 0;
+        int last = 0;
+        final char[] uu = new char[6];
+        uu[0] = '\\';
+        uu[1] = 'u';
+        while (current < len) {
+            final char c = comments.charAt(current);
+            if (c > '\u00ff' || c == '\n' || c == '\r') {
+                if (last != current) {
+                    writer.write(comments.substring(last, current));
+                }
+                if (c > '\u00ff') {
+                    uu[2] = HEX_DIGIT[(c >> 12) & 0xF];
+                    uu[3] = HEX_DIGIT[(c >> 8) & 0xF];
+                    uu[4] = HEX_DIGIT[(c >> 4) & 0xF];
+                    uu[5] = HEX_DIGIT[c & 0xF];
+                    writer.write(new String(uu));
+                } else {
+                    writer.newLine();
+                    if (c == '\r' && current != len - 1 && comments.charAt(current + 1) == '\n') {
+                        current++;
+                    }
+                    if (current == len - 1 || (comments.charAt(current + 1) != '#' && comments.charAt(current + 1) != '!')) {
+                        writer.write("#");
+                    }
+                }
+                last = current + 1;
+            }
+            current++;
+        }
+        if (last != current) {
+            writer.write(comments.substring(last, current));
+        }
+        writer.newLine();
+    }
+
+    /**
+     * 与 Properties#saveConvert(escapeUnicode = false) 相同的转义.
+     */
+    private static String saveConvert(final String text, final boolean escapeSpace) {
+        final int len = text.length();
+        final StringBuilder buff = new StringBuilder(len + 16);
+        for (int x = 0; x < len; x++) {
+            final char c = text.charAt(x);
+            if (c > 61 && c < 127) {
+                if (c == '\\') {
+                    buff.append('\\');
+                }
+                buff.append(c);
+                continue;
+            }
+            switch (c) {
+                case ' ':
+                    if (x == 0 || escapeSpace) {
+                        buff.append('\\');
+                    }
+                    buff.append(' ');
+                    break;
+                case '\t':
+                    buff.append("\\t");
+                    break;
+                case '\n':
+                    buff.append("\\n");
+                    break;
+                case '\r':
+                    buff.append("\\r");
+                    break;
+                case '\f':
+                    buff.append("\\f");
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    buff.append('\\').append(c);
+                    break;
+                default:
+                    buff.append(c);
+            }
+        }
+        return buff.toString();
+    }
+}
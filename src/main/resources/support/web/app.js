@@ -56,6 +56,396 @@ var ZK_ALL_URLS = (function (matches) {
         doExpand($jstree, childs.shift(), childs);
     }
 
+    /**
+     * 分页获取子节点, 每页最多 PAGE_SIZE 个.
+     */
+    var PAGE_SIZE = 500;
+
+    /**
+     * 列表中节点数据最多返回 PREVIEW_SIZE 个字节, 完整数据在编辑时获取.
+     */
+    var PREVIEW_SIZE = 1024;
+
+    /**
+     * 节点加载后在后台预取下一层(depth=2), 最多 PREFETCH_BUDGET 个节点, 预取的结果保留 PREFETCH_TTL 毫秒.
+     */
+    var PREFETCH_BUDGET = 2000, PREFETCH_TTL = 10000, prefetched = {};
+
+    /**
+     * 节点数据使用 utf8 编码: 合法的 UTF-8 数据为原始字符串, 否则为 "0x" 开始的十六进制.
+     */
+    function display(n) {
+        var decoded = decode(n.value), value = decoded ? decoded : n.value;
+        value = n.length < 0 ? '(数据未设置)' : (0 === n.length ? '(空)' : value);
+        return n.truncated ? (value || '') + '…' : value;
+    }
+
+    function fetchChildren(serverUrl, path, cursor, done) {
+        $.ajax({
+            url: '.' + path,
+            type: 'GET',
+            dataType: 'json',
+            data: cursor ? {limit: PAGE_SIZE, preview: PREVIEW_SIZE, encoding: 'utf8', cursor: cursor} : {limit: PAGE_SIZE, preview: PREVIEW_SIZE, encoding: 'utf8'},
+            headers: {zkUrl: serverUrl}
+        }).done(done);
+    }
+
+    /**
+     * 后台预取子节点的子节点(一次请求), 展开子节点时直接使用; 子节点超过一页的节点仍然分页加载.
+     */
+    function prefetch(serverUrl, path) {
+        $.ajax({
+            url: '.' + path,
+            type: 'GET',
+            dataType: 'json',
+            data: {depth: 2, budget: PREFETCH_BUDGET, preview: PREVIEW_SIZE, encoding: 'utf8'},
+            headers: {zkUrl: serverUrl}
+        }).done(function (views) {
+            var i, children, now = new Date().getTime();
+            for (i = 0; i < views.length; i++) {
+                children = views[i].children;
+                if (children && children.length <= PAGE_SIZE) {
+                    prefetched[serverUrl + views[i].path] = {time: now, page: {total: children.length, offset: 0, items: children}};
+                }
+            }
+        });
+    }
+
+    /**
+     * 取出预取的子节点(只使用一次), 没有或已过期时返回 null.
+     */
+    function takePrefetched(serverUrl, path) {
+        var key = serverUrl + path, entry = prefetched[key];
+        delete prefetched[key];
+        return entry && new Date().getTime() - entry.time < PREFETCH_TTL ? entry.page : null;
+    }
+
+    /**
+     * 递归删除子树: 先统计节点数并确认, 删除进度(NDJSON)显示在状态栏.
+     */
+    function deleteRecursive(serverUrl, path, done) {
+        $.ajax({
+            url: '.' + path + '?recursive&dryRun',
+            type: 'DELETE',
+            dataType: 'json',
+            headers: {zkUrl: serverUrl}
+        }).done(function (count) {
+            if (count.exceeded) {
+                alert(count.message);
+                return;
+            }
+            if (!window.confirm('Delete "' + path + '" and all ' + (count.nodes - 1) + ' descendant(s) ?')) {
+                return;
+            }
+            var xhr = new XMLHttpRequest(), seen = 0;
+
+            function consume() {
+                var lines = xhr.responseText.substring(seen).split('\n'), i, line, last = null;
+                for (i = 0; i < lines.length - 1; i++) {
+                    seen += lines[i].length + 1;
+                    line = JSON.parse(lines[i]);
+                    if ('scan' === line.phase) {
+                        $statusbar.text('Deleting ' + path + ': 0 / ' + line.nodes);
+                    } else if ('delete' === line.phase) {
+                        $statusbar.text('Deleting ' + path + ': ' + line.deleted + ' / ' + line.total + (line.missing ? ', already deleted: ' + line.missing : '') + (line.failed ? ', failed: ' + line.failed : ''));
+                    } else {
+                        last = line;
+                    }
+                }
+                return last;
+            }
+
+            xhr.open('DELETE', '.' + path + '?recursive');
+            xhr.setRequestHeader('zkUrl', serverUrl);
+            xhr.onprogress = consume;
+            xhr.onload = function () {
+                var result = consume();
+                if (result) {
+                    $statusbar.text(result.message);
+                    result.success ? done() : alert(result.message);
+                }
+            };
+            xhr.send();
+        });
+    }
+
+    function toNodes(parent, serverUrl, path, data) {
+        var n, index, nodes = [], leafs = [], i, items = data.items;
+        for (i = 0; i < items.length; i++) {
+            n = items[i];
+            index = n.path.lastIndexOf('/');
+            n.id = serverUrl + n.path;
+            n.type = n.ephemeralOwner && 0 !== n.ephemeralOwner ? 'EPHEMERAL' : 'PERSISTENT';
+            n.text = n.path.substring(index + 1);
+            n.value = n.data;
+            n.children = 0 < n.items;
+
+            if (n.children) {
+                nodes.push(n);
+            } else {
+                leafs.push(n);
+            }
+            parent.original[n.path] = n;
+        }
+        nodes.sort(function (n1, n2) {
+            return n1.id >= n2.id ? 1 : -1;
+        });
+        leafs.sort(function (n1, n2) {
+            return n1.id >= n2.id ? 1 : -1;
+        });
+        if (data.next) {
+            // 还有下一页, 添加 '更多' 节点, 选中时加载下一页.
+            nodes.push({
+                id: parent.id + '#more',
+                text: '更多... (' + (data.offset + items.length) + '/' + data.total + ')',
+                path: path,
+                more: data.next,
+                serverUrl: serverUrl,
+                children: false
+            });
+        }
+        return {nodes: nodes, leafs: leafs};
+    }
+
+    function loadMore(instance, more) {
+        var parent = instance.get_node(more.parent), m = more.original;
+        if (m.loading) {
+            return;
+        }
+        m.loading = true;
+        fetchChildren(m.serverUrl, m.path, m.more, function (data) {
+            var page = toNodes(parent, m.serverUrl, m.path, data), i;
+            instance.delete_node(more);
+            for (i = 0; i < page.nodes.length; i++) {
+                instance.create_node(parent, page.nodes[i], 'last');
+            }
+            parent.original.leafs = (parent.original.leafs || []).concat(page.leafs);
+            instance.deselect_all();
+            instance.select_node(parent);
+        });
+    }
+
+    /**
+     * 节点变更推送: 每个 zookeeper 一个事件流(Server-Sent Events), 订阅的路径按引用计数, 增减合并后提交.
+     * 连接(或重新连接)后服务端返回新的 stream id, 重新订阅所有路径.
+     */
+    function ChangeStream(serverUrl, handler) {
+        var me = this;
+        me.counts = {};
+        me.pending = {add: [], remove: []};
+        me.source = new EventSource('./?events&zkUrl=' + encodeURIComponent(serverUrl));
+        me.source.addEventListener('stream', function (event) {
+            me.id = JSON.parse(event.data).stream;
+            me.pending = {add: Object.keys(me.counts), remove: []};
+            me.flush();
+        });
+        $.each(['created', 'deleted', 'data', 'children', 'resync'], function (i, type) {
+            me.source.addEventListener(type, function (event) {
+                handler(JSON.parse(event.data));
+            });
+        });
+    }
+
+    ChangeStream.prototype = {
+        constructor: ChangeStream,
+        watch: function (path) {
+            this.counts[path] = (this.counts[path] || 0) + 1;
+            if (1 === this.counts[path]) {
+                this.pending.add.push(path);
+                this.schedule();
+            }
+        },
+        unwatch: function (path) {
+            if (this.counts[path] && 0 === --this.counts[path]) {
+                delete this.counts[path];
+                this.pending.remove.push(path);
+                this.schedule();
+            }
+        },
+        schedule: function () {
+            var me = this;
+            me.timer || (me.timer = setTimeout(function () {
+                me.timer = null;
+                me.flush();
+            }, 50));
+        },
+        flush: function () {
+            var pending = this.pending;
+            if (!this.id || (0 === pending.add.length && 0 === pending.remove.length)) {
+                return;
+            }
+            this.pending = {add: [], remove: []};
+            $.ajax({
+                url: './?watch',
+                type: 'POST',
+                dataType: 'json',
+                traditional: true,
+                data: {stream: this.id, add: pending.add, remove: pending.remove}
+            });
+        }
+    };
+
+    var streams = {};
+
+    function streamOf(serverUrl) {
+        if (!window.EventSource || 0 === serverUrl.indexOf('snapshot:')) {
+            // 不支持 EventSource 或离线快照, 不推送.
+            return {watch: $.noop, unwatch: $.noop};
+        }
+        return streams[serverUrl] || (streams[serverUrl] = new ChangeStream(serverUrl, function (change) {
+            onChange(serverUrl, change);
+        }));
+    }
+
+    function locate(node) {
+        return '#' === node.parent
+            ? {serverUrl: node.id, path: '/'}
+            : {serverUrl: node.parents[node.parents.length - 2], path: node.original.path};
+    }
+
+    function encodePath(path) {
+        var segments = path.substring(1).split('/'), i;
+        for (i = 0; i < segments.length; i++) {
+            segments[i] = encodeURIComponent(segments[i]);
+        }
+        return '/' + segments.join('/');
+    }
+
+    /**
+     * 选中的节点和它的前 WATCH_LEAFS 个叶子节点(表格中的行)订阅数据变更.
+     */
+    var WATCH_LEAFS = 100, selection = null;
+
+    function watchSelection(node) {
+        var located = locate(node), leafs = node.original.leafs || [], paths = [located.path], i;
+        for (i = 0; i < leafs.length && i < WATCH_LEAFS; i++) {
+            paths.push(leafs[i].path);
+        }
+        if (selection) {
+            for (i = 0; i < selection.paths.length; i++) {
+                streamOf(selection.serverUrl).unwatch(selection.paths[i]);
+            }
+        }
+        for (i = 0; i < paths.length; i++) {
+            streamOf(located.serverUrl).watch(paths[i]);
+        }
+        selection = {serverUrl: located.serverUrl, paths: paths};
+    }
+
+    function idOf(serverUrl, path) {
+        return '/' === path ? serverUrl : serverUrl + path;
+    }
+
+    function parentOf(path) {
+        var index = path.lastIndexOf('/');
+        return 0 < index ? path.substring(0, index) : '/';
+    }
+
+    /**
+     * 重新显示选中节点的表格.
+     */
+    function redisplay(instance, node) {
+        if (instance.is_selected(node)) {
+            instance.deselect_all();
+            instance.select_node(node);
+        }
+    }
+
+    function onChange(serverUrl, change) {
+        var instance = $jstree.jstree(true), node = instance.get_node(idOf(serverUrl, change.path)), i;
+        if ('resync' === change.type) {
+            // 有变更被丢弃, 重新加载.
+            instance.refresh(true);
+        } else if ('deleted' === change.type) {
+            removeChild(instance, serverUrl, change.path);
+        } else if ('children' === change.type && node) {
+            if (20 < change.added.length || !instance.is_loaded(node)) {
+                instance.refresh_node(node);
+                return;
+            }
+            for (i = 0; i < change.removed.length; i++) {
+                removeChild(instance, serverUrl, ('/' === change.path ? '' : change.path) + '/' + change.removed[i]);
+            }
+            for (i = 0; i < change.added.length; i++) {
+                addChild(instance, serverUrl, node, ('/' === change.path ? '' : change.path) + '/' + change.added[i]);
+            }
+        } else if ('data' === change.type) {
+            updateData(instance, serverUrl, change.path);
+        }
+    }
+
+    function removeChild(instance, serverUrl, path) {
+        var id = idOf(serverUrl, path), parent = instance.get_node(idOf(serverUrl, parentOf(path))), leafs, i;
+        if (parent && parent.original) {
+            leafs = parent.original.leafs || [];
+            for (i = 0; i < leafs.length; i++) {
+                if (path === leafs[i].path) {
+                    leafs.splice(i, 1);
+                    break;
+                }
+            }
+            delete parent.original[path];
+        }
+        $tbody.find('tr[data-id="' + id + '"]').remove();
+        if (instance.get_node(id)) {
+            streamOf(serverUrl).unwatch(path);
+            instance.delete_node(id);
+        }
+    }
+
+    function addChild(instance, serverUrl, parent, path) {
+        $.ajax({
+            url: '.' + encodePath(path) + '?data&encoding=utf8',
+            type: 'GET',
+            dataType: 'json',
+            headers: {zkUrl: serverUrl}
+        }).done(function (n) {
+            var page = toNodes(parent, serverUrl, parentOf(path), {items: [n]}), i;
+            if (instance.get_node(n.id)) {
+                return;
+            }
+            if (0 < page.nodes.length) {
+                for (i = 0; i < parent.children.length; i++) {
+                    if (n.id < parent.children[i]) {
+                        break;
+                    }
+                }
+                instance.create_node(parent, n, i);
+            } else {
+                parent.original.leafs = (parent.original.leafs || []).concat(page.leafs).sort(function (n1, n2) {
+                    return n1.id >= n2.id ? 1 : -1;
+                });
+                redisplay(instance, parent);
+            }
+        });
+    }
+
+    function updateData(instance, serverUrl, path) {
+        var id = idOf(serverUrl, path), node = instance.get_node(id),
+            parent = instance.get_node(idOf(serverUrl, parentOf(path))),
+            n = node && node.original ? node.original : (parent && parent.original ? parent.original[path] : null);
+        if (!n || '/' === path) {
+            return;
+        }
+        $.ajax({
+            url: '.' + encodePath(path) + '?data&encoding=utf8',
+            type: 'GET',
+            dataType: 'json',
+            headers: {zkUrl: serverUrl}
+        }).done(function (data) {
+            var $cell = $tbody.find('tr[data-id="' + id + '"] td.col-value');
+            n.value = n.data = data.data;
+            n.length = data.length;
+            n.version = data.version;
+            n.truncated = false;
+            if (node) {
+                redisplay(instance, node);
+            } else if ($cell.length && !$cell.hasClass('dirty-value') && !$cell.find('input').length) {
+                $cell.text(display(n)).closest('tr').removeAttr('data-truncated');
+            }
+        });
+    }
+
     ZK_URLS = '[object Array]' === Object.prototype.toString.call(ZK_URLS) ? ZK_URLS : [ZK_URLS];
     if (!ZK_URLS || 1 > ZK_URLS.length) {
         jQuery('.input-box').removeClass('hide');
@@ -85,25 +475,27 @@ var ZK_ALL_URLS = (function (matches) {
         return false;
     }).on('select_node.jstree refresh_node.jstree', function (event, data) {
         var instance = $.jstree.reference(this);
+        if (data.node.original.more) {
+            loadMore(instance, data.node);
+            return;
+        }
 
         function cb(node, loaded) {
-            var n = node.original, value = n.value, decoded = decode(value), leafs = n.leafs || [], i,
+            var n = node.original, value = display(n), leafs = n.leafs || [], i,
                 root = node.parents[node.parents.length - 2] || node.id;
-            value = n.length < 0 ? '(数据未设置)' : (0 === n.length ? '(空)' : (decoded ? decoded : value));
 
             $tbody.children().remove();
             if ('#' !== node.parent) {
-                $('<tr data-type="parent" data-id="' + n.id + '" data-path="' + n.path + '" data-root="' + root + '"><td><i class="icon icon-txt"></i>(默认)</td><td>' + n.type + '</td><td class="col-value">' + value + '</td></tr>').appendTo($tbody);
+                $('<tr data-type="parent" data-id="' + n.id + '" data-path="' + n.path + '" data-root="' + root + '"' + (n.truncated ? ' data-truncated="true"' : '') + '><td><i class="icon icon-txt"></i>(默认)</td><td>' + n.type + '</td><td class="col-value">' + value + '</td></tr>').appendTo($tbody);
             }
 
             for (i = 0; i < leafs.length; i++) {
-                value = leafs[i].value;
-                decoded = decode(value);
-                value = leafs[i].length < 0 ? '(数据未设置)' : (0 === leafs[i].length ? '(空)' : (decoded ? decoded : value));
-                $('<tr data-id="' + leafs[i].id + '" data-path="' + leafs[i].path + '" data-root="' + root + '"><td><i class="icon icon-txt"></i>' + leafs[i].text + '</td><td>' + leafs[i].type + '</td><td class="col-value">' + value + '</td></tr>').appendTo($tbody);
+                value = display(leafs[i]);
+                $('<tr data-id="' + leafs[i].id + '" data-path="' + leafs[i].path + '" data-root="' + root + '"' + (leafs[i].truncated ? ' data-truncated="true"' : '') + '><td><i class="icon icon-txt"></i>' + leafs[i].text + '</td><td>' + leafs[i].type + '</td><td class="col-value">' + value + '</td></tr>').appendTo($tbody);
 
                 instance.delete_node(leafs[i].id);
             }
+            watchSelection(node);
         }
 
         if (!instance.is_loaded(data.node) && !instance.is_loading(data.node)) {
@@ -113,6 +505,13 @@ var ZK_ALL_URLS = (function (matches) {
         }
 
         $statusbar.text(data.node.original.path);
+    }).on('after_open.jstree', function (event, data) {
+        /*! watch children and data of opened nodes. */
+        var located = locate(data.node);
+        streamOf(located.serverUrl).watch(located.path);
+    }).on('after_close.jstree', function (event, data) {
+        var located = locate(data.node);
+        streamOf(located.serverUrl).unwatch(located.path);
     }).on('delete_node.jstree', function (event, data) {
         /*! select parent when delete node is selected. */
         if (data.instance.is_selected(data.node)) {
@@ -144,7 +543,7 @@ var ZK_ALL_URLS = (function (matches) {
                     }
                     cb.call(this, roots);
                 } else {
-                    var path, serverUrl, segments = [], i, pathNodes;
+                    var path, serverUrl, segments = [], i, pathNodes, page;
                     if ('#' === node.parent) {
                         path = '/';
                         serverUrl = node.original.path;
@@ -157,37 +556,19 @@ var ZK_ALL_URLS = (function (matches) {
                         serverUrl = node.parents[node.parents.length - 2];
                     }
 
-                    $.ajax({
-                        url: '.' + path,
-                        type: 'GET',
-                        dataType: 'json',
-                        headers: {zkUrl: serverUrl}
-                    }).done(function (data) {
-                        var n, index, nodes = [], leafs = [], i;
-                        for (i = 0; i < data.length; i++) {
-                            n = data[i];
-                            index = n.path.lastIndexOf('/');
-                            n.id = serverUrl + n.path;
-                            n.type = n.ephemeralOwner && 0 !== n.ephemeralOwner ? 'EPHEMERAL' : 'PERSISTENT';
-                            n.text = n.path.substring(index + 1);
-                            n.value = n.data;
-                            n.children = 0 < n.items;
-
-                            if (n.children) {
-                                nodes.push(n);
-                            } else {
-                                leafs.push(n);
-                            }
-                            node.original[n.path] = n;
-                        }
-                        nodes.sort(function (n1, n2) {
-                            return n1.id >= n2.id ? 1 : -1;
-                        });
-                        leafs.sort(function (n1, n2) {
-                            return n1.id >= n2.id ? 1 : -1;
-                        });
-                        node.original.leafs = leafs;
-                        cb(nodes);
+                    page = '#' !== node.parent ? takePrefetched(serverUrl, node.original.path) : null;
+                    if (page) {
+                        page = toNodes(node, serverUrl, path, page);
+                        node.original.leafs = page.leafs;
+                        cb(page.nodes);
+                        0 < page.nodes.length && prefetch(serverUrl, path);
+                        return;
+                    }
+                    fetchChildren(serverUrl, path, null, function (data) {
+                        var page = toNodes(node, serverUrl, path, data);
+                        node.original.leafs = page.leafs;
+                        cb(page.nodes);
+                        !data.next && 0 < page.nodes.length && prefetch(serverUrl, path);
                     });
                 }
             }
@@ -197,7 +578,22 @@ var ZK_ALL_URLS = (function (matches) {
 
     /* leafs - table [[ */
     $tbody.on('dblclick', 'td.col-value', function (event) {
-        var el = this, text;
+        var el = this, text, $tr = $(el).closest('tr');
+        if ('true' === $tr.attr('data-truncated')) {
+            // 列表中只有部分数据, 编辑前获取完整数据.
+            $.ajax({
+                url: '.' + $tr.attr('data-path') + '?data&encoding=utf8',
+                type: 'GET',
+                dataType: 'json',
+                headers: {zkUrl: $tr.attr('data-root')}
+            }).done(function (data) {
+                data.value = data.data;
+                el.textContent = display(data);
+                $tr.removeAttr('data-truncated');
+                $(el).trigger('dblclick');
+            });
+            return;
+        }
         if (1 === el.childNodes.length && Node.TEXT_NODE === el.firstChild.nodeType) {
             if (!el.hasAttribute('data-snap')) {
                 text = el.firstChild.textContent;
@@ -272,8 +668,13 @@ var ZK_ALL_URLS = (function (matches) {
 
             if ($selected.is('[data-type="parent"]')) {
                 if (0 < $selected.siblings().length || 0 < parentNode.children.length) {
-                    // TODO remove all children first.
-                    alert('请先删除子节点');
+                    deleteRecursive(serverUrl, path, function () {
+                        $selected.remove();
+                        $jstree.jstree().delete_node(path, function () {
+                            $jstree.jstree().refresh_node(parent);
+                        });
+                        $jstree.jstree().refresh_node(parent);
+                    });
                     return;
                 }
                 // no children, remove the parent from table and remove parent from jstree. // TODO ajax remove
@@ -376,35 +777,37 @@ var ZK_ALL_URLS = (function (matches) {
     /* global shortcut. */
     Shortcut(document.body).all({
         'Alt + S': function (event) {
-            // Alt + S, save all dirty data.
-            var $td = $('.leaf-table tr td.dirty-value');
-            if (0 < $td.length) {
-                // TODO show loading
-                $td.each(function (index, el) {
-                    var path = $(el).closest('tr').attr('data-path'),
-                        id = $(el).closest('tr').attr('data-id'),
-                        value = el.getAttribute('data-value');
-                    var idx = id.lastIndexOf('/'), parent = 0 < idx ? id.substring(0, idx) : '/';
-                    var parentNode = $jstree.jstree().get_node(parent), i;
-                    var serverUrl = parentNode.parents[parentNode.parents.length - 2] || parent;
+            // Alt + S, save all dirty data, one transaction per zookeeper.
+            var batches = {};
 
-                    $.ajax({
-                        url: '.' + path,
-                        type: 'POST',
-                        dataType: 'json',
-                        headers: {zkUrl: serverUrl},
-                        data: {value: value}
-                    }).done(function (data) {
-                        var n = $jstree.jstree().get_node(path.substring(0, path.lastIndexOf('/')));
-                        if (data.success) {
-                            n && n.original && n.original[path] && (n.original[path].value = value);
-                            el.removeAttribute('data-snap');
-                            el.className = el.className.replace(/dirty-value/g, '');
-                        }
-                    });
-                });
+            function batchOf(serverUrl) {
+                return batches[serverUrl] || (batches[serverUrl] = {ops: [], done: []});
             }
 
+            $('.leaf-table tr td.dirty-value').each(function (index, el) {
+                var path = $(el).closest('tr').attr('data-path'),
+                    id = $(el).closest('tr').attr('data-id'),
+                    value = el.getAttribute('data-value');
+                var idx = id.lastIndexOf('/'), parent = 0 < idx ? id.substring(0, idx) : '/';
+                var parentNode = $jstree.jstree().get_node(parent);
+                var serverUrl = parentNode.parents[parentNode.parents.length - 2] || parent;
+                var n = $jstree.jstree().get_node(path.substring(0, path.lastIndexOf('/'))),
+                    leaf = n && n.original && n.original[path], batch = batchOf(serverUrl);
+
+                // 使用列表中的版本, 节点已被其他人修改时整个事务失败.
+                batch.ops.push(leaf && 'number' === typeof leaf.version
+                    ? {op: 'setData', path: path, value: value, version: leaf.version}
+                    : {op: 'setData', path: path, value: value});
+                batch.done.push(function (result) {
+                    if (leaf) {
+                        leaf.value = value;
+                        'number' === typeof result.version && (leaf.version = result.version);
+                    }
+                    el.removeAttribute('data-snap');
+                    el.className = el.className.replace(/dirty-value/g, '');
+                });
+            });
+
             $('.leaf-table tr.dirty-row').each(function (index, tr) {
                 var path = $(tr).siblings('[data-type=parent]').attr('data-path');
                 var id = $(tr).siblings('[data-type=parent]').attr('data-id');
@@ -416,15 +819,14 @@ var ZK_ALL_URLS = (function (matches) {
                 var name = $(tr).find('input[name=name]').val();
                 var type = $(tr).find('select[name=type]').val();
                 var value = $(tr).find('input[name=value]').val();
-                console.log(name, type, value)
 
-                $.ajax({
-                    url: '.' + path + '/' + name,
-                    type: 'PUT',
-                    dataType: 'json',
-                    headers: {zkUrl: serverUrl},
-                    data: {type: type, value: value}
-                }).done(function (data) {
+                batchOf(serverUrl).ops.push({
+                    op: 'create',
+                    path: ('/' === path ? '' : path) + '/' + name,
+                    value: value,
+                    mode: '0' === type ? 'persistent' : 'ephemeral'
+                });
+                batchOf(serverUrl).done.push(function () {
                     for (i = 0; i < parentNode.original.leafs.length; i++) {
                         if (path === parentNode.original.leafs[i].path) {
                             parentNode.original.leafs.splice(i, 1);
@@ -435,6 +837,26 @@ var ZK_ALL_URLS = (function (matches) {
                     $(tr).addClass('selected').focus().siblings().removeClass('selected');
                 });
             });
+
+            $.each(batches, function (serverUrl, batch) {
+                $.ajax({
+                    url: './?batch',
+                    type: 'POST',
+                    contentType: 'application/json;charset=UTF-8',
+                    dataType: 'json',
+                    headers: {zkUrl: serverUrl},
+                    data: JSON.stringify(batch.ops)
+                }).done(function (data) {
+                    var i;
+                    if (!data.success) {
+                        alert(data.message);
+                        return;
+                    }
+                    for (i = 0; i < batch.done.length; i++) {
+                        batch.done[i](data.results[i]);
+                    }
+                });
+            });
             event.preventDefault();
         },
         'Alt + E': function (event) {
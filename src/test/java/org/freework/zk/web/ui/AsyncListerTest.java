@@ -0,0 +1,143 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * {@link AsyncLister} 测试.
+ *
+ * @author changhe.yang
+ */
+public class AsyncListerTest {
+    private static final int CHILDREN = 25;
+
+    @Rule
+    public final EmbeddedZooKeeper zk = new EmbeddedZooKeeper();
+
+    private CuratorFramework client;
+    private AsyncLister lister;
+
+    @Before
+    public void setUp() throws Exception {
+        client = zk.client();
+        for (int i = 0; i < CHILDREN; i++) {
+            client.create().creatingParentsIfNeeded().forPath(String.format("/p/n%02d", i), ("v" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        // 流水线窗口小于子节点数.
+        lister = new AsyncLister(4);
+    }
+
+    @Test
+    public void listsAllChildrenInOrder() throws Exception {
+        final Stat stat = new Stat();
+        final ZookeeperWebUiServlet.View[] views = get(lister.lsAsync(client, "/p", -1, null, stat));
+        assertEquals(CHILDREN, views.length);
+        assertEquals(CHILDREN, stat.getNumChildren());
+        for (int i = 0; i < CHILDREN; i++) {
+            assertEquals(String.format("/p/n%02d", i), views[i].getPath());
+        }
+        assertEquals(0, ls("/p/n00", -1).length);
+    }
+
+    @Test
+    public void pagesWithCursor() throws Exception {
+        final List<String> paths = new ArrayList<String>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            final ZookeeperWebUiServlet.Page page = page(cursor, 0, -1);
+            assertEquals(CHILDREN, page.getTotal());
+            assertEquals(pages * 10, page.getOffset());
+            for (final ZookeeperWebUiServlet.View view : page.getItems()) {
+                paths.add(view.getPath());
+            }
+            cursor = page.getNext();
+            pages++;
+        } while (null != cursor);
+        assertEquals(3, pages);
+        assertEquals(paths(ls("/p", 0)), paths);
+    }
+
+    @Test
+    public void cursorSurvivesDeletion() throws Exception {
+        final ZookeeperWebUiServlet.Page first = page(null, 0, 0);
+        assertNotNull(first.getNext());
+        // 删除已返回的子节点不影响下一页的起始位置.
+        client.delete().forPath("/p/n03");
+        final ZookeeperWebUiServlet.Page second = page(first.getNext(), 0, 0);
+        assertEquals("/p/n10", second.getItems()[0].getPath());
+        assertEquals(CHILDREN - 1, second.getTotal());
+    }
+
+    @Test
+    public void offsetPagingMatchesStaticPaging() throws Exception {
+        final ZookeeperWebUiServlet.View[] all = ls("/p", -1);
+        final ZookeeperWebUiServlet.Page live = page(null, 20, -1);
+        final ZookeeperWebUiServlet.Page cached = AsyncLister.page("/p", all, null, 20, 10);
+        assertEquals(paths(cached.getItems()), paths(live.getItems()));
+        assertNull(live.getNext());
+        assertNull(cached.getNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIllegalCursor() throws Exception {
+        page("not a cursor!", 0, 0);
+    }
+
+    @Test
+    public void skipsMissingNodes() throws Exception {
+        final AsyncLister.Result[] results = get(lister.getDataAsync(client, Arrays.asList("/p/n01", "/p/missing", "/p/n02"), null));
+        assertEquals(3, results.length);
+        assertArrayEquals("v1".getBytes(StandardCharsets.UTF_8), results[0].data);
+        assertNull(results[1]);
+        assertEquals("/p/n02", results[2].path);
+
+        // 不需要数据时只获取 Stat.
+        final ZookeeperWebUiServlet.View[] stats = ls("/p", 0);
+        assertEquals(CHILDREN, stats.length);
+        assertEquals(2, stats[0].getLength());
+
+        assertEquals(0, ls("/missing", -1).length);
+    }
+
+    private ZookeeperWebUiServlet.View[] ls(final String path, final int preview) throws Exception {
+        return get(lister.lsAsync(client, path, preview, null, null));
+    }
+
+    private ZookeeperWebUiServlet.Page page(final String cursor, final int offset, final int preview) throws Exception {
+        return get(lister.pageAsync(client, "/p", cursor, offset, 10, preview, null, null));
+    }
+
+    private static <T> T get(final CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get(5, TimeUnit.SECONDS);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private static List<String> paths(final ZookeeperWebUiServlet.View[] views) {
+        final List<String> paths = new ArrayList<String>(views.length);
+        for (final ZookeeperWebUiServlet.View view : views) {
+            paths.add(view.getPath());
+        }
+        return paths;
+    }
+}
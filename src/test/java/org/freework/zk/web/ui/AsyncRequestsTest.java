@@ -0,0 +1,100 @@
+package org.freework.zk.web.ui;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link AsyncRequests} 测试.
+ *
+ * @author changhe.yang
+ */
+public class AsyncRequestsTest {
+    private final AsyncRequests requests = new AsyncRequests(true, 100, 1, false);
+
+    @After
+    public void tearDown() {
+        requests.close();
+    }
+
+    /**
+     * 已开始的处理超过截止时间时不中断, 返回实际的结果.
+     */
+    @Test
+    public void startedTasksRunToCompletion() throws Exception {
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        requests.offload(request(), response, true, new AsyncRequests.Task() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (final InterruptedException e) {
+                    interrupted.set(true);
+                }
+                response.setStatus(HttpServletResponse.SC_CREATED);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(interrupted.get());
+        assertEquals(HttpServletResponse.SC_CREATED, response.getStatus());
+        assertEquals(0L, requests.stats().get("timedOut"));
+    }
+
+    /**
+     * 排队超过截止时间的处理不再执行, 返回 504.
+     */
+    @Test
+    public void queuedTasksTimeOut() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        requests.offload(request(), new MockHttpServletResponse(), false, new AsyncRequests.Task() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final AtomicBoolean ran = new AtomicBoolean();
+        final MockHttpServletRequest queued = request();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        requests.offload(queued, response, true, new AsyncRequests.Task() {
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        });
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (0L == ((Number) requests.stats().get("timedOut")).longValue()) {
+            assertTrue("not timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        release.countDown();
+        while (!response.isCommitted()) {
+            assertTrue("no response", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertFalse(ran.get());
+        assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT, response.getStatus());
+    }
+
+    private static MockHttpServletRequest request() {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/a");
+        request.setAsyncSupported(true);
+        return request;
+    }
+}
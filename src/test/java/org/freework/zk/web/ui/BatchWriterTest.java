@@ -0,0 +1,121 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link BatchWriter} 测试.
+ *
+ * @author changhe.yang
+ */
+public class BatchWriterTest {
+    @Rule
+    public final EmbeddedZooKeeper zk = new EmbeddedZooKeeper();
+
+    private CuratorFramework client;
+    private BatchWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        client = zk.client();
+        client.create().forPath("/b", "0".getBytes(StandardCharsets.UTF_8));
+        writer = new BatchWriter(10);
+    }
+
+    @Test
+    public void commits() throws Exception {
+        final Map<String, Object> ret = writer.execute(client, new BatchWriter.Operation[]{
+                op(BatchWriter.CREATE, "/b/x", "x", null),
+                op(BatchWriter.SET_DATA, "/b", "1", 0),
+                op(BatchWriter.CHECK, "/b", null, 1)
+        });
+        assertEquals(true, ret.get("success"));
+        final List<Map<String, Object>> results = results(ret);
+        assertEquals(3, results.size());
+        assertEquals("/b/x", results.get(0).get("path"));
+        assertEquals("OK", results.get(0).get("code"));
+        assertEquals(1, results.get(1).get("version"));
+        assertArrayEquals("x".getBytes(StandardCharsets.UTF_8), client.getData().forPath("/b/x"));
+    }
+
+    @Test
+    public void rollsBack() throws Exception {
+        final Map<String, Object> ret = writer.execute(client, new BatchWriter.Operation[]{
+                op(BatchWriter.CREATE, "/b/x", "x", null),
+                op(BatchWriter.SET_DATA, "/b", "1", 5),
+                op(BatchWriter.DELETE, "/b/missing", null, null)
+        });
+        assertEquals(false, ret.get("success"));
+        assertEquals(1, ret.get("failed"));
+        final List<Map<String, Object>> results = results(ret);
+        assertEquals(3, results.size());
+        // 失败之前的操作已回滚, 之后的操作未执行.
+        assertEquals("OK", results.get(0).get("code"));
+        assertEquals("BADVERSION", results.get(1).get("code"));
+        assertEquals("RUNTIMEINCONSISTENCY", results.get(2).get("code"));
+        for (final Map<String, Object> result : results) {
+            assertEquals(false, result.get("success"));
+        }
+        assertNull(client.checkExists().forPath("/b/x"));
+        assertEquals(0, client.checkExists().forPath("/b").getVersion());
+    }
+
+    @Test
+    public void writesBase64Values() throws Exception {
+        final byte[] binary = {(byte) 0xC3, 0, (byte) 0xFF, 'a'};
+        final Map<String, Object> ret = writer.execute(client, new BatchWriter.Operation[]{
+                new BatchWriter.Operation(BatchWriter.SET_DATA, "/b", Base64.getEncoder().encodeToString(binary), null, null, BatchWriter.BASE64)
+        });
+        assertEquals(true, ret.get("success"));
+        assertArrayEquals(binary, client.getData().forPath("/b"));
+        try {
+            writer.execute(client, new BatchWriter.Operation[]{
+                    new BatchWriter.Operation(BatchWriter.SET_DATA, "/b", "x", null, null, "rot13")
+            });
+            fail("illegal encoding accepted");
+        } catch (final IllegalArgumentException e) {
+            assertEquals("operation 0: unsupported encoding: rot13", e.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsIllegalOperations() throws Exception {
+        try {
+            writer.execute(client, new BatchWriter.Operation[]{
+                    op(BatchWriter.CREATE, "/b/x", "x", null),
+                    op("rename", "/b", null, null)
+            });
+            fail("illegal op accepted");
+        } catch (final IllegalArgumentException e) {
+            assertEquals("operation 1: unsupported op: rename", e.getMessage());
+        }
+        try {
+            writer.execute(client, new BatchWriter.Operation[11]);
+            fail("too many operations accepted");
+        } catch (final IllegalArgumentException e) {
+            assertEquals("too many operations: 11, max: 10", e.getMessage());
+        }
+        assertNull(client.checkExists().forPath("/b/x"));
+    }
+
+    private static BatchWriter.Operation op(final String op, final String path, final String value, final Integer version) {
+        return new BatchWriter.Operation(op, path, value, version, null, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> results(final Map<String, Object> ret) {
+        return (List<Map<String, Object>>) ret.get("results");
+    }
+}
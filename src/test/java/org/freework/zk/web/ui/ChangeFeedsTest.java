@@ -0,0 +1,176 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.freework.zk.web.ui.util.CuratorPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ChangeFeeds} 和 {@link ChangeFeed} 测试.
+ *
+ * @author changhe.yang
+ */
+public class ChangeFeedsTest {
+    @Rule
+    public final EmbeddedZooKeeper zk = new EmbeddedZooKeeper();
+
+    private CuratorPool pool;
+    private ChangeFeeds feeds;
+
+    @Before
+    public void setUp() throws Exception {
+        zk.client().create().forPath("/w", bytes("0"));
+        pool = new CuratorPool(60000);
+        feeds = new ChangeFeeds(pool, 10, 60000, 10, 100);
+    }
+
+    @After
+    public void tearDown() {
+        feeds.close();
+        pool.shutdown();
+    }
+
+    /**
+     * 订阅同一路径的两个订阅者共用一个 watch, 一次变更触发一次 watch 并推送给两者.
+     */
+    @Test
+    public void subscribersShareOneWatch() throws Exception {
+        final RecordingSink first = new RecordingSink();
+        final RecordingSink second = new RecordingSink();
+        final ChangeFeeds.Subscriber a = feeds.subscribe(zk.connectString(), first);
+        final ChangeFeeds.Subscriber b = feeds.subscribe(zk.connectString(), second);
+        assertEquals(1, feeds.watch(first.stream(), Collections.singletonList("/w"), Collections.<String>emptyList()).get("watched"));
+        assertEquals(1, feeds.watch(second.stream(), Collections.singletonList("/w"), Collections.<String>emptyList()).get("watched"));
+        final Map<String, Object> stats = feeds.stats().get(0);
+        assertEquals(1, stats.get("paths"));
+        assertEquals(2, stats.get("subscribers"));
+
+        // 初始状态在后台读取, 读取完成前的修改不推送.
+        Map<String, Object> change = null;
+        for (int i = 1; null == change; i++) {
+            assertTrue("no change published", 50 > i);
+            zk.client().setData().forPath("/w", bytes(String.valueOf(i)));
+            change = first.poll(100);
+        }
+        // 之前的修改可能稍后推送, 取最后一个.
+        for (Map<String, Object> later; null != (later = first.poll(200)); ) {
+            change = later;
+        }
+        assertEquals(ChangeFeed.DATA, change.get("type"));
+        assertEquals("/w", change.get("path"));
+        Map<String, Object> same = second.next();
+        for (Map<String, Object> later; null != (later = second.poll(200)); ) {
+            same = later;
+        }
+        assertEquals(change, same);
+
+        final long events = events();
+        zk.client().setData().forPath("/w", bytes("x"));
+        final Map<String, Object> next = first.next();
+        assertEquals(ChangeFeed.DATA, next.get("type"));
+        assertEquals((Integer) change.get("version") + 1, next.get("version"));
+        assertEquals(next, second.next());
+        assertEquals(events + 1, events());
+
+        zk.client().create().forPath("/w/c", bytes("c"));
+        final Map<String, Object> children = first.next();
+        assertEquals(ChangeFeed.CHILDREN, children.get("type"));
+        assertEquals(Collections.singletonList("c"), children.get("added"));
+        assertEquals(children, second.next());
+
+        feeds.unsubscribe(a);
+        feeds.unsubscribe(b);
+    }
+
+    /**
+     * 最后一个订阅者断开后关闭推送并归还实例池的租用.
+     */
+    @Test
+    public void lastUnsubscribeReleasesTheLease() throws Exception {
+        final String key = CuratorPool.normalize(zk.connectString());
+        final RecordingSink first = new RecordingSink();
+        final RecordingSink second = new RecordingSink();
+        final ChangeFeeds.Subscriber a = feeds.subscribe(zk.connectString(), first);
+        final ChangeFeeds.Subscriber b = feeds.subscribe(zk.connectString(), second);
+        feeds.watch(first.stream(), Collections.singletonList("/w"), Collections.<String>emptyList());
+        feeds.watch(second.stream(), Collections.singletonList("/w"), Collections.<String>emptyList());
+        assertEquals(1, pool.activeLeases());
+        final CuratorFramework client = pool.get(key);
+        assertNotNull(client);
+
+        feeds.unsubscribe(a);
+        assertTrue(first.closed);
+        assertEquals(1, pool.activeLeases());
+        assertEquals(1, feeds.stats().size());
+        assertEquals(1, feeds.stats().get(0).get("subscribers"));
+
+        feeds.unsubscribe(b);
+        assertTrue(second.closed);
+        assertEquals(0, pool.activeLeases());
+        assertEquals(0, feeds.stats().size());
+
+        // 再次订阅时重新租用同一个实例.
+        final ChangeFeeds.Subscriber c = feeds.subscribe(zk.connectString(), new RecordingSink());
+        assertEquals(1, pool.activeLeases());
+        assertEquals(client, pool.get(key));
+        feeds.unsubscribe(c);
+        assertEquals(0, pool.activeLeases());
+    }
+
+    private long events() {
+        return ((Number) feeds.stats().get(0).get("events")).longValue();
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class RecordingSink implements ChangeFeeds.Sink {
+        private final BlockingQueue<Map<String, Object>> events = new LinkedBlockingQueue<Map<String, Object>>();
+        private volatile boolean closed;
+
+        @Override
+        public void send(final List<Map<String, Object>> batch) {
+            events.addAll(batch);
+        }
+
+        @Override
+        public void heartbeat() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        private Map<String, Object> next() throws InterruptedException {
+            final Map<String, Object> event = poll(5000);
+            assertNotNull("no event", event);
+            return event;
+        }
+
+        private Map<String, Object> poll(final long timeoutMs) throws InterruptedException {
+            return events.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        private String stream() throws InterruptedException {
+            final Map<String, Object> event = next();
+            assertEquals(ChangeFeeds.STREAM, event.get("type"));
+            return (String) event.get("stream");
+        }
+    }
+}
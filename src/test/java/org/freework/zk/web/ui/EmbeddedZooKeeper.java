@@ -0,0 +1,74 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.rules.ExternalResource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 每个测试一个嵌入的 zookeeper 服务器和已连接的客户端.
+ * <pre>
+ * &#64;Rule
+ * public final EmbeddedZooKeeper zk = new EmbeddedZooKeeper();
+ * </pre>
+ *
+ * @author changhe.yang
+ */
+class EmbeddedZooKeeper extends ExternalResource {
+    private final List<CuratorFramework> clients = new ArrayList<CuratorFramework>();
+    private TestingServer server;
+    private CuratorFramework client;
+
+    @Override
+    protected void before() throws Throwable {
+        server = new TestingServer();
+        client = newClient();
+    }
+
+    @Override
+    protected void after() {
+        for (final CuratorFramework c : clients) {
+            c.close();
+        }
+        clients.clear();
+        try {
+            server.close();
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 服务器地址.
+     *
+     * @return host:port
+     */
+    String connectString() {
+        return server.getConnectString();
+    }
+
+    /**
+     * 测试使用的客户端.
+     *
+     * @return the curator client
+     */
+    CuratorFramework client() {
+        return client;
+    }
+
+    /**
+     * 新建一个已启动的客户端(独立的 session), 测试结束时关闭.
+     *
+     * @return the curator client
+     */
+    CuratorFramework newClient() {
+        final CuratorFramework c = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        c.start();
+        clients.add(c);
+        return c;
+    }
+}
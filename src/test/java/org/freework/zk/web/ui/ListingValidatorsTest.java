@@ -0,0 +1,133 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ListingValidators} 测试.
+ *
+ * @author changhe.yang
+ */
+public class ListingValidatorsTest {
+    private static final String VARIANT = "preview=1024";
+
+    @Rule
+    public final EmbeddedZooKeeper zk = new EmbeddedZooKeeper();
+
+    private CuratorFramework client;
+    private CuratorFramework other;
+    private String cluster;
+    private ListingValidators validators;
+    private ListingValidators.Source<ZookeeperWebUiServlet.View[]> source;
+
+    @Before
+    public void setUp() throws Exception {
+        client = zk.client();
+        other = zk.newClient();
+        client.create().creatingParentsIfNeeded().forPath("/l/a", "a".getBytes(StandardCharsets.UTF_8));
+        client.create().forPath("/l/b", "b".getBytes(StandardCharsets.UTF_8));
+        cluster = zk.connectString();
+        validators = new ListingValidators(100);
+
+        final AsyncLister lister = new AsyncLister(16);
+        source = new ListingValidators.Source<ZookeeperWebUiServlet.View[]>() {
+            @Override
+            public CompletableFuture<ZookeeperWebUiServlet.View[]> list(final CuratorWatcher watcher, final Stat stat) {
+                return lister.lsAsync(client, "/l", 1024, watcher, stat);
+            }
+
+            @Override
+            public String etag(final ZookeeperWebUiServlet.View[] views) {
+                return ListingValidators.etag(VARIANT, views);
+            }
+
+            @Override
+            public ZookeeperWebUiServlet.View[] views(final ZookeeperWebUiServlet.View[] views) {
+                return views;
+            }
+        };
+    }
+
+    @Test
+    public void answersNotModified() throws Exception {
+        final ListingValidators.Listing<ZookeeperWebUiServlet.View[]> listing = list(null);
+        assertNotNull(listing.value);
+        assertEquals(2, listing.value.length);
+
+        final ListingValidators.Listing<ZookeeperWebUiServlet.View[]> conditional = list(listing.etag);
+        assertEquals(listing.etag, conditional.etag);
+        // 未修改时不包含结果(304).
+        assertNull(conditional.value);
+
+        assertNull(notModified(VARIANT, "W/\"other\""));
+        assertNull(notModified("preview=0", listing.etag));
+        assertEquals(listing.etag, notModified(VARIANT, "\"x\", " + listing.etag));
+    }
+
+    @Test
+    public void dataChangeInvalidates() throws Exception {
+        final String etag = list(null).etag;
+        assertEquals(etag, notModified(VARIANT, etag));
+
+        // 子节点数据变化不改变父节点的 Stat, 由 watch 使校验信息失效.
+        other.setData().forPath("/l/a", "changed".getBytes(StandardCharsets.UTF_8));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (null != notModified(VARIANT, etag)) {
+            assertTrue("validator not invalidated", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+
+        final ListingValidators.Listing<ZookeeperWebUiServlet.View[]> relisted = list(etag);
+        assertNotNull(relisted.value);
+        assertNotEquals(etag, relisted.etag);
+    }
+
+    @Test
+    public void childrenChangeInvalidates() throws Exception {
+        final String etag = list(null).etag;
+        other.create().forPath("/l/c");
+        // 父节点的 cversion 和 pzxid 已变化, 不等待 watch.
+        assertNull(notModified(VARIANT, etag));
+        assertEquals(3, list(etag).value.length);
+    }
+
+    @Test
+    public void grandchildrenChangeInvalidates() throws Exception {
+        final String etag = list(null).etag;
+        // 子节点的子节点数包含在列举结果中.
+        other.create().forPath("/l/b/x");
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (null != notModified(VARIANT, etag)) {
+            assertTrue("validator not invalidated", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * 与 servlet 相同: 先检查 If-None-Match, 不匹配时重新列举.
+     */
+    private ListingValidators.Listing<ZookeeperWebUiServlet.View[]> list(final String ifNoneMatch) throws Exception {
+        final String matched = notModified(VARIANT, ifNoneMatch);
+        if (null != matched) {
+            return new ListingValidators.Listing<ZookeeperWebUiServlet.View[]>(matched, null);
+        }
+        return validators.list(client, cluster, "/l", VARIANT, source).get();
+    }
+
+    private String notModified(final String variant, final String ifNoneMatch) throws Exception {
+        return validators.notModified(client, cluster, "/l", variant, ifNoneMatch).get();
+    }
+}
@@ -0,0 +1,129 @@
+package org.freework.zk.web.ui;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link PayloadEncoder} 测试.
+ *
+ * @author changhe.yang
+ */
+public class PayloadEncoderTest {
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static byte[][] samples() {
+        final Random random = new Random(17);
+        final byte[] binary = new byte[512];
+        random.nextBytes(binary);
+        final byte[] large = new byte[100 * 1024];
+        random.nextBytes(large);
+        final byte[] largeText = new byte[70 * 1024];
+        Arrays.fill(largeText, (byte) 'x');
+        return new byte[][]{
+                {0},
+                utf8("plain ascii"),
+                utf8("quote \" backslash \\ control \u0001 newline \n"),
+                utf8("中文 and emoji 😀"),
+                utf8("0x1234"),
+                utf8("0"),
+                {(byte) 0xC3},
+                {(byte) 0xE4, (byte) 0xB8},
+                {(byte) 0xFF, (byte) 0xFE, 'a'},
+                binary,
+                large,
+                largeText
+        };
+    }
+
+    @Test
+    public void roundTrips() throws Exception {
+        for (final String name : new String[]{"hex", "base64", "utf8"}) {
+            final PayloadEncoder encoder = PayloadEncoder.forName(name);
+            for (final byte[] sample : samples()) {
+                final String json = encode(encoder, sample, 0, sample.length);
+                assertArrayEquals(name + ": " + json, sample, decode(name, MAPPER.readValue(json, String.class)));
+            }
+        }
+    }
+
+    @Test
+    public void encodesSlices() throws Exception {
+        final byte[] data = utf8("abc中def");
+        for (final String name : new String[]{"hex", "base64", "utf8"}) {
+            final String json = encode(PayloadEncoder.forName(name), data, 3, 3);
+            assertArrayEquals(name, utf8("中"), decode(name, MAPPER.readValue(json, String.class)));
+        }
+    }
+
+    @Test
+    public void utf8FallsBackToHex() throws Exception {
+        assertEquals("\"中文\"", encode(PayloadEncoder.UTF8, utf8("中文"), 0, 6));
+        // 非法的 UTF-8 和 "0x" 开始的数据使用十六进制.
+        assertEquals("\"0xc3\"", encode(PayloadEncoder.UTF8, new byte[]{(byte) 0xC3}, 0, 1));
+        assertEquals("\"0x307831\"", encode(PayloadEncoder.UTF8, utf8("0x1"), 0, 3));
+        assertEquals("\"0x00ff\"", encode(PayloadEncoder.HEX, new byte[]{0, (byte) 0xFF}, 0, 2));
+    }
+
+    @Test
+    public void serializerUsesWriterAttribute() throws Exception {
+        final Holder holder = new Holder(utf8("v"));
+        assertEquals("{\"data\":\"0x76\"}", MAPPER.writeValueAsString(holder));
+        assertEquals("{\"data\":\"dg==\"}", MAPPER.writer().withAttribute(PayloadEncoder.ATTRIBUTE, PayloadEncoder.BASE64).writeValueAsString(holder));
+        assertEquals("{\"data\":null}", MAPPER.writeValueAsString(new Holder(new byte[0])));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownEncoding() {
+        PayloadEncoder.forName("rot13");
+    }
+
+    private static String encode(final PayloadEncoder encoder, final byte[] data, final int offset, final int length) throws Exception {
+        final StringWriter out = new StringWriter();
+        final JsonGenerator generator = FACTORY.createGenerator(out);
+        encoder.write(data, offset, length, generator);
+        generator.close();
+        return out.toString();
+    }
+
+    private static byte[] decode(final String name, final String value) {
+        if ("base64".equals(name)) {
+            return Base64.getDecoder().decode(value);
+        }
+        if ("utf8".equals(name) && !value.startsWith("0x")) {
+            return utf8(value);
+        }
+        assertTrue(value, value.startsWith("0x"));
+        final byte[] data = new byte[(value.length() - 2) / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(value.substring(2 + 2 * i, 4 + 2 * i), 16);
+        }
+        return data;
+    }
+
+    private static byte[] utf8(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Holder {
+        @JsonSerialize(using = PayloadEncoder.Serializer.class)
+        public final byte[] data;
+
+        private Holder(final byte[] data) {
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.freework.zk.web.ui;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link RequestCoalescer} 测试.
+ *
+ * @author changhe.yang
+ */
+public class RequestCoalescerTest {
+    private static final String CLUSTER = "127.0.0.1:2181";
+
+    private final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/p");
+    private final RequestMetrics metrics = new RequestMetrics(new SimpleMeterRegistry());
+    private final AtomicInteger loads = new AtomicInteger();
+    private CompletableFuture<String> loading;
+    private RequestCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        request.addHeader("zkUrl", CLUSTER);
+    }
+
+    @After
+    public void tearDown() {
+        if (null != coalescer) {
+            coalescer.close();
+        }
+    }
+
+    @Test
+    public void sharesInFlightRead() throws Exception {
+        coalescer = new RequestCoalescer(0, metrics);
+        final CompletableFuture<String> first = get("/p");
+        final CompletableFuture<String> second = get("/p");
+        final CompletableFuture<String> other = get("/q");
+        assertEquals(2, loads.get());
+
+        loading.complete("q");
+        assertEquals("q", other.get());
+        assertFalse(first.isDone() || second.isDone());
+        assertEquals(1L, coalescer.stats().get(RequestCoalescer.COALESCED));
+    }
+
+    @Test
+    public void cancellingOneWaiterKeepsTheRead() throws Exception {
+        coalescer = new RequestCoalescer(0, metrics);
+        final CompletableFuture<String> first = get("/p");
+        final CompletableFuture<String> read = loading;
+        final CompletableFuture<String> second = get("/p");
+
+        first.cancel(false);
+        assertFalse(read.isCancelled());
+        read.complete("value");
+        assertEquals("value", second.get());
+    }
+
+    @Test
+    public void cancellingAllWaitersCancelsTheRead() throws Exception {
+        coalescer = new RequestCoalescer(0, metrics);
+        final CompletableFuture<String> first = get("/p");
+        final CompletableFuture<String> read = loading;
+        final CompletableFuture<String> second = get("/p");
+
+        first.cancel(false);
+        second.cancel(false);
+        assertTrue(read.isCancelled());
+
+        // 放弃的读取不再共享.
+        final CompletableFuture<String> third = get("/p");
+        assertEquals(2, loads.get());
+        loading.complete("fresh");
+        assertEquals("fresh", third.get());
+    }
+
+    @Test
+    public void completedReadIsNotSharedWithoutTtl() throws Exception {
+        coalescer = new RequestCoalescer(0, metrics);
+        get("/p");
+        loading.complete("old");
+        get("/p");
+        assertEquals(2, loads.get());
+        assertEquals(0L, coalescer.stats().get(RequestCoalescer.CACHED));
+    }
+
+    @Test
+    public void completedReadIsSharedWithinTtl() throws Exception {
+        coalescer = new RequestCoalescer(300, metrics);
+        get("/p");
+        loading.complete("cached");
+        assertEquals("cached", get("/p").get());
+        assertEquals(1, loads.get());
+        assertEquals(1L, coalescer.stats().get(RequestCoalescer.CACHED));
+
+        Thread.sleep(400);
+        get("/p");
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void failuresAreNotShared() throws Exception {
+        coalescer = new RequestCoalescer(10000, metrics);
+        final CompletableFuture<String> failed = get("/p");
+        loading.completeExceptionally(new IllegalStateException("boom"));
+        try {
+            failed.get();
+            fail("failure not propagated");
+        } catch (final ExecutionException e) {
+            assertEquals("boom", e.getCause().getMessage());
+        }
+        get("/p");
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void invalidateDropsSharedResults() throws Exception {
+        coalescer = new RequestCoalescer(10000, metrics);
+        get("/p");
+        loading.complete("stale");
+        coalescer.invalidate(CLUSTER);
+        get("/p");
+        assertEquals(2, loads.get());
+        assertEquals(1L, coalescer.stats().get("invalidations"));
+    }
+
+    private CompletableFuture<String> get(final String path) {
+        return coalescer.get(request, CLUSTER, path, "ls", new Supplier<CompletableFuture<String>>() {
+            @Override
+            public CompletableFuture<String> get() {
+                loads.incrementAndGet();
+                loading = new CompletableFuture<String>();
+                return loading;
+            }
+        });
+    }
+}
@@ -0,0 +1,47 @@
+package org.freework.zk.web.ui;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * {@link RequestMetrics} 测试.
+ *
+ * @author changhe.yang
+ */
+public class RequestMetricsTest {
+
+    @Test
+    public void limitsClusterTags() {
+        final MeterRegistry registry = new SimpleMeterRegistry();
+        registry.config().meterFilter(RequestMetrics.clusterLimit(2));
+        final RequestMetrics metrics = new RequestMetrics(registry);
+        for (int i = 0; i < 10; i++) {
+            metrics.request(request("10.0.0." + i + ":2181"), 200, 1);
+        }
+        metrics.request(request("10.0.0.1:2181"), 200, 1);
+        metrics.request(new MockHttpServletRequest("GET", "/"), 200, 1);
+
+        assertEquals(4, registry.find(RequestMetrics.REQUESTS).timers().size());
+        assertEquals(1, registry.get(RequestMetrics.REQUESTS).tag("cluster", "10.0.0.0:2181").timer().count());
+        assertEquals(2, registry.get(RequestMetrics.REQUESTS).tag("cluster", "10.0.0.1:2181").timer().count());
+        assertEquals(8, registry.get(RequestMetrics.REQUESTS).tag("cluster", RequestMetrics.OTHER_CLUSTER).timer().count());
+        assertNotNull(registry.get(RequestMetrics.REQUESTS).tag("cluster", "none").timer());
+
+        // 其它指标不受影响.
+        registry.timer("other.timer", "cluster", "10.0.0.9:2181").record(1, TimeUnit.MILLISECONDS);
+        assertNotNull(registry.get("other.timer").tag("cluster", "10.0.0.9:2181").timer());
+    }
+
+    private static MockHttpServletRequest request(final String zkUrl) {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/a");
+        request.addHeader("zkUrl", zkUrl);
+        return request;
+    }
+}
@@ -0,0 +1,151 @@
+package org.freework.zk.web.ui;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ResponseCompressor} 测试.
+ *
+ * @author changhe.yang
+ */
+public class ResponseCompressorTest {
+    private static final int MIN_SIZE = 64;
+
+    private final ResponseCompressor compressor = new ResponseCompressor(MIN_SIZE, true);
+
+    @Test
+    public void keepsSmallResponses() throws Exception {
+        for (final int size : new int[]{0, 1, MIN_SIZE - 1, MIN_SIZE}) {
+            final byte[] body = body(size);
+            final MockHttpServletResponse response = new MockHttpServletResponse();
+            write(request("gzip"), response, body, 7);
+            assertNull(String.valueOf(size), response.getHeader("Content-Encoding"));
+            assertEquals("Accept-Encoding", response.getHeader("Vary"));
+            assertEquals(size, response.getContentLength());
+            assertArrayEquals(body, response.getContentAsByteArray());
+        }
+        assertEquals(0L, compressor.stats().get("compressed"));
+    }
+
+    @Test
+    public void compressesAboveThreshold() throws Exception {
+        for (final int size : new int[]{MIN_SIZE + 1, 100 * 1024}) {
+            final byte[] body = body(size);
+            final MockHttpServletResponse response = new MockHttpServletResponse();
+            write(request("deflate, gzip;q=0.5"), response, body, 13);
+            assertEquals("gzip", response.getHeader("Content-Encoding"));
+            assertArrayEquals(body, inflate(new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))));
+        }
+        assertEquals(2L, compressor.stats().get("compressed"));
+        assertEquals((long) (MIN_SIZE + 1 + 100 * 1024), compressor.stats().get("bytesIn"));
+    }
+
+    @Test
+    public void usesDeflateWhenGzipIsRefused() throws Exception {
+        final byte[] body = body(1024);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        write(request("gzip;q=0, deflate"), response, body, body.length);
+        assertEquals("deflate", response.getHeader("Content-Encoding"));
+        assertArrayEquals(body, inflate(new InflaterInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))));
+
+        final ResponseCompressor gzipOnly = new ResponseCompressor(MIN_SIZE, false);
+        final MockHttpServletResponse plain = new MockHttpServletResponse();
+        assertSame(plain, gzipOnly.wrap(request("deflate"), plain));
+    }
+
+    @Test
+    public void compressesWriterOutput() throws Exception {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setCharacterEncoding("UTF-8");
+        final HttpServletResponse wrapped = compressor.wrap(request("gzip"), response);
+        final PrintWriter writer = wrapped.getWriter();
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("节点-").append(i).append('\n');
+        }
+        writer.print(text);
+        compressor.finish(wrapped);
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals(text.toString(), new String(inflate(new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))), "UTF-8"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsNonBlockingWrites() throws Exception {
+        final HttpServletResponse wrapped = compressor.wrap(request("gzip"), new MockHttpServletResponse());
+        assertTrue(wrapped.getOutputStream().isReady());
+        wrapped.getOutputStream().setWriteListener(null);
+    }
+
+    @Test
+    public void returnsResponseWithoutAcceptedEncoding() {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        assertSame(response, compressor.wrap(new MockHttpServletRequest("GET", "/"), response));
+        assertSame(response, compressor.wrap(request("identity, br"), response));
+        assertSame(response, compressor.wrap(request("*;q=0"), response));
+        assertNull(response.getHeader("Vary"));
+    }
+
+    @Test
+    public void honoursZeroQuality() {
+        assertTrue(ResponseCompressor.accepts("gzip", "gzip"));
+        assertTrue(ResponseCompressor.accepts("GZIP;q=0.1", "gzip"));
+        assertTrue(ResponseCompressor.accepts("x-gzip", "gzip"));
+        assertTrue(ResponseCompressor.accepts("*", "deflate"));
+        assertTrue(ResponseCompressor.accepts("gzip;q=0, *", "deflate"));
+        assertFalse(ResponseCompressor.accepts(null, "gzip"));
+        assertFalse(ResponseCompressor.accepts("gzip;q=0", "gzip"));
+        assertFalse(ResponseCompressor.accepts("gzip; q=0.000", "gzip"));
+        assertFalse(ResponseCompressor.accepts("*, gzip;q=0", "gzip"));
+        assertFalse(ResponseCompressor.accepts("*;q=0", "gzip"));
+        assertFalse(ResponseCompressor.accepts("deflate", "gzip"));
+    }
+
+    private void write(final MockHttpServletRequest request, final MockHttpServletResponse response, final byte[] body, final int chunk) throws Exception {
+        final HttpServletResponse wrapped = compressor.wrap(request, response);
+        for (int offset = 0; offset < body.length; offset += chunk) {
+            wrapped.getOutputStream().write(body, offset, Math.min(chunk, body.length - offset));
+            wrapped.getOutputStream().flush();
+        }
+        compressor.finish(wrapped);
+    }
+
+    private static MockHttpServletRequest request(final String acceptEncoding) {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader("Accept-Encoding", acceptEncoding);
+        return request;
+    }
+
+    private static byte[] body(final int size) {
+        final byte[] body = new byte[size];
+        final Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            body[i] = (byte) ('a' + random.nextInt(4));
+        }
+        return body;
+    }
+
+    private static byte[] inflate(final InputStream in) throws Exception {
+        try {
+            return StreamUtils.copyToByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+}
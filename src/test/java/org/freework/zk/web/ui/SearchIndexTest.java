@@ -0,0 +1,189 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * {@link SearchIndex} 测试.
+ *
+ * @author changhe.yang
+ */
+public class SearchIndexTest {
+    private static final String[] NAMES = {"app", "config", "Service", "v1.json", "v22.json", "db.xml", "配置", "node"};
+    private static final String[] WORDS = {"host=10.0.0.1", "CONFIG", "config", "Timeout=30", "配置项", "app.xml", "x", ""};
+
+    @Rule
+    public final EmbeddedZooKeeper zk = new EmbeddedZooKeeper();
+
+    @Test
+    public void requiredLiteralOfPlainText() {
+        assertEquals("abc", SearchIndex.requiredLiteral("abc"));
+        assertEquals("barbaz", SearchIndex.requiredLiteral("foo.*barbaz"));
+        assertEquals("/config/", SearchIndex.requiredLiteral("^/config/.+\\.xml$"));
+        assertNull(SearchIndex.requiredLiteral(".*"));
+        assertNull(SearchIndex.requiredLiteral("^$"));
+    }
+
+    @Test
+    public void requiredLiteralSkipsQuantifiedCharacters() {
+        // ?, * 和 {} 使前一个字符可以不出现, + 至少出现一次.
+        assertEquals("cde", SearchIndex.requiredLiteral("ab?cde"));
+        assertEquals("ab", SearchIndex.requiredLiteral("abc*"));
+        assertEquals("yz", SearchIndex.requiredLiteral("x{2}yz"));
+        assertEquals("yz", SearchIndex.requiredLiteral("x{2,}yz"));
+        assertEquals("abc", SearchIndex.requiredLiteral("abc+de"));
+        assertEquals("defg", SearchIndex.requiredLiteral("ab*c?defg"));
+    }
+
+    @Test
+    public void requiredLiteralSkipsClassesAndGroups() {
+        assertEquals("def", SearchIndex.requiredLiteral("[abc]def"));
+        assertEquals("abc", SearchIndex.requiredLiteral("[\\]x]abc"));
+        assertEquals("xyz", SearchIndex.requiredLiteral("[^a-z]+xyz"));
+        assertEquals("defg", SearchIndex.requiredLiteral("(abc)defg"));
+        assertEquals("gh", SearchIndex.requiredLiteral("(abcdef)gh"));
+        assertEquals("gh", SearchIndex.requiredLiteral("((abcdef)x)?gh"));
+        assertNull(SearchIndex.requiredLiteral("(abc)"));
+    }
+
+    @Test
+    public void requiredLiteralOfEscapes() {
+        assertEquals("a.bc", SearchIndex.requiredLiteral("a\\.bc"));
+        assertEquals("/a/b", SearchIndex.requiredLiteral("\\/a\\/b"));
+        assertEquals("abc", SearchIndex.requiredLiteral("\\d+abc\\s"));
+        assertEquals("ab", SearchIndex.requiredLiteral("ab\\.?c"));
+        // 包含选择或 \Q...\E 时不提取.
+        assertNull(SearchIndex.requiredLiteral("abc|def"));
+        assertNull(SearchIndex.requiredLiteral("\\Qabc\\E"));
+    }
+
+    @Test
+    public void requiredLiteralWithInlineFlags() {
+        assertEquals("Hello", SearchIndex.requiredLiteral("(?i)Hello"));
+        assertEquals("world", SearchIndex.requiredLiteral("(?i:hi)world"));
+    }
+
+    /**
+     * 索引查询和逐个节点比较的结果一致.
+     */
+    @Test
+    public void matchesBruteForce() throws Exception {
+        final CuratorFramework client = zk.client();
+        final Random random = new Random(11);
+        final List<String> created = new ArrayList<String>();
+        created.add("/s");
+        client.create().forPath("/s", bytes("root"));
+        for (int i = 0; i < 300; i++) {
+            final String parent = created.get(random.nextInt(created.size()));
+            final String path = parent + "/" + NAMES[random.nextInt(NAMES.length)] + (random.nextBoolean() ? "" : String.valueOf(i));
+            if (null != client.checkExists().forPath(path)) {
+                continue;
+            }
+            final String value = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+            client.create().forPath(path, bytes(value));
+            created.add(path);
+        }
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final SearchIndex index = new SearchIndex(zk.connectString(), client, executor, Collections.singletonList("/s"), 10000, 1024, 16, 5000);
+        try {
+            index.build();
+            final Map<String, String> tree = read(client, "/s");
+            final String[][] queries = {
+                    {SearchIndex.SUBSTRING, "config"}, {SearchIndex.SUBSTRING, "Service"}, {SearchIndex.SUBSTRING, "配置项"},
+                    {SearchIndex.SUBSTRING, "v1"}, {SearchIndex.SUBSTRING, ".json"}, {SearchIndex.SUBSTRING, "=30"},
+                    {SearchIndex.PREFIX, "con"}, {SearchIndex.PREFIX, "v22"}, {SearchIndex.PREFIX, "host"},
+                    {SearchIndex.REGEX, "v[0-9]+\\.json$"}, {SearchIndex.REGEX, "^/s/app[0-9]*/"}, {SearchIndex.REGEX, "(?i)CONFIG"},
+                    {SearchIndex.REGEX, "db\\.xml|app\\.xml"}, {SearchIndex.REGEX, "Time(out)?=\\d+"}, {SearchIndex.REGEX, "se?rvice"},
+                    {SearchIndex.REGEX, "no+de[0-9]{2}"}
+            };
+            for (final String scope : new String[]{"/s", created.get(1), created.get(7)}) {
+                for (final String[] query : queries) {
+                    for (final String in : new String[]{SearchIndex.ALL, SearchIndex.PATH, SearchIndex.VALUE}) {
+                        for (final boolean ignoreCase : new boolean[]{false, true}) {
+                            final String message = query[0] + " '" + query[1] + "' in " + in + " under " + scope + (ignoreCase ? " ignoring case" : "");
+                            final List<String> expected = bruteForce(tree, scope, query[0], query[1], in, ignoreCase);
+                            assertEquals(message, expected, paths(index.search(scope, query[1], query[0], in, ignoreCase, 10000)));
+                        }
+                    }
+                }
+            }
+        } finally {
+            index.close();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 读取子树的所有节点, 按路径排序.
+     */
+    private static Map<String, String> read(final CuratorFramework client, final String root) throws Exception {
+        final Map<String, String> tree = new TreeMap<String, String>();
+        final List<String> pending = new ArrayList<String>(Collections.singletonList(root));
+        while (!pending.isEmpty()) {
+            final String path = pending.remove(pending.size() - 1);
+            tree.put(path, new String(client.getData().forPath(path), StandardCharsets.UTF_8));
+            for (final String child : client.getChildren().forPath(path)) {
+                pending.add(path + "/" + child);
+            }
+        }
+        return tree;
+    }
+
+    private static List<String> bruteForce(final Map<String, String> tree, final String scope, final String type, final String query,
+                                           final String in, final boolean ignoreCase) {
+        final List<String> matches = new ArrayList<String>();
+        for (final Map.Entry<String, String> node : tree.entrySet()) {
+            final String path = node.getKey();
+            if (!path.equals(scope) && !path.startsWith(scope + "/")) {
+                continue;
+            }
+            final boolean byPath = !SearchIndex.VALUE.equals(in) && matches(path, "/", type, query, ignoreCase);
+            final boolean byValue = !SearchIndex.PATH.equals(in) && matches(node.getValue(), "", type, query, ignoreCase);
+            if (byPath || byValue) {
+                matches.add(path);
+            }
+        }
+        return matches;
+    }
+
+    private static boolean matches(final String s, final String separator, final String type, final String query, final boolean ignoreCase) {
+        final String text = ignoreCase ? s.toLowerCase() : s;
+        final String q = ignoreCase ? query.toLowerCase() : query;
+        if (SearchIndex.SUBSTRING.equals(type)) {
+            return text.contains(q);
+        }
+        if (SearchIndex.PREFIX.equals(type)) {
+            return separator.isEmpty() ? text.startsWith(q) : text.contains(separator + q);
+        }
+        return Pattern.compile(query, ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0).matcher(s).find();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> paths(final Map<String, Object> result) {
+        final List<String> paths = new ArrayList<String>();
+        for (final Map<String, Object> match : (List<Map<String, Object>>) result.get("results")) {
+            paths.add((String) match.get("path"));
+        }
+        return paths;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
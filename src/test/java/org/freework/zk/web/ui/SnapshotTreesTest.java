@@ -0,0 +1,147 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.jute.Record;
+import org.apache.zookeeper.server.DataTree;
+import org.apache.zookeeper.server.persistence.FileTxnSnapLog;
+import org.apache.zookeeper.txn.TxnHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link SnapshotTrees} 测试.
+ *
+ * @author changhe.yang
+ */
+public class SnapshotTreesTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private TestingServer server;
+    private SnapshotTrees trees;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("zk");
+        server = new TestingServer(-1, dir);
+        create("/s", "/s/a");
+        // 停止后生成快照, 之后的修改只在事务日志中.
+        server.stop();
+        final FileTxnSnapLog snapLog = new FileTxnSnapLog(dir, dir);
+        final DataTree tree = new DataTree();
+        final ConcurrentHashMap<Long, Integer> sessions = new ConcurrentHashMap<Long, Integer>();
+        snapLog.restore(tree, sessions, new FileTxnSnapLog.PlayBackListener() {
+            @Override
+            public void onTxnLoaded(final TxnHeader header, final Record record) {
+            }
+        });
+        snapLog.save(tree, sessions);
+        snapLog.close();
+        server.restart();
+        create("/s/b");
+        trees = new SnapshotTrees(Collections.singletonList(dir.getPath()), 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        trees.close();
+        server.close();
+    }
+
+    @Test
+    public void opensOncePerSnapshot() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<SnapshotTree>> futures = new ArrayList<Future<SnapshotTree>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<SnapshotTree>() {
+                    @Override
+                    public SnapshotTree call() throws Exception {
+                        return trees.get(latest());
+                    }
+                }));
+            }
+            final SnapshotTree tree = futures.get(0).get();
+            for (final Future<SnapshotTree> future : futures) {
+                assertSame(tree, future.get());
+            }
+            assertEquals(2, tree.ls("/s", 0).length);
+            assertEquals(1, trees.stats().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void evictionClosesTheMapping() throws Exception {
+        final SnapshotTree replayed = trees.get(latest());
+        assertEquals(2, replayed.ls("/s", 0).length);
+
+        // 超过最大打开数, 关闭最久未使用的快照.
+        final SnapshotTree plain = trees.get(SnapshotTrees.PREFIX + dir.getPath());
+        assertFalse(plain.isClosed());
+        assertEquals(1, plain.ls("/s", 0).length);
+        assertTrue(replayed.isClosed());
+        try {
+            replayed.ls("/s", 0);
+            fail("closed snapshot readable");
+        } catch (final IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("snapshot is closed"));
+        }
+
+        // 再次访问时重新打开.
+        final SnapshotTree reopened = trees.get(latest());
+        assertFalse(reopened.isClosed());
+        assertEquals("0x62", reopened.stat("/s/b").getData());
+    }
+
+    @Test
+    public void rejectsFilesOutsideTheConfiguredDirs() throws Exception {
+        try {
+            trees.get(SnapshotTrees.PREFIX + folder.getRoot().getPath());
+            fail("snapshot outside the configured dirs accepted");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("snapshot is not under the configured dirs"));
+        }
+    }
+
+    private void create(final String... paths) throws Exception {
+        final CuratorFramework client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        try {
+            for (final String path : paths) {
+                client.create().forPath(path, path.substring(path.lastIndexOf('/') + 1).getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    private String latest() {
+        return SnapshotTrees.PREFIX + dir.getPath() + "@latest";
+    }
+}
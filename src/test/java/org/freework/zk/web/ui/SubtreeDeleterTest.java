@@ -0,0 +1,109 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * {@link SubtreeDeleter} 测试.
+ *
+ * @author changhe.yang
+ */
+public class SubtreeDeleterTest {
+    @Rule
+    public final EmbeddedZooKeeper zk = new EmbeddedZooKeeper();
+
+    private CuratorFramework client;
+    private SubtreeDeleter deleter;
+
+    @Before
+    public void setUp() throws Exception {
+        client = zk.client();
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 5; j++) {
+                client.create().creatingParentsIfNeeded().forPath("/r/n" + i + "/m" + j);
+            }
+        }
+        deleter = new SubtreeDeleter(2, 4, 1000, 5000, 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleter.close();
+    }
+
+    @Test
+    public void deletesInBatches() throws Exception {
+        final Map<String, Object> ret = deleter.delete(client, "/r", new Progress());
+        assertEquals(true, ret.get("success"));
+        assertEquals(61, ret.get("nodes"));
+        assertEquals(61, ret.get("deleted"));
+        assertEquals(0, ret.get("missing"));
+        assertNull(client.checkExists().forPath("/r"));
+    }
+
+    @Test
+    public void fallsBackToSingleDeletes() throws Exception {
+        final Map<String, Object> ret = deleter.delete(client, "/r", new Progress() {
+            @Override
+            public void scanned(final int nodes) throws IOException {
+                try {
+                    // 遍历之后: 已删除的节点使所在批次失败, 单独计数;
+                    client.delete().forPath("/r/n3/m2");
+                    // 新增的子节点使父节点无法删除, 同批次的其他节点逐个删除.
+                    client.create().forPath("/r/n7/m4/late");
+                } catch (final Exception e) {
+                    throw new IOException(e);
+                }
+            }
+        });
+        assertEquals(false, ret.get("success"));
+        assertEquals(61, ret.get("nodes"));
+        // n7/m4, n7, r
+        assertEquals(3, ret.get("failed"));
+        assertEquals(57, ret.get("deleted"));
+        assertEquals(1, ret.get("missing"));
+        @SuppressWarnings("unchecked")
+        final List<String> errors = (List<String>) ret.get("errors");
+        Collections.sort(errors);
+        assertEquals("[/r/n7/m4: NOTEMPTY, /r/n7: NOTEMPTY, /r: NOTEMPTY]", errors.toString());
+
+        assertNotNull(client.checkExists().forPath("/r/n7/m4/late"));
+        assertNull(client.checkExists().forPath("/r/n7/m3"));
+        assertNull(client.checkExists().forPath("/r/n6"));
+    }
+
+    @Test
+    public void refusesLargeSubtrees() throws Exception {
+        final SubtreeDeleter limited = new SubtreeDeleter(2, 4, 10, 5000, 8);
+        try {
+            final Map<String, Object> ret = limited.delete(client, "/r", new Progress());
+            assertEquals(false, ret.get("success"));
+            assertNotNull(client.checkExists().forPath("/r/n0/m0"));
+            assertEquals(true, limited.count(client, "/r").get("exceeded"));
+        } finally {
+            limited.close();
+        }
+    }
+
+    private static class Progress implements SubtreeDeleter.Listener {
+        @Override
+        public void scanned(final int nodes) throws IOException {
+        }
+
+        @Override
+        public void progress(final int deleted, final int missing, final int failed, final int total) {
+        }
+    }
+}
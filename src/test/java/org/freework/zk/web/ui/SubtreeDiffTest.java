@@ -0,0 +1,149 @@
+package org.freework.zk.web.ui;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link SubtreeDiff} 测试.
+ *
+ * @author changhe.yang
+ */
+public class SubtreeDiffTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte[] BINARY = {(byte) 0xFF, 0, (byte) 0xC3};
+
+    @Rule
+    public final EmbeddedZooKeeper zk = new EmbeddedZooKeeper();
+
+    private CuratorFramework client;
+    private SubtreeDiff differ;
+
+    @Before
+    public void setUp() throws Exception {
+        client = zk.client();
+        differ = new SubtreeDiff(4, 1000, 5000, 1000);
+        create("/src", "root");
+        create("/src/same", "v");
+        create("/src/empty", "");
+        create("/src/length", "longer");
+        create("/src/digest", "abc");
+        create("/src/binary", BINARY);
+        create("/src/new", "n");
+        create("/src/new/deep", "d");
+        create("/src/new/deep/er", "e");
+
+        create("/dst", "root");
+        create("/dst/same", "v");
+        create("/dst/empty", "");
+        create("/dst/length", "short");
+        create("/dst/digest", "abd");
+        create("/dst/binary", "bin");
+        create("/dst/old", "o");
+        create("/dst/old/x", "x");
+        create("/dst/old/x/y", "y");
+    }
+
+    /**
+     * 应用同步操作后再次对比没有差异.
+     */
+    @Test
+    public void reconcileConverges() throws Exception {
+        final List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+        final Map<String, Object> first = diff(entries, true);
+        assertEquals(true, first.get("success"));
+        assertEquals(3, first.get(SubtreeDiff.ADDED));
+        assertEquals(3, first.get(SubtreeDiff.REMOVED));
+        assertEquals(3, first.get(SubtreeDiff.CHANGED));
+        assertEquals(9, entries.size());
+
+        // 先自顶向下 create 和 setData, 再自底向上 delete.
+        final List<String> ops = new ArrayList<String>();
+        for (final Map<String, Object> operation : operations(first)) {
+            ops.add(operation.get("op") + " " + operation.get("path"));
+        }
+        assertTrue(ops.toString(), ops.indexOf("create /dst/new") < ops.indexOf("create /dst/new/deep"));
+        assertTrue(ops.toString(), ops.indexOf("create /dst/new/deep") < ops.indexOf("create /dst/new/deep/er"));
+        assertTrue(ops.toString(), ops.indexOf("delete /dst/old/x/y") < ops.indexOf("delete /dst/old/x"));
+        assertTrue(ops.toString(), ops.indexOf("delete /dst/old/x") < ops.indexOf("delete /dst/old"));
+        for (int i = 0; i < ops.size(); i++) {
+            assertTrue(ops.toString(), !ops.get(i).startsWith(BatchWriter.DELETE) || i >= ops.size() - 3);
+        }
+
+        final BatchWriter.Operation[] operations = MAPPER.convertValue(operations(first), BatchWriter.Operation[].class);
+        assertEquals(true, new BatchWriter(100).execute(client, operations).get("success"));
+        assertArrayEquals(BINARY, client.getData().forPath("/dst/binary"));
+        assertNull(client.checkExists().forPath("/dst/old"));
+
+        final List<Map<String, Object>> none = new ArrayList<Map<String, Object>>();
+        final Map<String, Object> second = diff(none, true);
+        assertEquals(true, second.get("success"));
+        assertEquals(0, none.size());
+        assertEquals(0, operations(second).size());
+        assertEquals(first.get("compared"), (Integer) second.get("compared") + 3);
+    }
+
+    /**
+     * 缓存的摘要用 mzxid 校验, 长度相同的修改仍然可以发现.
+     */
+    @Test
+    public void cachedDigestsFollowModifications() throws Exception {
+        final List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+        diff(entries, false);
+        assertTrue(paths(entries).contains("/digest"));
+
+        client.setData().forPath("/dst/digest", "abc".getBytes(StandardCharsets.UTF_8));
+        entries.clear();
+        diff(entries, false);
+        assertTrue(paths(entries).toString(), !paths(entries).contains("/digest"));
+
+        client.setData().forPath("/src/digest", "xyz".getBytes(StandardCharsets.UTF_8));
+        entries.clear();
+        diff(entries, false);
+        assertTrue(paths(entries).toString(), paths(entries).contains("/digest"));
+    }
+
+    private Map<String, Object> diff(final List<Map<String, Object>> entries, final boolean reconcile) throws Exception {
+        final SubtreeDiff.Side source = new SubtreeDiff.Side(zk.connectString(), client, "/src");
+        final SubtreeDiff.Side target = new SubtreeDiff.Side(zk.connectString(), client, "/dst");
+        return differ.diff(source, target, reconcile, new SubtreeDiff.Listener() {
+            @Override
+            public void entry(final Map<String, Object> entry) {
+                entries.add(entry);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> operations(final Map<String, Object> ret) {
+        return (List<Map<String, Object>>) ret.get("operations");
+    }
+
+    private static List<Object> paths(final List<Map<String, Object>> entries) {
+        final List<Object> paths = new ArrayList<Object>();
+        for (final Map<String, Object> entry : entries) {
+            paths.add(entry.get("path"));
+        }
+        return paths;
+    }
+
+    private void create(final String path, final String value) throws Exception {
+        create(path, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void create(final String path, final byte[] value) throws Exception {
+        client.create().forPath(path, value);
+    }
+}
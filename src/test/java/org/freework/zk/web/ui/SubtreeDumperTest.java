@@ -0,0 +1,87 @@
+package org.freework.zk.web.ui;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.CreateMode;
+import org.freework.zk.web.ui.util.PropertiesWriter;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * {@link SubtreeDumper} 测试.
+ *
+ * @author changhe.yang
+ */
+public class SubtreeDumperTest {
+    @Rule
+    public final EmbeddedZooKeeper zk = new EmbeddedZooKeeper();
+
+    private CuratorFramework client;
+
+    @Before
+    public void setUp() throws Exception {
+        client = zk.client();
+        // '-' 和 '.' 排在 '/' 之前, 兄弟节点可能排在子节点之前.
+        final String[] paths = {
+                "/d", "/d/a", "/d/a/b", "/d/a/b/c", "/d/a-b", "/d/a.b", "/d/a0", "/d/b", "/d/b/x y", "/d/b/k=v", "/d/中文"
+        };
+        for (final String path : paths) {
+            client.create().forPath(path, ("value of " + path + "\n#!").getBytes(StandardCharsets.UTF_8));
+        }
+        for (int i = 0; i < 100; i++) {
+            client.create().forPath(String.format("/d/b/n%03d", i), String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+        }
+        client.create().withMode(CreateMode.EPHEMERAL).forPath("/d/a/ephemeral", "skipped".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void dumpsInTreeMapOrder() throws Exception {
+        final Map<String, String> expected = new TreeMap<String, String>();
+        collect("/d", expected);
+        assertFalse(expected.containsKey("/d/a/ephemeral"));
+
+        final StringWriter want = new StringWriter();
+        final PropertiesWriter wantOut = new PropertiesWriter(want);
+        for (final Map.Entry<String, String> entry : expected.entrySet()) {
+            wantOut.write(entry.getKey(), entry.getValue());
+        }
+        wantOut.flush();
+
+        // 并发和缓冲都小于节点数, 节点乱序到达.
+        final SubtreeDumper dumper = new SubtreeDumper(3, 8, 5000);
+        final StringWriter got = new StringWriter();
+        final PropertiesWriter out = new PropertiesWriter(got);
+        final long count = dumper.dump(SubtreeDumper.direct(client), "/d", out);
+        out.flush();
+
+        assertEquals(expected.size(), count);
+        assertEquals(want.toString(), got.toString());
+    }
+
+    @Test
+    public void dumpsMissingPathAsEmpty() throws Exception {
+        final StringWriter got = new StringWriter();
+        final PropertiesWriter out = new PropertiesWriter(got);
+        assertEquals(0, new SubtreeDumper(3, 8, 5000).dump(SubtreeDumper.direct(client), "/missing", out));
+        out.flush();
+        assertEquals("", got.toString());
+    }
+
+    private void collect(final String path, final Map<String, String> out) throws Exception {
+        if (0 != client.checkExists().forPath(path).getEphemeralOwner()) {
+            return;
+        }
+        out.put(path, new String(client.getData().forPath(path), StandardCharsets.UTF_8));
+        for (final String child : client.getChildren().forPath(path)) {
+            collect(ZookeeperWebUiServlet.resolve(path, child), out);
+        }
+    }
+}
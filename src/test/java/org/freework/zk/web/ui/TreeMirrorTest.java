@@ -0,0 +1,202 @@
+package org.freework.zk.web.ui;
+
+import freework.codec.Hex;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link TreeMirror} 测试.
+ *
+ * @author changhe.yang
+ */
+public class TreeMirrorTest {
+    @Rule
+    public final EmbeddedZooKeeper zk = new EmbeddedZooKeeper();
+
+    private CuratorFramework client;
+    private CuratorFramework other;
+
+    @Before
+    public void setUp() throws Exception {
+        client = zk.client();
+        other = zk.newClient();
+        client.create().creatingParentsIfNeeded().forPath("/t/a", bytes("a0"));
+        client.create().forPath("/t/b", bytes("b0"));
+    }
+
+    /**
+     * 读取之后, 保存之前触发的 watch 不能丢失.
+     */
+    @Test
+    public void eventsBetweenReadAndStoreAreNotLost() throws Exception {
+        final TreeMirror[] holder = new TreeMirror[1];
+        final AtomicBoolean mutated = new AtomicBoolean();
+        final AsyncLister lister = new AsyncLister(16) {
+            @Override
+            CompletableFuture<AsyncLister.Result[]> getDataAsync(final CuratorFramework c, final List<String> paths, final CuratorWatcher watcher) {
+                // 不能在 zookeeper 事件线程中等待 watch.
+                return super.getDataAsync(c, paths, watcher).thenApplyAsync(new Function<AsyncLister.Result[], AsyncLister.Result[]>() {
+                    @Override
+                    public AsyncLister.Result[] apply(final AsyncLister.Result[] results) {
+                        if (mutated.compareAndSet(false, true)) {
+                            try {
+                                final long events = events(holder[0]);
+                                other.setData().forPath("/t/a", bytes("a1"));
+                                other.create().forPath("/t/c", bytes("c0"));
+                                // 等待两个 watch 都已触发, 此时读取结果尚未保存.
+                                await(holder[0], events + 2);
+                            } catch (final Exception e) {
+                                throw new CompletionException(e);
+                            }
+                        }
+                        return results;
+                    }
+                });
+            }
+        };
+        final TreeMirror mirror = new TreeMirror(zk.connectString(), client, lister, Collections.singletonList("/t"), 1L << 20, 16);
+        holder[0] = mirror;
+        try {
+            mirror.warm("/t");
+
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (true) {
+                final ZookeeperWebUiServlet.View[] cached = mirror.cached("/t", -1);
+                if (null != cached && 3 == cached.length && hex("a1").equals(cached[0].getData())) {
+                    assertEquals("/t/c", cached[2].getPath());
+                    assertEquals(hex("c0"), cached[2].getData());
+                    break;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    fail("mirror did not catch up: " + (null != cached ? cached.length : -1) + " children");
+                }
+                Thread.sleep(20);
+            }
+
+            // 之后的变化仍然可以收到.
+            other.setData().forPath("/t/a", bytes("a2"));
+            awaitData(mirror, "/t", hex("a2"));
+        } finally {
+            mirror.close();
+        }
+    }
+
+    /**
+     * 单个节点从镜像读取, 变化后更新.
+     */
+    @Test
+    public void cachedViewFollowsChanges() throws Exception {
+        final TreeMirror mirror = new TreeMirror(zk.connectString(), client, new AsyncLister(16),
+                Collections.singletonList("/t"), 1L << 20, 16);
+        try {
+            assertEquals(null, mirror.cachedView("/t/b"));
+            mirror.warm("/t");
+            awaitData(mirror, "/t", hex("a0"));
+            assertEquals(hex("b0"), mirror.cachedView("/t/b").getData());
+            other.setData().forPath("/t/b", bytes("b1"));
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (!hex("b1").equals(mirror.cachedView("/t/b").getData())) {
+                assertTrue("mirror did not catch up", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+        } finally {
+            mirror.close();
+        }
+    }
+
+    /**
+     * 后台加载后从内存返回.
+     */
+    @Test
+    public void warmLoadsInBackground() throws Exception {
+        final TreeMirror mirror = new TreeMirror(zk.connectString(), client, new AsyncLister(16),
+                Collections.singletonList("/t"), 1L << 20, 16);
+        try {
+            assertEquals(null, mirror.cached("/t", -1));
+            mirror.warm("/t");
+            awaitData(mirror, "/t", hex("a0"));
+            assertEquals(2, mirror.cached("/t", -1).length);
+
+            other.create().forPath("/t/c", bytes("c0"));
+            final long deadline = System.currentTimeMillis() + 5000;
+            ZookeeperWebUiServlet.View[] cached;
+            while (null == (cached = mirror.cached("/t", -1)) || 3 != cached.length) {
+                assertTrue("mirror did not catch up", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+        } finally {
+            mirror.close();
+        }
+    }
+
+    /**
+     * watch 触发的更新超过预算时移除子树, 回退到直接读取.
+     */
+    @Test
+    public void refreshOverBudgetEvicts() throws Exception {
+        final TreeMirror mirror = new TreeMirror(zk.connectString(), client, new AsyncLister(16),
+                Collections.singletonList("/t"), 4096, 16);
+        try {
+            mirror.warm("/t");
+            awaitData(mirror, "/t", hex("a0"));
+
+            other.setData().forPath("/t/b", new byte[8192]);
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (null != mirror.cached("/t", -1)) {
+                assertTrue("subtree not evicted", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+            assertTrue(((Number) mirror.stats().get("overBudget")).longValue() > 0);
+            assertTrue(((Number) mirror.stats().get("usedBytes")).longValue() <= 4096);
+        } finally {
+            mirror.close();
+        }
+    }
+
+    private static void awaitData(final TreeMirror mirror, final String parent, final String data) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            final ZookeeperWebUiServlet.View[] cached = mirror.cached(parent, -1);
+            if (null != cached && 0 < cached.length && data.equals(cached[0].getData())) {
+                return;
+            }
+            assertTrue("mirror did not catch up", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private static long events(final TreeMirror mirror) {
+        return ((Number) mirror.stats().get("events")).longValue();
+    }
+
+    private static void await(final TreeMirror mirror, final long events) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (events(mirror) < events) {
+            assertTrue("watch not triggered", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static String hex(final String value) {
+        return "0x" + Hex.encode(bytes(value));
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
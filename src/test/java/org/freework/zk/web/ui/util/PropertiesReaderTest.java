@@ -0,0 +1,108 @@
+package org.freework.zk.web.ui.util;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link PropertiesReader} 和 {@link PropertiesWriter} 测试.
+ *
+ * @author changhe.yang
+ */
+public class PropertiesReaderTest {
+
+    private static Map<String, String> entries() {
+        final Map<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put("/a", "plain");
+        entries.put("/a/b c", " leading and trailing spaces ");
+        entries.put("/k=v:w", "=:#!");
+        entries.put("/#comment", "!not a comment");
+        entries.put("/multi", "line1\nline2\r\n\tindented\f");
+        entries.put("/back\\slash", "C:\\path\\");
+        entries.put("/中文", "值\u0000\u00ff\u0100\ud83d\ude00");
+        entries.put("/empty", "");
+        entries.put("/continued", "ends with backslash\\");
+        return entries;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        final Map<String, String> entries = entries();
+        final StringWriter text = new StringWriter();
+        final PropertiesWriter out = new PropertiesWriter(text);
+        out.writeHeader("dump of /\nsecond line");
+        for (final Map.Entry<String, String> entry : entries.entrySet()) {
+            out.write(entry.getKey(), entry.getValue());
+        }
+        out.flush();
+
+        final Map<String, String> read = new LinkedHashMap<String, String>();
+        final PropertiesReader in = new PropertiesReader(new StringReader(text.toString()));
+        while (in.next()) {
+            read.put(in.key(), in.value());
+        }
+        assertFalse(in.next());
+        // 按写出顺序读取.
+        assertEquals(entries, read);
+        assertEquals(entries.keySet().toString(), read.keySet().toString());
+    }
+
+    @Test
+    public void writerMatchesProperties() throws Exception {
+        final Map<String, String> entries = entries();
+        final StringWriter text = new StringWriter();
+        final PropertiesWriter out = new PropertiesWriter(text);
+        for (final Map.Entry<String, String> entry : entries.entrySet()) {
+            out.write(entry.getKey(), entry.getValue());
+        }
+        out.flush();
+
+        final Properties properties = new Properties();
+        properties.load(new StringReader(text.toString()));
+        assertEquals(entries.size(), properties.size());
+        for (final Map.Entry<String, String> entry : entries.entrySet()) {
+            assertEquals(entry.getValue(), properties.getProperty(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void readerMatchesProperties() throws Exception {
+        final String text = "# comment\n"
+                + "! another comment\n"
+                + "   \n"
+                + "  a = 1\n"
+                + "b:2\n"
+                + "c 3\n"
+                + "d\n"
+                + "e = multi \\\n"
+                + "    line \\\n"
+                + "\tvalue\n"
+                + "f = \\u4e2d\\u6587\n"
+                + "g\\ h = i\\=j\n"
+                + "k = trailing\\";
+        final Properties properties = new Properties();
+        properties.load(new StringReader(text));
+
+        final PropertiesReader in = new PropertiesReader(new StringReader(text));
+        int count = 0;
+        while (in.next()) {
+            assertTrue(in.key(), properties.containsKey(in.key()));
+            assertEquals(in.key(), properties.getProperty(in.key()), in.value());
+            count++;
+        }
+        assertEquals(properties.size(), count);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMalformedUnicode() throws Exception {
+        new PropertiesReader(new StringReader("a = \\u12g4")).next();
+    }
+}